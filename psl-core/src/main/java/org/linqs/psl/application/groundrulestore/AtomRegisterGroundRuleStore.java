@@ -17,38 +17,53 @@
  */
 package org.linqs.psl.application.groundrulestore;
 
+import org.linqs.psl.database.Database;
 import org.linqs.psl.model.atom.GroundAtom;
 import org.linqs.psl.model.rule.GroundRule;
 import org.linqs.psl.model.rule.Rule;
 import org.linqs.psl.model.rule.UnweightedGroundRule;
 import org.linqs.psl.model.rule.WeightedGroundRule;
 
-import org.apache.commons.collections4.SetValuedMap;
-import org.apache.commons.collections4.multimap.HashSetValuedHashMap;
-
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 
 /**
  * A GroundRuleStore that tracks every GroundRule every GroundAtom participates in.
  * This can buildup a non-trivial amount of memory, so perfer MemoryGroundRuleStore if
  * you don't need the mapping functionality.
+ *
+ * The mapping is indexed by atom id (see GroundAtom.getId()),
+ * so all the atoms in the registered ground rules must come from the same Database.
  */
 public class AtomRegisterGroundRuleStore extends MemoryGroundRuleStore {
-	private SetValuedMap<GroundAtom, GroundRule> atomMapping;
+	/**
+	 * The ground rules for each atom, indexed by atom id.
+	 * Atoms that have no ground rules may have a null entry.
+	 */
+	private List<Set<GroundRule>> atomMapping;
+	private Database database;
 
 	public AtomRegisterGroundRuleStore() {
 		super();
 
-		atomMapping = new HashSetValuedHashMap<GroundAtom, GroundRule>();
+		atomMapping = new ArrayList<Set<GroundRule>>();
+		database = null;
 	}
 
 	public Set<GroundRule> getRegisteredGroundRules(GroundAtom atom) {
-		if (!atomMapping.containsKey(atom)) {
+		if (atom.getDatabase() != database || atom.getId() >= atomMapping.size()) {
+			return Collections.emptySet();
+		}
+
+		Set<GroundRule> groundRules = atomMapping.get(atom.getId());
+		if (groundRules == null) {
 			return Collections.emptySet();
 		}
 
-		return Collections.unmodifiableSet(atomMapping.get(atom));
+		return Collections.unmodifiableSet(groundRules);
 	}
 
 	@Override
@@ -57,7 +72,7 @@ public class AtomRegisterGroundRuleStore extends MemoryGroundRuleStore {
 
 		// Register the ground rule with the atoms involved.
 		for (GroundAtom atom : groundRule.getAtoms()) {
-			atomMapping.put(atom, groundRule);
+			register(atom, groundRule);
 		}
 	}
 
@@ -67,7 +82,7 @@ public class AtomRegisterGroundRuleStore extends MemoryGroundRuleStore {
 
 		// Unregister the ground rule with all the atoms involved.
 		for (GroundAtom atom : groundRule.getAtoms()) {
-			atomMapping.removeMapping(atom, groundRule);
+			unregister(atom, groundRule);
 		}
 	}
 
@@ -76,7 +91,7 @@ public class AtomRegisterGroundRuleStore extends MemoryGroundRuleStore {
 		// Unregister the atoms before we loose the mapping of rule to ground rules.
 		for (GroundRule groundRule : getGroundRules(rule)) {
 			for (GroundAtom atom : groundRule.getAtoms()) {
-				atomMapping.removeMapping(atom, groundRule);
+				unregister(atom, groundRule);
 			}
 		}
 
@@ -91,5 +106,44 @@ public class AtomRegisterGroundRuleStore extends MemoryGroundRuleStore {
 			atomMapping.clear();
 			atomMapping = null;
 		}
+
+		database = null;
+	}
+
+	private void register(GroundAtom atom, GroundRule groundRule) {
+		if (atomMapping.isEmpty() && database == null) {
+			database = atom.getDatabase();
+		} else if (atom.getDatabase() != database) {
+			throw new IllegalArgumentException("All atoms in an AtomRegisterGroundRuleStore must come from the same database. Offending atom: " + atom);
+		}
+
+		int id = atom.getId();
+		while (atomMapping.size() <= id) {
+			atomMapping.add(null);
+		}
+
+		Set<GroundRule> groundRules = atomMapping.get(id);
+		if (groundRules == null) {
+			groundRules = new HashSet<GroundRule>();
+			atomMapping.set(id, groundRules);
+		}
+
+		groundRules.add(groundRule);
+	}
+
+	private void unregister(GroundAtom atom, GroundRule groundRule) {
+		if (atom.getDatabase() != database || atom.getId() >= atomMapping.size()) {
+			return;
+		}
+
+		Set<GroundRule> groundRules = atomMapping.get(atom.getId());
+		if (groundRules == null) {
+			return;
+		}
+
+		groundRules.remove(groundRule);
+		if (groundRules.isEmpty()) {
+			atomMapping.set(atom.getId(), null);
+		}
 	}
 }
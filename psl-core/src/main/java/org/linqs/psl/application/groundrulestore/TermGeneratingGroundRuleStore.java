@@ -0,0 +1,139 @@
+/*
+ * This file is part of the PSL software.
+ * Copyright 2011-2015 University of Maryland
+ * Copyright 2013-2018 The Regents of the University of California
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.linqs.psl.application.groundrulestore;
+
+import org.linqs.psl.model.rule.GroundRule;
+import org.linqs.psl.model.rule.Rule;
+import org.linqs.psl.reasoner.term.StreamingTermGenerator;
+import org.linqs.psl.reasoner.term.Term;
+import org.linqs.psl.reasoner.term.TermStore;
+
+/**
+ * A GroundRuleStore that generates the terms for each ground rule as soon as it is added.
+ * So, grounding and term generation happen in a single pass.
+ *
+ * The ground rules are kept (and deduplicated) just like in MemoryGroundRuleStore,
+ * so they can still be used for output or learning.
+ * The term store already holds on to the ground rules, so this adds little memory.
+ *
+ * Each grounding thread should add its ground rules through its own Buffer (see getBuffer()),
+ * so the threads generate terms without contending on the term store.
+ * Rules added directly to this store go through a shared buffer.
+ * Either way, the terms only reach the term store once their buffer is flushed,
+ * and flush() must be called once grounding is done.
+ *
+ * Terms cannot be removed from a term store, so neither can ground rules.
+ */
+public class TermGeneratingGroundRuleStore<E extends Term> extends MemoryGroundRuleStore {
+	private StreamingTermGenerator<E> termGenerator;
+	private TermStore<E> termStore;
+
+	private Buffer sharedBuffer;
+
+	public TermGeneratingGroundRuleStore(StreamingTermGenerator<E> termGenerator, TermStore<E> termStore) {
+		super();
+
+		this.termGenerator = termGenerator;
+		this.termStore = termStore;
+
+		sharedBuffer = getBuffer();
+	}
+
+	/**
+	 * Get a new buffer to add ground rules through.
+	 * A buffer is only for a single thread.
+	 */
+	public Buffer getBuffer() {
+		return new Buffer(this, termGenerator.newSink(termStore));
+	}
+
+	@Override
+	public void addGroundRule(GroundRule groundRule) {
+		synchronized (sharedBuffer) {
+			sharedBuffer.addGroundRule(groundRule);
+		}
+	}
+
+	/**
+	 * Flush the shared buffer and let the term generator know that all the terms have been generated.
+	 * Every other buffer should already be flushed.
+	 */
+	public void flush() {
+		synchronized (sharedBuffer) {
+			sharedBuffer.flush();
+		}
+
+		termGenerator.finishTerms(termStore);
+	}
+
+	@Override
+	public void removeGroundRule(GroundRule groundRule) {
+		throw new UnsupportedOperationException("Ground rules cannot be removed from a TermGeneratingGroundRuleStore.");
+	}
+
+	@Override
+	public void removeGroundRules(Rule rule) {
+		throw new UnsupportedOperationException("Ground rules cannot be removed from a TermGeneratingGroundRuleStore.");
+	}
+
+	/**
+	 * The term store is not owned by this store, so it is left open.
+	 */
+	@Override
+	public void close() {
+		super.close();
+
+		termGenerator = null;
+		termStore = null;
+		sharedBuffer = null;
+	}
+
+	/**
+	 * @return true if the ground rule was not already in this store.
+	 */
+	private synchronized boolean add(GroundRule groundRule) {
+		return groundRules.put(groundRule.getRule(), groundRule);
+	}
+
+	/**
+	 * Generates the terms for the new ground rules added through it.
+	 */
+	public static class Buffer {
+		private TermGeneratingGroundRuleStore<?> store;
+		private StreamingTermGenerator.Sink sink;
+
+		private Buffer(TermGeneratingGroundRuleStore<?> store, StreamingTermGenerator.Sink sink) {
+			this.store = store;
+			this.sink = sink;
+		}
+
+		public void addGroundRule(GroundRule groundRule) {
+			if (store.add(groundRule)) {
+				sink.add(groundRule);
+			}
+		}
+
+		/**
+		 * Add the terms for the rules added so far to the term store.
+		 * @return the number of terms added to the term store.
+		 */
+		public int flush() {
+			return sink.flush();
+		}
+	}
+}
@@ -18,11 +18,15 @@
 package org.linqs.psl.application.inference;
 
 import org.linqs.psl.application.groundrulestore.GroundRuleStore;
+import org.linqs.psl.application.groundrulestore.TermGeneratingGroundRuleStore;
 import org.linqs.psl.application.util.GroundRules;
 import org.linqs.psl.application.util.Grounding;
+import org.linqs.psl.config.Config;
 import org.linqs.psl.database.Database;
 import org.linqs.psl.database.atom.PersistedAtomManager;
 import org.linqs.psl.model.Model;
+import org.linqs.psl.reasoner.term.StreamingTermGenerator;
+import org.linqs.psl.reasoner.term.Term;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -38,6 +42,20 @@ import org.slf4j.LoggerFactory;
 public class MPEInference extends InferenceApplication {
 	private static final Logger log = LoggerFactory.getLogger(MPEInference.class);
 
+	/**
+	 * Prefix of property keys used by this class.
+	 */
+	public static final String CONFIG_PREFIX = "mpeinference";
+
+	/**
+	 * If true, then terms are generated as the model is grounded
+	 * (the configured ground rule store is replaced with a TermGeneratingGroundRuleStore).
+	 * This saves a pass over the ground model.
+	 * The term generator must be a StreamingTermGenerator, otherwise this is ignored.
+	 */
+	public static final String STREAM_TERMS_KEY = CONFIG_PREFIX + ".streamterms";
+	public static final boolean STREAM_TERMS_DEFAULT = false;
+
 	protected PersistedAtomManager atomManager;
 
 	public MPEInference(Model model, Database db) {
@@ -49,6 +67,16 @@ public class MPEInference extends InferenceApplication {
 		log.debug("Creating persisted atom mannager.");
 		atomManager = new PersistedAtomManager(db);
 
+		if (Config.getBoolean(STREAM_TERMS_KEY, STREAM_TERMS_DEFAULT)) {
+			if (termGenerator instanceof StreamingTermGenerator) {
+				streamTerms();
+				return;
+			}
+
+			log.warn("{} cannot generate terms while grounding, generating them after grounding instead.",
+					termGenerator.getClass().getName());
+		}
+
 		log.info("Grounding out model.");
 		int groundCount = Grounding.groundAll(model, atomManager, groundRuleStore);
 
@@ -58,6 +86,20 @@ public class MPEInference extends InferenceApplication {
 		log.debug("Generated {} objective terms from {} ground rules.", termCount, groundCount);
 	}
 
+	@SuppressWarnings("unchecked")
+	private void streamTerms() {
+		TermGeneratingGroundRuleStore<Term> termGeneratingStore =
+				new TermGeneratingGroundRuleStore<Term>((StreamingTermGenerator<Term>)termGenerator, termStore);
+
+		groundRuleStore.close();
+		groundRuleStore = termGeneratingStore;
+
+		log.info("Grounding out model and generating terms.");
+		int groundCount = Grounding.groundAll(model, atomManager, groundRuleStore);
+		termGeneratingStore.flush();
+		log.debug("Generated {} objective terms from {} ground rules.", termStore.size(), groundCount);
+	}
+
 	@Override
 	public void inference() {
 		log.info("Beginning inference.");
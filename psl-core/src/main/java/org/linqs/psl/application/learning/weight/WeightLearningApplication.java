@@ -39,6 +39,7 @@ import org.linqs.psl.reasoner.Reasoner;
 import org.linqs.psl.reasoner.admm.ADMMReasoner;
 import org.linqs.psl.reasoner.admm.term.ADMMTermStore;
 import org.linqs.psl.reasoner.admm.term.ADMMTermGenerator;
+import org.linqs.psl.reasoner.sgd.term.DiskSGDTermStore;
 import org.linqs.psl.reasoner.term.TermGenerator;
 import org.linqs.psl.reasoner.term.TermStore;
 import org.linqs.psl.util.RandUtils;
@@ -108,6 +109,14 @@ public abstract class WeightLearningApplication implements ModelApplication {
 	public static final boolean RANDOM_WEIGHTS_DEFAULT = false;
 	public static final int MAX_RANDOM_WEIGHT = 100;
 
+	/**
+	 * If true and the reasoner is an ADMMReasoner,
+	 * then each MPE state starts from the previous one (see ADMMReasoner.WARM_START_KEY).
+	 * Successive MPE states only differ by a gradient step in the weights.
+	 */
+	public static final String WARM_START_KEY = CONFIG_PREFIX + ".warmstart";
+	public static final boolean WARM_START_DEFAULT = true;
+
 	public static final int MIN_ADMM_STEPS = 3;
 
 	protected boolean supportsLatentVariables;
@@ -263,6 +272,8 @@ public abstract class WeightLearningApplication implements ModelApplication {
 		}
 
 		TermStore termStore = (TermStore)Config.getNewObject(TERM_STORE_KEY, TERM_STORE_DEFAULT);
+		checkTermStore(termStore);
+
 		TermGenerator termGenerator = (TermGenerator)Config.getNewObject(TERM_GENERATOR_KEY, TERM_GENERATOR_DEFAULT);
 
 		log.debug("Initializing objective terms for {} ground rules.", groundRuleStore.size());
@@ -300,6 +311,8 @@ public abstract class WeightLearningApplication implements ModelApplication {
 			return;
 		}
 
+		checkTermStore(termStore);
+
 		this.reasoner = reasoner;
 		this.groundRuleStore = groundRuleStore;
 		this.termStore = termStore;
@@ -311,11 +324,27 @@ public abstract class WeightLearningApplication implements ModelApplication {
 			initRandomWeights();
 		}
 
+		if (reasoner instanceof ADMMReasoner && Config.getBoolean(WARM_START_KEY, WARM_START_DEFAULT)) {
+			((ADMMReasoner)reasoner).setWarmStart(true);
+		}
+
 		postInitGroundModel();
 
 		groundModelInit = true;
 	}
 
+	/**
+	 * Learning has to update the weights of the terms.
+	 * Make sure the term store can do that before any terms are generated.
+	 */
+	private static void checkTermStore(TermStore termStore) {
+		if (termStore instanceof DiskSGDTermStore) {
+			throw new IllegalArgumentException(String.format(
+					"Weight learning updates term weights, which %s does not support. Use an in-memory term store (%s).",
+					DiskSGDTermStore.class.getName(), TERM_STORE_KEY));
+		}
+	}
+
 	private void initRandomWeights() {
 		log.trace("Randomly Weighted Rules:");
 		for (WeightedRule rule : mutableRules) {
@@ -361,12 +390,7 @@ public abstract class WeightLearningApplication implements ModelApplication {
 			return;
 		}
 
-		// TEST
-		// termGenerator.updateWeights(groundRuleStore, termStore);
-
-		termStore.clear();
-		int count = termGenerator.generateTerms(groundRuleStore, termStore);
-
+		termGenerator.updateWeights(groundRuleStore, termStore);
 		reasoner.optimize(termStore);
 
 		inMPEState = true;
@@ -29,12 +29,12 @@ import org.linqs.psl.model.rule.WeightedRule;
 import org.linqs.psl.application.learning.weight.VotedPerceptron;
 import org.linqs.psl.util.Parallel;
 import org.linqs.psl.util.RandUtils;
+import org.linqs.psl.util.RandomStream;
 
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Random;
 
 /**
  * Learns weights by optimizing the piecewise-pseudo-log-likelihood of the data using
@@ -57,9 +57,6 @@ public class MaxPiecewisePseudoLikelihood extends VotedPerceptron {
 	private int numSamples;
 	private List<Map<RandomVariableAtom, List<WeightedGroundRule>>> ruleRandomVariableMap;
 
-	// We need an RNG for each thread.
-	private Random[] rands;
-
 	public MaxPiecewisePseudoLikelihood(Model model, Database rvDB, Database observedDB) {
 		this(model.getRules(), rvDB, observedDB);
 	}
@@ -73,11 +70,6 @@ public class MaxPiecewisePseudoLikelihood extends VotedPerceptron {
 			throw new IllegalArgumentException("Number of samples must be positive.");
 		}
 
-		rands = new Random[Parallel.getNumThreads()];
-		for (int i = 0; i < Parallel.getNumThreads(); i++) {
-			rands[i] = new Random(RandUtils.nextLong());
-		}
-
 		ruleRandomVariableMap = null;
 
 		averageSteps = false;
@@ -124,9 +116,13 @@ public class MaxPiecewisePseudoLikelihood extends VotedPerceptron {
 	protected void computeExpectedIncompatibility() {
 		setLabeledRandomVariables();
 
+		// Each rule gets its own random stream, so the samples do not depend on the number of threads.
+		final long streamSeed = RandUtils.nextStreamSeed();
+
 		Parallel.count(mutableRules.size(), new Parallel.Worker<Integer>() {
 			@Override
 			public void work(int ruleIndex, Integer ignore) {
+				RandomStream rand = RandUtils.getStream(streamSeed, ruleIndex);
 				WeightedRule rule = mutableRules.get(ruleIndex);
 				Map<RandomVariableAtom, List<WeightedGroundRule>> groundRuleMap = ruleRandomVariableMap.get(ruleIndex);
 
@@ -140,7 +136,7 @@ public class MaxPiecewisePseudoLikelihood extends VotedPerceptron {
 					double denominator = 1e-6;
 
 					for (int sampleIndex = 0; sampleIndex < numSamples; sampleIndex++) {
-						double sample = rands[id].nextDouble();
+						double sample = rand.nextDouble();
 
 						double energy = 0;
 						for (int i = 0; i < groundRules.size(); i++) {
@@ -164,8 +160,11 @@ public class MaxPiecewisePseudoLikelihood extends VotedPerceptron {
 		setLabeledRandomVariables();
 
 		final double[] losses = new double[mutableRules.size()];
+		final long streamSeed = RandUtils.nextStreamSeed();
+
 		Parallel.count(mutableRules.size(), new Parallel.Worker<Integer>() {
 			public void work(int ruleIndex, Integer ignore) {
+				RandomStream rand = RandUtils.getStream(streamSeed, ruleIndex);
 				Map<RandomVariableAtom, List<WeightedGroundRule>> groundRuleMap = ruleRandomVariableMap.get(ruleIndex);
 				WeightedRule rule = mutableRules.get(ruleIndex);
 				double weight = rule.getWeight();
@@ -175,7 +174,7 @@ public class MaxPiecewisePseudoLikelihood extends VotedPerceptron {
 
 					double expInc = 0;
 					for (int sampleIndex = 0; sampleIndex < numSamples; sampleIndex++) {
-						double sample = rands[id].nextDouble();
+						double sample = rand.nextDouble();
 
 						double energy = 0;
 						for (int i = 0; i < groundRules.size(); i++) {
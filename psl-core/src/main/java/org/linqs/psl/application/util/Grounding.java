@@ -18,16 +18,52 @@
 package org.linqs.psl.application.util;
 
 import org.linqs.psl.application.groundrulestore.GroundRuleStore;
+import org.linqs.psl.config.Config;
+import org.linqs.psl.database.DataStore;
+import org.linqs.psl.database.StreamingResultList;
 import org.linqs.psl.database.atom.AtomManager;
+import org.linqs.psl.database.rdbms.RDBMSDataStore;
 import org.linqs.psl.model.Model;
+import org.linqs.psl.model.atom.Atom;
+import org.linqs.psl.model.predicate.StandardPredicate;
 import org.linqs.psl.model.rule.Rule;
+import org.linqs.psl.model.rule.logical.AbstractLogicalRule;
+import org.linqs.psl.util.Parallel;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 /**
  * Static utilities for common {@link Model}-grounding tasks.
  */
 public class Grounding {
+	private static final Logger log = LoggerFactory.getLogger(Grounding.class);
+
+	public static final String CONFIG_PREFIX = "grounding";
+
+	/**
+	 * The maximum number of grounding queries that may be running (or waiting to be instantiated) at once.
+	 * Values of 1 or less ground the rules one at a time.
+	 * Each of these queries holds a database connection until its rule is instantiated,
+	 * so this is lowered if needed to leave a connection in the pool for each grounding thread.
+	 */
+	public static final String QUERY_THREADS_KEY = CONFIG_PREFIX + ".querythreads";
+	public static final int QUERY_THREADS_DEFAULT = 4;
+
 	/**
 	 * Calls {@link Rule#groundAll(AtomManager, GroundRuleStore)} on
 	 * each Rule in a Model.
@@ -40,12 +76,199 @@ public class Grounding {
 		return groundAll(model.getRules(), atomManager, groundRuleStore);
 	}
 
+	/**
+	 * Ground all the given rules.
+	 *
+	 * The grounding queries for logical rules are issued concurrently (see QUERY_THREADS_KEY), starting with the
+	 * most expensive ones, and the rules are instantiated (in that same order) as their query results stream in.
+	 * So instantiating one rule overlaps with the database running the queries for the next ones.
+	 * All other rules are grounded while the first queries are running.
+	 */
 	public static int groundAll(List<Rule> rules, AtomManager atomManager, GroundRuleStore groundRuleStore) {
-		int groundCount = 0;
+		int queryThreads = getQueryThreads(atomManager.getDatabase().getDataStore());
+
+		List<AbstractLogicalRule> logicalRules = new ArrayList<AbstractLogicalRule>();
+		List<Rule> otherRules = new ArrayList<Rule>();
+
 		for (Rule rule : rules) {
+			if (rule instanceof AbstractLogicalRule) {
+				logicalRules.add((AbstractLogicalRule)rule);
+			} else {
+				otherRules.add(rule);
+			}
+		}
+
+		if (queryThreads <= 1 || logicalRules.size() <= 1) {
+			int groundCount = 0;
+			for (Rule rule : rules) {
+				groundCount += rule.groundAll(atomManager, groundRuleStore);
+			}
+
+			return groundCount;
+		}
+
+		sortByCost(logicalRules, atomManager.getDatabase().getDataStore());
+
+		ExecutorService pool = Executors.newFixedThreadPool(Math.min(queryThreads, logicalRules.size()), new DaemonThreadFactory());
+		try {
+			return groundAll(logicalRules, otherRules, atomManager, groundRuleStore, pool, queryThreads);
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	/**
+	 * Get the number of grounding queries to keep in flight.
+	 * The queries (and the threads instantiating the rules) share the data store's connection pool,
+	 * so keep enough connections for each grounding thread and for this one.
+	 */
+	private static int getQueryThreads(DataStore dataStore) {
+		int queryThreads = Config.getInt(QUERY_THREADS_KEY, QUERY_THREADS_DEFAULT);
+		if (!(dataStore instanceof RDBMSDataStore)) {
+			return queryThreads;
+		}
+
+		int maxQueryThreads = Math.max(1, ((RDBMSDataStore)dataStore).getDriver().getMaxConnections() - Parallel.getNumThreads() - 1);
+		if (queryThreads > maxQueryThreads) {
+			log.debug("Lowering the number of grounding query threads from {} to {} to fit the connection pool.", queryThreads, maxQueryThreads);
+			queryThreads = maxQueryThreads;
+		}
+
+		return queryThreads;
+	}
+
+	private static int groundAll(List<AbstractLogicalRule> logicalRules, List<Rule> otherRules,
+			AtomManager atomManager, GroundRuleStore groundRuleStore,
+			ExecutorService pool, int queryThreads) {
+		// Only keep a limited number of queries in flight so we limit the number of open cursors at any one time.
+		LinkedList<Future<GroundingQuery>> queries = new LinkedList<Future<GroundingQuery>>();
+		try {
+			return groundAllInternal(logicalRules, otherRules, atomManager, groundRuleStore, pool, queryThreads, queries);
+		} finally {
+			// Only non-empty on failure.
+			for (Future<GroundingQuery> query : queries) {
+				closeQuery(query);
+			}
+		}
+	}
+
+	private static int groundAllInternal(List<AbstractLogicalRule> logicalRules, List<Rule> otherRules,
+			AtomManager atomManager, GroundRuleStore groundRuleStore,
+			ExecutorService pool, int queryThreads, LinkedList<Future<GroundingQuery>> queries) {
+		int nextRule = 0;
+		for (; nextRule < Math.min(queryThreads, logicalRules.size()); nextRule++) {
+			queries.add(pool.submit(new GroundingQuery(logicalRules.get(nextRule), atomManager)));
+		}
+
+		int groundCount = 0;
+
+		// These rules run their own queries, so ground them while the first grounding queries are running.
+		for (Rule rule : otherRules) {
 			groundCount += rule.groundAll(atomManager, groundRuleStore);
 		}
 
+		// Instantiate in order (not as queries complete) so that the grounding order is deterministic.
+		for (int i = 0; i < logicalRules.size(); i++) {
+			GroundingQuery query = null;
+			try {
+				query = queries.removeFirst().get();
+			} catch (InterruptedException ex) {
+				throw new RuntimeException("Interrupted waiting for grounding query.", ex);
+			} catch (ExecutionException ex) {
+				throw new RuntimeException("Failed to run grounding query.", ex.getCause());
+			}
+
+			if (nextRule < logicalRules.size()) {
+				queries.add(pool.submit(new GroundingQuery(logicalRules.get(nextRule), atomManager)));
+				nextRule++;
+			}
+
+			try {
+				groundCount += query.rule.groundAll(query.results, atomManager, groundRuleStore);
+			} finally {
+				query.results.close();
+			}
+		}
+
 		return groundCount;
 	}
+
+	/**
+	 * Make sure the results for a query that will not be grounded get closed.
+	 * We wait for the query instead of canceling it, since a canceled query may still open a cursor.
+	 */
+	private static void closeQuery(Future<GroundingQuery> query) {
+		try {
+			query.get().results.close();
+		} catch (Exception ex) {
+			// The query failed, so there are no results to close.
+		}
+	}
+
+	/**
+	 * Sort the rules so that the rules with the most expensive queries come first (so they can start the soonest).
+	 * The cost of a rule is estimated as the size of the cross product of the tables that its grounding query joins.
+	 * The cost is kept as a log so that large products do not overflow.
+	 * Without row counts (a non-relational data store), the order is left alone.
+	 */
+	private static void sortByCost(List<AbstractLogicalRule> rules, DataStore dataStore) {
+		if (!(dataStore instanceof RDBMSDataStore)) {
+			return;
+		}
+
+		final Map<AbstractLogicalRule, Double> costs = new HashMap<AbstractLogicalRule, Double>();
+		for (AbstractLogicalRule rule : rules) {
+			double cost = 0.0;
+			for (Atom atom : rule.getDNF().getPosLiterals()) {
+				if (atom.getPredicate() instanceof StandardPredicate) {
+					cost += Math.log(Math.max(1, ((RDBMSDataStore)dataStore).getPredicateRowCount((StandardPredicate)atom.getPredicate())));
+				}
+			}
+
+			costs.put(rule, new Double(cost));
+		}
+
+		// The sort is stable, so ties stay in model order.
+		Collections.sort(rules, new Comparator<AbstractLogicalRule>() {
+			@Override
+			public int compare(AbstractLogicalRule a, AbstractLogicalRule b) {
+				return Double.compare(costs.get(b).doubleValue(), costs.get(a).doubleValue());
+			}
+		});
+
+		log.trace("Grounding rules in order: {}", rules);
+	}
+
+	private static class GroundingQuery implements Callable<GroundingQuery> {
+		public final AbstractLogicalRule rule;
+		private final AtomManager atomManager;
+		public StreamingResultList results;
+
+		public GroundingQuery(AbstractLogicalRule rule, AtomManager atomManager) {
+			this.rule = rule;
+			this.atomManager = atomManager;
+			this.results = null;
+		}
+
+		@Override
+		public GroundingQuery call() {
+			results = atomManager.streamGroundingQuery(rule.getDNF().getQueryFormula());
+			return this;
+		}
+	}
+
+	private static class DaemonThreadFactory implements ThreadFactory {
+		private ThreadFactory defaultThreadFactory;
+
+		public DaemonThreadFactory() {
+			this.defaultThreadFactory = Executors.defaultThreadFactory();
+		}
+
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread thread = defaultThreadFactory.newThread(r);
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
 }
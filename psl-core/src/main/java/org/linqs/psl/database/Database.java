@@ -134,6 +134,24 @@ public abstract class Database implements ReadableDatabase, WritableDatabase {
 
 	public abstract GroundAtom getAtom(StandardPredicate predicate, boolean create, Constant... arguments);
 
+	public List<GroundAtom> getAtoms(StandardPredicate predicate, List<Constant[]> arguments) {
+		return getAtoms(predicate, true, arguments);
+	}
+
+	/**
+	 * Fetches each atom with getAtom().
+	 * Databases with a more efficient way to fetch many atoms should override this.
+	 * @param create Create the atoms that do not exist (otherwise, they are null in the result).
+	 */
+	public List<GroundAtom> getAtoms(StandardPredicate predicate, boolean create, List<Constant[]> arguments) {
+		List<GroundAtom> atoms = new ArrayList<GroundAtom>(arguments.size());
+		for (Constant[] atomArguments : arguments) {
+			atoms.add(getAtom(predicate, create, atomArguments));
+		}
+
+		return atoms;
+	}
+
 	public boolean hasAtom(StandardPredicate predicate, Constant... arguments) {
 		return getAtom(predicate, false, arguments) != null;
 	}
@@ -225,4 +243,8 @@ public abstract class Database implements ReadableDatabase, WritableDatabase {
 	public Partition getWritePartition() {
 		return writePartition;
 	}
+
+	public AtomCache getCache() {
+		return cache;
+	}
 }
@@ -73,6 +73,21 @@ public interface ReadableDatabase {
 	 */
 	public GroundAtom getAtom(Predicate predicate, Constant... arguments);
 
+	/**
+	 * Get many atoms of the same predicate at once.
+	 * The atoms are returned in the same order as the arguments and follow the same rules as getAtom().
+	 * Implementations should fetch all the atoms that are not already cached in as few
+	 * trips to the backing store as possible, so this should be preferred over
+	 * many calls to getAtom() when the atoms are not likely to be cached.
+	 */
+	public List<GroundAtom> getAtoms(StandardPredicate predicate, List<Constant[]> arguments);
+
+	/**
+	 * Like getAtoms(StandardPredicate, List), but atoms that do not exist are only created if |create| is true.
+	 * Atoms that are not created are null in the result.
+	 */
+	public List<GroundAtom> getAtoms(StandardPredicate predicate, boolean create, List<Constant[]> arguments);
+
 	/**
 	 * Check to see if a ground atom exists in the database.
 	 * This looks for a real ground atom and ignores the closed-world assumption.
@@ -126,6 +141,13 @@ public interface ReadableDatabase {
 	 */
 	public ResultList executeGroundingQuery(Formula formula);
 
+	/**
+	 * Like executeGroundingQuery(), but the results are read from the database a chunk at a time
+	 * instead of all being loaded up-front.
+	 * The caller must close the returned list.
+	 */
+	public StreamingResultList streamGroundingQuery(Formula formula);
+
 	/**
 	 * Returns whether a StandardPredicate is closed in this Database.
 	 */
@@ -0,0 +1,55 @@
+/*
+ * This file is part of the PSL software.
+ * Copyright 2011-2015 University of Maryland
+ * Copyright 2013-2018 The Regents of the University of California
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.linqs.psl.database;
+
+import org.linqs.psl.model.term.Variable;
+
+import java.util.Map;
+
+/**
+ * Substitutions for {@link Variable Variables} that are read a chunk at a time
+ * so that all the results never have to be held in memory at once.
+ *
+ * Each chunk is a normal {@link ResultList} with the same arity and variable map.
+ * Results may only be read once and in order.
+ * Callers must close() the list when they are done with it (even if they did not read every chunk).
+ */
+public interface StreamingResultList extends AutoCloseable {
+	/**
+	 * Read the next chunk of results.
+	 * @return the next chunk, or null if there are no more results.
+	 */
+	public ResultList nextChunk();
+
+	/**
+	 * See {@link ResultList#getArity()}.
+	 */
+	public int getArity();
+
+	/**
+	 * See {@link ResultList#getVariableMap()}.
+	 */
+	public Map<Variable, Integer> getVariableMap();
+
+	/**
+	 * Release any resources (e.g. database connections) held by this list.
+	 * Safe to call more than once.
+	 */
+	@Override
+	public void close();
+}
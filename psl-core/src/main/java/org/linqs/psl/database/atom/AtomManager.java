@@ -20,12 +20,15 @@ package org.linqs.psl.database.atom;
 import org.linqs.psl.database.Database;
 import org.linqs.psl.database.DatabaseQuery;
 import org.linqs.psl.database.ResultList;
+import org.linqs.psl.database.StreamingResultList;
 import org.linqs.psl.model.atom.GroundAtom;
 import org.linqs.psl.model.formula.Formula;
 import org.linqs.psl.model.predicate.Predicate;
 import org.linqs.psl.model.predicate.StandardPredicate;
 import org.linqs.psl.model.term.Constant;
 
+import java.util.List;
+
 /**
  * Provides centralization and hooks for managing the {@link GroundAtom GroundAtoms}
  * that are instantiated from a {@link Database}.
@@ -59,6 +62,16 @@ public abstract class AtomManager {
 	 */
 	public abstract GroundAtom getAtom(Predicate predicate, Constant... arguments);
 
+	/**
+	 * A hint that the given atoms will soon be asked for through getAtom().
+	 * By default, calls {@link Database#getAtoms(StandardPredicate, boolean, List)} on the
+	 * encapsulated Database so that all the existing atoms can be fetched at once.
+	 * Atoms that do not exist are not created, getAtom() will create them if they are needed.
+	 */
+	public void prefetchAtoms(StandardPredicate predicate, List<Constant[]> arguments) {
+		db.getAtoms(predicate, false, arguments);
+	}
+
 	/**
 	 * Calls {@link Database#executeQuery(DatabaseQuery)} on the
 	 * encapsulated Database.
@@ -78,6 +91,14 @@ public abstract class AtomManager {
 		return db.executeGroundingQuery(formula);
 	}
 
+	/**
+	 * Calls {@link Database#streamGroundingQuery(Formula)} on the
+	 * encapsulated Database.
+	 */
+	public StreamingResultList streamGroundingQuery(Formula formula) {
+		return db.streamGroundingQuery(formula);
+	}
+
 	/**
 	 * Calls {@link Database#isClosed(StandardPredicate)} on the
 	 * encapsulated Database.
@@ -44,6 +44,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -81,6 +82,11 @@ public class LazyAtomManager extends PersistedAtomManager {
 	 * All the ground atoms that have been seen, but not instantiated.
 	 */
 	private final Set<RandomVariableAtom> lazyAtoms;
+
+	/**
+	 * The ids (see GroundAtom.getId()) of all the atoms in |lazyAtoms|.
+	 */
+	private final BitSet lazyIds;
 	private final double activation;
 
 	public LazyAtomManager(Database db) {
@@ -91,6 +97,7 @@ public class LazyAtomManager extends PersistedAtomManager {
 		}
 
 		lazyAtoms = new HashSet<RandomVariableAtom>();
+		lazyIds = new BitSet();
 		activation = Config.getDouble(ACTIVATION_THRESHOLD_KEY, ACTIVATION_THRESHOLD_DEFAULT);
 
 		if (activation <= 0 || activation > 1) {
@@ -109,7 +116,8 @@ public class LazyAtomManager extends PersistedAtomManager {
 		RandomVariableAtom rvAtom = (RandomVariableAtom)atom;
 
 		// If this atom has not been persisted, it is lazy.
-		if (!persistedCache.contains(rvAtom)) {
+		if (!isPersisted(rvAtom) && !lazyIds.get(rvAtom.getId())) {
+			lazyIds.set(rvAtom.getId());
 			lazyAtoms.add(rvAtom);
 		}
 
@@ -152,6 +160,7 @@ public class LazyAtomManager extends PersistedAtomManager {
 			if (atom.getValue() >= activation) {
 				toActivate.add(atom);
 				lazyAtomIterator.remove();
+				lazyIds.clear(atom.getId());
 			}
 		}
 
@@ -179,7 +188,7 @@ public class LazyAtomManager extends PersistedAtomManager {
 			}
 
 			// Remove atoms that are not lazy.
-			if (!lazyAtoms.contains(atom)) {
+			if (!lazyIds.get(atom.getId())) {
 				atomIterator.remove();
 			}
 		}
@@ -30,6 +30,7 @@ import org.linqs.psl.model.term.Variable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.BitSet;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
@@ -67,6 +68,12 @@ public class PersistedAtomManager extends AtomManager {
 	 */
 	protected final Set<RandomVariableAtom> persistedCache;
 
+	/**
+	 * The ids (see GroundAtom.getId()) of all the atoms in |persistedCache|.
+	 * Membership checks go through here so that they do not need to hash the atom.
+	 */
+	protected final BitSet persistedIds;
+
 	/**
 	 * If false, ignore any atoms that would otherwise throw a PersistedAccessException.
 	 * Instead, just give a single warning and return the RVA as-is.
@@ -83,6 +90,7 @@ public class PersistedAtomManager extends AtomManager {
 	public PersistedAtomManager(Database db) {
 		super(db);
 		this.persistedCache = new HashSet<RandomVariableAtom>();
+		this.persistedIds = new BitSet();
 
 		throwOnIllegalAccess = Config.getBoolean(THROW_ACCESS_EXCEPTION_KEY, THROW_ACCESS_EXCEPTION_DEFAULT);
 		warnOnIllegalAccess = !throwOnIllegalAccess;
@@ -104,6 +112,7 @@ public class PersistedAtomManager extends AtomManager {
 
 			for (RandomVariableAtom atom : db.getAllGroundRandomVariableAtoms(predicate)) {
 				persistedCache.add(atom);
+				persistedIds.set(atom.getId());
 			}
 		}
 	}
@@ -120,7 +129,7 @@ public class PersistedAtomManager extends AtomManager {
 
 
 		// Only check against the persisted cache if we need to warn or throw.
-		if ((throwOnIllegalAccess || warnOnIllegalAccess) && !persistedCache.contains(rvAtom)) {
+		if ((throwOnIllegalAccess || warnOnIllegalAccess) && !isPersisted(rvAtom)) {
 			if (throwOnIllegalAccess) {
 				throw new PersistedAccessException(rvAtom);
 			}
@@ -149,6 +158,17 @@ public class PersistedAtomManager extends AtomManager {
 
 	protected void addToPersistedCache(Set<RandomVariableAtom> atoms) {
 		persistedCache.addAll(atoms);
+
+		for (RandomVariableAtom atom : atoms) {
+			persistedIds.set(atom.getId());
+		}
+	}
+
+	/**
+	 * Check if an atom (from this manager's database) is in the persisted cache.
+	 */
+	protected boolean isPersisted(RandomVariableAtom atom) {
+		return persistedIds.get(atom.getId());
 	}
 
 	public static class PersistedAccessException extends IllegalArgumentException {
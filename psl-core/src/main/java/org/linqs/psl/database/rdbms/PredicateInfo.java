@@ -144,6 +144,15 @@ public class PredicateInfo {
 		return prepareSQL(connection, buildQueryStatement(readPartitions));
 	}
 
+	/**
+	 * Create a prepared statement that queries for |batchSize| specific atoms at once.
+	 * The variables left to set in the query are the predicate arguments for each atom (in order).
+	 * The columns will be in the same order as createQueryAllStatement().
+	 */
+	public PreparedStatement createBatchQueryStatement(Connection connection, List<Integer> readPartitions, int batchSize) {
+		return prepareSQL(connection, buildBatchQueryStatement(readPartitions, batchSize));
+	}
+
 	/**
 	 * Create a prepared statement that upserts.
 	 * The variables left to set in the query are the partition, value, and predciate arguments.
@@ -367,6 +376,49 @@ public class PredicateInfo {
 		return sql;
 	}
 
+	private synchronized String buildBatchQueryStatement(List<Integer> readPartitions, int batchSize) {
+		String key = "batchQuery_" + readPartitions.toString() + "_" + batchSize;
+		if (cachedSQL.containsKey(key)) {
+			return cachedSQL.get(key);
+		}
+
+		SelectQuery query = new SelectQuery();
+		// Select everything in a predictable order.
+		query.addCustomColumns(new CustomSql(PARTITION_COLUMN_NAME));
+		query.addCustomColumns(new CustomSql(VALUE_COLUMN_NAME));
+		for (String colName : argCols) {
+			query.addCustomColumns(new CustomSql(colName));
+		}
+
+		query.addCustomFromTable(tableName);
+
+		// We only want to query from the read partitions.
+		query.addCondition(new InCondition(new CustomSql(PARTITION_COLUMN_NAME), readPartitions));
+
+		// Match any of the atoms with a row value: (a, b) IN ((?, ?), (?, ?), ...)
+		// A single argument does not need the row value: a IN (?, ?, ...)
+		String argPlaceHolders = StringUtils.repeat("?", ", ", argCols.size());
+		if (argCols.size() > 1) {
+			argPlaceHolders = "(" + argPlaceHolders + ")";
+		}
+
+		List<CustomSql> atoms = new ArrayList<CustomSql>(batchSize);
+		for (int i = 0; i < batchSize; i++) {
+			atoms.add(new CustomSql(argPlaceHolders));
+		}
+
+		String argColumns = StringUtils.join(argCols, ", ");
+		if (argCols.size() > 1) {
+			argColumns = "(" + argColumns + ")";
+		}
+
+		query.addCondition(new InCondition(new CustomSql(argColumns), atoms));
+
+		String sql = query.validate().toString();
+		cachedSQL.put(key, sql);
+		return sql;
+	}
+
 	private synchronized String buildUpsertStatement(DatabaseDriver dbDriver) {
 		String key = "upsert";
 		if (cachedSQL.containsKey(key)) {
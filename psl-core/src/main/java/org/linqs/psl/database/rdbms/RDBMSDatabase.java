@@ -23,6 +23,7 @@ import org.linqs.psl.database.Database;
 import org.linqs.psl.database.DatabaseQuery;
 import org.linqs.psl.database.Partition;
 import org.linqs.psl.database.ResultList;
+import org.linqs.psl.database.StreamingResultList;
 import org.linqs.psl.model.atom.AtomCache;
 import org.linqs.psl.model.atom.GroundAtom;
 import org.linqs.psl.model.atom.ObservedAtom;
@@ -46,7 +47,6 @@ import org.linqs.psl.model.term.UniqueIntID;
 import org.linqs.psl.model.term.UniqueStringID;
 import org.linqs.psl.model.term.Variable;
 import org.linqs.psl.model.term.VariableTypeMap;
-import org.linqs.psl.util.Parallel;
 
 import com.healthmarketscience.sqlbuilder.BinaryCondition;
 import com.healthmarketscience.sqlbuilder.CustomSql;
@@ -91,9 +91,25 @@ public class RDBMSDatabase extends Database {
 	public static final String OPTIMAL_COVER_KEY = CONFIG_PREFIX + ".optimalcover";
 	public static final boolean OPTIMAL_COVER_DEFAULT = false;
 
-	private static final double DEFAULT_UNOBSERVED_VALUE = 0.0;
+	/**
+	 * The JDBC fetch size to use when streaming query results (see streamGroundingQuery()).
+	 */
+	public static final String FETCH_SIZE_KEY = CONFIG_PREFIX + ".fetchsize";
+	public static final int FETCH_SIZE_DEFAULT = 10000;
 
-	private static final String THREAD_QUERY_ATOM_KEY = QueryAtom.class.getName();
+	/**
+	 * The maximum number of results in each chunk when streaming query results (see streamGroundingQuery()).
+	 */
+	public static final String STREAM_CHUNK_SIZE_KEY = CONFIG_PREFIX + ".streamchunksize";
+	public static final int STREAM_CHUNK_SIZE_DEFAULT = 100000;
+
+	/**
+	 * The number of atoms to look up in each query when fetching many atoms at once (see getAtoms()).
+	 */
+	public static final String ATOM_BATCH_SIZE_KEY = CONFIG_PREFIX + ".atombatchsize";
+	public static final int ATOM_BATCH_SIZE_DEFAULT = 500;
+
+	private static final double DEFAULT_UNOBSERVED_VALUE = 0.0;
 
 	/**
 	 * Predicates that, for the purpose of this database, are closed.
@@ -101,6 +117,9 @@ public class RDBMSDatabase extends Database {
 	private final Set<Predicate> closedPredicates;
 
 	private boolean useOptimalCover;
+	private int fetchSize;
+	private int streamChunkSize;
+	private int atomBatchSize;
 
 	public RDBMSDatabase(RDBMSDataStore parent,
 			Partition write, Partition[] read,
@@ -108,6 +127,13 @@ public class RDBMSDatabase extends Database {
 		super(parent, write, read);
 
 		useOptimalCover = Config.getBoolean(OPTIMAL_COVER_KEY, OPTIMAL_COVER_DEFAULT);
+		fetchSize = Config.getInt(FETCH_SIZE_KEY, FETCH_SIZE_DEFAULT);
+		streamChunkSize = Config.getInt(STREAM_CHUNK_SIZE_KEY, STREAM_CHUNK_SIZE_DEFAULT);
+
+		atomBatchSize = Config.getInt(ATOM_BATCH_SIZE_KEY, ATOM_BATCH_SIZE_DEFAULT);
+		if (atomBatchSize < 1) {
+			throw new IllegalArgumentException("Atom batch size must be positive, got: " + atomBatchSize);
+		}
 
 		this.closedPredicates = new HashSet<Predicate>();
 		if (closed != null) {
@@ -154,10 +180,7 @@ public class RDBMSDatabase extends Database {
 
 	@Override
 	public boolean deleteAtom(GroundAtom atom) {
-		QueryAtom queryAtom = new QueryAtom(atom.getPredicate(), atom.getArguments());
-		if (cache.getCachedAtom(queryAtom) != null) {
-			cache.removeCachedAtom(queryAtom);
-		}
+		cache.removeCachedAtom(new QueryAtom(atom.getPredicate(), atom.getArguments()));
 
 		try (
 			Connection connection = getConnection();
@@ -262,21 +285,50 @@ public class RDBMSDatabase extends Database {
 		}
 	}
 
+	@Override
+	public StreamingResultList streamGroundingQuery(Formula formula) {
+		if (closed) {
+			throw new IllegalStateException("Cannot perform query on database that was closed.");
+		}
+
+		if (useOptimalCover) {
+			formula = OptimalCover.computeOptimalCover(formula, (RDBMSDataStore)parentDataStore);
+		}
+
+		FormulaQuery query = buildQuery(formula, false);
+		log.trace(query.sql);
+
+		// The results keep the same variable ordering as the projection.
+		ConstantType[] orderedTypes = new ConstantType[query.projectionMap.size()];
+		for (Map.Entry<Variable, Integer> entry : query.projectionMap.entrySet()) {
+			orderedTypes[entry.getValue().intValue()] = query.varTypes.getType(entry.getKey());
+		}
+
+		return new RDBMSStreamingResultList(this, getConnection(), query.sql,
+				query.projectionMap, orderedTypes, streamChunkSize, fetchSize);
+	}
+
 	@Override
 	public ResultList executeQuery(DatabaseQuery query) {
 		return executeQuery(query.getFormula(), query.getDistinct());
 	}
 
 	private ResultList executeQuery(Formula formula, boolean isDistinct) {
+		FormulaQuery query = buildQuery(formula, isDistinct);
+		return executeQuery(query.projectionMap, query.varTypes, query.sql);
+	}
+
+	/**
+	 * Construct a query from a formula that projects to all the formula's variables.
+	 */
+	private FormulaQuery buildQuery(Formula formula, boolean isDistinct) {
 		VariableTypeMap varTypes = formula.collectVariables(new VariableTypeMap());
 		Set<Variable> projectTo = new HashSet<Variable>(varTypes.getVariables());
 
-		// Construct query from formula
 		Formula2SQL sqler = new Formula2SQL(projectTo, this, isDistinct);
 		String queryString = sqler.getSQL(formula);
-		Map<Variable, Integer> projectionMap = sqler.getProjectionMap();
 
-		return executeQuery(projectionMap, varTypes, queryString);
+		return new FormulaQuery(queryString, sqler.getProjectionMap(), varTypes);
 	}
 
 	/**
@@ -348,6 +400,9 @@ public class RDBMSDatabase extends Database {
 			throw new IllegalStateException("Cannot close database after it has been closed.");
 		}
 
+		log.debug("Atom cache -- size: {}, hits: {}, misses: {}, creations: {}.",
+				cache.size(), cache.getHits(), cache.getMisses(), cache.getCreations());
+
 		((RDBMSDataStore)parentDataStore).releasePartitions(this);
 		closed = true;
 	}
@@ -389,7 +444,7 @@ public class RDBMSDatabase extends Database {
 	 * get the value as a Constnt from the results.
 	 * columnIndex should be 0-indexed (eventhough jdbc uses 1-index).
 	 */
-	private Constant extractConstantFromResult(ResultSet results, int columnIndex, ConstantType type) {
+	Constant extractConstantFromResult(ResultSet results, int columnIndex, ConstantType type) {
 		try {
 			switch (type) {
 				case Double:
@@ -451,16 +506,7 @@ public class RDBMSDatabase extends Database {
 	 */
 	@Override
 	public GroundAtom getAtom(StandardPredicate predicate, boolean create, Constant... arguments) {
-		QueryAtom queryAtom = null;
-		if (!Parallel.hasThreadObject(THREAD_QUERY_ATOM_KEY)) {
-			queryAtom = new QueryAtom(predicate, arguments);
-			Parallel.putThreadObject(THREAD_QUERY_ATOM_KEY, queryAtom);
-		} else {
-			queryAtom = (QueryAtom)(Parallel.getThreadObject(THREAD_QUERY_ATOM_KEY));
-			queryAtom.assume(predicate, arguments);
-		}
-
-		GroundAtom result = cache.getCachedAtom(queryAtom);
+		GroundAtom result = cache.getCachedAtom(predicate, arguments);
 		if (result != null) {
 			return result;
 		}
@@ -468,6 +514,103 @@ public class RDBMSDatabase extends Database {
 		return fetchAtom(predicate, create, arguments);
 	}
 
+	/**
+	 * Atoms missing from the cache are looked up atomBatchSize at a time.
+	 * If |create| is true, then atoms that are not in the database are created (as getAtom() would).
+	 */
+	@Override
+	public List<GroundAtom> getAtoms(StandardPredicate predicate, boolean create, List<Constant[]> arguments) {
+		List<GroundAtom> atoms = new ArrayList<GroundAtom>(arguments.size());
+
+		// Use QueryAtoms to remove duplicates.
+		Set<QueryAtom> missing = new HashSet<QueryAtom>();
+
+		for (Constant[] atomArguments : arguments) {
+			GroundAtom atom = cache.getCachedAtom(predicate, atomArguments);
+			if (atom == null) {
+				missing.add(new QueryAtom(predicate, atomArguments));
+			}
+
+			atoms.add(atom);
+		}
+
+		if (missing.size() == 0) {
+			return atoms;
+		}
+
+		fetchAtoms(predicate, create, new ArrayList<QueryAtom>(missing));
+
+		for (int i = 0; i < atoms.size(); i++) {
+			if (atoms.get(i) == null) {
+				atoms.set(i, cache.getCachedAtom(predicate, arguments.get(i)));
+			}
+		}
+
+		return atoms;
+	}
+
+	/**
+	 * Get many atoms from the database and put them in the cache.
+	 * @param create Create the atoms that are not in the database.
+	 */
+	private void fetchAtoms(StandardPredicate predicate, boolean create, List<QueryAtom> atoms) {
+		PredicateInfo predicateInfo = ((RDBMSDataStore)parentDataStore).getPredicateInfo(predicate);
+		int numArguments = predicate.getArity();
+		Constant[] arguments = new Constant[numArguments];
+
+		// Every atom is only asked for once, so a second row for an atom means that it is in the database twice.
+		Set<GroundAtom> found = new HashSet<GroundAtom>();
+
+		try (
+			Connection connection = getConnection();
+			PreparedStatement statement = predicateInfo.createBatchQueryStatement(connection, readIDs, atomBatchSize);
+		) {
+			for (int batchStart = 0; batchStart < atoms.size(); batchStart += atomBatchSize) {
+				// Every statement has the same number of parameters, so pad out the last batch with the last atom.
+				// Repeating an atom in the IN list does not repeat its row.
+				for (int i = 0; i < atomBatchSize; i++) {
+					QueryAtom atom = atoms.get(Math.min(batchStart + i, atoms.size() - 1));
+					for (int j = 0; j < numArguments; j++) {
+						setAtomArgument(statement, atom.getArguments()[j], i * numArguments + j + 1);
+					}
+				}
+
+				try (ResultSet results = statement.executeQuery()) {
+					while (results.next()) {
+						for (int i = 0; i < numArguments; i++) {
+							// As per PredicateInfo.createBatchQueryStatement, the data columns are offset by two.
+							arguments[i] = extractConstantFromResult(results, i + 2, predicate.getArgumentType(i));
+						}
+
+						if (!found.add(extractGroundAtomFromResult(results, predicate, arguments))) {
+							throw new IllegalStateException("Cannot have duplicate atoms, or atoms in multiple partitions in a single database");
+						}
+					}
+				}
+			}
+		} catch (SQLException ex) {
+			throw new RuntimeException("Error fetching atoms for: " + predicate, ex);
+		}
+
+		if (!create) {
+			return;
+		}
+
+		// Anything left was not in the database.
+		for (QueryAtom atom : atoms) {
+			if (cache.getCachedAtom(atom) != null) {
+				continue;
+			}
+
+			Constant[] atomArguments = (Constant[])atom.getArguments();
+			if (isClosed(predicate)) {
+				cache.instantiateObservedAtom(predicate, atomArguments, DEFAULT_UNOBSERVED_VALUE);
+			} else {
+				cache.instantiateRandomVariableAtom(predicate, atomArguments, DEFAULT_UNOBSERVED_VALUE);
+			}
+		}
+	}
+
 	/**
 	 * Get an atom from the database and put it in the cache.
 	 */
@@ -564,8 +707,7 @@ public class RDBMSDatabase extends Database {
 	}
 
 	private GroundAtom getAtom(FunctionalPredicate predicate, Constant... arguments) {
-		QueryAtom queryAtom = new QueryAtom(predicate, arguments);
-		GroundAtom result = cache.getCachedAtom(queryAtom);
+		GroundAtom result = cache.getCachedAtom(predicate, arguments);
 		if (result != null) {
 			return result;
 		}
@@ -596,4 +738,19 @@ public class RDBMSDatabase extends Database {
 			throw new IllegalArgumentException("Unknown argument type: " + argument.getClass());
 		}
 	}
+
+	/**
+	 * The SQL for a formula along with what is needed to read its results.
+	 */
+	private static class FormulaQuery {
+		public final String sql;
+		public final Map<Variable, Integer> projectionMap;
+		public final VariableTypeMap varTypes;
+
+		public FormulaQuery(String sql, Map<Variable, Integer> projectionMap, VariableTypeMap varTypes) {
+			this.sql = sql;
+			this.projectionMap = projectionMap;
+			this.varTypes = varTypes;
+		}
+	}
 }
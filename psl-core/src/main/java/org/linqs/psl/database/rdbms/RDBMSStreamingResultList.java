@@ -0,0 +1,157 @@
+/*
+ * This file is part of the PSL software.
+ * Copyright 2011-2015 University of Maryland
+ * Copyright 2013-2018 The Regents of the University of California
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.linqs.psl.database.rdbms;
+
+import org.linqs.psl.database.ResultList;
+import org.linqs.psl.database.StreamingResultList;
+import org.linqs.psl.model.term.Constant;
+import org.linqs.psl.model.term.ConstantType;
+import org.linqs.psl.model.term.Variable;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A StreamingResultList backed by an open JDBC cursor.
+ * The connection, statement, and result set are held until all the results have been read or close() is called.
+ */
+public class RDBMSStreamingResultList implements StreamingResultList {
+	private final RDBMSDatabase database;
+	private final Map<Variable, Integer> varMap;
+	private final ConstantType[] orderedTypes;
+	private final int chunkSize;
+	private final String queryString;
+
+	private Connection connection;
+	private Statement statement;
+	private ResultSet resultSet;
+
+	/**
+	 * @param varMap the variable to index mapping (in the same form as RDBMSResultList).
+	 * @param orderedTypes the type of each index in the results (which is also its column in the result set).
+	 * @param chunkSize the maximum number of results in each chunk.
+	 * @param fetchSize the JDBC fetch size hint for the cursor.
+	 */
+	public RDBMSStreamingResultList(RDBMSDatabase database, Connection connection, String queryString,
+			Map<Variable, Integer> varMap, ConstantType[] orderedTypes,
+			int chunkSize, int fetchSize) {
+		this.database = database;
+		this.varMap = new HashMap<Variable, Integer>(varMap);
+		this.orderedTypes = orderedTypes;
+		this.chunkSize = chunkSize;
+		this.queryString = queryString;
+		this.connection = connection;
+
+		try {
+			// Some drivers (e.g. Postgres) will only use a cursor outside of auto-commit mode.
+			connection.setAutoCommit(false);
+
+			statement = connection.createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+			statement.setFetchSize(fetchSize);
+			resultSet = statement.executeQuery(queryString);
+		} catch (SQLException ex) {
+			close();
+			throw new RuntimeException("Error executing database query: [" + queryString + "]", ex);
+		}
+	}
+
+	@Override
+	public ResultList nextChunk() {
+		if (resultSet == null) {
+			return null;
+		}
+
+		RDBMSResultList chunk = new RDBMSResultList(orderedTypes.length);
+		for (Map.Entry<Variable, Integer> entry : varMap.entrySet()) {
+			chunk.setVariable(entry.getKey(), entry.getValue().intValue());
+		}
+
+		try {
+			while (chunk.size() < chunkSize && resultSet.next()) {
+				Constant[] res = new Constant[orderedTypes.length];
+				for (int i = 0; i < res.length; i++) {
+					res[i] = database.extractConstantFromResult(resultSet, i, orderedTypes[i]);
+				}
+
+				chunk.addResult(res);
+			}
+		} catch (SQLException ex) {
+			close();
+			throw new RuntimeException("Error reading database query: [" + queryString + "]", ex);
+		}
+
+		if (chunk.size() < chunkSize) {
+			// We have read everything, give back the connection as soon as possible.
+			close();
+		}
+
+		if (chunk.size() == 0) {
+			return null;
+		}
+
+		return chunk;
+	}
+
+	@Override
+	public int getArity() {
+		return orderedTypes.length;
+	}
+
+	@Override
+	public Map<Variable, Integer> getVariableMap() {
+		return Collections.unmodifiableMap(varMap);
+	}
+
+	@Override
+	public void close() {
+		try {
+			if (resultSet != null) {
+				resultSet.close();
+			}
+
+			if (statement != null) {
+				statement.close();
+			}
+
+			if (connection != null) {
+				connection.commit();
+				connection.setAutoCommit(true);
+			}
+		} catch (SQLException ex) {
+			throw new RuntimeException("Error closing database query: [" + queryString + "]", ex);
+		} finally {
+			// Always give the connection back to the pool.
+			if (connection != null) {
+				try {
+					connection.close();
+				} catch (SQLException ex) {
+					// Nothing more we can do with this connection.
+				}
+			}
+
+			resultSet = null;
+			statement = null;
+			connection = null;
+		}
+	}
+}
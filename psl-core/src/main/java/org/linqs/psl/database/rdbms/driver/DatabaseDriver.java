@@ -46,6 +46,11 @@ public interface DatabaseDriver {
 	 */
 	public Connection getConnection();
 
+	/**
+	 * Returns the most connections that can be open at once (the size of the connection pool).
+	 */
+	public int getMaxConnections();
+
 	/**
 	 * Returns whether the underline database supports bulk copying operations.
 	 */
@@ -95,6 +95,11 @@ public class H2DatabaseDriver implements DatabaseDriver {
 		}
 	}
 
+	@Override
+	public int getMaxConnections() {
+		return dataSource.getMaximumPoolSize();
+	}
+
 	private void clearDB() {
 		try (
 			Connection connection = getConnection();
@@ -89,6 +89,11 @@ public class PostgreSQLDriver implements DatabaseDriver {
 		}
 	}
 
+	@Override
+	public int getMaxConnections() {
+		return dataSource.getMaximumPoolSize();
+	}
+
 	@Override
 	public boolean supportsBulkCopy() {
 		return true;
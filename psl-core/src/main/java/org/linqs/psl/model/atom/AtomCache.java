@@ -24,9 +24,10 @@ import org.linqs.psl.model.term.Constant;
 
 import com.google.common.collect.Iterables;
 
-import java.util.Collections;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 /**
  * Storage for {@link GroundAtom GroundAtoms} so that a {@link Database}
@@ -34,16 +35,47 @@ import java.util.Map;
  *
  * Also serves as the factory for GroundAtoms for a Database.
  *
- * This class is not thread-safe, but does have some guarentees.
- * All write operations (remove and instantiation) are safe.
- * Read operations do not attempt any thread safety because of their heavy use.
- * However, any call to getCachedAtom() returning a null should be follwed up with an instantiation call.
- * These calls are thread-safe and will check the cache before creation.
+ * This class is thread-safe.
+ * Reads do not lock.
+ * Instantiation locks only one of several stripes (picked by the atom's hash),
+ * and will always check the cache first so that each atom is only ever created once.
+ * So, any call to getCachedAtom() returning a null should be follwed up with an instantiation call.
+ *
+ * Each atom is given a dense id (see {@link GroundAtom#getId()}) when it is created.
+ * Ids are never reused, so removing atoms from the cache will leave holes in the id space.
  */
 public class AtomCache {
+	/**
+	 * The number of locks that instantiation is striped over.
+	 * Must be a power of two.
+	 */
+	private static final int NUM_STRIPES = 64;
+
+	/**
+	 * Counters for different stripes are spaced out so they do not share a cache line.
+	 */
+	private static final int COUNTER_SPACING = 8;
+
 	protected final Database db;
 
-	protected final Map<QueryAtom, GroundAtom> cache;
+	/**
+	 * Atoms are equal to QueryAtoms with the same predicate and arguments,
+	 * so the GroundAtoms themselves are used as keys and QueryAtoms can be used for lookups.
+	 */
+	protected final ConcurrentMap<Atom, GroundAtom> cache;
+
+	private final Object[] locks;
+
+	private final AtomicLongArray hits;
+	private final AtomicLongArray misses;
+	private final AtomicLongArray creations;
+
+	private final AtomicInteger nextId;
+
+	/**
+	 * A reusable key for each thread so that lookups do not allocate a QueryAtom.
+	 */
+	private final ThreadLocal<QueryAtom> lookupKeys;
 
 	/**
 	 * Constructs a new AtomCache for a Database.
@@ -52,7 +84,20 @@ public class AtomCache {
 	 */
 	public AtomCache(Database db) {
 		this.db = db;
-		this.cache = new HashMap<QueryAtom, GroundAtom>();
+		this.cache = new ConcurrentHashMap<Atom, GroundAtom>(16, 0.75f, NUM_STRIPES);
+
+		locks = new Object[NUM_STRIPES];
+		for (int i = 0; i < NUM_STRIPES; i++) {
+			locks[i] = new Object();
+		}
+
+		hits = new AtomicLongArray(NUM_STRIPES * COUNTER_SPACING);
+		misses = new AtomicLongArray(NUM_STRIPES * COUNTER_SPACING);
+		creations = new AtomicLongArray(NUM_STRIPES * COUNTER_SPACING);
+
+		nextId = new AtomicInteger(0);
+
+		lookupKeys = new ThreadLocal<QueryAtom>();
 	}
 
 	/**
@@ -63,7 +108,33 @@ public class AtomCache {
 	 * @return the requested GroundAtom, or NULL if it is not cached
 	 */
 	public GroundAtom getCachedAtom(QueryAtom atom) {
-		return cache.get(atom);
+		GroundAtom result = cache.get(atom);
+
+		int stripe = getStripe(atom);
+		if (result != null) {
+			hits.incrementAndGet(stripe * COUNTER_SPACING);
+		} else {
+			misses.incrementAndGet(stripe * COUNTER_SPACING);
+		}
+
+		return result;
+	}
+
+	/**
+	 * Same as getCachedAtom(QueryAtom), but does not require the caller to build a QueryAtom.
+	 * The arguments are not held onto, so the caller is free to reuse the array.
+	 */
+	public GroundAtom getCachedAtom(Predicate predicate, Constant... args) {
+		return getCachedAtom(getLookupKey(predicate, args));
+	}
+
+	/**
+	 * Check if an atom is cached without counting it as a hit or miss
+	 * (e.g. when only looking for atoms to prefetch).
+	 * The arguments are not held onto, so the caller is free to reuse the array.
+	 */
+	public boolean isCached(Predicate predicate, Constant... args) {
+		return cache.containsKey(getLookupKey(predicate, args));
 	}
 
 	/**
@@ -93,13 +164,10 @@ public class AtomCache {
 	 * @param qAtom the Atom to remove
 	 * @return whether an atom was removed from the cache
 	 */
-	public synchronized boolean removeCachedAtom(QueryAtom qAtom) {
-		if (cache.containsKey(qAtom)) {
-			cache.remove(qAtom);
-			return true;
+	public boolean removeCachedAtom(QueryAtom qAtom) {
+		synchronized (locks[getStripe(qAtom)]) {
+			return cache.remove(qAtom) != null;
 		}
-
-		return false;
 	}
 
 	/**
@@ -123,31 +191,33 @@ public class AtomCache {
 	 * To retrieve a GroundAtom, all others should use Database.getAtom()
 	 * or AtomManager.getAtom().
 	 *
-	 * Further, this method should only be called after ensuring that the Atom
-	 * is not already in this AtomCache using {@link #getCachedAtom(QueryAtom)}.
+	 * If the atom is already in the cache, then the cached atom is returned.
 	 *
 	 * @param predicate the Predicate of the Atom
 	 * @param args the arguments to this Atom
 	 * @param value the Atom's truth value
 	 * @return the new ObservedAtom
 	 */
-	public synchronized ObservedAtom instantiateObservedAtom(Predicate predicate, Constant[] args, double value) {
-		QueryAtom key = new QueryAtom(predicate, args);
-
+	public ObservedAtom instantiateObservedAtom(Predicate predicate, Constant[] args, double value) {
 		// Always check the cache before making new atoms.
-		if (cache.containsKey(key)) {
-			if (!(cache.get(key) instanceof ObservedAtom)) {
-				throw new IllegalArgumentException("Asked to instantiate an observed" +
-						" atom that already exists as a random variable atom: " + key);
-			}
-
-			return (ObservedAtom)cache.get(key);
+		GroundAtom atom = getExistingAtom(predicate, args, ObservedAtom.class);
+		if (atom != null) {
+			return (ObservedAtom)atom;
 		}
 
-		ObservedAtom atom = new ObservedAtom(predicate, args, db, value);
-		cache.put(key, atom);
+		QueryAtom key = lookupKeys.get();
+		synchronized (locks[getStripe(key)]) {
+			atom = getExistingAtom(predicate, args, ObservedAtom.class);
+			if (atom != null) {
+				return (ObservedAtom)atom;
+			}
 
-		return atom;
+			ObservedAtom newAtom = new ObservedAtom(predicate, args, db, value, nextId.getAndIncrement());
+			cache.put(newAtom, newAtom);
+			creations.incrementAndGet(getStripe(newAtom) * COUNTER_SPACING);
+
+			return newAtom;
+		}
 	}
 
 	/**
@@ -157,30 +227,113 @@ public class AtomCache {
 	 * To retrieve a GroundAtom, all others should use Database.getAtom()
 	 * or AtomManager.getAtom().
 	 *
-	 * Further, this method should only be called after ensuring that the Atom
-	 * is not already in this AtomCache using {@link #getCachedAtom(QueryAtom)}.
+	 * If the atom is already in the cache, then the cached atom is returned.
 	 *
 	 * @param predicate the Predicate of the Atom
 	 * @param args the arguments to this Atom
 	 * @param value the Atom's truth value
 	 * @return the new RandomVariableAtom
 	 */
-	public synchronized RandomVariableAtom instantiateRandomVariableAtom(StandardPredicate predicate, Constant[] args, double value) {
-		QueryAtom key = new QueryAtom(predicate, args);
-
+	public RandomVariableAtom instantiateRandomVariableAtom(StandardPredicate predicate, Constant[] args, double value) {
 		// Always check the cache before making new atoms.
-		if (cache.containsKey(key)) {
-			if (!(cache.get(key) instanceof RandomVariableAtom)) {
-				throw new IllegalArgumentException("Asked to instantiate a random variable" +
-						" atom that already exists as an observed atom: " + key);
+		GroundAtom atom = getExistingAtom(predicate, args, RandomVariableAtom.class);
+		if (atom != null) {
+			return (RandomVariableAtom)atom;
+		}
+
+		QueryAtom key = lookupKeys.get();
+		synchronized (locks[getStripe(key)]) {
+			atom = getExistingAtom(predicate, args, RandomVariableAtom.class);
+			if (atom != null) {
+				return (RandomVariableAtom)atom;
 			}
 
-			return (RandomVariableAtom)cache.get(key);
+			RandomVariableAtom newAtom = new RandomVariableAtom(predicate, args, db, value, nextId.getAndIncrement());
+			cache.put(newAtom, newAtom);
+			creations.incrementAndGet(getStripe(newAtom) * COUNTER_SPACING);
+
+			return newAtom;
 		}
+	}
+
+	/**
+	 * The number of lookups that found an atom.
+	 */
+	public long getHits() {
+		return sum(hits);
+	}
+
+	/**
+	 * The number of lookups that did not find an atom.
+	 */
+	public long getMisses() {
+		return sum(misses);
+	}
+
+	/**
+	 * The number of atoms that have been instantiated.
+	 */
+	public long getCreations() {
+		return sum(creations);
+	}
 
-		RandomVariableAtom atom = new RandomVariableAtom(predicate, args, db, value);
-		cache.put(key, atom);
+	public int size() {
+		return cache.size();
+	}
+
+	/**
+	 * One more than the largest id given to an atom so far.
+	 * Any array indexed by the ids of the atoms currently in this cache needs to be at least this large.
+	 */
+	public int getMaxId() {
+		return nextId.get();
+	}
+
+	/**
+	 * Look for an atom that is already cached (without counting it as a hit or miss).
+	 * Leaves this thread's lookup key set to the atom.
+	 * @throws IllegalArgumentException if the cached atom is not of the expected type.
+	 */
+	private GroundAtom getExistingAtom(Predicate predicate, Constant[] args, Class<? extends GroundAtom> expectedType) {
+		QueryAtom key = getLookupKey(predicate, args);
+
+		GroundAtom atom = cache.get(key);
+		if (atom != null && !expectedType.isInstance(atom)) {
+			throw new IllegalArgumentException("Asked to instantiate a " + expectedType.getSimpleName() +
+					" that already exists as a " + atom.getClass().getSimpleName() + ": " + key);
+		}
 
 		return atom;
 	}
+
+	/**
+	 * Get this thread's lookup key set to the given atom.
+	 */
+	private QueryAtom getLookupKey(Predicate predicate, Constant[] args) {
+		QueryAtom key = lookupKeys.get();
+		if (key == null) {
+			key = new QueryAtom(predicate, args);
+			lookupKeys.set(key);
+		} else {
+			key.assume(predicate, args);
+		}
+
+		return key;
+	}
+
+	private int getStripe(Atom atom) {
+		// Spread the hash a bit, since the lower bits are all we use.
+		int hash = atom.hashCode();
+		hash ^= (hash >>> 16);
+		return hash & (NUM_STRIPES - 1);
+	}
+
+	private long sum(AtomicLongArray counters) {
+		long total = 0;
+		for (int i = 0; i < NUM_STRIPES; i++) {
+			total += counters.get(i * COUNTER_SPACING);
+		}
+
+		return total;
+	}
 }
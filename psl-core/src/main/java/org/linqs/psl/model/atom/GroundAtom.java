@@ -42,18 +42,30 @@ public abstract class GroundAtom extends Atom implements Comparable<GroundAtom>
 	private static final Set<GroundRule> emptyGroundRules = ImmutableSet.of();
 
 	protected final Database db;
+	protected final int id;
 	protected double value;
 
-	protected GroundAtom(Predicate predicate, Constant[] args, Database db, double value) {
+	protected GroundAtom(Predicate predicate, Constant[] args, Database db, double value, int id) {
 		super(predicate, args);
 		this.db = db;
 		this.value = value;
+		this.id = id;
 	}
 
 	public Database getDatabase() {
 		return db;
 	}
 
+	/**
+	 * A dense identifier for this atom that is assigned by the {@link AtomCache} that created it.
+	 * Ids are unique within a single Database and start at zero, so they can be used to index arrays
+	 * (sized by {@link AtomCache#getMaxId()}) instead of hashing the atom.
+	 * Atoms from different Databases may share an id.
+	 */
+	public int getId() {
+		return id;
+	}
+
 	@Override
 	public Constant[] getArguments() {
 		return (Constant[])arguments;
@@ -35,8 +35,8 @@ import org.linqs.psl.reasoner.function.ConstantAtomFunctionVariable;
  * Other reasons may exist for specific Database implementations.
  */
 public class ObservedAtom extends GroundAtom {
-	protected ObservedAtom(Predicate p, Constant[] args, Database db, double value) {
-		super(p, args, db, value);
+	protected ObservedAtom(Predicate p, Constant[] args, Database db, double value, int id) {
+		super(p, args, db, value, id);
 	}
 
 	@Override
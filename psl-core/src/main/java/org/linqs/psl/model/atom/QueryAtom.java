@@ -57,6 +57,14 @@ public class QueryAtom extends Atom {
 	 * It is up to the caller to make sure the buffer is only used on this thread.
 	 */
 	public GroundAtom ground(AtomManager atomManager, ResultList res, int resultIndex, Constant[] newArgs) {
+		return atomManager.getAtom(predicate, getGroundArguments(res, resultIndex, newArgs));
+	}
+
+	/**
+	 * Fill the passed in buffer with the arguments this atom would be grounded with.
+	 * @return the buffer.
+	 */
+	public Constant[] getGroundArguments(ResultList res, int resultIndex, Constant[] newArgs) {
 		for (int i = 0; i < arguments.length; i++) {
 			if (arguments[i] instanceof Variable) {
 				newArgs[i] = res.get(resultIndex, (Variable)arguments[i]);
@@ -67,7 +75,7 @@ public class QueryAtom extends Atom {
 			}
 		}
 
-		return atomManager.getAtom(predicate, newArgs);
+		return newArgs;
 	}
 
 	public VariableTypeMap collectVariables(VariableTypeMap varMap) {
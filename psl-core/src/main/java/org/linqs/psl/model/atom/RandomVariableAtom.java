@@ -34,8 +34,8 @@ import org.linqs.psl.reasoner.function.MutableAtomFunctionVariable;
  */
 public class RandomVariableAtom extends GroundAtom {
 	protected RandomVariableAtom(StandardPredicate p, Constant[] args,
-			Database db, double value) {
-		super(p, args, db, value);
+			Database db, double value, int id) {
+		super(p, args, db, value, id);
 	}
 
 	@Override
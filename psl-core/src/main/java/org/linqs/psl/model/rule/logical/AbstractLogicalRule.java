@@ -18,10 +18,14 @@
 package org.linqs.psl.model.rule.logical;
 
 import org.linqs.psl.application.groundrulestore.GroundRuleStore;
+import org.linqs.psl.application.groundrulestore.TermGeneratingGroundRuleStore;
+import org.linqs.psl.config.Config;
 import org.linqs.psl.database.DatabaseQuery;
 import org.linqs.psl.database.ResultList;
+import org.linqs.psl.database.StreamingResultList;
 import org.linqs.psl.database.atom.AtomManager;
 import org.linqs.psl.model.atom.Atom;
+import org.linqs.psl.model.atom.AtomCache;
 import org.linqs.psl.model.atom.GroundAtom;
 import org.linqs.psl.model.atom.QueryAtom;
 import org.linqs.psl.model.atom.RandomVariableAtom;
@@ -29,6 +33,7 @@ import org.linqs.psl.model.formula.Formula;
 import org.linqs.psl.model.formula.FormulaAnalysis;
 import org.linqs.psl.model.formula.Negation;
 import org.linqs.psl.model.formula.FormulaAnalysis.DNFClause;
+import org.linqs.psl.model.predicate.StandardPredicate;
 import org.linqs.psl.model.rule.AbstractRule;
 import org.linqs.psl.model.rule.WeightedGroundRule;
 import org.linqs.psl.model.term.Constant;
@@ -58,6 +63,19 @@ import java.util.Set;
 public abstract class AbstractLogicalRule extends AbstractRule {
 	private static final Logger log = LoggerFactory.getLogger(AbstractLogicalRule.class);
 
+	/**
+	 * Prefix of property keys used by this class.
+	 */
+	public static final String CONFIG_PREFIX = "logicalrule";
+
+	/**
+	 * If true, then before each chunk of grounding results is instantiated,
+	 * the atoms it uses that are not already cached are looked up in batches (see AtomManager.prefetchAtoms()).
+	 * Only atoms that exist in the database are fetched, the rest are still created by getAtom() as they are needed.
+	 */
+	public static final String PREFETCH_ATOMS_KEY = CONFIG_PREFIX + ".prefetchatoms";
+	public static final boolean PREFETCH_ATOMS_DEFAULT = false;
+
 	protected Formula formula;
 	protected final DNFClause negatedDNF;
 	private int hash;
@@ -119,12 +137,36 @@ public abstract class AbstractLogicalRule extends AbstractRule {
 
 	@Override
 	public int groundAll(AtomManager atomManager, GroundRuleStore grs) {
-		ResultList res = atomManager.executeGroundingQuery(negatedDNF.getQueryFormula());
-		return groundAll(res, atomManager, grs);
+		StreamingResultList res = atomManager.streamGroundingQuery(negatedDNF.getQueryFormula());
+		try {
+			return groundAll(res, atomManager, grs);
+		} finally {
+			res.close();
+		}
+	}
+
+	/**
+	 * Ground the results a chunk at a time, so only one chunk of results needs to be in memory at once.
+	 * The caller is responsible for closing the results.
+	 */
+	public int groundAll(StreamingResultList groundVariables, AtomManager atomManager, GroundRuleStore grs) {
+		int initialCount = grs.count(this);
+
+		ResultList chunk = null;
+		while ((chunk = groundVariables.nextChunk()) != null) {
+			prefetchAtoms(chunk, atomManager);
+			Parallel.count(chunk.size(), new GroundWorker(atomManager, grs, chunk));
+		}
+
+		int groundCount = grs.count(this) - initialCount;
+
+		log.debug("Grounded {} instances of rule {}", groundCount, this);
+		return groundCount;
 	}
 
 	public int groundAll(ResultList groundVariables, AtomManager atomManager, GroundRuleStore grs) {
 		int initialCount = grs.count(this);
+		prefetchAtoms(groundVariables, atomManager);
 		Parallel.count(groundVariables.size(), new GroundWorker(atomManager, grs, groundVariables));
 		int groundCount = grs.count(this) - initialCount;
 
@@ -132,6 +174,85 @@ public abstract class AbstractLogicalRule extends AbstractRule {
 		return groundCount;
 	}
 
+	/**
+	 * Collect all the atoms from standard predicates that the results will be grounded into
+	 * that are not already cached, and let the atom manager fetch them all at once (see PREFETCH_ATOMS_KEY).
+	 * Otherwise, every uncached atom would be a separate trip to the database during grounding.
+	 * Each literal is scanned (and prefetched) in parallel.
+	 */
+	private void prefetchAtoms(ResultList groundVariables, AtomManager atomManager) {
+		if (!Config.getBoolean(PREFETCH_ATOMS_KEY, PREFETCH_ATOMS_DEFAULT)) {
+			return;
+		}
+
+		List<QueryAtom> literals = new ArrayList<QueryAtom>();
+		for (Atom literal : negatedDNF.getPosLiterals()) {
+			if (literal.getPredicate() instanceof StandardPredicate) {
+				literals.add((QueryAtom)literal);
+			}
+		}
+
+		for (Atom literal : negatedDNF.getNegLiterals()) {
+			if (literal.getPredicate() instanceof StandardPredicate) {
+				literals.add((QueryAtom)literal);
+			}
+		}
+
+		if (literals.size() == 0) {
+			return;
+		}
+
+		Parallel.foreach(literals, new PrefetchWorker(atomManager, groundVariables));
+	}
+
+	private static class PrefetchWorker extends Parallel.Worker<QueryAtom> {
+		private AtomManager atomManager;
+		private ResultList res;
+
+		public PrefetchWorker(AtomManager atomManager, ResultList res) {
+			this.atomManager = atomManager;
+			this.res = res;
+		}
+
+		@Override
+		public Object clone() {
+			return new PrefetchWorker(atomManager, res);
+		}
+
+		@Override
+		public void work(int index, QueryAtom literal) {
+			AtomCache cache = atomManager.getDatabase().getCache();
+			StandardPredicate predicate = (StandardPredicate)literal.getPredicate();
+
+			Constant[] buffer = new Constant[literal.getArity()];
+			QueryAtom key = null;
+
+			// Use QueryAtoms to remove duplicates, so each missing atom is only copied once.
+			Set<QueryAtom> seen = new HashSet<QueryAtom>();
+			List<Constant[]> missing = new ArrayList<Constant[]>();
+
+			for (int i = 0; i < res.size(); i++) {
+				literal.getGroundArguments(res, i, buffer);
+				if (key == null) {
+					key = new QueryAtom(predicate, buffer);
+				} else {
+					key.assume(predicate, buffer);
+				}
+
+				if (seen.contains(key) || cache.isCached(predicate, buffer)) {
+					continue;
+				}
+
+				seen.add(new QueryAtom(predicate, buffer));
+				missing.add(Arrays.copyOf(buffer, buffer.length));
+			}
+
+			if (missing.size() > 0) {
+				atomManager.prefetchAtoms(predicate, missing);
+			}
+		}
+	}
+
 	private class GroundWorker extends Parallel.Worker<Integer> {
 		// Remember that these are positive/negative in the CNF.
 		private List<GroundAtom> posLiterals;
@@ -141,6 +262,9 @@ public abstract class AbstractLogicalRule extends AbstractRule {
 		private GroundRuleStore grs;
 		private ResultList res;
 
+		// Stores that generate terms while grounding get a buffer for each worker.
+		private TermGeneratingGroundRuleStore.Buffer buffer;
+
 		// Allocate up-front some buffers for grounding QueryAtoms into.
 		private Constant[][] positiveAtomArgs;
 		private Constant[][] negativeAtomArgs;
@@ -169,6 +293,19 @@ public abstract class AbstractLogicalRule extends AbstractRule {
 			for (int i = 0; i < negatedDNF.getNegLiterals().size(); i++) {
 				negativeAtomArgs[i] = new Constant[negatedDNF.getNegLiterals().get(i).getArity()];
 			}
+
+			buffer = null;
+			if (grs instanceof TermGeneratingGroundRuleStore) {
+				buffer = ((TermGeneratingGroundRuleStore<?>)grs).getBuffer();
+			}
+		}
+
+		@Override
+		public void close() {
+			if (buffer != null) {
+				buffer.flush();
+				buffer = null;
+			}
 		}
 
 		@Override
@@ -221,7 +358,11 @@ public abstract class AbstractLogicalRule extends AbstractRule {
 			}
 
 			AbstractGroundLogicalRule groundRule = groundFormulaInstance(posLiterals, negLiterals, rvaCount);
-			grs.addGroundRule(groundRule);
+			if (buffer != null) {
+				buffer.addGroundRule(groundRule);
+			} else {
+				grs.addGroundRule(groundRule);
+			}
 
 			posLiterals.clear();
 			negLiterals.clear();
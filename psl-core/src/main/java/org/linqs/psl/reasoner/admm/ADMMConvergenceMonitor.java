@@ -0,0 +1,328 @@
+/*
+ * This file is part of the PSL software.
+ * Copyright 2011-2015 University of Maryland
+ * Copyright 2013-2018 The Regents of the University of California
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.linqs.psl.reasoner.admm;
+
+import org.linqs.psl.config.Config;
+import org.linqs.psl.reasoner.admm.term.ADMMTermStore;
+import org.linqs.psl.util.Parallel;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Decides when an ADMMReasoner should stop.
+ *
+ * The optimization is converged when the primal and dual residuals are within their tolerances.
+ * In addition, every period (see PERIOD_KEY) the objective and infeasibility are computed (in parallel over blocks of terms)
+ * and the optimization will stop once the objective stops changing (see OBJECTIVE_BREAK_KEY)
+ * or the time budget has been used up.
+ *
+ * A monitor is reused for every optimization the reasoner runs.
+ * To plug in a different monitor, extend this class and set ADMMReasoner.CONVERGENCE_MONITOR_KEY.
+ */
+public class ADMMConvergenceMonitor {
+	private static final Logger log = LoggerFactory.getLogger(ADMMConvergenceMonitor.class);
+
+	public static final String CONFIG_PREFIX = "admmconvergencemonitor";
+
+	/**
+	 * How often (in iterations) to compute the objective.
+	 * Should be positive.
+	 */
+	public static final String PERIOD_KEY = CONFIG_PREFIX + ".period";
+	public static final int PERIOD_DEFAULT = 50;
+
+	/**
+	 * Stop once the (feasible) objective changes by no more than
+	 * OBJECTIVE_ABS_TOLERANCE + OBJECTIVE_REL_TOLERANCE * |last objective| between two periods.
+	 * Only used if ADMMReasoner.OBJECTIVE_BREAK_KEY is true.
+	 * Should not be negative.
+	 */
+	public static final String OBJECTIVE_ABS_TOLERANCE_KEY = CONFIG_PREFIX + ".objectiveabstolerance";
+	public static final float OBJECTIVE_ABS_TOLERANCE_DEFAULT = 1e-6f;
+
+	public static final String OBJECTIVE_REL_TOLERANCE_KEY = CONFIG_PREFIX + ".objectivereltolerance";
+	public static final float OBJECTIVE_REL_TOLERANCE_DEFAULT = 0.0f;
+
+	/**
+	 * The maximum amount of time (in milliseconds) a single optimization may take.
+	 * Zero (or less) means no limit.
+	 */
+	public static final String TIME_BUDGET_KEY = CONFIG_PREFIX + ".timebudget";
+	public static final long TIME_BUDGET_DEFAULT = 0;
+
+	/**
+	 * If set, then the history of each optimization (one row per period) will be written (as CSV) to this path.
+	 * Each optimization overwrites the file.
+	 */
+	public static final String HISTORY_PATH_KEY = CONFIG_PREFIX + ".historypath";
+	public static final String HISTORY_PATH_DEFAULT = null;
+
+	private final int period;
+	private final boolean objectiveBreak;
+	private final float objectiveAbsTolerance;
+	private final float objectiveRelTolerance;
+	private final long timeBudget;
+	private final String historyPath;
+
+	private ADMMTermStore termStore;
+	private long startTime;
+	private double lastObjective;
+	private List<IterationRecord> history;
+
+	// Per-worker sums of the objective and the number of violated constraints.
+	private double[] objectives;
+	private double[] violations;
+
+	public ADMMConvergenceMonitor() {
+		period = Config.getInt(PERIOD_KEY, PERIOD_DEFAULT);
+		if (period <= 0) {
+			throw new IllegalArgumentException("Property " + PERIOD_KEY + " must be positive.");
+		}
+
+		objectiveBreak = Config.getBoolean(ADMMReasoner.OBJECTIVE_BREAK_KEY, ADMMReasoner.OBJECTIVE_BREAK_DEFAULT);
+
+		objectiveAbsTolerance = Config.getFloat(OBJECTIVE_ABS_TOLERANCE_KEY, OBJECTIVE_ABS_TOLERANCE_DEFAULT);
+		objectiveRelTolerance = Config.getFloat(OBJECTIVE_REL_TOLERANCE_KEY, OBJECTIVE_REL_TOLERANCE_DEFAULT);
+		if (objectiveAbsTolerance < 0.0f || objectiveRelTolerance < 0.0f) {
+			throw new IllegalArgumentException("Properties " + OBJECTIVE_ABS_TOLERANCE_KEY + " and " + OBJECTIVE_REL_TOLERANCE_KEY + " must not be negative.");
+		}
+
+		timeBudget = Config.getLong(TIME_BUDGET_KEY, TIME_BUDGET_DEFAULT);
+		historyPath = Config.getString(HISTORY_PATH_KEY, HISTORY_PATH_DEFAULT);
+
+		history = new ArrayList<IterationRecord>();
+	}
+
+	/**
+	 * Called before the first iteration of an optimization.
+	 */
+	public void start(ADMMTermStore termStore) {
+		this.termStore = termStore;
+
+		startTime = System.currentTimeMillis();
+		lastObjective = Double.NaN;
+		history.clear();
+
+		objectives = new double[Parallel.getNumThreads() * ADMMReasoner.ACCUMULATOR_STRIDE];
+		violations = new double[Parallel.getNumThreads() * ADMMReasoner.ACCUMULATOR_STRIDE];
+	}
+
+	/**
+	 * Called after every iteration.
+	 * @param lastIteration true if the optimization will stop after this iteration anyways (e.g. it hit the max iterations).
+	 * @return true if the optimization should stop.
+	 */
+	public boolean isConverged(int iteration, float primalRes, float dualRes, float epsilonPrimal, float epsilonDual, boolean lastIteration) {
+		boolean converged = (primalRes <= epsilonPrimal && dualRes <= epsilonDual);
+
+		long elapsed = System.currentTimeMillis() - startTime;
+		boolean outOfTime = (timeBudget > 0 && elapsed >= timeBudget);
+
+		// Always check on the last iteration so that the history and logs are complete.
+		if (iteration % period != 0 && !converged && !outOfTime && !lastIteration) {
+			return false;
+		}
+
+		computeObjective();
+		double objective = sum(objectives);
+		int violatedConstraints = (int)sum(violations);
+
+		history.add(new IterationRecord(iteration, elapsed, primalRes, dualRes, epsilonPrimal, epsilonDual, objective, violatedConstraints));
+
+		log.trace(
+				"Iteration {} -- Objective: {}, Violated Constraints: {}, Primal: {}, Dual: {}, Epsilon Primal: {}, Epsilon Dual: {}.",
+				iteration, objective, violatedConstraints, primalRes, dualRes, epsilonPrimal, epsilonDual);
+
+		if (converged) {
+			return true;
+		}
+
+		if (outOfTime) {
+			log.debug("Optimization ran out of time ({} ms) on iteration {}.", timeBudget, iteration);
+			return true;
+		}
+
+		boolean objectiveConverged = (objectiveBreak
+				&& violatedConstraints == 0
+				&& !Double.isNaN(lastObjective)
+				&& Math.abs(objective - lastObjective) <= objectiveAbsTolerance + objectiveRelTolerance * Math.abs(lastObjective));
+
+		lastObjective = objective;
+
+		if (objectiveConverged) {
+			log.debug("Objective stopped changing on iteration {}.", iteration);
+		}
+
+		return objectiveConverged;
+	}
+
+	/**
+	 * Called after the last iteration of an optimization.
+	 */
+	public void finish() {
+		if (historyPath != null) {
+			writeHistory();
+		}
+
+		termStore = null;
+	}
+
+	/**
+	 * Get the history of the most recent optimization (one record per period).
+	 */
+	public List<IterationRecord> getHistory() {
+		return Collections.unmodifiableList(history);
+	}
+
+	private void computeObjective() {
+		Arrays.fill(objectives, 0.0);
+		Arrays.fill(violations, 0.0);
+
+		int numTerms = termStore.size();
+		int blockSize = numTerms / (Parallel.getNumThreads() * 4) + 1;
+		int numBlocks = (int)Math.ceil(numTerms / (float)blockSize);
+
+		Parallel.count(numBlocks, new ObjectiveWorker(termStore, blockSize));
+	}
+
+	private double sum(double[] values) {
+		double total = 0.0;
+		for (int offset = 0; offset < values.length; offset += ADMMReasoner.ACCUMULATOR_STRIDE) {
+			total += values[offset];
+		}
+
+		return total;
+	}
+
+	private void writeHistory() {
+		try {
+			BufferedWriter writer = new BufferedWriter(new FileWriter(historyPath));
+			writer.write(IterationRecord.HEADER);
+			writer.newLine();
+
+			for (IterationRecord record : history) {
+				writer.write(record.toString());
+				writer.newLine();
+			}
+
+			writer.close();
+		} catch (IOException ex) {
+			throw new RuntimeException("Failed to write ADMM history: " + historyPath, ex);
+		}
+	}
+
+	/**
+	 * Each copy of this worker sums the objective of the terms in all the blocks it is given,
+	 * and only writes the sums out (to its own section of the accumulators) when it is closed.
+	 */
+	private class ObjectiveWorker extends Parallel.Worker<Integer> {
+		private ADMMTermStore termStore;
+		private int blockSize;
+
+		private double objective;
+		private int violatedConstraints;
+
+		public ObjectiveWorker(ADMMTermStore termStore, int blockSize) {
+			super();
+			this.termStore = termStore;
+			this.blockSize = blockSize;
+		}
+
+		public Object clone() {
+			return new ObjectiveWorker(termStore, blockSize);
+		}
+
+		@Override
+		public void init(int id) {
+			super.init(id);
+
+			objective = 0.0;
+			violatedConstraints = 0;
+		}
+
+		@Override
+		public void close() {
+			objectives[id * ADMMReasoner.ACCUMULATOR_STRIDE] = objective;
+			violations[id * ADMMReasoner.ACCUMULATOR_STRIDE] = violatedConstraints;
+		}
+
+		@Override
+		public void work(int blockIndex, Integer ignore) {
+			int numTerms = termStore.size();
+
+			for (int innerBlockIndex = 0; innerBlockIndex < blockSize; innerBlockIndex++) {
+				int termIndex = blockIndex * blockSize + innerBlockIndex;
+
+				if (termIndex >= numTerms) {
+					break;
+				}
+
+				if (termStore.isConstraint(termIndex)) {
+					if (termStore.evaluate(termIndex) > 0.0f) {
+						violatedConstraints++;
+					}
+				} else {
+					objective += termStore.evaluate(termIndex);
+				}
+			}
+		}
+	}
+
+	/**
+	 * The state of an optimization at a single iteration.
+	 */
+	public static class IterationRecord {
+		public static final String HEADER = "Iteration,Time (ms),Primal Residual,Dual Residual,Epsilon Primal,Epsilon Dual,Objective,Violated Constraints";
+
+		public final int iteration;
+		public final long timeMS;
+		public final float primalRes;
+		public final float dualRes;
+		public final float epsilonPrimal;
+		public final float epsilonDual;
+		public final double objective;
+		public final int violatedConstraints;
+
+		public IterationRecord(int iteration, long timeMS, float primalRes, float dualRes,
+				float epsilonPrimal, float epsilonDual, double objective, int violatedConstraints) {
+			this.iteration = iteration;
+			this.timeMS = timeMS;
+			this.primalRes = primalRes;
+			this.dualRes = dualRes;
+			this.epsilonPrimal = epsilonPrimal;
+			this.epsilonDual = epsilonDual;
+			this.objective = objective;
+			this.violatedConstraints = violatedConstraints;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%d,%d,%f,%f,%f,%f,%f,%d",
+					iteration, timeMS, primalRes, dualRes, epsilonPrimal, epsilonDual, objective, violatedConstraints);
+		}
+	}
+}
@@ -21,19 +21,24 @@ import org.linqs.psl.config.Config;
 import org.linqs.psl.model.rule.GroundRule;
 import org.linqs.psl.model.rule.WeightedGroundRule;
 import org.linqs.psl.reasoner.Reasoner;
-import org.linqs.psl.reasoner.admm.term.ADMMObjectiveTerm;
 import org.linqs.psl.reasoner.admm.term.ADMMTermStore;
-import org.linqs.psl.reasoner.admm.term.LinearConstraintTerm;
-import org.linqs.psl.reasoner.admm.term.LocalVariable;
+import org.linqs.psl.reasoner.admm.term.UnaryPotentials;
 import org.linqs.psl.reasoner.term.TermGenerator;
 import org.linqs.psl.reasoner.term.TermStore;
-import org.linqs.psl.util.MathUtils;
 import org.linqs.psl.util.Parallel;
 import org.linqs.psl.util.RandUtils;
+import org.linqs.psl.util.RandomStream;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
 /**
  * Uses an ADMM optimization method to optimize its GroundRules.
  */
@@ -59,6 +64,97 @@ public class ADMMReasoner implements Reasoner {
 	public static final String STEP_SIZE_KEY = CONFIG_PREFIX + ".stepsize";
 	public static final float STEP_SIZE_DEFAULT = 1.0f;
 
+	/**
+	 * If true, then the step size is adapted during optimization to keep
+	 * the primal and dual residuals within a factor (ADAPTIVE_RESIDUAL_RATIO) of each other
+	 * (residual balancing).
+	 * STEP_SIZE is then just the starting step size.
+	 */
+	public static final String ADAPTIVE_STEP_SIZE_KEY = CONFIG_PREFIX + ".adaptivestepsize";
+	public static final boolean ADAPTIVE_STEP_SIZE_DEFAULT = false;
+
+	/**
+	 * How often (in iterations) to consider changing the step size.
+	 * Should be positive.
+	 */
+	public static final String ADAPTIVE_PERIOD_KEY = CONFIG_PREFIX + ".adaptiveperiod";
+	public static final int ADAPTIVE_PERIOD_DEFAULT = 10;
+
+	/**
+	 * The step size is changed when one residual is more than this many times larger than the other.
+	 * Should be greater than 1.
+	 */
+	public static final String ADAPTIVE_RESIDUAL_RATIO_KEY = CONFIG_PREFIX + ".adaptiveresidualratio";
+	public static final float ADAPTIVE_RESIDUAL_RATIO_DEFAULT = 10.0f;
+
+	/**
+	 * The factor to multiply (or divide) the step size by when it is changed.
+	 * Should be greater than 1.
+	 */
+	public static final String ADAPTIVE_SCALE_KEY = CONFIG_PREFIX + ".adaptivescale";
+	public static final float ADAPTIVE_SCALE_DEFAULT = 2.0f;
+
+	/**
+	 * Bounds on the adapted step size.
+	 * Should be positive.
+	 */
+	public static final String MIN_STEP_SIZE_KEY = CONFIG_PREFIX + ".minstepsize";
+	public static final float MIN_STEP_SIZE_DEFAULT = 1e-3f;
+
+	public static final String MAX_STEP_SIZE_KEY = CONFIG_PREFIX + ".maxstepsize";
+	public static final float MAX_STEP_SIZE_DEFAULT = 1e3f;
+
+	/**
+	 * The over-relaxation parameter (alpha).
+	 * After each local minimization, the local variables are moved to alpha * x + (1 - alpha) * z.
+	 * 1 means no relaxation, and values in (1, 2) (typically 1.5 - 1.8) over-relax and usually converge faster.
+	 * Must be in (0, 2).
+	 */
+	public static final String RELAXATION_KEY = CONFIG_PREFIX + ".relaxation";
+	public static final float RELAXATION_DEFAULT = 1.0f;
+
+	/**
+	 * If true, then use accelerated (Nesterov-style) ADMM with restarts
+	 * (Goldstein et al., "Fast Alternating Direction Optimization Methods").
+	 * The consensus values and lagrange multipliers are extrapolated from their last two values after every iteration.
+	 * Whenever the combined residual does not shrink enough (see ACCELERATION_RESTART_KEY),
+	 * the momentum is dropped and the previous iterate is used instead.
+	 * Cannot be used with an adaptive step size.
+	 */
+	public static final String ACCELERATION_KEY = CONFIG_PREFIX + ".acceleration";
+	public static final boolean ACCELERATION_DEFAULT = false;
+
+	/**
+	 * The factor (eta) that the combined residual must shrink by each iteration to keep the momentum.
+	 * Must be in (0, 1).
+	 */
+	public static final String ACCELERATION_RESTART_KEY = CONFIG_PREFIX + ".accelerationrestart";
+	public static final float ACCELERATION_RESTART_DEFAULT = 0.999f;
+
+	/**
+	 * If true, then the terms are split into connected components (see ComponentDecomposition)
+	 * and each component is optimized (and converges) on its own.
+	 * Components only stop on their own residuals (or MAX_ITER), the convergence monitor is not used.
+	 * Cannot be used with acceleration or an adaptive step size.
+	 */
+	public static final String DECOMPOSE_KEY = CONFIG_PREFIX + ".decompose";
+	public static final boolean DECOMPOSE_DEFAULT = false;
+
+	/**
+	 * When decomposing, small components are batched together into tasks of (about) this many terms and variables.
+	 * Should be positive.
+	 */
+	public static final String COMPONENT_BATCH_SIZE_KEY = CONFIG_PREFIX + ".componentbatchsize";
+	public static final int COMPONENT_BATCH_SIZE_DEFAULT = 1000;
+
+	/**
+	 * When decomposing, components with at least this many terms are optimized one at a time using all the threads.
+	 * Smaller components are each optimized by a single thread.
+	 * Should be positive.
+	 */
+	public static final String PARALLEL_COMPONENT_SIZE_KEY = CONFIG_PREFIX + ".parallelcomponentsize";
+	public static final int PARALLEL_COMPONENT_SIZE_DEFAULT = 10000;
+
 	/**
 	 * Absolute error component of stopping criteria.
 	 * Should be positive.
@@ -74,11 +170,19 @@ public class ADMMReasoner implements Reasoner {
 	public static final float EPSILON_REL_DEFAULT = 1e-3f;
 
 	/**
-	 * Stop if the objective has not changed since the last logging period (see LOG_PERIOD).
+	 * Stop if the objective has not changed (much) since the last check.
+	 * See ADMMConvergenceMonitor for how often the objective is checked and how much change is allowed.
 	 */
 	public static final String OBJECTIVE_BREAK_KEY = CONFIG_PREFIX + ".objectivebreak";
 	public static final boolean OBJECTIVE_BREAK_DEFAULT = true;
 
+	/**
+	 * The class used to decide when to stop optimizing.
+	 * Must be an ADMMConvergenceMonitor.
+	 */
+	public static final String CONVERGENCE_MONITOR_KEY = CONFIG_PREFIX + ".convergencemonitor";
+	public static final String CONVERGENCE_MONITOR_DEFAULT = ADMMConvergenceMonitor.class.getName();
+
 	/**
 	 * Possible starting values for the consensus values.
 	 *  - ZERO - 0.
@@ -101,18 +205,101 @@ public class ADMMReasoner implements Reasoner {
 	public static final String INITIAL_LOCAL_VALUE_KEY = CONFIG_PREFIX + ".initiallocalvalue";
 	public static final String INITIAL_LOCAL_VALUE_DEFAULT = InitialValue.RANDOM.toString();
 
+	/**
+	 * If true and the term store has already been optimized (and not reset or cleared since),
+	 * then start from the previous consensus values, local values, and lagrange multipliers
+	 * instead of the initial values.
+	 * This is useful when the same terms are optimized over and over with small changes in weights
+	 * (weight learning turns this on for its own reasoner, see WeightLearningApplication.WARM_START_KEY).
+	 */
+	public static final String WARM_START_KEY = CONFIG_PREFIX + ".warmstart";
+	public static final boolean WARM_START_DEFAULT = false;
+
+	/**
+	 * If true, then before the first optimization over a term store,
+	 * the variables and terms are reordered for cache locality (see CuthillMcKeeOrdering).
+	 * The store is only reordered again if terms are added.
+	 */
+	public static final String REORDER_KEY = CONFIG_PREFIX + ".reorder";
+	public static final boolean REORDER_DEFAULT = false;
+
+	/**
+	 * If true, then weighted terms over a single variable (e.g. priors) are not optimized as their own terms.
+	 * Instead, they are folded into the consensus update for their variable (see UnaryPotentials).
+	 * This means fewer local variables and lagrange multipliers, and usually faster convergence.
+	 * Once a term store has been folded, it will always be optimized folded.
+	 */
+	public static final String FOLD_UNARY_TERMS_KEY = CONFIG_PREFIX + ".foldunaryterms";
+	public static final boolean FOLD_UNARY_TERMS_DEFAULT = false;
+
+	/**
+	 * If true, then there is no barrier between minimizing the terms and updating the consensus values.
+	 * Instead, every thread keeps claiming the next block of terms (or variables) and works on it
+	 * with whatever values are there at the time (see AsyncWorker).
+	 * A block is skipped if a thread is still working on it from the last sweep,
+	 * so a few slow blocks (e.g. huge arithmetic terms) do not hold up the rest.
+	 * Convergence is checked at the start of every sweep using the most recent residuals from each block of variables.
+	 * The result is not deterministic.
+	 * Cannot be used with acceleration, an adaptive step size, or decomposition.
+	 */
+	public static final String ASYNCHRONOUS_KEY = CONFIG_PREFIX + ".asynchronous";
+	public static final boolean ASYNCHRONOUS_DEFAULT = false;
+
 	private static final float LOWER_BOUND = 0.0f;
 	private static final float UPPER_BOUND = 1.0f;
 
 	/**
-	 * Log the residuals once in every period.
+	 * The values that the variable workers accumulate, and their position in a worker's accumulators.
 	 */
-	private static final int LOG_PERIOD = 50;
+	private static final int PRIMAL_RES = 0;
+	private static final int DUAL_RES = 1;
+	private static final int AX_NORM = 2;
+	private static final int AY_NORM = 3;
+	private static final int BZ_NORM = 4;
+	private static final int LAGRANGE_PENALTY = 5;
+	private static final int AUGMENTED_LAGRANGE_PENALTY = 6;
+	private static final int NUM_ACCUMULATED = 7;
+
+	/**
+	 * The space between the accumulators of different workers.
+	 * Large enough that different workers do not write to the same cache line.
+	 * Also used by ADMMConvergenceMonitor.
+	 */
+	static final int ACCUMULATOR_STRIDE = 16;
+
+	/**
+	 * Sometimes called eta or rho.
+	 * The step size that each optimization starts with.
+	 */
+	private final float initialStepSize;
+
+	/**
+	 * The step size for the current iteration.
+	 * Only differs from the initial step size when the step size is adaptive.
+	 */
+	private float stepSize;
+
+	private final boolean adaptiveStepSize;
+	private final int adaptivePeriod;
+	private final float adaptiveResidualRatio;
+	private final float adaptiveScale;
+	private final float minStepSize;
+	private final float maxStepSize;
+
+	private final float relaxation;
+	private final boolean acceleration;
+	private final float accelerationRestart;
 
 	/**
-	 * Sometimes called eta or rho,
+	 * The number of times the momentum was dropped in the most recent optimization.
 	 */
-	private final float stepSize;
+	private int numRestarts;
+
+	private final boolean decompose;
+	private final int componentBatchSize;
+	private final int parallelComponentSize;
+
+	private final boolean asynchronous;
 
 	private float epsilonRel;
 	private float epsilonAbs;
@@ -130,18 +317,33 @@ public class ADMMReasoner implements Reasoner {
 
 	private int maxIter;
 
+	/**
+	 * The accumulated values for each variable worker (see ACCUMULATOR_STRIDE).
+	 * Each worker only writes to its own section, and they are summed up after every iteration.
+	 */
+	private float[] accumulators;
+
 	// Also sometimes called 'z'.
 	// Only populated after inference.
 	private float[] consensusValues;
 
-	private int termBlockSize;
-	private int variableBlockSize;
-	private boolean objectiveBreak;
+	private boolean warmStart;
+	private boolean reorder;
+	private boolean foldUnaryTerms;
+
+	// The folded terms for the current optimization, null if there are none.
+	private UnaryPotentials unaryPotentials;
+
+	private ADMMConvergenceMonitor convergenceMonitor;
 
 	public ADMMReasoner() {
 		maxIter = Config.getInt(MAX_ITER_KEY, MAX_ITER_DEFAULT);
-		stepSize = Config.getFloat(STEP_SIZE_KEY, STEP_SIZE_DEFAULT);
-		objectiveBreak = Config.getBoolean(OBJECTIVE_BREAK_KEY, OBJECTIVE_BREAK_DEFAULT);
+		warmStart = Config.getBoolean(WARM_START_KEY, WARM_START_DEFAULT);
+		reorder = Config.getBoolean(REORDER_KEY, REORDER_DEFAULT);
+		foldUnaryTerms = Config.getBoolean(FOLD_UNARY_TERMS_KEY, FOLD_UNARY_TERMS_DEFAULT);
+		initialStepSize = Config.getFloat(STEP_SIZE_KEY, STEP_SIZE_DEFAULT);
+		stepSize = initialStepSize;
+		convergenceMonitor = (ADMMConvergenceMonitor)Config.getNewObject(CONVERGENCE_MONITOR_KEY, CONVERGENCE_MONITOR_DEFAULT);
 
 		epsilonAbs = Config.getFloat(EPSILON_ABS_KEY, EPSILON_ABS_DEFAULT);
 		if (epsilonAbs <= 0) {
@@ -152,6 +354,75 @@ public class ADMMReasoner implements Reasoner {
 		if (epsilonRel <= 0) {
 			throw new IllegalArgumentException("Property " + EPSILON_REL_KEY + " must be positive.");
 		}
+
+		adaptiveStepSize = Config.getBoolean(ADAPTIVE_STEP_SIZE_KEY, ADAPTIVE_STEP_SIZE_DEFAULT);
+
+		adaptivePeriod = Config.getInt(ADAPTIVE_PERIOD_KEY, ADAPTIVE_PERIOD_DEFAULT);
+		if (adaptivePeriod <= 0) {
+			throw new IllegalArgumentException("Property " + ADAPTIVE_PERIOD_KEY + " must be positive.");
+		}
+
+		adaptiveResidualRatio = Config.getFloat(ADAPTIVE_RESIDUAL_RATIO_KEY, ADAPTIVE_RESIDUAL_RATIO_DEFAULT);
+		if (adaptiveResidualRatio <= 1.0f) {
+			throw new IllegalArgumentException("Property " + ADAPTIVE_RESIDUAL_RATIO_KEY + " must be greater than 1.");
+		}
+
+		adaptiveScale = Config.getFloat(ADAPTIVE_SCALE_KEY, ADAPTIVE_SCALE_DEFAULT);
+		if (adaptiveScale <= 1.0f) {
+			throw new IllegalArgumentException("Property " + ADAPTIVE_SCALE_KEY + " must be greater than 1.");
+		}
+
+		minStepSize = Config.getFloat(MIN_STEP_SIZE_KEY, MIN_STEP_SIZE_DEFAULT);
+		maxStepSize = Config.getFloat(MAX_STEP_SIZE_KEY, MAX_STEP_SIZE_DEFAULT);
+		if (minStepSize <= 0.0f || maxStepSize < minStepSize) {
+			throw new IllegalArgumentException("Properties " + MIN_STEP_SIZE_KEY + " and " + MAX_STEP_SIZE_KEY +
+					" must be positive and " + MIN_STEP_SIZE_KEY + " must not be larger than " + MAX_STEP_SIZE_KEY + ".");
+		}
+
+		relaxation = Config.getFloat(RELAXATION_KEY, RELAXATION_DEFAULT);
+		if (relaxation <= 0.0f || relaxation >= 2.0f) {
+			throw new IllegalArgumentException("Property " + RELAXATION_KEY + " must be in (0, 2).");
+		}
+
+		acceleration = Config.getBoolean(ACCELERATION_KEY, ACCELERATION_DEFAULT);
+		if (acceleration && adaptiveStepSize) {
+			throw new IllegalArgumentException("Properties " + ACCELERATION_KEY + " and " + ADAPTIVE_STEP_SIZE_KEY + " cannot both be on.");
+		}
+
+		accelerationRestart = Config.getFloat(ACCELERATION_RESTART_KEY, ACCELERATION_RESTART_DEFAULT);
+		if (accelerationRestart <= 0.0f || accelerationRestart >= 1.0f) {
+			throw new IllegalArgumentException("Property " + ACCELERATION_RESTART_KEY + " must be in (0, 1).");
+		}
+
+		decompose = Config.getBoolean(DECOMPOSE_KEY, DECOMPOSE_DEFAULT);
+		if (decompose && (acceleration || adaptiveStepSize)) {
+			throw new IllegalArgumentException("Property " + DECOMPOSE_KEY + " cannot be used with " +
+					ACCELERATION_KEY + " or " + ADAPTIVE_STEP_SIZE_KEY + ".");
+		}
+
+		componentBatchSize = Config.getInt(COMPONENT_BATCH_SIZE_KEY, COMPONENT_BATCH_SIZE_DEFAULT);
+		if (componentBatchSize <= 0) {
+			throw new IllegalArgumentException("Property " + COMPONENT_BATCH_SIZE_KEY + " must be positive.");
+		}
+
+		parallelComponentSize = Config.getInt(PARALLEL_COMPONENT_SIZE_KEY, PARALLEL_COMPONENT_SIZE_DEFAULT);
+		if (parallelComponentSize <= 0) {
+			throw new IllegalArgumentException("Property " + PARALLEL_COMPONENT_SIZE_KEY + " must be positive.");
+		}
+
+		asynchronous = Config.getBoolean(ASYNCHRONOUS_KEY, ASYNCHRONOUS_DEFAULT);
+		if (asynchronous && (acceleration || adaptiveStepSize || decompose)) {
+			throw new IllegalArgumentException("Property " + ASYNCHRONOUS_KEY + " cannot be used with " +
+					ACCELERATION_KEY + ", " + ADAPTIVE_STEP_SIZE_KEY + ", or " + DECOMPOSE_KEY + ".");
+		}
+	}
+
+	public boolean getWarmStart() {
+		return warmStart;
+	}
+
+	public void setWarmStart(boolean warmStart) {
+		this.warmStart = warmStart;
 	}
 
 	public int getMaxIter() {
@@ -178,6 +449,24 @@ public class ADMMReasoner implements Reasoner {
 		this.epsilonAbs = epsilonAbs;
 	}
 
+	/**
+	 * The step size at the end of the most recent optimization.
+	 */
+	public float getStepSize() {
+		return stepSize;
+	}
+
+	/**
+	 * The number of acceleration restarts in the most recent optimization.
+	 */
+	public int getNumRestarts() {
+		return numRestarts;
+	}
+
+	public ADMMConvergenceMonitor getConvergenceMonitor() {
+		return convergenceMonitor;
+	}
+
 	public float getLagrangianPenalty() {
 		return this.lagrangePenalty;
 	}
@@ -202,94 +491,308 @@ public class ADMMReasoner implements Reasoner {
 		}
 		ADMMTermStore termStore = (ADMMTermStore)baseTermStore;
 
-		termStore.resetLocalVairables(initialLocal);
+		if (reorder && !termStore.isOrdered()) {
+			log.debug("Reordering terms and variables.");
+			CuthillMcKeeOrdering.reorder(termStore);
+		}
+
+		unaryPotentials = null;
+		if (foldUnaryTerms || termStore.getNumFoldedTerms() > 0) {
+			unaryPotentials = termStore.foldUnaryTerms();
+			log.debug("Folded {} single variable terms into the consensus update.", unaryPotentials.size());
+
+			if (unaryPotentials.size() == 0) {
+				unaryPotentials = null;
+			}
+		}
 
 		int numTerms = termStore.size();
 		int numVariables = termStore.getNumGlobalVariables();
 
 		log.debug("Performing optimization with {} variables and {} terms.", numVariables, numTerms);
 
-		initConsensusValues(termStore, initialConsensus);
+		float[] previousConsensusValues = termStore.getConsensusValues();
+		if (warmStart && previousConsensusValues != null && previousConsensusValues.length == numVariables) {
+			log.debug("Warm starting from the previous optimization.");
+			consensusValues = previousConsensusValues;
+		} else {
+			termStore.resetLocalVairables(initialLocal);
+			initConsensusValues(termStore, initialConsensus);
+		}
+
+		stepSize = initialStepSize;
+		numRestarts = 0;
+		accumulators = new float[Parallel.getNumThreads() * ACCUMULATOR_STRIDE];
+
+		if (decompose) {
+			optimizeComponents(termStore);
+		} else {
+			// Folded terms are not minimized.
+			int[] termIndices = null;
+			if (unaryPotentials != null) {
+				termIndices = new int[numTerms - termStore.getNumFoldedTerms()];
+
+				int count = 0;
+				for (int termIndex = 0; termIndex < numTerms; termIndex++) {
+					if (!termStore.isFolded(termIndex)) {
+						termIndices[count++] = termIndex;
+					}
+				}
+			}
 
-		termBlockSize = numTerms / (Parallel.getNumThreads() * 4) + 1;
-		variableBlockSize = numVariables / (Parallel.getNumThreads() * 4) + 1;
+			int iterations;
+			if (asynchronous && numTerms > 0 && numVariables > 0) {
+				iterations = iterateAsynchronously(termStore, termIndices, (termIndices == null) ? numTerms : termIndices.length,
+						numVariables, termStore.getNumLocalVariables());
+			} else {
+				iterations = iterate(termStore, termIndices, (termIndices == null) ? numTerms : termIndices.length,
+						null, numVariables, termStore.getNumLocalVariables(), true);
+			}
+
+			primalRes = (float)Math.sqrt(primalRes);
+			dualRes = (float)(stepSize * Math.sqrt(dualRes));
+
+			log.info("Optimization completed in {} iterations. Primal res.: {}, Dual res.: {}",
+					iterations, primalRes, dualRes);
+		}
+
+		// Updates variables
+		termStore.updateVariables(consensusValues);
+		termStore.setConsensusValues(consensusValues);
+	}
+
+	@Override
+	public void close() {
+	}
+
+	/**
+	 * Run ADMM iterations over some of the terms and variables until they converge (or MAX_ITER is reached).
+	 * The terms and variables must not share any variables with the ones left out.
+	 * Null indices means all the terms (or variables).
+	 * When done, the accumulators (and the residual fields) are left with the sums (not norms) from the last iteration.
+	 * @return the number of iterations run.
+	 */
+	private int iterate(ADMMTermStore termStore, int[] termIndices, int numTerms,
+			int[] variableIndices, int numVariables, int numLocalVariables, boolean monitor) {
+		int termBlockSize = numTerms / (Parallel.getNumThreads() * 4) + 1;
+		int variableBlockSize = numVariables / (Parallel.getNumThreads() * 4) + 1;
 
 		int numTermBlocks = (int)Math.ceil(numTerms / (float)termBlockSize);
 		int numVariableBlocks = (int)Math.ceil(numVariables / (float)variableBlockSize);
 
-		// Performs inference.
-		float epsilonAbsTerm = (float)(Math.sqrt(termStore.getNumLocalVariables()) * epsilonAbs);
+		VariableWorker variableWorker = new VariableWorker(termStore, variableIndices, numVariables, variableBlockSize);
 
-		float objective = 0.0f;
-		float oldObjective = 0.0f;
+		// When accelerating, the lagrange multipliers have to be updated (and then extrapolated)
+		// before the next minimization, so the two steps are split.
+		TermWorker termWorker = new TermWorker(termStore, termIndices, numTerms, termBlockSize, !acceleration, true);
+		TermWorker lagrangeWorker = null;
+		AccelerationWorker accelerationWorker = null;
 
-		int iteration = 1;
-		while (
-				(iteration == 1 || primalRes > epsilonPrimal || dualRes > epsilonDual)
-				&& (objectiveBreak && (MathUtils.isZero(oldObjective) || !MathUtils.equals(objective, oldObjective)))
-				&& iteration <= maxIter) {
-			// Zero out the iteration variables.
-			primalRes = 0.0f;
-			dualRes = 0.0f;
-			AxNorm = 0.0f;
-			AyNorm = 0.0f;
-			BzNorm = 0.0f;
-			lagrangePenalty = 0.0f;
-			augmentedLagrangePenalty = 0.0f;
+		// The combined residual (c) from the last iteration, and the momentum parameter (alpha).
+		float previousCombinedResidual = Float.POSITIVE_INFINITY;
+		float momentum = 1.0f;
 
+		if (acceleration) {
+			lagrangeWorker = new TermWorker(termStore, termIndices, numTerms, termBlockSize, true, false);
+			accelerationWorker = new AccelerationWorker(termStore, variableBlockSize);
+		}
+
+		float epsilonAbsTerm = (float)(Math.sqrt(numLocalVariables) * epsilonAbs);
+
+		if (monitor) {
+			convergenceMonitor.start(termStore);
+		}
+
+		int iteration = 1;
+		boolean converged = false;
+		while (!converged && iteration <= maxIter) {
 			// Minimize all the terms.
-			Parallel.count(numTermBlocks, new TermWorker(termStore, termBlockSize));
+			Parallel.count(numTermBlocks, termWorker);
 
 			// Compute new consensus values and residuals.
-			Parallel.count(numVariableBlocks, new VariableWorker(termStore, variableBlockSize));
+			Arrays.fill(accumulators, 0.0f);
+			Parallel.count(numVariableBlocks, variableWorker);
+			reduceAccumulators();
 
-			primalRes = (float)Math.sqrt(primalRes);
-			dualRes = (float)(stepSize * Math.sqrt(dualRes));
+			float primalNorm = (float)Math.sqrt(primalRes);
+			float dualNorm = (float)(stepSize * Math.sqrt(dualRes));
 
 			epsilonPrimal = (float)(epsilonAbsTerm + epsilonRel * Math.max(Math.sqrt(AxNorm), Math.sqrt(BzNorm)));
 			epsilonDual = (float)(epsilonAbsTerm + epsilonRel * Math.sqrt(AyNorm));
 
-			if (iteration % LOG_PERIOD == 0) {
-				if (!objectiveBreak) {
-					log.trace(
-							"Iteration {} -- Primal: {}, Dual: {}, Epsilon Primal: {}, Epsilon Dual: {}.",
-							iteration, primalRes, dualRes, epsilonPrimal, epsilonDual);
+			if (acceleration) {
+				Parallel.count(numTermBlocks, lagrangeWorker);
+
+				// c = ||y - yHat||^2 / stepSize + stepSize * ||B(z - zHat)||^2
+				float combinedResidual = stepSize * primalNorm * primalNorm + dualNorm * dualNorm / stepSize;
+
+				if (combinedResidual < accelerationRestart * previousCombinedResidual) {
+					float nextMomentum = (float)((1.0 + Math.sqrt(1.0 + 4.0 * momentum * momentum)) / 2.0);
+					accelerationWorker.setStep((momentum - 1.0f) / nextMomentum, false);
+
+					momentum = nextMomentum;
+					previousCombinedResidual = combinedResidual;
 				} else {
-					oldObjective = objective;
-
-					objective = 0.0f;
-					boolean feasible = true;
-
-					if (log.isTraceEnabled()) {
-						for (ADMMObjectiveTerm term : termStore) {
-							if (term instanceof LinearConstraintTerm) {
-								if (term.evaluate() > 0.0f) {
-									feasible = false;
-								}
-							} else {
-								objective += (1.0f - term.evaluate());
-							}
-						}
-					}
+					accelerationWorker.setStep(0.0f, true);
 
-					log.trace(
-							"Iteration {} -- Objective: {}, Feasible: {}, Primal: {}, Dual: {}, Epsilon Primal: {}, Epsilon Dual: {}.",
-							iteration, objective, feasible, primalRes, dualRes, epsilonPrimal, epsilonDual);
+					momentum = 1.0f;
+					previousCombinedResidual = previousCombinedResidual / accelerationRestart;
+					numRestarts++;
 				}
+
+				Parallel.count(numVariableBlocks, accelerationWorker);
+			}
+
+			if (adaptiveStepSize && iteration % adaptivePeriod == 0) {
+				adaptStepSize(primalNorm, dualNorm);
+			}
+
+			if (monitor) {
+				converged = convergenceMonitor.isConverged(iteration, primalNorm, dualNorm, epsilonPrimal, epsilonDual, iteration == maxIter);
+			} else {
+				converged = (primalNorm <= epsilonPrimal && dualNorm <= epsilonDual);
 			}
 
 			iteration++;
 		}
 
-		log.info("Optimization completed in {} iterations. Primal res.: {}, Dual res.: {}",
-				iteration - 1, primalRes, dualRes);
+		if (acceleration) {
+			// The extrapolated values were only for the next iteration, go back to the real iterate.
+			accelerationWorker.finish();
+			Parallel.count(numVariableBlocks, accelerationWorker);
+		}
 
-		// Updates variables
-		termStore.updateVariables(consensusValues);
+		if (monitor) {
+			convergenceMonitor.finish();
+		}
+
+		return iteration - 1;
 	}
 
-	@Override
-	public void close() {
+	/**
+	 * Run ADMM without a barrier between the term and variable updates (see ASYNCHRONOUS_KEY)
+	 * until it converges (or MAX_ITER sweeps are started).
+	 * Null indices means all the terms.
+	 * When done, the accumulators (and the residual fields) are left with the sums from a final (synchronous) consensus update.
+	 * @return the number of sweeps started.
+	 */
+	private int iterateAsynchronously(ADMMTermStore termStore, int[] termIndices, int numTerms, int numVariables, int numLocalVariables) {
+		int termBlockSize = numTerms / (Parallel.getNumThreads() * 4) + 1;
+		int variableBlockSize = numVariables / (Parallel.getNumThreads() * 4) + 1;
+
+		int numTermBlocks = (int)Math.ceil(numTerms / (float)termBlockSize);
+		int numVariableBlocks = (int)Math.ceil(numVariables / (float)variableBlockSize);
+
+		float epsilonAbsTerm = (float)(Math.sqrt(numLocalVariables) * epsilonAbs);
+		AsyncWorker asyncWorker = new AsyncWorker(termStore, termIndices, numTerms, termBlockSize, numTermBlocks,
+				numVariables, variableBlockSize, numVariableBlocks, epsilonAbsTerm);
+
+		convergenceMonitor.start(termStore);
+		Parallel.count(Parallel.getNumThreads(), asyncWorker);
+
+		// Bring the consensus values in line with the final local values (and get the final residuals).
+		Arrays.fill(accumulators, 0.0f);
+		Parallel.count(numVariableBlocks, new VariableWorker(termStore, null, numVariables, variableBlockSize));
+		reduceAccumulators();
+
+		// The monitor only saw the checks at the start of each sweep, so it still needs to see the end.
+		if (!asyncWorker.isConverged()) {
+			epsilonPrimal = (float)(epsilonAbsTerm + epsilonRel * Math.max(Math.sqrt(AxNorm), Math.sqrt(BzNorm)));
+			epsilonDual = (float)(epsilonAbsTerm + epsilonRel * Math.sqrt(AyNorm));
+
+			convergenceMonitor.isConverged(asyncWorker.getSweeps(), (float)Math.sqrt(primalRes), (float)(stepSize * Math.sqrt(dualRes)),
+					epsilonPrimal, epsilonDual, true);
+		}
+
+		convergenceMonitor.finish();
+
+		return asyncWorker.getSweeps();
+	}
+
+	/**
+	 * Optimize each connected component on its own (see DECOMPOSE_KEY).
+	 * Large components are optimized one at a time (with all threads),
+	 * and then the small components are batched into tasks that are each optimized by a single thread.
+	 */
+	private void optimizeComponents(ADMMTermStore termStore) {
+		ComponentDecomposition components = ComponentDecomposition.decompose(termStore);
+		int numComponents = components.getNumComponents();
+
+		int[] termOffsets = components.getTermOffsets();
+		int[] variableOffsets = components.getVariableOffsets();
+
+		// The sums over all the components.
+		float[] totals = new float[NUM_ACCUMULATED];
+		int maxIterations = 0;
+
+		// Components are ordered from largest to smallest.
+		int component = 0;
+		for (; component < numComponents && components.getNumTerms(component) >= parallelComponentSize; component++) {
+			int[] termIndices = Arrays.copyOfRange(components.getTermIndices(), termOffsets[component], termOffsets[component + 1]);
+			int[] variableIndices = Arrays.copyOfRange(components.getVariableIndices(), variableOffsets[component], variableOffsets[component + 1]);
+
+			int numLocalVariables = 0;
+			for (int variableIndex : variableIndices) {
+				numLocalVariables += termStore.getNumLocalVariables(variableIndex);
+			}
+
+			int iterations = iterate(termStore, termIndices, termIndices.length, variableIndices, variableIndices.length, numLocalVariables, false);
+			maxIterations = Math.max(maxIterations, iterations);
+
+			addAccumulators(totals);
+		}
+
+		int numParallelComponents = component;
+
+		// Batch up the rest of the components.
+		// The batches are built in order, so the larger batches (with fewer components) come first.
+		final List<Integer> batchStarts = new ArrayList<Integer>();
+		// Variables are counted too, since many components may not have any terms (just variables).
+		int batchSize = componentBatchSize;
+		for (; component < numComponents; component++) {
+			if (batchSize >= componentBatchSize) {
+				batchStarts.add(component);
+				batchSize = 0;
+			}
+
+			batchSize += components.getNumTerms(component) + components.getNumVariables(component);
+		}
+		batchStarts.add(numComponents);
+
+		Arrays.fill(accumulators, 0.0f);
+		ComponentWorker componentWorker = new ComponentWorker(termStore, components, batchStarts);
+		Parallel.count(batchStarts.size() - 1, componentWorker);
+		addAccumulators(totals);
+
+		setAccumulated(totals);
+		primalRes = (float)Math.sqrt(primalRes);
+		dualRes = (float)(stepSize * Math.sqrt(dualRes));
+
+		log.info("Optimization completed for {} components ({} optimized in parallel, {} tasks for the rest) in at most {} iterations." +
+				" Primal res.: {}, Dual res.: {}",
+				numComponents, numParallelComponents, batchStarts.size() - 1,
+				Math.max(maxIterations, componentWorker.getMaxIterations()), primalRes, dualRes);
+	}
+
+	/**
+	 * Residual balancing: grow the step size when the primal residual is much larger than the dual residual
+	 * (to push harder toward consensus) and shrink it when the dual residual is much larger.
+	 * The lagrange multipliers are kept unscaled (y instead of y / stepSize),
+	 * so they stay valid when the step size changes and do not need to be rescaled.
+	 */
+	private void adaptStepSize(float primalRes, float dualRes) {
+		float newStepSize = stepSize;
+
+		if (primalRes > adaptiveResidualRatio * dualRes) {
+			newStepSize = Math.min(maxStepSize, stepSize * adaptiveScale);
+		} else if (dualRes > adaptiveResidualRatio * primalRes) {
+			newStepSize = Math.max(minStepSize, stepSize / adaptiveScale);
+		}
+
+		if (newStepSize != stepSize) {
+			log.trace("Changing step size from {} to {} (Primal: {}, Dual: {}).", stepSize, newStepSize, primalRes, dualRes);
+			stepSize = newStepSize;
+		}
 	}
 
 	/**
@@ -307,9 +810,7 @@ public class ADMMReasoner implements Reasoner {
 
 		// Set the global variables to the value of the local variables for this rule.
 		for (Integer termIndex : termStore.getTermIndices((WeightedGroundRule)groundRule)) {
-			for (LocalVariable localVariable : termStore.get(termIndex).getVariables()) {
-				consensusBuffer[localVariable.getGlobalId()] = localVariable.getValue();
-			}
+			termStore.copyLocalValues(termIndex.intValue(), consensusBuffer);
 		}
 
 		// Updates variables
@@ -330,9 +831,22 @@ public class ADMMReasoner implements Reasoner {
 				consensusValues[i] = 0.0f;
 			}
 		} else if (initialConsensus == InitialValue.RANDOM) {
-			for (int i = 0; i < consensusValues.length; i++) {
-				consensusValues[i] = RandUtils.nextFloat();
-			}
+			// Each block of variables gets its own random stream, so the values do not depend on the number of threads.
+			final long streamSeed = RandUtils.nextStreamSeed();
+			int numBlocks = (consensusValues.length + RandUtils.STREAM_BLOCK_SIZE - 1) / RandUtils.STREAM_BLOCK_SIZE;
+
+			Parallel.count(numBlocks, new Parallel.Worker<Integer>() {
+				@Override
+				public void work(int blockIndex, Integer ignore) {
+					RandomStream rand = RandUtils.getStream(streamSeed, blockIndex);
+
+					int start = blockIndex * RandUtils.STREAM_BLOCK_SIZE;
+					int end = Math.min(consensusValues.length, start + RandUtils.STREAM_BLOCK_SIZE);
+					for (int i = start; i < end; i++) {
+						consensusValues[i] = rand.nextFloat();
+					}
+				}
+			});
 		} else if (initialConsensus == InitialValue.ATOM) {
 			termStore.getAtomValues(consensusValues);
 		} else {
@@ -340,123 +854,627 @@ public class ADMMReasoner implements Reasoner {
 		}
 	}
 
-	private synchronized void updateIterationVariables(
-			float primalRes, float dualRes,
-			float AxNorm, float BzNorm, float AyNorm,
-			float lagrangePenalty, float augmentedLagrangePenalty) {
-		this.primalRes += primalRes;
-		this.dualRes += dualRes;
-		this.AxNorm += AxNorm;
-		this.AyNorm += AyNorm;
-		this.BzNorm += BzNorm;
-		this.lagrangePenalty += lagrangePenalty;
-		this.augmentedLagrangePenalty += augmentedLagrangePenalty;
+	/**
+	 * Sum up the values from all the variable workers.
+	 */
+	private void reduceAccumulators() {
+		float[] totals = new float[NUM_ACCUMULATED];
+		addAccumulators(totals);
+		setAccumulated(totals);
+	}
+
+	/**
+	 * Add the values from all the workers' accumulators into |totals|.
+	 */
+	private void addAccumulators(float[] totals) {
+		for (int offset = 0; offset < accumulators.length; offset += ACCUMULATOR_STRIDE) {
+			for (int i = 0; i < NUM_ACCUMULATED; i++) {
+				totals[i] += accumulators[offset + i];
+			}
+		}
+	}
+
+	private void setAccumulated(float[] totals) {
+		primalRes = totals[PRIMAL_RES];
+		dualRes = totals[DUAL_RES];
+		AxNorm = totals[AX_NORM];
+		AyNorm = totals[AY_NORM];
+		BzNorm = totals[BZ_NORM];
+		lagrangePenalty = totals[LAGRANGE_PENALTY];
+		augmentedLagrangePenalty = totals[AUGMENTED_LAGRANGE_PENALTY];
 	}
 
+	/**
+	 * Update the lagrange multipliers of a term and/or minimize it.
+	 */
+	private void updateTerm(ADMMTermStore termStore, int termIndex, boolean updateLagrange, boolean minimize) {
+		if (updateLagrange) {
+			termStore.updateLagrange(termIndex, stepSize, consensusValues);
+		}
+
+		if (minimize) {
+			termStore.minimize(termIndex, stepSize, consensusValues);
+
+			if (relaxation != 1.0f) {
+				termStore.relax(termIndex, relaxation, consensusValues);
+			}
+		}
+	}
+
+	/**
+	 * Compute the new consensus value for a variable
+	 * and add its part of the residuals (and norms) into |sums| (laid out like a worker's accumulators).
+	 */
+	private void updateConsensusValue(ADMMTermStore termStore, int variableIndex, float[] sums) {
+		float total = 0.0f;
+		int numLocalVariables = termStore.getNumLocalVariables(variableIndex);
+
+		// First pass computes newConsensusValue and dual residual fom all local copies.
+		for (int localVarIndex = 0; localVarIndex < numLocalVariables; localVarIndex++) {
+			float value = termStore.getLocalValue(variableIndex, localVarIndex);
+			float lagrange = termStore.getLocalLagrange(variableIndex, localVarIndex);
+
+			total += value + lagrange / stepSize;
+
+			sums[AX_NORM] += value * value;
+			sums[AY_NORM] += lagrange * lagrange;
+		}
+
+		float newConsensusValue;
+		if (unaryPotentials != null && unaryPotentials.hasPotentials(variableIndex)) {
+			// The folded terms are minimized along with the consensus value.
+			float average = (numLocalVariables == 0) ? 0.0f : total / numLocalVariables;
+			newConsensusValue = unaryPotentials.prox(variableIndex, average, stepSize * numLocalVariables);
+			unaryPotentials.setValues(variableIndex, newConsensusValue);
+		} else if (numLocalVariables == 0) {
+			// A variable that no term uses (e.g. one only seen in a trivial grounding) keeps its value.
+			newConsensusValue = consensusValues[variableIndex];
+		} else {
+			newConsensusValue = total / numLocalVariables;
+			newConsensusValue = Math.max(Math.min(newConsensusValue, UPPER_BOUND), LOWER_BOUND);
+		}
+
+		float diff = consensusValues[variableIndex] - newConsensusValue;
+		// Residual is diff^2 * number of local variables mapped to consensusValues element.
+		sums[DUAL_RES] += diff * diff * numLocalVariables;
+		sums[BZ_NORM] += newConsensusValue * newConsensusValue * numLocalVariables;
+
+		consensusValues[variableIndex] = newConsensusValue;
+
+		// Second pass computes primal residuals.
+
+		for (int localVarIndex = 0; localVarIndex < numLocalVariables; localVarIndex++) {
+			float value = termStore.getLocalValue(variableIndex, localVarIndex);
+			float lagrange = termStore.getLocalLagrange(variableIndex, localVarIndex);
+
+			diff = value - newConsensusValue;
+			sums[PRIMAL_RES] += diff * diff;
+
+			// compute Lagrangian penalties
+			sums[LAGRANGE_PENALTY] += lagrange * (value - consensusValues[variableIndex]);
+			sums[AUGMENTED_LAGRANGE_PENALTY] += 0.5 * stepSize * Math.pow(value - consensusValues[variableIndex], 2);
+		}
+	}
+
+	/**
+	 * Updates the lagrange multipliers of each term and/or minimizes it.
+	 */
 	private class TermWorker extends Parallel.Worker<Integer> {
 		private ADMMTermStore termStore;
+		// Null for all terms.
+		private int[] termIndices;
+		private int numTerms;
 		private int blockSize;
+		private boolean updateLagrange;
+		private boolean minimize;
 
-		public TermWorker(ADMMTermStore termStore, int blockSize) {
+		public TermWorker(ADMMTermStore termStore, int[] termIndices, int numTerms, int blockSize, boolean updateLagrange, boolean minimize) {
 			super();
 			this.termStore = termStore;
+			this.termIndices = termIndices;
+			this.numTerms = numTerms;
 			this.blockSize = blockSize;
+			this.updateLagrange = updateLagrange;
+			this.minimize = minimize;
 		}
 
 		public Object clone() {
-			return new TermWorker(termStore, blockSize);
+			return new TermWorker(termStore, termIndices, numTerms, blockSize, updateLagrange, minimize);
 		}
 
 		@Override
 		public void work(int blockIndex, Integer ignore) {
-			int numTerms = termStore.size();
-
 			// Minimize each local function (wrt the local variable copies).
 			for (int innerBlockIndex = 0; innerBlockIndex < blockSize; innerBlockIndex++) {
-				int termIndex = blockIndex * blockSize + innerBlockIndex;
+				int index = blockIndex * blockSize + innerBlockIndex;
 
-				if (termIndex >= numTerms) {
+				if (index >= numTerms) {
 					break;
 				}
 
-				termStore.get(termIndex).updateLagrange(stepSize, consensusValues);
-				termStore.get(termIndex).minimize(stepSize, consensusValues);
+				updateTerm(termStore, (termIndices == null) ? index : termIndices[index], updateLagrange, minimize);
 			}
 		}
 	}
 
-	private class VariableWorker extends Parallel.Worker<Integer> {
+	/**
+	 * Extrapolates the consensus values and lagrange multipliers for accelerated ADMM (see ACCELERATION_KEY).
+	 * Keeps the last (non-extrapolated) values around to extrapolate from.
+	 */
+	private class AccelerationWorker extends Parallel.Worker<Integer> {
 		private ADMMTermStore termStore;
 		private int blockSize;
 
-		public VariableWorker(ADMMTermStore termStore, int blockSize) {
+		// Only the base worker allocates these, the copies share them.
+		private float[] previousConsensusValues;
+		private float[] previousLagranges;
+
+		// The offset of each global variable's local variables in previousLagranges.
+		private int[] localOffsets;
+
+		private float step;
+		private boolean restart;
+		private boolean finish;
+
+		public AccelerationWorker(ADMMTermStore termStore, int blockSize) {
+			this(termStore, blockSize, null, null, null);
+
+			int numVariables = termStore.getNumGlobalVariables();
+
+			previousConsensusValues = Arrays.copyOf(consensusValues, numVariables);
+			localOffsets = new int[numVariables + 1];
+			for (int variableIndex = 0; variableIndex < numVariables; variableIndex++) {
+				localOffsets[variableIndex + 1] = localOffsets[variableIndex] + termStore.getNumLocalVariables(variableIndex);
+			}
+
+			previousLagranges = new float[localOffsets[numVariables]];
+			for (int variableIndex = 0; variableIndex < numVariables; variableIndex++) {
+				for (int localIndex = 0; localIndex < termStore.getNumLocalVariables(variableIndex); localIndex++) {
+					previousLagranges[localOffsets[variableIndex] + localIndex] = termStore.getLocalLagrange(variableIndex, localIndex);
+				}
+			}
+		}
+
+		private AccelerationWorker(ADMMTermStore termStore, int blockSize,
+				float[] previousConsensusValues, float[] previousLagranges, int[] localOffsets) {
 			super();
 			this.termStore = termStore;
 			this.blockSize = blockSize;
+			this.previousConsensusValues = previousConsensusValues;
+			this.previousLagranges = previousLagranges;
+			this.localOffsets = localOffsets;
 		}
 
 		public Object clone() {
-			return new VariableWorker(termStore, blockSize);
+			AccelerationWorker worker = new AccelerationWorker(termStore, blockSize,
+					previousConsensusValues, previousLagranges, localOffsets);
+			worker.step = step;
+			worker.restart = restart;
+			worker.finish = finish;
+			return worker;
+		}
+
+		/**
+		 * Set up the next extrapolation.
+		 * On a restart, the values from the previous iteration are used instead of extrapolating.
+		 */
+		public void setStep(float step, boolean restart) {
+			this.step = step;
+			this.restart = restart;
+			this.finish = false;
+		}
+
+		/**
+		 * Set up a pass that puts back the last real (non-extrapolated) values.
+		 */
+		public void finish() {
+			this.finish = true;
 		}
 
 		@Override
 		public void work(int blockIndex, Integer ignore) {
 			int numVariables = termStore.getNumGlobalVariables();
 
-			float primalResInc = 0.0f;
-			float dualResInc = 0.0f;
-			float AxNormInc = 0.0f;
-			float BzNormInc = 0.0f;
-			float AyNormInc = 0.0f;
-			float lagrangePenaltyInc = 0.0f;
-			float augmentedLagrangePenaltyInc = 0.0f;
+			for (int innerBlockIndex = 0; innerBlockIndex < blockSize; innerBlockIndex++) {
+				int variableIndex = blockIndex * blockSize + innerBlockIndex;
+
+				if (variableIndex >= numVariables) {
+					break;
+				}
+
+				consensusValues[variableIndex] = nextValue(consensusValues[variableIndex], previousConsensusValues, variableIndex);
+
+				int numLocalVariables = termStore.getNumLocalVariables(variableIndex);
+				for (int localIndex = 0; localIndex < numLocalVariables; localIndex++) {
+					float lagrange = termStore.getLocalLagrange(variableIndex, localIndex);
+					lagrange = nextValue(lagrange, previousLagranges, localOffsets[variableIndex] + localIndex);
+					termStore.setLocalLagrange(variableIndex, localIndex, lagrange);
+				}
+			}
+		}
+
+		/**
+		 * Get the value to use next and remember the current value.
+		 */
+		private float nextValue(float value, float[] previousValues, int index) {
+			float previousValue = previousValues[index];
+
+			if (finish) {
+				return previousValue;
+			}
+
+			previousValues[index] = value;
+
+			if (restart) {
+				return previousValue;
+			}
+
+			return value + step * (value - previousValue);
+		}
+	}
+
+	/**
+	 * Each copy of this worker accumulates the residuals for all the blocks it is given,
+	 * and only writes them out (to its own section of the accumulators) when it is closed.
+	 */
+	private class VariableWorker extends Parallel.Worker<Integer> {
+		private ADMMTermStore termStore;
+		// Null for all variables.
+		private int[] variableIndices;
+		private int numVariables;
+		private int blockSize;
+
+		private float[] sums;
+
+		public VariableWorker(ADMMTermStore termStore, int[] variableIndices, int numVariables, int blockSize) {
+			super();
+			this.termStore = termStore;
+			this.variableIndices = variableIndices;
+			this.numVariables = numVariables;
+			this.blockSize = blockSize;
+
+			sums = new float[NUM_ACCUMULATED];
+		}
+
+		public Object clone() {
+			return new VariableWorker(termStore, variableIndices, numVariables, blockSize);
+		}
+
+		@Override
+		public void init(int id) {
+			super.init(id);
+			Arrays.fill(sums, 0.0f);
+		}
+
+		@Override
+		public void close() {
+			System.arraycopy(sums, 0, accumulators, id * ACCUMULATOR_STRIDE, NUM_ACCUMULATED);
+		}
 
+		@Override
+		public void work(int blockIndex, Integer ignore) {
 			// Instead of dividing up the work ahead of time,
 			// get one job at a time so the threads will have more even workloads.
 			for (int innerBlockIndex = 0; innerBlockIndex < blockSize; innerBlockIndex++) {
-				int variableIndex = blockIndex * blockSize + innerBlockIndex;
+				int index = blockIndex * blockSize + innerBlockIndex;
 
-				if (variableIndex >= numVariables) {
+				if (index >= numVariables) {
 					break;
 				}
 
-				float total = 0.0f;
-				int numLocalVariables = termStore.getLocalVariables(variableIndex).size();
+				updateConsensusValue(termStore, (variableIndices == null) ? index : variableIndices[index], sums);
+			}
+		}
+	}
+
+	/**
+	 * Runs asynchronous ADMM (see ASYNCHRONOUS_KEY).
+	 * All copies of this worker share the same state, and each copy keeps working (on any block) until
+	 * the optimization converges.
+	 *
+	 * The work is split into sweeps.
+	 * Each sweep is every term block (lagrange update and minimization) followed by every variable block (consensus update).
+	 * Threads claim the next block from a shared counter, so threads that finish their terms early
+	 * move on to the consensus update (and then the next sweep) instead of waiting for the slow term blocks.
+	 * Each variable block keeps its most recent residual sums, and these are summed up for the convergence check.
+	 */
+	private class AsyncWorker extends Parallel.Worker<Integer> {
+		private final ADMMTermStore termStore;
+		// Null for all terms.
+		private final int[] termIndices;
+		private final int numTerms;
+		private final int termBlockSize;
+		private final int numTermBlocks;
+		private final int numVariables;
+		private final int variableBlockSize;
+		private final int numVariableBlocks;
+		private final float epsilonAbsTerm;
+
+		// Shared between all copies.
+		private final AtomicInteger nextTask;
+		// Non-zero for the (term then variable) blocks that a thread is working on.
+		private final AtomicIntegerArray busy;
+		// The residual sums from the last time each variable block was updated (laid out like the accumulators).
+		// Kept as float bits so that each sum is published to the thread checking convergence.
+		private final AtomicIntegerArray blockSums;
+		private final AtomicBoolean checking;
+		private final AtomicBoolean done;
+		// Set if done because the residuals (or the convergence monitor) said so.
+		private final AtomicBoolean converged;
+		private final AtomicInteger sweeps;
+
+		private float[] sums;
+
+		public AsyncWorker(ADMMTermStore termStore, int[] termIndices, int numTerms, int termBlockSize, int numTermBlocks,
+				int numVariables, int variableBlockSize, int numVariableBlocks, float epsilonAbsTerm) {
+			this(termStore, termIndices, numTerms, termBlockSize, numTermBlocks,
+					numVariables, variableBlockSize, numVariableBlocks, epsilonAbsTerm,
+					new AtomicInteger(0), new AtomicIntegerArray(numTermBlocks + numVariableBlocks),
+					new AtomicIntegerArray(numVariableBlocks * ACCUMULATOR_STRIDE),
+					new AtomicBoolean(false), new AtomicBoolean(false), new AtomicBoolean(false), new AtomicInteger(0));
+
+			// Do not converge before every variable block has been updated at least once.
+			for (int blockIndex = 0; blockIndex < numVariableBlocks; blockIndex++) {
+				blockSums.set(blockIndex * ACCUMULATOR_STRIDE + PRIMAL_RES, Float.floatToRawIntBits(Float.POSITIVE_INFINITY));
+			}
+		}
+
+		private AsyncWorker(ADMMTermStore termStore, int[] termIndices, int numTerms, int termBlockSize, int numTermBlocks,
+				int numVariables, int variableBlockSize, int numVariableBlocks, float epsilonAbsTerm,
+				AtomicInteger nextTask, AtomicIntegerArray busy, AtomicIntegerArray blockSums,
+				AtomicBoolean checking, AtomicBoolean done, AtomicBoolean converged, AtomicInteger sweeps) {
+			super();
+			this.termStore = termStore;
+			this.termIndices = termIndices;
+			this.numTerms = numTerms;
+			this.termBlockSize = termBlockSize;
+			this.numTermBlocks = numTermBlocks;
+			this.numVariables = numVariables;
+			this.variableBlockSize = variableBlockSize;
+			this.numVariableBlocks = numVariableBlocks;
+			this.epsilonAbsTerm = epsilonAbsTerm;
+
+			this.nextTask = nextTask;
+			this.busy = busy;
+			this.blockSums = blockSums;
+			this.checking = checking;
+			this.done = done;
+			this.converged = converged;
+			this.sweeps = sweeps;
+
+			sums = new float[NUM_ACCUMULATED];
+		}
 
-				// First pass computes newConsensusValue and dual residual fom all local copies.
-				for (int localVarIndex = 0; localVarIndex < numLocalVariables; localVarIndex++) {
-					LocalVariable localVariable = termStore.getLocalVariables(variableIndex).get(localVarIndex);
-					total += localVariable.getValue() + localVariable.getLagrange() / stepSize;
+		public Object clone() {
+			return new AsyncWorker(termStore, termIndices, numTerms, termBlockSize, numTermBlocks,
+					numVariables, variableBlockSize, numVariableBlocks, epsilonAbsTerm,
+					nextTask, busy, blockSums, checking, done, converged, sweeps);
+		}
+
+		public boolean isConverged() {
+			return converged.get();
+		}
+
+		public int getSweeps() {
+			return sweeps.get();
+		}
 
-					AxNormInc += localVariable.getValue() * localVariable.getValue();
-					AyNormInc += localVariable.getLagrange() * localVariable.getLagrange();
+		@Override
+		public void work(int ignoreIndex, Integer ignore) {
+			int tasksPerSweep = numTermBlocks + numVariableBlocks;
+
+			while (!done.get()) {
+				int task = nextTask.getAndIncrement();
+				int sweep = task / tasksPerSweep;
+				int block = task % tasksPerSweep;
+
+				if (block == 0) {
+					if (sweep >= maxIter) {
+						done.set(true);
+						break;
+					}
+
+					sweeps.incrementAndGet();
+
+					if (sweep > 0) {
+						checkConvergence(sweep);
+					}
 				}
 
-				float newConsensusValue = total / numLocalVariables;
-				newConsensusValue = Math.max(Math.min(newConsensusValue, UPPER_BOUND), LOWER_BOUND);
+				// Skip blocks that are still being worked on from an earlier sweep.
+				if (!busy.compareAndSet(block, 0, 1)) {
+					continue;
+				}
 
-				float diff = consensusValues[variableIndex] - newConsensusValue;
-				// Residual is diff^2 * number of local variables mapped to consensusValues element.
-				dualResInc += diff * diff * numLocalVariables;
-				BzNormInc += newConsensusValue * newConsensusValue * numLocalVariables;
+				try {
+					if (block < numTermBlocks) {
+						minimizeTerms(block);
+					} else {
+						updateVariables(block - numTermBlocks);
+					}
+				} finally {
+					busy.set(block, 0);
+				}
+			}
+		}
 
-				consensusValues[variableIndex] = newConsensusValue;
+		private void minimizeTerms(int blockIndex) {
+			for (int innerBlockIndex = 0; innerBlockIndex < termBlockSize; innerBlockIndex++) {
+				int index = blockIndex * termBlockSize + innerBlockIndex;
 
-				// Second pass computes primal residuals.
+				if (index >= numTerms) {
+					break;
+				}
 
-				for (int localVarIndex = 0; localVarIndex < numLocalVariables; localVarIndex++) {
-					LocalVariable localVariable = termStore.getLocalVariables(variableIndex).get(localVarIndex);
+				updateTerm(termStore, (termIndices == null) ? index : termIndices[index], true, true);
+			}
+		}
+
+		private void updateVariables(int blockIndex) {
+			Arrays.fill(sums, 0.0f);
 
-					diff = localVariable.getValue() - newConsensusValue;
-					primalResInc += diff * diff;
+			for (int innerBlockIndex = 0; innerBlockIndex < variableBlockSize; innerBlockIndex++) {
+				int index = blockIndex * variableBlockSize + innerBlockIndex;
 
-					// compute Lagrangian penalties
-					lagrangePenaltyInc += localVariable.getLagrange() * (localVariable.getValue() - consensusValues[variableIndex]);
-					augmentedLagrangePenaltyInc += 0.5 * stepSize * Math.pow(localVariable.getValue() - consensusValues[variableIndex], 2);
+				if (index >= numVariables) {
+					break;
 				}
+
+				updateConsensusValue(termStore, index, sums);
+			}
+
+			for (int i = 0; i < NUM_ACCUMULATED; i++) {
+				blockSums.set(blockIndex * ACCUMULATOR_STRIDE + i, Float.floatToRawIntBits(sums[i]));
+			}
+		}
+
+		/**
+		 * Check the most recent residuals of all the variable blocks.
+		 * Only one thread checks at a time, if a check is already running then this one is skipped.
+		 */
+		private void checkConvergence(int sweep) {
+			if (!checking.compareAndSet(false, true)) {
+				return;
+			}
+
+			try {
+				float[] totals = new float[NUM_ACCUMULATED];
+				for (int offset = 0; offset < blockSums.length(); offset += ACCUMULATOR_STRIDE) {
+					for (int i = 0; i < NUM_ACCUMULATED; i++) {
+						totals[i] += Float.intBitsToFloat(blockSums.get(offset + i));
+					}
+				}
+
+				float primalNorm = (float)Math.sqrt(totals[PRIMAL_RES]);
+				float dualNorm = (float)(stepSize * Math.sqrt(totals[DUAL_RES]));
+
+				float primalEpsilon = (float)(epsilonAbsTerm + epsilonRel * Math.max(Math.sqrt(totals[AX_NORM]), Math.sqrt(totals[BZ_NORM])));
+				float dualEpsilon = (float)(epsilonAbsTerm + epsilonRel * Math.sqrt(totals[AY_NORM]));
+
+				if (convergenceMonitor.isConverged(sweep, primalNorm, dualNorm, primalEpsilon, dualEpsilon, false)) {
+					converged.set(true);
+					done.set(true);
+				}
+			} finally {
+				checking.set(false);
+			}
+		}
+	}
+
+	/**
+	 * Optimizes batches of (small) components, one component at a time, until each converges on its own.
+	 * Like the VariableWorker, each copy adds up the (final) residuals of all its components
+	 * and only writes them out when it is closed.
+	 */
+	private class ComponentWorker extends Parallel.Worker<Integer> {
+		private ADMMTermStore termStore;
+		private ComponentDecomposition components;
+		private List<Integer> batchStarts;
+
+		// Only the base worker has this, the copies report to it.
+		private ComponentWorker parent;
+		private int maxIterations;
+
+		private float[] sums;
+		private float[] totals;
+
+		public ComponentWorker(ADMMTermStore termStore, ComponentDecomposition components, List<Integer> batchStarts) {
+			this(termStore, components, batchStarts, null);
+		}
+
+		private ComponentWorker(ADMMTermStore termStore, ComponentDecomposition components, List<Integer> batchStarts, ComponentWorker parent) {
+			super();
+			this.termStore = termStore;
+			this.components = components;
+			this.batchStarts = batchStarts;
+			this.parent = parent;
+
+			sums = new float[NUM_ACCUMULATED];
+			totals = new float[NUM_ACCUMULATED];
+		}
+
+		public Object clone() {
+			return new ComponentWorker(termStore, components, batchStarts, this);
+		}
+
+		/**
+		 * The most iterations any component took.
+		 */
+		public int getMaxIterations() {
+			return maxIterations;
+		}
+
+		@Override
+		public void init(int id) {
+			super.init(id);
+			Arrays.fill(totals, 0.0f);
+		}
+
+		@Override
+		public void close() {
+			System.arraycopy(totals, 0, accumulators, id * ACCUMULATOR_STRIDE, NUM_ACCUMULATED);
+
+			if (parent != null) {
+				synchronized (parent) {
+					parent.maxIterations = Math.max(parent.maxIterations, maxIterations);
+				}
+			}
+		}
+
+		@Override
+		public void work(int batchIndex, Integer ignore) {
+			for (int component = batchStarts.get(batchIndex); component < batchStarts.get(batchIndex + 1); component++) {
+				maxIterations = Math.max(maxIterations, optimize(component));
+
+				for (int i = 0; i < NUM_ACCUMULATED; i++) {
+					totals[i] += sums[i];
+				}
+			}
+		}
+
+		/**
+		 * Run ADMM on a single component (on this thread).
+		 * Leaves the sums from the last iteration in |sums|.
+		 * @return the number of iterations run.
+		 */
+		private int optimize(int component) {
+			int[] termIndices = components.getTermIndices();
+			int termStart = components.getTermOffsets()[component];
+			int termEnd = components.getTermOffsets()[component + 1];
+
+			int[] variableIndices = components.getVariableIndices();
+			int variableStart = components.getVariableOffsets()[component];
+			int variableEnd = components.getVariableOffsets()[component + 1];
+
+			int numLocalVariables = 0;
+			for (int i = variableStart; i < variableEnd; i++) {
+				numLocalVariables += termStore.getNumLocalVariables(variableIndices[i]);
+			}
+			float epsilonAbsTerm = (float)(Math.sqrt(numLocalVariables) * epsilonAbs);
+
+			int iteration = 1;
+			boolean converged = false;
+			while (!converged && iteration <= maxIter) {
+				for (int i = termStart; i < termEnd; i++) {
+					updateTerm(termStore, termIndices[i], true, true);
+				}
+
+				Arrays.fill(sums, 0.0f);
+				for (int i = variableStart; i < variableEnd; i++) {
+					updateConsensusValue(termStore, variableIndices[i], sums);
+				}
+
+				float primalNorm = (float)Math.sqrt(sums[PRIMAL_RES]);
+				float dualNorm = (float)(stepSize * Math.sqrt(sums[DUAL_RES]));
+
+				float componentEpsilonPrimal = (float)(epsilonAbsTerm + epsilonRel * Math.max(Math.sqrt(sums[AX_NORM]), Math.sqrt(sums[BZ_NORM])));
+				float componentEpsilonDual = (float)(epsilonAbsTerm + epsilonRel * Math.sqrt(sums[AY_NORM]));
+
+				converged = (primalNorm <= componentEpsilonPrimal && dualNorm <= componentEpsilonDual);
+				iteration++;
 			}
 
-			updateIterationVariables(primalResInc, dualResInc, AxNormInc, BzNormInc, AyNormInc, lagrangePenaltyInc, augmentedLagrangePenaltyInc);
+			return iteration - 1;
 		}
 	}
 }
@@ -0,0 +1,213 @@
+/*
+ * This file is part of the PSL software.
+ * Copyright 2011-2015 University of Maryland
+ * Copyright 2013-2018 The Regents of the University of California
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.linqs.psl.reasoner.admm;
+
+import org.linqs.psl.reasoner.admm.term.ADMMTermStore;
+
+/**
+ * The connected components of the graph between the terms and global variables of an ADMMTermStore.
+ * Terms in different components do not share any variables, so each component can be optimized on its own.
+ *
+ * Terms that have been folded into the consensus update (see ADMMTermStore.foldUnaryTerms()) are left out,
+ * so a component may have variables but no terms.
+ *
+ * Components are ordered from largest (by number of terms) to smallest.
+ * The terms (and variables) of each component are contiguous in termIndices (and variableIndices):
+ * the terms for component i are termIndices[termOffsets[i]] - termIndices[termOffsets[i + 1] - 1].
+ */
+public class ComponentDecomposition {
+	private final int numComponents;
+
+	private final int[] termOffsets;
+	private final int[] termIndices;
+
+	private final int[] variableOffsets;
+	private final int[] variableIndices;
+
+	private ComponentDecomposition(int numComponents, int[] termOffsets, int[] termIndices, int[] variableOffsets, int[] variableIndices) {
+		this.numComponents = numComponents;
+		this.termOffsets = termOffsets;
+		this.termIndices = termIndices;
+		this.variableOffsets = variableOffsets;
+		this.variableIndices = variableIndices;
+	}
+
+	public int getNumComponents() {
+		return numComponents;
+	}
+
+	public int getNumTerms(int component) {
+		return termOffsets[component + 1] - termOffsets[component];
+	}
+
+	public int getNumVariables(int component) {
+		return variableOffsets[component + 1] - variableOffsets[component];
+	}
+
+	public int[] getTermOffsets() {
+		return termOffsets;
+	}
+
+	public int[] getTermIndices() {
+		return termIndices;
+	}
+
+	public int[] getVariableOffsets() {
+		return variableOffsets;
+	}
+
+	public int[] getVariableIndices() {
+		return variableIndices;
+	}
+
+	/**
+	 * Find the components using union-find over the global variables.
+	 * Every term must have at least one variable.
+	 */
+	public static ComponentDecomposition decompose(ADMMTermStore termStore) {
+		int numTerms = termStore.size();
+		int numVariables = termStore.getNumGlobalVariables();
+
+		// Union-find (with union by size and path halving) over the global variables.
+		int[] parents = new int[numVariables];
+		int[] sizes = new int[numVariables];
+		for (int i = 0; i < numVariables; i++) {
+			parents[i] = i;
+			sizes[i] = 1;
+		}
+
+		for (int termIndex = 0; termIndex < numTerms; termIndex++) {
+			if (termStore.isFolded(termIndex)) {
+				continue;
+			}
+
+			int termSize = termStore.getTermSize(termIndex);
+			int first = find(parents, termStore.getGlobalId(termIndex, 0));
+
+			for (int i = 1; i < termSize; i++) {
+				int other = find(parents, termStore.getGlobalId(termIndex, i));
+				if (other == first) {
+					continue;
+				}
+
+				if (sizes[first] < sizes[other]) {
+					int temp = first;
+					first = other;
+					other = temp;
+				}
+
+				parents[other] = first;
+				sizes[first] += sizes[other];
+			}
+		}
+
+		// Give each root a temporary component id and count the terms and variables of each component.
+		int[] rootComponents = new int[numVariables];
+		int numComponents = 0;
+		for (int i = 0; i < numVariables; i++) {
+			if (parents[i] == i) {
+				rootComponents[i] = numComponents;
+				numComponents++;
+			}
+		}
+
+		int[] variableComponents = new int[numVariables];
+		int[] variableCounts = new int[numComponents];
+		for (int i = 0; i < numVariables; i++) {
+			variableComponents[i] = rootComponents[find(parents, i)];
+			variableCounts[variableComponents[i]]++;
+		}
+
+		int numActiveTerms = 0;
+		int[] termCounts = new int[numComponents];
+		for (int termIndex = 0; termIndex < numTerms; termIndex++) {
+			if (!termStore.isFolded(termIndex)) {
+				termCounts[variableComponents[termStore.getGlobalId(termIndex, 0)]]++;
+				numActiveTerms++;
+			}
+		}
+
+		// Order the components from largest to smallest (so the largest are scheduled first).
+		// Sizes are bounded by the number of terms, so a counting sort works.
+		int[] order = sortBySize(termCounts, numTerms);
+		int[] ranks = new int[numComponents];
+		for (int i = 0; i < numComponents; i++) {
+			ranks[order[i]] = i;
+		}
+
+		int[] termOffsets = new int[numComponents + 1];
+		int[] variableOffsets = new int[numComponents + 1];
+		for (int i = 0; i < numComponents; i++) {
+			termOffsets[i + 1] = termOffsets[i] + termCounts[order[i]];
+			variableOffsets[i + 1] = variableOffsets[i] + variableCounts[order[i]];
+		}
+
+		// Fill the components (in index order, so each component keeps the original relative order).
+		int[] termIndices = new int[numActiveTerms];
+		int[] nextTerm = new int[numComponents];
+		System.arraycopy(termOffsets, 0, nextTerm, 0, numComponents);
+		for (int termIndex = 0; termIndex < numTerms; termIndex++) {
+			if (termStore.isFolded(termIndex)) {
+				continue;
+			}
+
+			int component = ranks[variableComponents[termStore.getGlobalId(termIndex, 0)]];
+			termIndices[nextTerm[component]++] = termIndex;
+		}
+
+		int[] variableIndices = new int[numVariables];
+		int[] nextVariable = new int[numComponents];
+		System.arraycopy(variableOffsets, 0, nextVariable, 0, numComponents);
+		for (int i = 0; i < numVariables; i++) {
+			int component = ranks[variableComponents[i]];
+			variableIndices[nextVariable[component]++] = i;
+		}
+
+		return new ComponentDecomposition(numComponents, termOffsets, termIndices, variableOffsets, variableIndices);
+	}
+
+	private static int find(int[] parents, int variable) {
+		while (parents[variable] != variable) {
+			parents[variable] = parents[parents[variable]];
+			variable = parents[variable];
+		}
+
+		return variable;
+	}
+
+	/**
+	 * Get the indexes of |sizes| ordered by decreasing size (ties are kept in index order).
+	 */
+	private static int[] sortBySize(int[] sizes, int maxSize) {
+		int[] starts = new int[maxSize + 2];
+		for (int size : sizes) {
+			starts[maxSize - size + 1]++;
+		}
+
+		for (int i = 1; i < starts.length; i++) {
+			starts[i] += starts[i - 1];
+		}
+
+		int[] order = new int[sizes.length];
+		for (int i = 0; i < sizes.length; i++) {
+			order[starts[maxSize - sizes[i]]++] = i;
+		}
+
+		return order;
+	}
+}
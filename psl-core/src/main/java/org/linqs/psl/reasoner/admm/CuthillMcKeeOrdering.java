@@ -0,0 +1,172 @@
+/*
+ * This file is part of the PSL software.
+ * Copyright 2011-2015 University of Maryland
+ * Copyright 2013-2018 The Regents of the University of California
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.linqs.psl.reasoner.admm;
+
+import org.linqs.psl.reasoner.admm.term.ADMMTermStore;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Reorders the terms and global variables of an ADMMTermStore for cache locality.
+ *
+ * Global ids normally follow the order that atoms were first seen and terms follow grounding order,
+ * so neighboring terms touch consensus values that are all over the place.
+ * This does a Cuthill-McKee ordering (a breadth-first search that visits lower degree variables first)
+ * over the bipartite graph of variables and terms.
+ * Variables get new global ids in the order they are visited,
+ * and each term is placed when the first of its variables is visited.
+ * So, a contiguous block of terms mostly touches a contiguous (and small) range of variables.
+ *
+ * The ordering is not reversed (like in RCM), since only locality (not fill-in) matters here.
+ */
+public final class CuthillMcKeeOrdering {
+	private static final Logger log = LoggerFactory.getLogger(CuthillMcKeeOrdering.class);
+
+	// Static only.
+	private CuthillMcKeeOrdering() {}
+
+	/**
+	 * Reorder the variables (and the terms, if the store supports it) of a term store.
+	 */
+	public static void reorder(ADMMTermStore termStore) {
+		int numTerms = termStore.size();
+		int numVariables = termStore.getNumGlobalVariables();
+
+		// The terms for each variable (in compressed row form).
+		int[] variableOffsets = new int[numVariables + 1];
+		for (int termIndex = 0; termIndex < numTerms; termIndex++) {
+			for (int i = 0; i < termStore.getTermSize(termIndex); i++) {
+				variableOffsets[termStore.getGlobalId(termIndex, i) + 1]++;
+			}
+		}
+
+		for (int i = 0; i < numVariables; i++) {
+			variableOffsets[i + 1] += variableOffsets[i];
+		}
+
+		int[] variableTerms = new int[variableOffsets[numVariables]];
+		int[] nextPosition = new int[numVariables];
+		System.arraycopy(variableOffsets, 0, nextPosition, 0, numVariables);
+		for (int termIndex = 0; termIndex < numTerms; termIndex++) {
+			for (int i = 0; i < termStore.getTermSize(termIndex); i++) {
+				int variable = termStore.getGlobalId(termIndex, i);
+				variableTerms[nextPosition[variable]++] = termIndex;
+			}
+		}
+
+		int[] variableOrder = new int[numVariables];
+		int[] termOrder = new int[numTerms];
+		boolean[] visitedVariables = new boolean[numVariables];
+		boolean[] placedTerms = new boolean[numTerms];
+
+		// Each search starts from the lowest degree variable that has not been visited yet.
+		int[] startOrder = sortByDegree(variableOffsets, numVariables);
+
+		// The variables are numbered as they come off the queue, so the order doubles as the queue.
+		int queueHead = 0;
+		int queueTail = 0;
+		int numPlacedTerms = 0;
+
+		for (int start : startOrder) {
+			if (visitedVariables[start]) {
+				continue;
+			}
+
+			visitedVariables[start] = true;
+			variableOrder[queueTail++] = start;
+
+			while (queueHead < queueTail) {
+				int variable = variableOrder[queueHead++];
+
+				int neighborsStart = queueTail;
+				for (int i = variableOffsets[variable]; i < variableOffsets[variable + 1]; i++) {
+					int termIndex = variableTerms[i];
+					if (placedTerms[termIndex]) {
+						continue;
+					}
+
+					placedTerms[termIndex] = true;
+					termOrder[numPlacedTerms++] = termIndex;
+
+					for (int j = 0; j < termStore.getTermSize(termIndex); j++) {
+						int neighbor = termStore.getGlobalId(termIndex, j);
+						if (!visitedVariables[neighbor]) {
+							visitedVariables[neighbor] = true;
+							variableOrder[queueTail++] = neighbor;
+						}
+					}
+				}
+
+				// Visit the new neighbors from lowest to highest degree.
+				sortRangeByDegree(variableOrder, neighborsStart, queueTail, variableOffsets);
+			}
+		}
+
+		termStore.renumberVariables(variableOrder);
+		if (!termStore.permuteTerms(termOrder)) {
+			log.debug("Term store does not support reordering terms, only variables were reordered.");
+		}
+
+		termStore.setOrdered(true);
+	}
+
+	/**
+	 * Get all the variables ordered by increasing degree (ties are kept in id order).
+	 */
+	private static int[] sortByDegree(int[] variableOffsets, int numVariables) {
+		int maxDegree = 0;
+		for (int i = 0; i < numVariables; i++) {
+			maxDegree = Math.max(maxDegree, variableOffsets[i + 1] - variableOffsets[i]);
+		}
+
+		int[] starts = new int[maxDegree + 2];
+		for (int i = 0; i < numVariables; i++) {
+			starts[variableOffsets[i + 1] - variableOffsets[i] + 1]++;
+		}
+
+		for (int i = 1; i < starts.length; i++) {
+			starts[i] += starts[i - 1];
+		}
+
+		int[] order = new int[numVariables];
+		for (int i = 0; i < numVariables; i++) {
+			order[starts[variableOffsets[i + 1] - variableOffsets[i]]++] = i;
+		}
+
+		return order;
+	}
+
+	/**
+	 * Insertion sort (stable) on a (usually small) range of variables by degree.
+	 */
+	private static void sortRangeByDegree(int[] variables, int start, int end, int[] variableOffsets) {
+		for (int i = start + 1; i < end; i++) {
+			int variable = variables[i];
+			int degree = variableOffsets[variable + 1] - variableOffsets[variable];
+
+			int j = i - 1;
+			while (j >= start && variableOffsets[variables[j] + 1] - variableOffsets[variables[j]] > degree) {
+				variables[j + 1] = variables[j];
+				j--;
+			}
+
+			variables[j + 1] = variable;
+		}
+	}
+}
@@ -52,6 +52,17 @@ public abstract class ADMMObjectiveTerm implements Term {
 	 */
 	public abstract void minimize(float stepSize, float[] consensusValues);
 
+	/**
+	 * Over-relax the local variables after a minimization: x = alpha * x + (1 - alpha) * z.
+	 * The consensus values should be the same ones that were just used to minimize.
+	 */
+	public void relax(float alpha, float[] consensusValues) {
+		for (int i = 0; i < variables.size(); i++) {
+			LocalVariable variable = variables.get(i);
+			variable.setValue(alpha * variable.getValue() + (1.0f - alpha) * consensusValues[variable.getGlobalId()]);
+		}
+	}
+
 	public abstract float evaluate();
 
 	public List<LocalVariable> getVariables() {
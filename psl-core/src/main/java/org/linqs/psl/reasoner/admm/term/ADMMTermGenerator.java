@@ -25,9 +25,10 @@ import org.linqs.psl.model.rule.WeightedGroundRule;
 import org.linqs.psl.model.rule.WeightedRule;
 import org.linqs.psl.reasoner.function.AtomFunctionVariable;
 import org.linqs.psl.reasoner.function.ConstraintTerm;
+import org.linqs.psl.reasoner.function.FunctionComparator;
 import org.linqs.psl.reasoner.function.FunctionTerm;
 import org.linqs.psl.reasoner.function.GeneralFunction;
-import org.linqs.psl.reasoner.term.TermGenerator;
+import org.linqs.psl.reasoner.term.StreamingTermGenerator;
 import org.linqs.psl.reasoner.term.TermStore;
 import org.linqs.psl.util.MathUtils;
 import org.linqs.psl.util.Parallel;
@@ -36,14 +37,17 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Set;
 
 /**
  * A TermGenerator for ADMM objective terms.
  */
-public class ADMMTermGenerator implements TermGenerator<ADMMObjectiveTerm> {
+public class ADMMTermGenerator implements StreamingTermGenerator<ADMMObjectiveTerm> {
 	private static final Logger log = LoggerFactory.getLogger(ADMMTermGenerator.class);
 
 	public static final String CONFIG_PREFIX = "admmtermgenerator";
@@ -55,10 +59,32 @@ public class ADMMTermGenerator implements TermGenerator<ADMMObjectiveTerm> {
 	public static final String INVERT_NEGATIVE_WEIGHTS_KEY = CONFIG_PREFIX + ".invertnegativeweights";
 	public static final boolean INVERT_NEGATIVE_WEIGHTS_DEFAULT = false;
 
+	/**
+	 * If true, then a weighted term that is identical (up to its weight) to a term already in the store
+	 * (see HyperplaneKey) is not added.
+	 * Instead, its weight is added to the existing term.
+	 * The optimum does not change, but there are fewer terms and local variables.
+	 * Terms from negated rules and constraints are never merged.
+	 */
+	public static final String MERGE_DUPLICATES_KEY = CONFIG_PREFIX + ".mergeduplicates";
+	public static final boolean MERGE_DUPLICATES_DEFAULT = false;
+
+	/**
+	 * If true, then equality constraints that are a sum of atoms (e.g. functional constraints)
+	 * get a SimplexConstraintTerm (which projects exactly onto the bounded simplex)
+	 * instead of a general LinearConstraintTerm.
+	 */
+	public static final String SIMPLEX_CONSTRAINTS_KEY = CONFIG_PREFIX + ".simplexconstraints";
+	public static final boolean SIMPLEX_CONSTRAINTS_DEFAULT = false;
+
 	private boolean invertNegativeWeight;
+	private boolean mergeDuplicates;
+	private boolean simplexConstraints;
 
 	public ADMMTermGenerator() {
 		invertNegativeWeight = Config.getBoolean(INVERT_NEGATIVE_WEIGHTS_KEY, INVERT_NEGATIVE_WEIGHTS_DEFAULT);
+		mergeDuplicates = Config.getBoolean(MERGE_DUPLICATES_KEY, MERGE_DUPLICATES_DEFAULT);
+		simplexConstraints = Config.getBoolean(SIMPLEX_CONSTRAINTS_KEY, SIMPLEX_CONSTRAINTS_DEFAULT);
 	}
 
 	@Override
@@ -83,46 +109,170 @@ public class ADMMTermGenerator implements TermGenerator<ADMMObjectiveTerm> {
 			}
 		}
 
+		// Each worker builds its terms in its own buffer (without touching the store),
+		// and then all the buffers get merged into the store.
+		final List<TermBuffer> buffers = new ArrayList<TermBuffer>();
 		Parallel.foreach(ruleStore.getGroundRules(), new Parallel.Worker<GroundRule>() {
+			private TermBuffer buffer = null;
+
+			@Override
+			public void init(int id) {
+				super.init(id);
+				buffer = new TermBuffer((ADMMTermStore)termStore);
+			}
+
 			@Override
 			public void work(int index, GroundRule rule) {
-				boolean negativeWeight =
-						rule instanceof WeightedGroundRule
-						&& ((WeightedGroundRule)rule).getWeight() < 0.0;
-
-				if (negativeWeight) {
-					// Skip
-					if (!invertNegativeWeight) {
-						return;
-					}
+				addTerms(rule, buffer);
+			}
 
-					// Negate (weight and expression) rules that have a negative weight.
-					for (GroundRule negatedRule : rule.negate()) {
-						ADMMObjectiveTerm term = createTerm(negatedRule, (ADMMTermStore)termStore);
-						if (term != null && term.variables.size() > 0) {
-							termStore.add(rule, term);
-						}
-					}
-				} else {
-					ADMMObjectiveTerm term = createTerm(rule, (ADMMTermStore)termStore);
-					if (term != null && term.variables.size() > 0) {
-						termStore.add(rule, term);
-					}
+			@Override
+			public void close() {
+				synchronized (buffers) {
+					buffers.add(buffer);
 				}
 			}
 		});
 
+		merge((ADMMTermStore)termStore, buffers);
+
+		// Nothing else will be merged, so the store does not need to remember the keys.
+		((ADMMTermStore)termStore).finishMerging();
+
 		return termStore.size() - initialSize;
 	}
 
+	/**
+	 * Each sink builds its terms in its own buffer, which gets merged into the store on flush.
+	 */
+	@Override
+	public Sink newSink(TermStore<ADMMObjectiveTerm> termStore) {
+		if (!(termStore instanceof ADMMTermStore)) {
+			throw new IllegalArgumentException("ADMMTermGenerator requires an ADMMTermStore");
+		}
+
+		final TermBuffer buffer = new TermBuffer((ADMMTermStore)termStore);
+		return new Sink() {
+			@Override
+			public void add(GroundRule rule) {
+				addTerms(rule, buffer);
+			}
+
+			@Override
+			public int flush() {
+				return buffer.merge();
+			}
+		};
+	}
+
+	@Override
+	public void finishTerms(TermStore<ADMMObjectiveTerm> termStore) {
+		((ADMMTermStore)termStore).finishMerging();
+	}
+
+	/**
+	 * Update the weights of the terms in place.
+	 * If a rule has changed sign since its terms were generated, then the terms for the newly active form
+	 * (the rule or its negation) are generated if they do not already exist.
+	 * The form that is no longer active is kept around with a zero weight.
+	 */
 	@Override
 	public void updateWeights(GroundRuleStore ruleStore, TermStore<ADMMObjectiveTerm> termStore) {
-		// TODO(eriq): This is broken for when a rule switches sign.
+		if (!(termStore instanceof ADMMTermStore)) {
+			throw new IllegalArgumentException("ADMMTermGenerator requires an ADMMTermStore");
+		}
+
+		final ADMMTermStore admmTermStore = (ADMMTermStore)termStore;
+		TermBuffer buffer = new TermBuffer(admmTermStore);
+
+		// Only the rules that have changed sign need new terms.
 		for (GroundRule groundRule : ruleStore.getGroundRules()) {
-			if (groundRule instanceof WeightedGroundRule) {
-				termStore.updateWeight((WeightedGroundRule)groundRule);
+			if (!(groundRule instanceof WeightedGroundRule)) {
+				continue;
+			}
+
+			WeightedGroundRule rule = (WeightedGroundRule)groundRule;
+
+			if (rule.getWeight() >= 0.0) {
+				// The rule was skipped while it was negative.
+				if (admmTermStore.removeSkipped(rule)) {
+					addTerms(rule, buffer);
+				}
+			} else if (invertNegativeWeight && admmTermStore.getNegatedTermIndices(rule) == null) {
+				addNegatedTerms(rule, buffer);
+			}
+		}
+
+		// Any new terms need to be in the store before the weights can be set.
+		buffer.merge();
+		admmTermStore.finishMerging();
+
+		// Each rule only sets the weights of its own terms (merged terms always get the same total weight).
+		Parallel.foreach(ruleStore.getGroundRules(), new Parallel.Worker<GroundRule>() {
+			@Override
+			public void work(int index, GroundRule rule) {
+				if (rule instanceof WeightedGroundRule) {
+					admmTermStore.updateWeight((WeightedGroundRule)rule);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Add the terms for a single ground rule (or its negation if the rule has a negative weight) to a buffer.
+	 * @return the number of terms added.
+	 */
+	private int addTerms(GroundRule rule, TermBuffer buffer) {
+		boolean negativeWeight =
+				rule instanceof WeightedGroundRule
+				&& ((WeightedGroundRule)rule).getWeight() < 0.0;
+
+		if (negativeWeight) {
+			// The rule's own form is not generated either way,
+			// so it has to be generated if the weight ever becomes non-negative (see updateWeights()).
+			buffer.skippedRules.add((WeightedGroundRule)rule);
+
+			if (invertNegativeWeight) {
+				return addNegatedTerms((WeightedGroundRule)rule, buffer);
+			}
+
+			return 0;
+		}
+
+		ADMMObjectiveTerm term = createTerm(rule, buffer);
+		if (term == null || term.variables.size() == 0) {
+			return 0;
+		}
+
+		buffer.rules.add(rule);
+		buffer.terms.add(term);
+
+		// The key has to be made while the variables are unregistered.
+		if (mergeDuplicates && rule instanceof WeightedGroundRule) {
+			buffer.keys.add(HyperplaneKey.of(term));
+		} else {
+			buffer.keys.add(null);
+		}
+
+		return 1;
+	}
+
+	/**
+	 * Negate (weight and expression) a rule and add the resulting terms to a buffer.
+	 * @return the number of terms added.
+	 */
+	private int addNegatedTerms(WeightedGroundRule rule, TermBuffer buffer) {
+		List<ADMMObjectiveTerm> terms = new ArrayList<ADMMObjectiveTerm>();
+		for (GroundRule negatedRule : rule.negate()) {
+			ADMMObjectiveTerm term = createTerm(negatedRule, buffer);
+			if (term != null && term.variables.size() > 0) {
+				terms.add(term);
 			}
 		}
+
+		buffer.negatedRules.add(rule);
+		buffer.negatedTerms.add(terms);
+		return terms.size();
 	}
 
 	/**
@@ -131,13 +281,13 @@ public class ADMMTermGenerator implements TermGenerator<ADMMObjectiveTerm> {
 	 * @param groundRule  the GroundRule to be added to the ADMM objective
 	 * @return the created ADMMObjectiveTerm or null if the term is trivial.
 	 */
-	private ADMMObjectiveTerm createTerm(GroundRule groundRule, ADMMTermStore termStore) {
+	private ADMMObjectiveTerm createTerm(GroundRule groundRule, TermBuffer buffer) {
 		ADMMObjectiveTerm term;
 
 		if (groundRule instanceof WeightedGroundRule) {
 			float weight = (float)((WeightedGroundRule)groundRule).getWeight();
 			GeneralFunction function = ((WeightedGroundRule)groundRule).getFunctionDefinition();
-			Hyperplane hyperplane = processHyperplane(function, termStore);
+			Hyperplane hyperplane = processHyperplane(function, buffer);
 			if (hyperplane == null) {
 				return null;
 			}
@@ -146,7 +296,7 @@ public class ADMMTermGenerator implements TermGenerator<ADMMObjectiveTerm> {
 			if (function.isNonNegative() && function.isSquared()) {
 				term = new SquaredHingeLossTerm(hyperplane.variables, hyperplane.coeffs, hyperplane.constant, weight);
 			} else if (function.isNonNegative() && !function.isSquared()) {
-				term = new HingeLossTerm(hyperplane.variables, hyperplane.coeffs, hyperplane.constant, weight);
+				term = createHingeLossTerm(hyperplane, weight);
 			} else if (!function.isNonNegative() && function.isSquared()) {
 				term = new SquaredLinearLossTerm(hyperplane.variables, hyperplane.coeffs, 0.0f, weight);
 			} else {
@@ -155,13 +305,18 @@ public class ADMMTermGenerator implements TermGenerator<ADMMObjectiveTerm> {
 		} else if (groundRule instanceof UnweightedGroundRule) {
 			ConstraintTerm constraint = ((UnweightedGroundRule)groundRule).getConstraintDefinition();
 			GeneralFunction function = constraint.getFunction();
-			Hyperplane hyperplane = processHyperplane(function, termStore);
+			Hyperplane hyperplane = processHyperplane(function, buffer);
 			if (hyperplane == null) {
 				return null;
 			}
 
-			term = new LinearConstraintTerm(hyperplane.variables, hyperplane.coeffs,
-					(float)(constraint.getValue() + hyperplane.constant), constraint.getComparator());
+			float constant = (float)(constraint.getValue() + hyperplane.constant);
+
+			if (simplexConstraints && constraint.getComparator() == FunctionComparator.Equality && isSimplex(hyperplane)) {
+				term = createSimplexConstraintTerm(hyperplane, constant);
+			} else {
+				term = new LinearConstraintTerm(hyperplane.variables, hyperplane.coeffs, constant, constraint.getComparator());
+			}
 		} else {
 			throw new IllegalArgumentException("Unsupported ground rule: " + groundRule);
 		}
@@ -169,11 +324,63 @@ public class ADMMTermGenerator implements TermGenerator<ADMMObjectiveTerm> {
 		return term;
 	}
 
+	/**
+	 * Most hinges are over only a few variables, so those get specialized terms.
+	 */
+	private HingeLossTerm createHingeLossTerm(Hyperplane hyperplane, float weight) {
+		switch (hyperplane.variables.size()) {
+			case 1:
+				return new UnaryHingeLossTerm(hyperplane.variables, hyperplane.coeffs, hyperplane.constant, weight);
+			case 2:
+				return new BinaryHingeLossTerm(hyperplane.variables, hyperplane.coeffs, hyperplane.constant, weight);
+			case 3:
+				return new TernaryHingeLossTerm(hyperplane.variables, hyperplane.coeffs, hyperplane.constant, weight);
+			default:
+				return new HingeLossTerm(hyperplane.variables, hyperplane.coeffs, hyperplane.constant, weight);
+		}
+	}
+
+	/**
+	 * Is the hyperplane over at least two variables, all with the same (non-zero) coefficient.
+	 */
+	private boolean isSimplex(Hyperplane hyperplane) {
+		if (hyperplane.variables.size() < 2) {
+			return false;
+		}
+
+		float coefficient = hyperplane.coeffs.get(0).floatValue();
+		if (coefficient == 0.0f) {
+			return false;
+		}
+
+		for (int i = 1; i < hyperplane.coeffs.size(); i++) {
+			if (hyperplane.coeffs.get(i).floatValue() != coefficient) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	/**
+	 * Scale a simplex hyperplane (see isSimplex()) so that all the coefficients are 1.
+	 */
+	private SimplexConstraintTerm createSimplexConstraintTerm(Hyperplane hyperplane, float constant) {
+		float coefficient = hyperplane.coeffs.get(0).floatValue();
+
+		List<Float> coeffs = new ArrayList<Float>(hyperplane.coeffs.size());
+		for (int i = 0; i < hyperplane.coeffs.size(); i++) {
+			coeffs.add(new Float(1.0f));
+		}
+
+		return new SimplexConstraintTerm(hyperplane.variables, coeffs, constant / coefficient);
+	}
+
 	/**
 	 * Construct a hyperplane from a general function.
 	 * Will return null if the term is trivial and should be abandoned.
 	 */
-	private Hyperplane processHyperplane(GeneralFunction sum, ADMMTermStore termStore) {
+	private Hyperplane processHyperplane(GeneralFunction sum, TermBuffer buffer) {
 		Hyperplane hyperplane = new Hyperplane();
 		hyperplane.constant = -1.0f * (float)sum.getConstant();
 
@@ -182,7 +389,7 @@ public class ADMMTermGenerator implements TermGenerator<ADMMObjectiveTerm> {
 			FunctionTerm term = sum.getTerm(i);
 
 			if (term instanceof AtomFunctionVariable && !term.isConstant()) {
-				LocalVariable variable = termStore.createLocalVariable((AtomFunctionVariable)term);
+				LocalVariable variable = buffer.createLocalVariable((AtomFunctionVariable)term);
 
 				// Check to see if we have seen this variable before in this hyperplane.
 				// Note that we are checking for existence in a List (O(n)), but there are usually a small number of
@@ -218,6 +425,301 @@ public class ADMMTermGenerator implements TermGenerator<ADMMObjectiveTerm> {
 		return hyperplane;
 	}
 
+	/**
+	 * Add everything in the buffers to the store (in buffer order) and empty the buffers.
+	 * Only the bookkeeping (finding duplicates, registering new global variables, and reserving room for the terms)
+	 * is done one buffer at a time.
+	 * Each buffer then registers its local variables and writes its terms into its own range of the store in parallel.
+	 * The store is locked for the whole merge.
+	 * @return the number of terms added to the store.
+	 */
+	private static int merge(final ADMMTermStore termStore, List<TermBuffer> buffers) {
+		synchronized (termStore) {
+			int initialSize = termStore.size();
+
+			// Duplicates are found in order, so the first copy of a term is the one that is kept.
+			Set<HyperplaneKey> keys = new HashSet<HyperplaneKey>();
+			for (TermBuffer buffer : buffers) {
+				buffer.findDuplicates(keys);
+			}
+
+			Parallel.foreach(buffers, new Parallel.Worker<TermBuffer>() {
+				@Override
+				public void work(int index, TermBuffer buffer) {
+					buffer.findNewAtoms();
+				}
+			});
+
+			// Each buffer gets the next range of terms (and local variable slots).
+			int numTerms = 0;
+			int numSlots = 0;
+			for (TermBuffer buffer : buffers) {
+				termStore.registerGlobalVariables(buffer.newAtomVariables);
+
+				buffer.termOffset = numTerms;
+				buffer.slotOffset = numSlots;
+
+				numTerms += buffer.getNumNewTerms();
+				numSlots += buffer.getNumNewSlots();
+			}
+
+			final int firstTerm = termStore.reserveTerms(numTerms, numSlots);
+
+			Parallel.foreach(buffers, new Parallel.Worker<TermBuffer>() {
+				@Override
+				public void work(int index, TermBuffer buffer) {
+					buffer.setTerms(firstTerm);
+				}
+			});
+
+			// All the mergeable terms have to be known before any duplicates are merged into them.
+			for (TermBuffer buffer : buffers) {
+				buffer.addMergeable(firstTerm);
+			}
+
+			for (TermBuffer buffer : buffers) {
+				buffer.finish(firstTerm);
+			}
+
+			return termStore.size() - initialSize;
+		}
+	}
+
+	/**
+	 * Terms (and their local variables) that have been made, but not yet added to a term store.
+	 * Building terms into a buffer does not touch the store, so many buffers can be filled at once.
+	 * The local variables are unregistered (see ADMMTermStore.createUnregisteredLocalVariable())
+	 * until the buffer is merged into the store.
+	 * Every local variable that is made gets registered,
+	 * just like when terms were made directly against the store.
+	 * The exception is the variables of terms that get merged into an existing term (see MERGE_DUPLICATES_KEY).
+	 */
+	private static class TermBuffer {
+		private ADMMTermStore termStore;
+
+		public List<LocalVariable> variables;
+		public List<AtomFunctionVariable> atomVariables;
+
+		public List<GroundRule> rules;
+		public List<ADMMObjectiveTerm> terms;
+		// The key for each term, null for terms that should not be merged.
+		public List<HyperplaneKey> keys;
+
+		public List<WeightedGroundRule> negatedRules;
+		public List<List<ADMMObjectiveTerm>> negatedTerms;
+
+		public List<WeightedGroundRule> skippedRules;
+
+		// The rest is only used while merging.
+
+		// The terms that will be merged into another term instead of being added.
+		private boolean[] duplicates;
+		private int numDuplicates;
+
+		// The atom variables that did not have a global variable before the merge.
+		public List<AtomFunctionVariable> newAtomVariables;
+
+		// Where this buffer's terms (and their local variables) start in the range reserved for the merge.
+		public int termOffset;
+		public int slotOffset;
+
+		public TermBuffer(ADMMTermStore termStore) {
+			this.termStore = termStore;
+
+			variables = new ArrayList<LocalVariable>();
+			atomVariables = new ArrayList<AtomFunctionVariable>();
+			rules = new ArrayList<GroundRule>();
+			terms = new ArrayList<ADMMObjectiveTerm>();
+			keys = new ArrayList<HyperplaneKey>();
+			negatedRules = new ArrayList<WeightedGroundRule>();
+			negatedTerms = new ArrayList<List<ADMMObjectiveTerm>>();
+			skippedRules = new ArrayList<WeightedGroundRule>();
+
+			newAtomVariables = new ArrayList<AtomFunctionVariable>();
+		}
+
+		public LocalVariable createLocalVariable(AtomFunctionVariable atomVariable) {
+			LocalVariable variable = termStore.createUnregisteredLocalVariable(atomVariable);
+
+			variables.add(variable);
+			atomVariables.add(atomVariable);
+
+			return variable;
+		}
+
+		/**
+		 * Add everything in this buffer to the store and empty the buffer.
+		 * @return the number of terms added to the store.
+		 */
+		public int merge() {
+			return ADMMTermGenerator.merge(termStore, Collections.singletonList(this));
+		}
+
+		/**
+		 * Find the terms that duplicate a term in the store or a term that has already been seen (|seenKeys|).
+		 * The variables of the duplicates are dropped.
+		 */
+		private void findDuplicates(Set<HyperplaneKey> seenKeys) {
+			duplicates = new boolean[terms.size()];
+			numDuplicates = 0;
+
+			Set<LocalVariable> droppedVariables = Collections.newSetFromMap(new IdentityHashMap<LocalVariable, Boolean>());
+
+			for (int i = 0; i < terms.size(); i++) {
+				HyperplaneKey key = keys.get(i);
+				if (key != null && (termStore.hasDuplicate(key) || !seenKeys.add(key))) {
+					duplicates[i] = true;
+					numDuplicates++;
+					droppedVariables.addAll(terms.get(i).variables);
+				}
+			}
+
+			if (droppedVariables.size() == 0) {
+				return;
+			}
+
+			List<LocalVariable> keptVariables = new ArrayList<LocalVariable>(variables.size() - droppedVariables.size());
+			List<AtomFunctionVariable> keptAtomVariables = new ArrayList<AtomFunctionVariable>(keptVariables.size());
+
+			for (int i = 0; i < variables.size(); i++) {
+				if (!droppedVariables.contains(variables.get(i))) {
+					keptVariables.add(variables.get(i));
+					keptAtomVariables.add(atomVariables.get(i));
+				}
+			}
+
+			variables = keptVariables;
+			atomVariables = keptAtomVariables;
+		}
+
+		/**
+		 * Collect the atom variables (once per atom) that do not have a global variable yet.
+		 */
+		private void findNewAtoms() {
+			BitSet seenAtoms = new BitSet();
+
+			for (AtomFunctionVariable atomVariable : atomVariables) {
+				int atomId = atomVariable.getAtom().getId();
+				if (!seenAtoms.get(atomId) && !termStore.hasGlobalVariable(atomVariable)) {
+					seenAtoms.set(atomId);
+					newAtomVariables.add(atomVariable);
+				}
+			}
+		}
+
+		/**
+		 * The number of terms (including negated terms) that will be added to the store.
+		 */
+		private int getNumNewTerms() {
+			int count = terms.size() - numDuplicates;
+			for (List<ADMMObjectiveTerm> negated : negatedTerms) {
+				count += negated.size();
+			}
+
+			return count;
+		}
+
+		/**
+		 * The number of local variables in the terms that will be added to the store.
+		 * Not every local variable that was made ends up in a term (e.g. ones from trivial terms).
+		 */
+		private int getNumNewSlots() {
+			int count = 0;
+			for (int i = 0; i < terms.size(); i++) {
+				if (!duplicates[i]) {
+					count += terms.get(i).variables.size();
+				}
+			}
+
+			for (List<ADMMObjectiveTerm> negated : negatedTerms) {
+				for (ADMMObjectiveTerm term : negated) {
+					count += term.variables.size();
+				}
+			}
+
+			return count;
+		}
+
+		/**
+		 * Register the local variables and put the terms into this buffer's range of the store.
+		 * The rule's own terms come first, and then the negated terms.
+		 */
+		private void setTerms(int firstTerm) {
+			termStore.registerLocalVariables(variables, atomVariables);
+
+			int termIndex = firstTerm + termOffset;
+			int slot = slotOffset;
+
+			for (int i = 0; i < terms.size(); i++) {
+				if (!duplicates[i]) {
+					termStore.setTerm(rules.get(i), termIndex, slot, terms.get(i));
+					termIndex++;
+					slot += terms.get(i).variables.size();
+				}
+			}
+
+			for (List<ADMMObjectiveTerm> negated : negatedTerms) {
+				for (ADMMObjectiveTerm term : negated) {
+					// The negated terms are tracked by the store instead of with the rule's own terms.
+					termStore.setTerm(null, termIndex, slot, term);
+					termIndex++;
+					slot += term.variables.size();
+				}
+			}
+		}
+
+		/**
+		 * Let later duplicates be merged into the (kept) terms that have a key.
+		 */
+		private void addMergeable(int firstTerm) {
+			int termIndex = firstTerm + termOffset;
+			for (int i = 0; i < terms.size(); i++) {
+				if (duplicates[i]) {
+					continue;
+				}
+
+				if (keys.get(i) != null) {
+					termStore.addMergeable((WeightedGroundRule)rules.get(i), termIndex, keys.get(i));
+				}
+				termIndex++;
+			}
+		}
+
+		/**
+		 * Merge the duplicates, note the negated and skipped rules, and empty the buffer.
+		 */
+		private void finish(int firstTerm) {
+			for (int i = 0; i < terms.size(); i++) {
+				if (duplicates[i]) {
+					termStore.mergeDuplicate((WeightedGroundRule)rules.get(i), keys.get(i));
+				}
+			}
+
+			int termIndex = firstTerm + termOffset + terms.size() - numDuplicates;
+			for (int i = 0; i < negatedRules.size(); i++) {
+				termStore.addNegated(negatedRules.get(i), termIndex, negatedTerms.get(i).size());
+				termIndex += negatedTerms.get(i).size();
+			}
+
+			for (WeightedGroundRule rule : skippedRules) {
+				termStore.addSkipped(rule);
+			}
+
+			variables.clear();
+			atomVariables.clear();
+			rules.clear();
+			terms.clear();
+			keys.clear();
+			negatedRules.clear();
+			negatedTerms.clear();
+			skippedRules.clear();
+
+			duplicates = null;
+			numDuplicates = 0;
+			newAtomVariables.clear();
+		}
+	}
+
 	private static class Hyperplane {
 		public List<LocalVariable> variables;
 		public List<Float> coeffs;
@@ -18,19 +18,34 @@
 package org.linqs.psl.reasoner.admm.term;
 
 import org.linqs.psl.config.Config;
+import org.linqs.psl.database.Database;
+import org.linqs.psl.model.atom.GroundAtom;
 import org.linqs.psl.model.rule.GroundRule;
 import org.linqs.psl.model.rule.WeightedGroundRule;
 import org.linqs.psl.reasoner.admm.ADMMReasoner;
 import org.linqs.psl.reasoner.function.AtomFunctionVariable;
 import org.linqs.psl.reasoner.term.MemoryTermStore;
 import org.linqs.psl.reasoner.term.TermStore;
+import org.linqs.psl.reasoner.term.WeightedTerm;
+import org.linqs.psl.util.Parallel;
 import org.linqs.psl.util.RandUtils;
+import org.linqs.psl.util.RandomStream;
+
+import org.apache.commons.collections4.list.UnmodifiableList;
 
 import java.util.ArrayList;
-import java.util.List;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * A TermStore specifically for ADMM terms.
@@ -41,7 +56,8 @@ public class ADMMTermStore implements TermStore<ADMMObjectiveTerm> {
 	public static final String CONFIG_PREFIX = "admmmemorytermstore";
 
 	/**
-	 * Initial size for the memory store.
+	 * The store that holds the terms.
+	 * Terms can only be added in bulk (see reserveTerms()) to a MemoryTermStore.
 	 */
 	public static final String INTERNAL_STORE_KEY = CONFIG_PREFIX + ".internalstore";
 	public static final String INTERNAL_STORE_DEFAULT = "org.linqs.psl.reasoner.term.MemoryTermStore";
@@ -49,13 +65,74 @@ public class ADMMTermStore implements TermStore<ADMMObjectiveTerm> {
 	// Keep an internal store to hold the terms while this class focus on variables.
 	private TermStore<ADMMObjectiveTerm> store;
 
-	private Map<AtomFunctionVariable, Integer> variableIndexes;
+	/**
+	 * The global id for each atom (indexed by the atom's id, see GroundAtom.getId()).
+	 * -1 for atoms that have not been registered.
+	 * Since atom ids are only unique within a database, all the atoms in this store must come from the same database.
+	 */
+	private int[] globalIds;
+	private Database database;
+
+	/**
+	 * The atom variable for each global variable (indexed by global id).
+	 */
+	private List<AtomFunctionVariable> globalVariables;
 	private List<List<LocalVariable>> localVariables;
 
 	/**
 	 * The total number of all local variables (the sum of the sizes of each listin |localVariables|.
 	 */
-	private int numLocalVariables;
+	private AtomicInteger numLocalVariables;
+
+	/**
+	 * The terms generated from the negation of a weighted ground rule (see GroundRule.negate()).
+	 * These are kept apart from the terms for the rule itself so that we know which form to
+	 * give weight to when the rule changes sign.
+	 * A rule will have an entry (possibly empty) iff its negation has been generated.
+	 */
+	private Map<WeightedGroundRule, List<Integer>> negatedRuleMapping;
+
+	/**
+	 * Weighted ground rules that did not get their own terms when terms were generated
+	 * (because they had a negative weight and were not inverted).
+	 */
+	private Set<WeightedGroundRule> skippedRules;
+
+	/**
+	 * The consensus values from the most recent optimization over this store.
+	 * Null if this store has not been optimized since it was last cleared or reset.
+	 */
+	private float[] consensusValues;
+
+	/**
+	 * True if the terms and variables have been reordered (see CuthillMcKeeOrdering)
+	 * and nothing has been added since.
+	 */
+	private volatile boolean ordered;
+
+	/**
+	 * The terms that have been folded into the consensus update (see foldUnaryTerms()).
+	 */
+	private BitSet foldedTerms;
+	private int numFoldedTerms;
+
+	/**
+	 * The weighted terms that were added with a key (see add(GroundRule, ADMMObjectiveTerm, HyperplaneKey)),
+	 * so later duplicates can be merged into them.
+	 * Only kept while terms are being generated (see finishMerging()), null otherwise.
+	 */
+	private Map<HyperplaneKey, MergedTerm> mergeableTerms;
+
+	/**
+	 * The terms that have had at least one duplicate merged into them (by term index).
+	 */
+	private Map<Integer, MergedTerm> mergedTerms;
+
+	/**
+	 * The terms for rules whose own term was merged into an existing term.
+	 * These are not in the internal store's rule mapping.
+	 */
+	private Map<WeightedGroundRule, List<Integer>> mergedRuleMapping;
 
 	@SuppressWarnings("unchecked")
 	public ADMMTermStore() {
@@ -64,53 +141,257 @@ public class ADMMTermStore implements TermStore<ADMMObjectiveTerm> {
 
 	public ADMMTermStore(TermStore<ADMMObjectiveTerm> store) {
 		this.store = store;
-		variableIndexes = new HashMap<AtomFunctionVariable, Integer>();
+		globalIds = new int[0];
+		database = null;
+		globalVariables = new ArrayList<AtomFunctionVariable>();
 		localVariables = new ArrayList<List<LocalVariable>>();
-		numLocalVariables = 0;
+		numLocalVariables = new AtomicInteger(0);
+
+		negatedRuleMapping = new HashMap<WeightedGroundRule, List<Integer>>();
+		skippedRules = new HashSet<WeightedGroundRule>();
+		consensusValues = null;
+		ordered = false;
+
+		foldedTerms = new BitSet();
+		numFoldedTerms = 0;
+
+		mergeableTerms = null;
+		mergedTerms = new HashMap<Integer, MergedTerm>();
+		mergedRuleMapping = new HashMap<WeightedGroundRule, List<Integer>>();
 	}
 
 	/**
 	 * Create a local variable and ensure that a global copy is registered.
 	 */
 	public synchronized LocalVariable createLocalVariable(AtomFunctionVariable atomVariable) {
-		numLocalVariables++;
-
-		int globalId;
-		// Check if the global copy has already been registered.
-		if (variableIndexes.containsKey(atomVariable)) {
-			globalId = variableIndexes.get(atomVariable).intValue();
-		} else {
-			// If the global copy has not been registered, register it and prep it's local copies.
-			globalId = variableIndexes.size();
-			variableIndexes.put(atomVariable, globalId);
+		LocalVariable localVariable = createUnregisteredLocalVariable(atomVariable);
+		registerLocalVariable(localVariable, atomVariable);
+		numLocalVariables.incrementAndGet();
+		return localVariable;
+	}
+
+	/**
+	 * Create a local variable without touching this store.
+	 * Until it is registered (see registerLocalVariables()), the variable's global id is its atom's id.
+	 * Since atom ids are unique (within a database), unregistered variables can still be compared to each other.
+	 * This is safe to call from any number of threads, no locking is done.
+	 */
+	public LocalVariable createUnregisteredLocalVariable(AtomFunctionVariable atomVariable) {
+		return new LocalVariable(atomVariable.getAtom().getId(), (float)atomVariable.getValue());
+	}
+
+	/**
+	 * Register local variables that were made with createUnregisteredLocalVariable()
+	 * (and give them their real global ids).
+	 * |atomVariables| holds the atom variable for each local variable.
+	 * The global variables must already be registered (see registerGlobalVariables()),
+	 * then different threads can register different local variables at the same time.
+	 */
+	public void registerLocalVariables(List<LocalVariable> variables, List<AtomFunctionVariable> atomVariables) {
+		for (int i = 0; i < variables.size(); i++) {
+			registerLocalVariable(variables.get(i), atomVariables.get(i));
+		}
+
+		numLocalVariables.addAndGet(variables.size());
+	}
+
+	/**
+	 * Give a local variable its global id and track it.
+	 * If the global variable is not registered, then the caller is responsible for synchronization.
+	 */
+	protected void registerLocalVariable(LocalVariable localVariable, AtomFunctionVariable atomVariable) {
+		int globalId = registerGlobalVariable(atomVariable);
+		localVariable.setGlobalId(globalId);
+
+		// If the global copy was just registered, prep it's local copies.
+		if (globalId == localVariables.size()) {
+			addLocalVariableLists();
+		}
+
+		List<LocalVariable> copies = localVariables.get(globalId);
+		synchronized (copies) {
+			copies.add(localVariable);
+		}
+	}
+
+	/**
+	 * Register the global variables for some atom variables (in order), without making any local variables.
+	 * The caller is responsible for synchronization.
+	 */
+	public synchronized void registerGlobalVariables(List<AtomFunctionVariable> atomVariables) {
+		for (AtomFunctionVariable atomVariable : atomVariables) {
+			registerGlobalVariable(atomVariable);
+		}
+
+		addLocalVariableLists();
+	}
+
+	/**
+	 * Make sure that every global variable has a list for its local copies.
+	 * Subclasses that do not keep the local variables here can skip this.
+	 */
+	protected void addLocalVariableLists() {
+		while (localVariables.size() < globalVariables.size()) {
 			localVariables.add(new ArrayList<LocalVariable>());
 		}
+	}
 
-		LocalVariable localVariable = new LocalVariable(globalId, (float)atomVariable.getValue());
-		localVariables.get(globalId).add(localVariable);
+	/**
+	 * Has the global variable for this atom variable been registered.
+	 */
+	public boolean hasGlobalVariable(AtomFunctionVariable atomVariable) {
+		int atomId = atomVariable.getAtom().getId();
+		return atomId < globalIds.length && globalIds[atomId] != -1;
+	}
 
-		return localVariable;
+	/**
+	 * Get the global id for a variable, registering the variable if it has not been seen before.
+	 * If the variable has not been seen before, then the caller is responsible for synchronization.
+	 */
+	protected int registerGlobalVariable(AtomFunctionVariable atomVariable) {
+		GroundAtom atom = atomVariable.getAtom();
+
+		if (database == null) {
+			database = atom.getDatabase();
+		} else if (database != atom.getDatabase()) {
+			throw new IllegalArgumentException("All atoms in an ADMMTermStore must come from the same database. Offending atom: " + atom);
+		}
+
+		int atomId = atom.getId();
+		if (atomId >= globalIds.length) {
+			int oldLength = globalIds.length;
+
+			int newLength = Math.max(atomId + 1, oldLength * 2);
+			if (database != null) {
+				// Most of the atoms that will be registered have probably already been created.
+				newLength = Math.max(newLength, database.getCache().getMaxId());
+			}
+
+			globalIds = Arrays.copyOf(globalIds, newLength);
+			Arrays.fill(globalIds, oldLength, globalIds.length, -1);
+		}
+
+		if (globalIds[atomId] != -1) {
+			return globalIds[atomId];
+		}
+
+		int newId = globalVariables.size();
+		globalIds[atomId] = newId;
+		globalVariables.add(atomVariable);
+		ordered = false;
+		return newId;
 	}
 
 	public int getNumLocalVariables() {
-		return numLocalVariables;
+		return numLocalVariables.get();
 	}
 
 	public int getNumGlobalVariables() {
-		return variableIndexes.size();
+		return globalVariables.size();
 	}
 
 	public List<LocalVariable> getLocalVariables(int globalId) {
 		return localVariables.get(globalId);
 	}
 
+	/**
+	 * Get the number of local copies of a global variable.
+	 */
+	public int getNumLocalVariables(int globalId) {
+		return localVariables.get(globalId).size();
+	}
+
+	/**
+	 * Get the value of the |localIndex|th local copy of a global variable.
+	 */
+	public float getLocalValue(int globalId, int localIndex) {
+		return localVariables.get(globalId).get(localIndex).getValue();
+	}
+
+	/**
+	 * Get the lagrange multiplier of the |localIndex|th local copy of a global variable.
+	 */
+	public float getLocalLagrange(int globalId, int localIndex) {
+		return localVariables.get(globalId).get(localIndex).getLagrange();
+	}
+
+	/**
+	 * Set the lagrange multiplier of the |localIndex|th local copy of a global variable.
+	 */
+	public void setLocalLagrange(int globalId, int localIndex, float lagrange) {
+		localVariables.get(globalId).get(localIndex).setLagrange(lagrange);
+	}
+
+	/**
+	 * Update the lagrange multipliers of the term at |termIndex|.
+	 * See ADMMObjectiveTerm.updateLagrange().
+	 */
+	public void updateLagrange(int termIndex, float stepSize, float[] consensusValues) {
+		store.get(termIndex).updateLagrange(stepSize, consensusValues);
+	}
+
+	/**
+	 * Minimize the term at |termIndex| (wrt its local variables).
+	 * See ADMMObjectiveTerm.minimize().
+	 */
+	public void minimize(int termIndex, float stepSize, float[] consensusValues) {
+		store.get(termIndex).minimize(stepSize, consensusValues);
+	}
+
+	/**
+	 * Over-relax the local variables of the term at |termIndex|.
+	 * See ADMMObjectiveTerm.relax().
+	 */
+	public void relax(int termIndex, float alpha, float[] consensusValues) {
+		store.get(termIndex).relax(alpha, consensusValues);
+	}
+
+	/**
+	 * Evaluate the term at |termIndex| using its local variables.
+	 * See ADMMObjectiveTerm.evaluate().
+	 */
+	public float evaluate(int termIndex) {
+		return store.get(termIndex).evaluate();
+	}
+
+	/**
+	 * Is the term at |termIndex| a hard constraint (instead of a part of the objective).
+	 */
+	public boolean isConstraint(int termIndex) {
+		return store.get(termIndex) instanceof LinearConstraintTerm;
+	}
+
+	/**
+	 * Get the number of (local) variables in the term at |termIndex|.
+	 */
+	public int getTermSize(int termIndex) {
+		return store.get(termIndex).variables.size();
+	}
+
+	/**
+	 * Get the global id of the |variableIndex|th variable in the term at |termIndex|.
+	 */
+	public int getGlobalId(int termIndex, int variableIndex) {
+		return store.get(termIndex).variables.get(variableIndex).getGlobalId();
+	}
+
+	/**
+	 * Write the values of the local variables for the term at |termIndex|
+	 * into |values| (which is indexed by global id).
+	 */
+	public void copyLocalValues(int termIndex, float[] values) {
+		for (LocalVariable localVariable : store.get(termIndex).variables) {
+			values[localVariable.getGlobalId()] = localVariable.getValue();
+		}
+	}
+
 	/**
 	 * Update the global variables (AtomFunctionVariables).
 	 * The passed in values in indexed according to global id.
 	 */
 	public void updateVariables(float[] values) {
-		for (Map.Entry<AtomFunctionVariable, Integer> entry : variableIndexes.entrySet()) {
-			entry.getKey().setValue(values[entry.getValue().intValue()]);
+		for (int i = 0; i < globalVariables.size(); i++) {
+			globalVariables.get(i).setValue(values[i]);
 		}
 	}
 
@@ -119,8 +400,8 @@ public class ADMMTermStore implements TermStore<ADMMObjectiveTerm> {
 	 * variables and put them in the output array.
 	 */
 	public void getAtomValues(float[] values) {
-		for (Map.Entry<AtomFunctionVariable, Integer> entry : variableIndexes.entrySet()) {
-			values[entry.getValue().intValue()] = (float)entry.getKey().getValue();
+		for (int i = 0; i < globalVariables.size(); i++) {
+			values[i] = (float)globalVariables.get(i).getValue();
 		}
 	}
 
@@ -128,27 +409,383 @@ public class ADMMTermStore implements TermStore<ADMMObjectiveTerm> {
 		resetLocalVairables(ADMMReasoner.InitialValue.RANDOM);
 	}
 
-	public void resetLocalVairables(ADMMReasoner.InitialValue initialValue) {
-		for (Map.Entry<AtomFunctionVariable, Integer> entry : variableIndexes.entrySet()) {
-			for (LocalVariable local : localVariables.get(entry.getValue().intValue())) {
-				if (initialValue == ADMMReasoner.InitialValue.ZERO) {
-					local.setValue(0.0f);
-				} else if (initialValue == ADMMReasoner.InitialValue.RANDOM) {
-					local.setValue(RandUtils.nextFloat());
-				} else if (initialValue == ADMMReasoner.InitialValue.ATOM) {
-					local.setValue((float)(entry.getKey().getValue()));
-				} else {
-					throw new IllegalStateException("Unknown initial consensus value: " + initialValue);
+	public void resetLocalVairables(final ADMMReasoner.InitialValue initialValue) {
+		// The local variables no longer agree with the last consensus values.
+		consensusValues = null;
+
+		// Each block of global variables gets its own random stream, so the values do not depend on the number of threads.
+		final long streamSeed = RandUtils.nextStreamSeed();
+		int numBlocks = (globalVariables.size() + RandUtils.STREAM_BLOCK_SIZE - 1) / RandUtils.STREAM_BLOCK_SIZE;
+
+		Parallel.count(numBlocks, new Parallel.Worker<Integer>() {
+			@Override
+			public void work(int blockIndex, Integer ignore) {
+				RandomStream rand = RandUtils.getStream(streamSeed, blockIndex);
+
+				int start = blockIndex * RandUtils.STREAM_BLOCK_SIZE;
+				int end = Math.min(globalVariables.size(), start + RandUtils.STREAM_BLOCK_SIZE);
+				for (int i = start; i < end; i++) {
+					for (LocalVariable local : localVariables.get(i)) {
+						if (initialValue == ADMMReasoner.InitialValue.ZERO) {
+							local.setValue(0.0f);
+						} else if (initialValue == ADMMReasoner.InitialValue.RANDOM) {
+							local.setValue(rand.nextFloat());
+						} else if (initialValue == ADMMReasoner.InitialValue.ATOM) {
+							local.setValue((float)(globalVariables.get(i).getValue()));
+						} else {
+							throw new IllegalStateException("Unknown initial consensus value: " + initialValue);
+						}
+
+						local.setLagrange(0.0f);
+					}
 				}
-
-				local.setLagrange(0.0f);
 			}
-		}
+		});
+	}
+
+	/**
+	 * Get the consensus values from the most recent optimization over this store.
+	 * Null if this store has not been optimized since it was last cleared or reset.
+	 */
+	public float[] getConsensusValues() {
+		return consensusValues;
+	}
+
+	public void setConsensusValues(float[] consensusValues) {
+		this.consensusValues = consensusValues;
 	}
 
 	@Override
-	public void add(GroundRule rule, ADMMObjectiveTerm term) {
+	public synchronized void add(GroundRule rule, ADMMObjectiveTerm term) {
 		store.add(rule, term);
+		ordered = false;
+	}
+
+	/**
+	 * Make room at the end of this store for |numTerms| terms that have |numSlots| local variables between them.
+	 * Each of the reserved terms must then be put in place with setTerm() before the store is used.
+	 * Only possible if the internal store is a MemoryTermStore.
+	 * @return the index of the first reserved term.
+	 */
+	@SuppressWarnings("unchecked")
+	public synchronized int reserveTerms(int numTerms, int numSlots) {
+		if (!(store instanceof MemoryTermStore)) {
+			throw new IllegalStateException("Terms can only be reserved in a MemoryTermStore, found: " + store.getClass().getName());
+		}
+
+		ordered = false;
+		return ((MemoryTermStore<ADMMObjectiveTerm>)store).reserve(numTerms);
+	}
+
+	/**
+	 * Put a term (whose local variables are registered) into a place made by reserveTerms().
+	 * |slotOffset| is the number of local variables in the reserved terms that come before this one.
+	 * Different threads can set different terms at the same time.
+	 */
+	@SuppressWarnings("unchecked")
+	public void setTerm(GroundRule rule, int termIndex, int slotOffset, ADMMObjectiveTerm term) {
+		((MemoryTermStore<ADMMObjectiveTerm>)store).set(rule, termIndex, term);
+	}
+
+	/**
+	 * Let later duplicates (terms with the same key) be merged into the weighted term at |termIndex| (see mergeDuplicate()).
+	 */
+	public synchronized void addMergeable(WeightedGroundRule rule, int termIndex, HyperplaneKey key) {
+		if (mergeableTerms == null) {
+			mergeableTerms = new HashMap<HyperplaneKey, MergedTerm>();
+		}
+		mergeableTerms.put(key, new MergedTerm(termIndex, rule));
+	}
+
+	/**
+	 * Is there a term in this store that a term with |key| can be merged into.
+	 */
+	public synchronized boolean hasDuplicate(HyperplaneKey key) {
+		return mergeableTerms != null && mergeableTerms.containsKey(key);
+	}
+
+	/**
+	 * Drop the keys of the terms that duplicates can be merged into.
+	 * Called when term generation is done, terms added after this will not be merged into earlier terms.
+	 * The terms that already have duplicates merged into them keep their total weight.
+	 */
+	public synchronized void finishMerging() {
+		mergeableTerms = null;
+	}
+
+	/**
+	 * Instead of adding a term for |rule|, give its weight to the existing term with the same key.
+	 * The existing term is then reported as one of the rule's terms (see getTermIndices()),
+	 * and its weight is kept as the sum of the weights of all the rules merged into it (see updateWeight()).
+	 */
+	public synchronized void mergeDuplicate(WeightedGroundRule rule, HyperplaneKey key) {
+		MergedTerm mergedTerm = (mergeableTerms == null) ? null : mergeableTerms.get(key);
+		if (mergedTerm == null) {
+			throw new IllegalArgumentException("No term to merge into for rule: " + rule);
+		}
+
+		mergedTerm.rules.add(rule);
+		mergedTerms.put(new Integer(mergedTerm.termIndex), mergedTerm);
+
+		if (!mergedRuleMapping.containsKey(rule)) {
+			mergedRuleMapping.put(rule, new ArrayList<Integer>(1));
+		}
+		mergedRuleMapping.get(rule).add(new Integer(mergedTerm.termIndex));
+
+		setWeight(mergedTerm.termIndex, mergedTerm.getWeight());
+	}
+
+	/**
+	 * The number of terms that have had at least one duplicate merged into them.
+	 */
+	public int getNumMergedTerms() {
+		return mergedTerms.size();
+	}
+
+	public boolean isOrdered() {
+		return ordered;
+	}
+
+	public void setOrdered(boolean ordered) {
+		this.ordered = ordered;
+	}
+
+	/**
+	 * Renumber the global variables: the variable with global id order[i] gets global id i.
+	 * Any consensus values from the last optimization are moved along with their variables.
+	 */
+	public synchronized void renumberVariables(int[] order) {
+		int numVariables = globalVariables.size();
+		if (order.length != numVariables) {
+			throw new IllegalArgumentException("Expected an order for " + numVariables + " variables, got " + order.length + ".");
+		}
+
+		int[] newIds = new int[numVariables];
+		for (int i = 0; i < numVariables; i++) {
+			newIds[order[i]] = i;
+		}
+
+		List<AtomFunctionVariable> newGlobalVariables = new ArrayList<AtomFunctionVariable>(numVariables);
+		for (int i = 0; i < numVariables; i++) {
+			newGlobalVariables.add(globalVariables.get(order[i]));
+		}
+		globalVariables = newGlobalVariables;
+
+		// Subclasses may not keep the local variables here.
+		if (localVariables.size() == numVariables) {
+			List<List<LocalVariable>> newLocalVariables = new ArrayList<List<LocalVariable>>(numVariables);
+			for (int i = 0; i < numVariables; i++) {
+				List<LocalVariable> variables = localVariables.get(order[i]);
+				for (LocalVariable variable : variables) {
+					variable.setGlobalId(i);
+				}
+
+				newLocalVariables.add(variables);
+			}
+			localVariables = newLocalVariables;
+
+			// Folded terms are no longer tracked with the other local variables.
+			for (int termIndex = foldedTerms.nextSetBit(0); termIndex >= 0; termIndex = foldedTerms.nextSetBit(termIndex + 1)) {
+				LocalVariable variable = store.get(termIndex).variables.get(0);
+				variable.setGlobalId(newIds[variable.getGlobalId()]);
+			}
+		}
+
+		for (int atomId = 0; atomId < globalIds.length; atomId++) {
+			if (globalIds[atomId] != -1) {
+				globalIds[atomId] = newIds[globalIds[atomId]];
+			}
+		}
+
+		if (consensusValues != null) {
+			float[] newConsensusValues = new float[numVariables];
+			for (int i = 0; i < numVariables; i++) {
+				newConsensusValues[i] = consensusValues[order[i]];
+			}
+			consensusValues = newConsensusValues;
+		}
+
+		renumberLocalVariables(newIds);
+	}
+
+	/**
+	 * Called at the end of renumberVariables() so that subclasses which keep track of global ids
+	 * on their own can update them.
+	 * newIds[oldId] is the new id for each global variable.
+	 */
+	protected void renumberLocalVariables(int[] newIds) {
+	}
+
+	/**
+	 * Reorder the terms: the term at index order[i] moves to index i.
+	 * The indexes tracked for rules and negated rules are updated.
+	 * Only possible if the internal store is a MemoryTermStore.
+	 * @return true if the terms were reordered.
+	 */
+	@SuppressWarnings("unchecked")
+	public synchronized boolean permuteTerms(int[] order) {
+		if (!(store instanceof MemoryTermStore)) {
+			return false;
+		}
+
+		((MemoryTermStore<ADMMObjectiveTerm>)store).permute(order);
+		remapTermIndices(order);
+
+		return true;
+	}
+
+	/**
+	 * Update the term indexes kept here (negated terms and folded terms) after the terms have been reordered
+	 * (the term at index order[i] has moved to index i).
+	 */
+	protected void remapTermIndices(int[] order) {
+		int[] newIndexes = new int[order.length];
+		for (int i = 0; i < order.length; i++) {
+			newIndexes[order[i]] = i;
+		}
+
+		for (List<Integer> indexes : negatedRuleMapping.values()) {
+			for (int i = 0; i < indexes.size(); i++) {
+				indexes.set(i, new Integer(newIndexes[indexes.get(i).intValue()]));
+			}
+		}
+
+		BitSet newFoldedTerms = new BitSet(order.length);
+		for (int termIndex = foldedTerms.nextSetBit(0); termIndex >= 0; termIndex = foldedTerms.nextSetBit(termIndex + 1)) {
+			newFoldedTerms.set(newIndexes[termIndex]);
+		}
+		foldedTerms = newFoldedTerms;
+
+		// Merged terms may also still be mergeable, so only remap them once.
+		Set<MergedTerm> remapped = Collections.newSetFromMap(new IdentityHashMap<MergedTerm, Boolean>());
+		if (mergeableTerms != null) {
+			remapped.addAll(mergeableTerms.values());
+		}
+		remapped.addAll(mergedTerms.values());
+
+		for (MergedTerm mergedTerm : remapped) {
+			mergedTerm.termIndex = newIndexes[mergedTerm.termIndex];
+		}
+
+		Map<Integer, MergedTerm> newMergedTerms = new HashMap<Integer, MergedTerm>(mergedTerms.size());
+		for (MergedTerm mergedTerm : mergedTerms.values()) {
+			newMergedTerms.put(new Integer(mergedTerm.termIndex), mergedTerm);
+		}
+		mergedTerms = newMergedTerms;
+
+		for (List<Integer> indexes : mergedRuleMapping.values()) {
+			for (int i = 0; i < indexes.size(); i++) {
+				indexes.set(i, new Integer(newIndexes[indexes.get(i).intValue()]));
+			}
+		}
+	}
+
+	/**
+	 * Fold all the (not yet folded) weighted terms over a single variable into the consensus update.
+	 * A folded term keeps its place (and index) in this store, but its local variable
+	 * is no longer one of its global variable's local copies and the term should not be minimized.
+	 * Instead, the returned potentials should be applied whenever the consensus values are computed,
+	 * and the folded local variables kept at the consensus value (see setFoldedValue()).
+	 *
+	 * Since weights can change, the potentials should be fetched again before each optimization.
+	 * Terms are never unfolded.
+	 */
+	public synchronized UnaryPotentials foldUnaryTerms() {
+		for (int termIndex = 0; termIndex < size(); termIndex++) {
+			if (!foldedTerms.get(termIndex) && UnaryPotentials.isFoldable(this, termIndex)) {
+				foldTerm(termIndex);
+				foldedTerms.set(termIndex);
+				numFoldedTerms++;
+			}
+		}
+
+		return new UnaryPotentials(this);
+	}
+
+	/**
+	 * Stop tracking the local variable of a (single variable) term as a local copy of its global variable.
+	 */
+	protected void foldTerm(int termIndex) {
+		LocalVariable variable = store.get(termIndex).variables.get(0);
+		List<LocalVariable> copies = localVariables.get(variable.getGlobalId());
+
+		// Local variables are equal if they have the same global id, so look for this exact one.
+		for (int i = 0; i < copies.size(); i++) {
+			if (copies.get(i) == variable) {
+				copies.remove(i);
+				numLocalVariables.decrementAndGet();
+				break;
+			}
+		}
+
+		variable.setLagrange(0.0f);
+	}
+
+	public boolean isFolded(int termIndex) {
+		return foldedTerms.get(termIndex);
+	}
+
+	public int getNumFoldedTerms() {
+		return numFoldedTerms;
+	}
+
+	/**
+	 * Set the value of the local variable of a folded term.
+	 */
+	public void setFoldedValue(int termIndex, float value) {
+		store.get(termIndex).variables.get(0).setValue(value);
+	}
+
+	/**
+	 * Note that the |numTerms| terms starting at |termIndex| were generated from the negation of |rule|
+	 * (see GroundRule.negate()).
+	 * The terms should have been added without a rule, since they are tracked here instead of with the rule's own terms.
+	 * The rule will be noted as negated even if there are no terms.
+	 */
+	public synchronized void addNegated(WeightedGroundRule rule, int termIndex, int numTerms) {
+		if (!negatedRuleMapping.containsKey(rule)) {
+			negatedRuleMapping.put(rule, new LinkedList<Integer>());
+		}
+
+		List<Integer> indexes = negatedRuleMapping.get(rule);
+		for (int i = 0; i < numTerms; i++) {
+			indexes.add(new Integer(termIndex + i));
+		}
+	}
+
+	/**
+	 * Get the indices of the terms generated from the negation of |rule|.
+	 * Null if the negation of |rule| has never been generated.
+	 */
+	public List<Integer> getNegatedTermIndices(WeightedGroundRule rule) {
+		List<Integer> indexes = negatedRuleMapping.get(rule);
+		if (indexes == null) {
+			return null;
+		}
+
+		return new UnmodifiableList<Integer>(indexes);
+	}
+
+	/**
+	 * Note that |rule| did not get any terms of its own during term generation.
+	 */
+	public synchronized void addSkipped(WeightedGroundRule rule) {
+		skippedRules.add(rule);
+	}
+
+	/**
+	 * Stop considering |rule| as skipped (see addSkipped()).
+	 * @return true if the rule was skipped.
+	 */
+	public synchronized boolean removeSkipped(WeightedGroundRule rule) {
+		return skippedRules.remove(rule);
+	}
+
+	/**
+	 * Set the weight of the (weighted) term at |termIndex|.
+	 */
+	public void setWeight(int termIndex, float weight) {
+		((WeightedTerm)store.get(termIndex)).setWeight(weight);
 	}
 
 	@Override
@@ -157,15 +794,43 @@ public class ADMMTermStore implements TermStore<ADMMObjectiveTerm> {
 			store.clear();
 		}
 
-		if (variableIndexes != null) {
-			variableIndexes.clear();
+		if (globalVariables != null) {
+			globalVariables.clear();
 		}
 
+		globalIds = new int[0];
+		database = null;
+
 		if (localVariables != null) {
 			localVariables.clear();
 		}
 
-		numLocalVariables = 0;
+		if (negatedRuleMapping != null) {
+			negatedRuleMapping.clear();
+		}
+
+		if (skippedRules != null) {
+			skippedRules.clear();
+		}
+
+		numLocalVariables.set(0);
+		consensusValues = null;
+		ordered = false;
+
+		if (foldedTerms != null) {
+			foldedTerms.clear();
+		}
+		numFoldedTerms = 0;
+
+		mergeableTerms = null;
+
+		if (mergedTerms != null) {
+			mergedTerms.clear();
+		}
+
+		if (mergedRuleMapping != null) {
+			mergedRuleMapping.clear();
+		}
 	}
 
 	@Override
@@ -177,8 +842,15 @@ public class ADMMTermStore implements TermStore<ADMMObjectiveTerm> {
 			store = null;
 		}
 
-		variableIndexes = null;
+		globalVariables = null;
+		globalIds = null;
 		localVariables = null;
+		negatedRuleMapping = null;
+		skippedRules = null;
+		foldedTerms = null;
+		mergeableTerms = null;
+		mergedTerms = null;
+		mergedRuleMapping = null;
 	}
 
 	@Override
@@ -201,13 +873,77 @@ public class ADMMTermStore implements TermStore<ADMMObjectiveTerm> {
 		return store.iterator();
 	}
 
+	/**
+	 * Only the form of the rule (the rule itself or its negation) that matches the sign
+	 * of the rule's weight is given weight, the other form gets a zero weight.
+	 * Terms that have had duplicates merged into them get the total weight of all their rules.
+	 */
 	@Override
 	public void updateWeight(WeightedGroundRule rule) {
-		store.updateWeight(rule);
+		float weight = (float)rule.getWeight();
+
+		for (Integer termIndex : getTermIndices(rule)) {
+			MergedTerm mergedTerm = mergedTerms.get(termIndex);
+			if (mergedTerm != null) {
+				setWeight(termIndex.intValue(), mergedTerm.getWeight());
+			} else {
+				setWeight(termIndex.intValue(), Math.max(0.0f, weight));
+			}
+		}
+
+		List<Integer> negatedIndexes = negatedRuleMapping.get(rule);
+		if (negatedIndexes != null) {
+			for (Integer termIndex : negatedIndexes) {
+				setWeight(termIndex.intValue(), Math.max(0.0f, -1.0f * weight));
+			}
+		}
 	}
 
 	@Override
 	public List<Integer> getTermIndices(WeightedGroundRule rule) {
-		return store.getTermIndices(rule);
+		return addMergedTermIndices(rule, store.getTermIndices(rule));
+	}
+
+	/**
+	 * Add the terms that |rule| was merged into (see mergeDuplicate()) to the rule's own terms.
+	 */
+	protected List<Integer> addMergedTermIndices(WeightedGroundRule rule, List<Integer> termIndices) {
+		List<Integer> merged = mergedRuleMapping.get(rule);
+		if (merged == null) {
+			return termIndices;
+		}
+
+		List<Integer> allIndices = new ArrayList<Integer>(termIndices.size() + merged.size());
+		allIndices.addAll(termIndices);
+		allIndices.addAll(merged);
+
+		return new UnmodifiableList<Integer>(allIndices);
+	}
+
+	/**
+	 * A term that duplicates can be merged into, and the rules that have been merged into it.
+	 */
+	private static class MergedTerm {
+		public int termIndex;
+		public List<WeightedGroundRule> rules;
+
+		public MergedTerm(int termIndex, WeightedGroundRule rule) {
+			this.termIndex = termIndex;
+
+			rules = new ArrayList<WeightedGroundRule>(1);
+			rules.add(rule);
+		}
+
+		/**
+		 * The total weight of all the rules (negative rules do not contribute, see updateWeight()).
+		 */
+		public float getWeight() {
+			float weight = 0.0f;
+			for (WeightedGroundRule rule : rules) {
+				weight += Math.max(0.0f, (float)rule.getWeight());
+			}
+
+			return weight;
+		}
 	}
 }
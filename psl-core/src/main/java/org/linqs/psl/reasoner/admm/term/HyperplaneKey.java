@@ -0,0 +1,132 @@
+/*
+ * This file is part of the PSL software.
+ * Copyright 2011-2015 University of Maryland
+ * Copyright 2013-2018 The Regents of the University of California
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.linqs.psl.reasoner.admm.term;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A canonical form of a weighted term: its kind (linear, hinge, squared linear, or squared hinge),
+ * its variables (sorted by id), their coefficients, and its constant.
+ * Two terms with equal keys are the same function of the same variables (up to their weights),
+ * and so can be merged into one term with the sum of their weights.
+ *
+ * Keys use the ids that the term's local variables have when the key is made,
+ * so all keys that are compared must be made at the same point in term generation
+ * (see ADMMTermGenerator.MERGE_DUPLICATES_KEY).
+ */
+final class HyperplaneKey {
+	private static final int LINEAR = 0;
+	private static final int HINGE = 1;
+	private static final int SQUARED_LINEAR = 2;
+	private static final int SQUARED_HINGE = 3;
+
+	private final int kind;
+	private final int[] variableIds;
+	private final float[] coefficients;
+	private final float constant;
+	private final int hash;
+
+	private HyperplaneKey(int kind, int[] variableIds, float[] coefficients, float constant) {
+		this.kind = kind;
+		this.variableIds = variableIds;
+		this.coefficients = coefficients;
+		this.constant = constant;
+
+		int hash = kind;
+		hash = 31 * hash + Arrays.hashCode(variableIds);
+		hash = 31 * hash + Arrays.hashCode(coefficients);
+		hash = 31 * hash + Float.floatToIntBits(constant);
+		this.hash = hash;
+	}
+
+	/**
+	 * Get the key for a term.
+	 * Null if the term cannot be merged with other terms (e.g. it is a constraint).
+	 */
+	public static HyperplaneKey of(ADMMObjectiveTerm term) {
+		int kind;
+		List<Float> coeffs;
+		float constant;
+
+		if (term instanceof LinearLossTerm) {
+			kind = LINEAR;
+			coeffs = ((LinearLossTerm)term).coeffs;
+			constant = 0.0f;
+		} else if (term instanceof HingeLossTerm) {
+			kind = HINGE;
+			coeffs = ((HingeLossTerm)term).coeffs;
+			constant = ((HingeLossTerm)term).constant;
+		} else if (term instanceof SquaredLinearLossTerm) {
+			kind = SQUARED_LINEAR;
+			coeffs = ((SquaredLinearLossTerm)term).coeffs;
+			constant = ((SquaredLinearLossTerm)term).constant;
+		} else if (term instanceof SquaredHingeLossTerm) {
+			kind = SQUARED_HINGE;
+			coeffs = ((SquaredHingeLossTerm)term).coeffs;
+			constant = ((SquaredHingeLossTerm)term).constant;
+		} else {
+			return null;
+		}
+
+		int size = term.variables.size();
+
+		// Sort the positions by variable id (ids are never negative, so the id can go in the high bits).
+		long[] order = new long[size];
+		for (int i = 0; i < size; i++) {
+			order[i] = ((long)term.variables.get(i).getGlobalId() << 32) | i;
+		}
+		Arrays.sort(order);
+
+		int[] variableIds = new int[size];
+		float[] coefficients = new float[size];
+
+		for (int i = 0; i < size; i++) {
+			int position = (int)(order[i] & 0xFFFFFFFFL);
+
+			variableIds[i] = (int)(order[i] >>> 32);
+			// Adding zero turns a negative zero into a positive one.
+			coefficients[i] = coeffs.get(position).floatValue() + 0.0f;
+		}
+
+		return new HyperplaneKey(kind, variableIds, coefficients, constant + 0.0f);
+	}
+
+	@Override
+	public int hashCode() {
+		return hash;
+	}
+
+	@Override
+	public boolean equals(Object other) {
+		if (other == this) {
+			return true;
+		}
+
+		if (other == null || !(other instanceof HyperplaneKey)) {
+			return false;
+		}
+
+		HyperplaneKey otherKey = (HyperplaneKey)other;
+		return hash == otherKey.hash
+				&& kind == otherKey.kind
+				&& Float.floatToIntBits(constant) == Float.floatToIntBits(otherKey.constant)
+				&& Arrays.equals(variableIds, otherKey.variableIds)
+				&& Arrays.equals(coefficients, otherKey.coefficients);
+	}
+}
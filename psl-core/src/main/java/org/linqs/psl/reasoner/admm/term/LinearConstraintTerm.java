@@ -38,6 +38,10 @@ public class LinearConstraintTerm extends HyperplaneTerm {
 		this.comparator = comparator;
 	}
 
+	public FunctionComparator getComparator() {
+		return comparator;
+	}
+
 	/**
 	 * if (coeffs^T * x [comparator] constant) { 0.0 }
 	 * else { infinity }
@@ -26,7 +26,7 @@ import java.util.List;
  * weight * coeffs^T * x
  */
 public class LinearLossTerm extends ADMMObjectiveTerm implements WeightedTerm {
-	private final List<Float> coeffs;
+	protected final List<Float> coeffs;
 	private float weight;
 
 	/**
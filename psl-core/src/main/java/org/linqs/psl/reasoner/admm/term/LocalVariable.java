@@ -23,7 +23,7 @@ package org.linqs.psl.reasoner.admm.term;
  * Note that local variables are hashed and equated by the global variable they track.
  */
 public class LocalVariable {
-	private final int globalId;
+	private int globalId;
 	private float value;
 	private float lagrange;
 
@@ -41,6 +41,14 @@ public class LocalVariable {
 		return globalId;
 	}
 
+	/**
+	 * Only for the term store to use when a variable is registered after it was created
+	 * (see ADMMTermStore.createUnregisteredLocalVariable()).
+	 */
+	void setGlobalId(int globalId) {
+		this.globalId = globalId;
+	}
+
 	public float getLagrange() {
 		return lagrange;
 	}
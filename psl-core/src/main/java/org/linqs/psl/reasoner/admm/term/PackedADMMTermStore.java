@@ -0,0 +1,890 @@
+/*
+ * This file is part of the PSL software.
+ * Copyright 2011-2015 University of Maryland
+ * Copyright 2013-2018 The Regents of the University of California
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.linqs.psl.reasoner.admm.term;
+
+import org.linqs.psl.config.Config;
+import org.linqs.psl.model.rule.GroundRule;
+import org.linqs.psl.model.rule.WeightedGroundRule;
+import org.linqs.psl.reasoner.admm.ADMMReasoner;
+import org.linqs.psl.reasoner.function.AtomFunctionVariable;
+import org.linqs.psl.reasoner.function.FunctionComparator;
+import org.linqs.psl.reasoner.term.TermStore;
+import org.linqs.psl.reasoner.term.WeightedTerm;
+import org.linqs.psl.util.MathUtils;
+import org.linqs.psl.util.Parallel;
+import org.linqs.psl.util.RandUtils;
+import org.linqs.psl.util.RandomStream;
+
+import org.apache.commons.collections4.list.UnmodifiableList;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * An ADMMTermStore that keeps all terms in contiguous primitive arrays (structure-of-arrays)
+ * instead of holding on to term and local variable objects.
+ *
+ * Terms are still built as ADMMObjectiveTerms by the term generator,
+ * but they are flattened into the arrays as soon as they are added and then released.
+ * The term kernels (minimize, updateLagrange, evaluate) work directly on the arrays.
+ *
+ * Each term owns a contiguous range of slots: [termOffsets[termIndex], termOffsets[termIndex + 1]).
+ * Each slot is one local variable (its global id, coefficient, unit normal, value, and lagrange multiplier).
+ *
+ * get() and iterator() return detached copies of the terms,
+ * changes to those copies will not be reflected in the store.
+ */
+public class PackedADMMTermStore extends ADMMTermStore {
+	public static final String CONFIG_PREFIX = "packedadmmtermstore";
+
+	/**
+	 * Initial number of terms to allocate space for.
+	 */
+	public static final String INITIAL_SIZE_KEY = CONFIG_PREFIX + ".initialsize";
+	public static final int INITIAL_SIZE_DEFAULT = 5000;
+
+	/**
+	 * The expected average number of variables per term.
+	 * Only used to size buffers.
+	 */
+	public static final String AVERAGE_TERM_SIZE_KEY = CONFIG_PREFIX + ".averagetermsize";
+	public static final int AVERAGE_TERM_SIZE_DEFAULT = 3;
+
+	private static enum TermType {
+		LINEAR_LOSS,
+		HINGE_LOSS,
+		SQUARED_LINEAR_LOSS,
+		SQUARED_HINGE_LOSS,
+		EQUALITY_CONSTRAINT,
+		SMALLER_THAN_CONSTRAINT,
+		LARGER_THAN_CONSTRAINT,
+		SIMPLEX_CONSTRAINT
+	}
+
+	private final int averageTermSize;
+
+	private int numTerms;
+	private int numSlots;
+
+	// The first slot of the most recent reservation (see reserveTerms()).
+	private int reservedSlots;
+
+	// Indexed by term.
+	private TermType[] types;
+	private float[] constants;
+	private float[] weights;
+	// Always has one more entry than the number of terms so that the last term has an end.
+	private int[] termOffsets;
+
+	// Indexed by slot.
+	private int[] globalIds;
+	private float[] coefficients;
+	private float[] unitNormals;
+	private float[] values;
+	private float[] lagranges;
+
+	// The slots for each global variable (in compressed row form).
+	// The slots for global variable i are: globalSlots[globalOffsets[i]] - globalSlots[globalOffsets[i + 1] - 1].
+	// Rebuilt whenever a term has been added.
+	private int[] globalOffsets;
+	private int[] globalSlots;
+	private volatile boolean globalIndexDirty;
+
+	// Scratch space for simplex projections, terms are minimized from many threads.
+	private final ThreadLocal<float[]> simplexBuffers;
+
+	/**
+	 * See MemoryTermStore.ruleMapping.
+	 */
+	private ConcurrentMap<WeightedGroundRule, List<Integer>> ruleMapping;
+
+	public PackedADMMTermStore() {
+		this(Config.getInt(INITIAL_SIZE_KEY, INITIAL_SIZE_DEFAULT));
+	}
+
+	@SuppressWarnings("unchecked")
+	public PackedADMMTermStore(int initialSize) {
+		// All the term storage is handled here, so there is no need for an internal store.
+		super((TermStore<ADMMObjectiveTerm>)null);
+
+		averageTermSize = Config.getInt(AVERAGE_TERM_SIZE_KEY, AVERAGE_TERM_SIZE_DEFAULT);
+
+		numTerms = 0;
+		numSlots = 0;
+		reservedSlots = 0;
+
+		types = new TermType[initialSize];
+		constants = new float[initialSize];
+		weights = new float[initialSize];
+		termOffsets = new int[initialSize + 1];
+
+		int initialSlots = initialSize * averageTermSize;
+		globalIds = new int[initialSlots];
+		coefficients = new float[initialSlots];
+		unitNormals = new float[initialSlots];
+		values = new float[initialSlots];
+		lagranges = new float[initialSlots];
+
+		globalOffsets = null;
+		globalSlots = null;
+		globalIndexDirty = true;
+
+		ruleMapping = new ConcurrentHashMap<WeightedGroundRule, List<Integer>>(initialSize);
+		simplexBuffers = new ThreadLocal<float[]>();
+	}
+
+	/**
+	 * The local variable will only live until the term that holds it is added.
+	 * So, we only need to make sure that the global variable is registered.
+	 */
+	@Override
+	protected void registerLocalVariable(LocalVariable localVariable, AtomFunctionVariable atomVariable) {
+		localVariable.setGlobalId(registerGlobalVariable(atomVariable));
+	}
+
+	/**
+	 * The local variables are kept in slots, not lists.
+	 */
+	@Override
+	protected void addLocalVariableLists() {
+	}
+
+	@Override
+	public synchronized void add(GroundRule rule, ADMMObjectiveTerm term) {
+		int termIndex = reserveTerms(1, term.variables.size());
+		setTerm(rule, termIndex, 0, term);
+	}
+
+	@Override
+	public synchronized int reserveTerms(int count, int slots) {
+		ensureTermCapacity(numTerms + count);
+		ensureSlotCapacity(numSlots + slots);
+
+		int termIndex = numTerms;
+		reservedSlots = numSlots;
+
+		numTerms += count;
+		numSlots += slots;
+
+		globalIndexDirty = true;
+		setOrdered(false);
+
+		return termIndex;
+	}
+
+	@Override
+	public void setTerm(GroundRule rule, int termIndex, int slotOffset, ADMMObjectiveTerm term) {
+		List<LocalVariable> variables = term.variables;
+		int size = variables.size();
+		int firstSlot = reservedSlots + slotOffset;
+
+		List<Float> termCoefficients = null;
+		float constant = 0.0f;
+		float weight = 0.0f;
+		TermType type = null;
+
+		if (term instanceof LinearLossTerm) {
+			type = TermType.LINEAR_LOSS;
+			termCoefficients = ((LinearLossTerm)term).coeffs;
+			weight = ((LinearLossTerm)term).getWeight();
+		} else if (term instanceof HingeLossTerm) {
+			type = TermType.HINGE_LOSS;
+			termCoefficients = ((HingeLossTerm)term).coeffs;
+			constant = ((HingeLossTerm)term).constant;
+			weight = ((HingeLossTerm)term).getWeight();
+		} else if (term instanceof SquaredLinearLossTerm) {
+			type = TermType.SQUARED_LINEAR_LOSS;
+			termCoefficients = ((SquaredLinearLossTerm)term).coeffs;
+			constant = ((SquaredLinearLossTerm)term).constant;
+			weight = ((SquaredLinearLossTerm)term).getWeight();
+		} else if (term instanceof SquaredHingeLossTerm) {
+			type = TermType.SQUARED_HINGE_LOSS;
+			termCoefficients = ((SquaredHingeLossTerm)term).coeffs;
+			constant = ((SquaredHingeLossTerm)term).constant;
+			weight = ((SquaredHingeLossTerm)term).getWeight();
+		} else if (term instanceof SimplexConstraintTerm) {
+			type = TermType.SIMPLEX_CONSTRAINT;
+			termCoefficients = ((SimplexConstraintTerm)term).coeffs;
+			constant = ((SimplexConstraintTerm)term).constant;
+		} else if (term instanceof LinearConstraintTerm) {
+			FunctionComparator comparator = ((LinearConstraintTerm)term).getComparator();
+			if (comparator == FunctionComparator.Equality) {
+				type = TermType.EQUALITY_CONSTRAINT;
+			} else if (comparator == FunctionComparator.SmallerThan) {
+				type = TermType.SMALLER_THAN_CONSTRAINT;
+			} else {
+				type = TermType.LARGER_THAN_CONSTRAINT;
+			}
+
+			termCoefficients = ((LinearConstraintTerm)term).coeffs;
+			constant = ((LinearConstraintTerm)term).constant;
+		} else {
+			throw new IllegalArgumentException("Unsupported term type: " + term.getClass().getName());
+		}
+
+		types[termIndex] = type;
+		constants[termIndex] = constant;
+		weights[termIndex] = weight;
+
+		float length = 0.0f;
+		for (int i = 0; i < size; i++) {
+			int slot = firstSlot + i;
+			LocalVariable variable = variables.get(i);
+
+			globalIds[slot] = variable.getGlobalId();
+			coefficients[slot] = termCoefficients.get(i).floatValue();
+			values[slot] = variable.getValue();
+			lagranges[slot] = variable.getLagrange();
+
+			length += coefficients[slot] * coefficients[slot];
+		}
+
+		length = (float)Math.sqrt(length);
+		for (int slot = firstSlot; slot < firstSlot + size; slot++) {
+			unitNormals[slot] = coefficients[slot] / length;
+		}
+
+		// Reserved slots are handed out in term order, so this is also where the next term starts.
+		termOffsets[termIndex + 1] = firstSlot + size;
+
+		if (rule instanceof WeightedGroundRule && term instanceof WeightedTerm) {
+			List<Integer> indexes = ruleMapping.get((WeightedGroundRule)rule);
+			if (indexes == null) {
+				indexes = new ArrayList<Integer>(1);
+
+				List<Integer> existing = ruleMapping.putIfAbsent((WeightedGroundRule)rule, indexes);
+				if (existing != null) {
+					indexes = existing;
+				}
+			}
+
+			indexes.add(new Integer(termIndex));
+		}
+	}
+
+	@Override
+	protected void renumberLocalVariables(int[] newIds) {
+		for (int slot = 0; slot < numSlots; slot++) {
+			globalIds[slot] = newIds[globalIds[slot]];
+		}
+
+		globalIndexDirty = true;
+	}
+
+	/**
+	 * Terms are always stored here, so they can always be reordered.
+	 * Each term's slots move with it, so the slots end up in the new term order as well.
+	 */
+	@Override
+	public synchronized boolean permuteTerms(int[] order) {
+		if (order.length != numTerms) {
+			throw new IllegalArgumentException("Expected an order for " + numTerms + " terms, got " + order.length + ".");
+		}
+
+		TermType[] newTypes = new TermType[types.length];
+		float[] newConstants = new float[constants.length];
+		float[] newWeights = new float[weights.length];
+		int[] newTermOffsets = new int[termOffsets.length];
+
+		int[] newGlobalIds = new int[globalIds.length];
+		float[] newCoefficients = new float[coefficients.length];
+		float[] newUnitNormals = new float[unitNormals.length];
+		float[] newValues = new float[values.length];
+		float[] newLagranges = new float[lagranges.length];
+
+		int[] newIndexes = new int[numTerms];
+
+		for (int termIndex = 0; termIndex < numTerms; termIndex++) {
+			int oldIndex = order[termIndex];
+			newIndexes[oldIndex] = termIndex;
+
+			newTypes[termIndex] = types[oldIndex];
+			newConstants[termIndex] = constants[oldIndex];
+			newWeights[termIndex] = weights[oldIndex];
+
+			int start = termOffsets[oldIndex];
+			int size = termOffsets[oldIndex + 1] - start;
+			int newStart = newTermOffsets[termIndex];
+
+			System.arraycopy(globalIds, start, newGlobalIds, newStart, size);
+			System.arraycopy(coefficients, start, newCoefficients, newStart, size);
+			System.arraycopy(unitNormals, start, newUnitNormals, newStart, size);
+			System.arraycopy(values, start, newValues, newStart, size);
+			System.arraycopy(lagranges, start, newLagranges, newStart, size);
+
+			newTermOffsets[termIndex + 1] = newStart + size;
+		}
+
+		types = newTypes;
+		constants = newConstants;
+		weights = newWeights;
+		termOffsets = newTermOffsets;
+
+		globalIds = newGlobalIds;
+		coefficients = newCoefficients;
+		unitNormals = newUnitNormals;
+		values = newValues;
+		lagranges = newLagranges;
+
+		for (List<Integer> indexes : ruleMapping.values()) {
+			for (int i = 0; i < indexes.size(); i++) {
+				indexes.set(i, new Integer(newIndexes[indexes.get(i).intValue()]));
+			}
+		}
+
+		remapTermIndices(order);
+		globalIndexDirty = true;
+
+		return true;
+	}
+
+	@Override
+	public void updateLagrange(int termIndex, float stepSize, float[] consensusValues) {
+		for (int slot = termOffsets[termIndex]; slot < termOffsets[termIndex + 1]; slot++) {
+			lagranges[slot] += stepSize * (values[slot] - consensusValues[globalIds[slot]]);
+		}
+	}
+
+	@Override
+	public void minimize(int termIndex, float stepSize, float[] consensusValues) {
+		int start = termOffsets[termIndex];
+		int end = termOffsets[termIndex + 1];
+		float constant = constants[termIndex];
+		float weight = weights[termIndex];
+
+		switch (types[termIndex]) {
+			case LINEAR_LOSS:
+				for (int slot = start; slot < end; slot++) {
+					values[slot] = consensusValues[globalIds[slot]] - lagranges[slot] / stepSize - weight * coefficients[slot] / stepSize;
+				}
+				break;
+
+			case HINGE_LOSS:
+				// If the linear loss is NOT active at the unconstrained point, it is the solution.
+				if (minimizeUnconstrained(start, end, stepSize, consensusValues) <= constant) {
+					break;
+				}
+
+				// If the linear loss IS active at the point with the linear loss, it is the solution.
+				float total = 0.0f;
+				for (int slot = start; slot < end; slot++) {
+					values[slot] = consensusValues[globalIds[slot]] - lagranges[slot] / stepSize - weight * coefficients[slot] / stepSize;
+					total += coefficients[slot] * values[slot];
+				}
+
+				if (total >= constant) {
+					break;
+				}
+
+				// Else, the solution is on the hinge.
+				project(start, end, constant, stepSize, consensusValues);
+				break;
+
+			case SQUARED_HINGE_LOSS:
+				// If the quadratic loss is NOT active at the unconstrained point, it is the solution.
+				if (minimizeUnconstrained(start, end, stepSize, consensusValues) <= constant) {
+					break;
+				}
+
+				minimizeWeightedSquaredHyperplane(start, end, constant, weight, stepSize, consensusValues);
+				break;
+
+			case SQUARED_LINEAR_LOSS:
+				minimizeWeightedSquaredHyperplane(start, end, constant, weight, stepSize, consensusValues);
+				break;
+
+			case EQUALITY_CONSTRAINT:
+				project(start, end, constant, stepSize, consensusValues);
+				break;
+
+			case SMALLER_THAN_CONSTRAINT:
+				if (minimizeUnconstrained(start, end, stepSize, consensusValues) > constant) {
+					project(start, end, constant, stepSize, consensusValues);
+				}
+				break;
+
+			case LARGER_THAN_CONSTRAINT:
+				if (minimizeUnconstrained(start, end, stepSize, consensusValues) < constant) {
+					project(start, end, constant, stepSize, consensusValues);
+				}
+				break;
+
+			case SIMPLEX_CONSTRAINT:
+				minimizeUnconstrained(start, end, stepSize, consensusValues);
+				SimplexConstraintTerm.project(values, start, end, constant, getSimplexBuffer(2 * (end - start)));
+				break;
+
+			default:
+				throw new IllegalStateException("Unknown term type: " + types[termIndex]);
+		}
+	}
+
+	@Override
+	public void relax(int termIndex, float alpha, float[] consensusValues) {
+		for (int slot = termOffsets[termIndex]; slot < termOffsets[termIndex + 1]; slot++) {
+			values[slot] = alpha * values[slot] + (1.0f - alpha) * consensusValues[globalIds[slot]];
+		}
+	}
+
+	@Override
+	public float evaluate(int termIndex) {
+		float value = 0.0f;
+		for (int slot = termOffsets[termIndex]; slot < termOffsets[termIndex + 1]; slot++) {
+			value += coefficients[slot] * values[slot];
+		}
+
+		float weight = weights[termIndex];
+
+		switch (types[termIndex]) {
+			case LINEAR_LOSS:
+				return weight * value;
+			case HINGE_LOSS:
+				return weight * Math.max(value - constants[termIndex], 0.0f);
+			case SQUARED_LINEAR_LOSS:
+				value -= constants[termIndex];
+				return weight * value * value;
+			case SQUARED_HINGE_LOSS:
+				value = Math.max(value - constants[termIndex], 0.0f);
+				return weight * value * value;
+			case EQUALITY_CONSTRAINT:
+			case SIMPLEX_CONSTRAINT:
+				return MathUtils.isZero(value - constants[termIndex], MathUtils.RELAXED_EPSILON) ? 0.0f : Float.POSITIVE_INFINITY;
+			case SMALLER_THAN_CONSTRAINT:
+				return (value - constants[termIndex] <= 0.0f) ? 0.0f : Float.POSITIVE_INFINITY;
+			case LARGER_THAN_CONSTRAINT:
+				return (value - constants[termIndex] >= 0.0f) ? 0.0f : Float.POSITIVE_INFINITY;
+			default:
+				throw new IllegalStateException("Unknown term type: " + types[termIndex]);
+		}
+	}
+
+	@Override
+	public boolean isConstraint(int termIndex) {
+		return types[termIndex] == TermType.EQUALITY_CONSTRAINT
+				|| types[termIndex] == TermType.SMALLER_THAN_CONSTRAINT
+				|| types[termIndex] == TermType.LARGER_THAN_CONSTRAINT
+				|| types[termIndex] == TermType.SIMPLEX_CONSTRAINT;
+	}
+
+	@Override
+	public int getTermSize(int termIndex) {
+		return termOffsets[termIndex + 1] - termOffsets[termIndex];
+	}
+
+	@Override
+	public int getGlobalId(int termIndex, int variableIndex) {
+		return globalIds[termOffsets[termIndex] + variableIndex];
+	}
+
+	@Override
+	public void copyLocalValues(int termIndex, float[] globalValues) {
+		for (int slot = termOffsets[termIndex]; slot < termOffsets[termIndex + 1]; slot++) {
+			globalValues[globalIds[slot]] = values[slot];
+		}
+	}
+
+	/**
+	 * Get this thread's scratch space for simplex projections (at least |size| long).
+	 */
+	private float[] getSimplexBuffer(int size) {
+		float[] buffer = simplexBuffers.get();
+		if (buffer == null || buffer.length < size) {
+			buffer = new float[size];
+			simplexBuffers.set(buffer);
+		}
+
+		return buffer;
+	}
+
+	/**
+	 * Solves argmin stepSize/2 * \|x - z + y / stepSize \|_2^2 (ignoring the term's function).
+	 * Returns coeffs^T * x at the solution.
+	 */
+	private float minimizeUnconstrained(int start, int end, float stepSize, float[] consensusValues) {
+		float total = 0.0f;
+		for (int slot = start; slot < end; slot++) {
+			values[slot] = consensusValues[globalIds[slot]] - lagranges[slot] / stepSize;
+			total += coefficients[slot] * values[slot];
+		}
+
+		return total;
+	}
+
+	/**
+	 * See HyperplaneTerm.project().
+	 * The projection is done along the unit normal, so no scratch space is needed.
+	 */
+	private void project(int start, int end, float constant, float stepSize, float[] consensusValues) {
+		// For point (constant / coeffs[0], 0,...) in hyperplane dotted with unitNormal.
+		float multiplier = -1.0f * constant / coefficients[start] * unitNormals[start];
+
+		for (int slot = start; slot < end; slot++) {
+			multiplier += (consensusValues[globalIds[slot]] - lagranges[slot] / stepSize) * unitNormals[slot];
+		}
+
+		for (int slot = start; slot < end; slot++) {
+			values[slot] = consensusValues[globalIds[slot]] - lagranges[slot] / stepSize - multiplier * unitNormals[slot];
+		}
+	}
+
+	/**
+	 * Solves argmin weight * (coeffs^T * x - constant)^2 + stepSize/2 * \|x - z + y / stepSize \|_2^2.
+	 *
+	 * The system to solve is (stepSize * I + 2 * weight * coeffs * coeffs^T) x = stepSize * v + 2 * weight * constant * coeffs
+	 * (where v = z - y / stepSize).
+	 * Since this is a scaled identity plus a rank-one update, the solution is just v moved along coeffs:
+	 * x = v + coeffs * 2 * weight * (constant - coeffs^T * v) / (stepSize + 2 * weight * coeffs^T * coeffs).
+	 */
+	private void minimizeWeightedSquaredHyperplane(int start, int end, float constant, float weight,
+			float stepSize, float[] consensusValues) {
+		float coeffsDotV = 0.0f;
+		float coeffsDotCoeffs = 0.0f;
+
+		for (int slot = start; slot < end; slot++) {
+			values[slot] = consensusValues[globalIds[slot]] - lagranges[slot] / stepSize;
+
+			coeffsDotV += coefficients[slot] * values[slot];
+			coeffsDotCoeffs += coefficients[slot] * coefficients[slot];
+		}
+
+		float alpha = 2.0f * weight * (constant - coeffsDotV) / (stepSize + 2.0f * weight * coeffsDotCoeffs);
+
+		for (int slot = start; slot < end; slot++) {
+			values[slot] += alpha * coefficients[slot];
+		}
+	}
+
+	@Override
+	public int getNumLocalVariables() {
+		// Every folded term has exactly one slot.
+		return numSlots - getNumFoldedTerms();
+	}
+
+	/**
+	 * The slot just gets left out of the global index.
+	 */
+	@Override
+	protected void foldTerm(int termIndex) {
+		lagranges[termOffsets[termIndex]] = 0.0f;
+		globalIndexDirty = true;
+	}
+
+	@Override
+	public void setFoldedValue(int termIndex, float value) {
+		values[termOffsets[termIndex]] = value;
+	}
+
+	/**
+	 * Local variable access always starts with a call to this method,
+	 * so this is where we make sure the global index is up-to-date.
+	 */
+	@Override
+	public int getNumLocalVariables(int globalId) {
+		if (globalIndexDirty) {
+			ensureGlobalIndex();
+		}
+
+		return globalOffsets[globalId + 1] - globalOffsets[globalId];
+	}
+
+	@Override
+	public float getLocalValue(int globalId, int localIndex) {
+		return values[globalSlots[globalOffsets[globalId] + localIndex]];
+	}
+
+	@Override
+	public float getLocalLagrange(int globalId, int localIndex) {
+		return lagranges[globalSlots[globalOffsets[globalId] + localIndex]];
+	}
+
+	@Override
+	public void setLocalLagrange(int globalId, int localIndex, float lagrange) {
+		lagranges[globalSlots[globalOffsets[globalId] + localIndex]] = lagrange;
+	}
+
+	/**
+	 * Get detached copies of the local variables for a global variable.
+	 */
+	@Override
+	public List<LocalVariable> getLocalVariables(int globalId) {
+		ensureGlobalIndex();
+
+		List<LocalVariable> localVariables = new ArrayList<LocalVariable>(getNumLocalVariables(globalId));
+		for (int i = globalOffsets[globalId]; i < globalOffsets[globalId + 1]; i++) {
+			localVariables.add(copyLocalVariable(globalSlots[i]));
+		}
+
+		return localVariables;
+	}
+
+	@Override
+	public void resetLocalVairables(final ADMMReasoner.InitialValue initialValue) {
+		// The local variables no longer agree with the last consensus values.
+		setConsensusValues(null);
+
+		final float[] atomValues;
+		if (initialValue == ADMMReasoner.InitialValue.ATOM) {
+			atomValues = new float[getNumGlobalVariables()];
+			getAtomValues(atomValues);
+		} else {
+			atomValues = null;
+		}
+
+		// Each block of slots gets its own random stream, so the values do not depend on the number of threads.
+		final long streamSeed = RandUtils.nextStreamSeed();
+		int numBlocks = (numSlots + RandUtils.STREAM_BLOCK_SIZE - 1) / RandUtils.STREAM_BLOCK_SIZE;
+
+		Parallel.count(numBlocks, new Parallel.Worker<Integer>() {
+			@Override
+			public void work(int blockIndex, Integer ignore) {
+				RandomStream rand = RandUtils.getStream(streamSeed, blockIndex);
+
+				int start = blockIndex * RandUtils.STREAM_BLOCK_SIZE;
+				int end = Math.min(numSlots, start + RandUtils.STREAM_BLOCK_SIZE);
+				for (int slot = start; slot < end; slot++) {
+					if (initialValue == ADMMReasoner.InitialValue.ZERO) {
+						values[slot] = 0.0f;
+					} else if (initialValue == ADMMReasoner.InitialValue.RANDOM) {
+						values[slot] = rand.nextFloat();
+					} else if (initialValue == ADMMReasoner.InitialValue.ATOM) {
+						values[slot] = atomValues[globalIds[slot]];
+					} else {
+						throw new IllegalStateException("Unknown initial consensus value: " + initialValue);
+					}
+
+					lagranges[slot] = 0.0f;
+				}
+			}
+		});
+	}
+
+	@Override
+	public void clear() {
+		super.clear();
+
+		numTerms = 0;
+		numSlots = 0;
+
+		globalOffsets = null;
+		globalSlots = null;
+		globalIndexDirty = true;
+
+		if (ruleMapping != null) {
+			ruleMapping.clear();
+		}
+	}
+
+	@Override
+	public void close() {
+		super.close();
+
+		types = null;
+		constants = null;
+		weights = null;
+		termOffsets = null;
+
+		globalIds = null;
+		coefficients = null;
+		unitNormals = null;
+		values = null;
+		lagranges = null;
+
+		ruleMapping = null;
+	}
+
+	/**
+	 * Get a detached copy of a term.
+	 */
+	@Override
+	public ADMMObjectiveTerm get(int termIndex) {
+		int start = termOffsets[termIndex];
+		int end = termOffsets[termIndex + 1];
+
+		List<LocalVariable> variables = new ArrayList<LocalVariable>(end - start);
+		List<Float> coeffs = new ArrayList<Float>(end - start);
+		for (int slot = start; slot < end; slot++) {
+			variables.add(copyLocalVariable(slot));
+			coeffs.add(new Float(coefficients[slot]));
+		}
+
+		float constant = constants[termIndex];
+		float weight = weights[termIndex];
+
+		switch (types[termIndex]) {
+			case LINEAR_LOSS:
+				return new LinearLossTerm(variables, coeffs, weight);
+			case HINGE_LOSS:
+				return new HingeLossTerm(variables, coeffs, constant, weight);
+			case SQUARED_LINEAR_LOSS:
+				return new SquaredLinearLossTerm(variables, coeffs, constant, weight);
+			case SQUARED_HINGE_LOSS:
+				return new SquaredHingeLossTerm(variables, coeffs, constant, weight);
+			case EQUALITY_CONSTRAINT:
+				return new LinearConstraintTerm(variables, coeffs, constant, FunctionComparator.Equality);
+			case SMALLER_THAN_CONSTRAINT:
+				return new LinearConstraintTerm(variables, coeffs, constant, FunctionComparator.SmallerThan);
+			case LARGER_THAN_CONSTRAINT:
+				return new LinearConstraintTerm(variables, coeffs, constant, FunctionComparator.LargerThan);
+			case SIMPLEX_CONSTRAINT:
+				return new SimplexConstraintTerm(variables, coeffs, constant);
+			default:
+				throw new IllegalStateException("Unknown term type: " + types[termIndex]);
+		}
+	}
+
+	@Override
+	public int size() {
+		return numTerms;
+	}
+
+	@Override
+	public synchronized void ensureCapacity(int capacity) {
+		assert(capacity >= 0);
+
+		if (capacity == 0) {
+			return;
+		}
+
+		ensureTermCapacity(capacity);
+		ensureSlotCapacity(capacity * averageTermSize);
+	}
+
+	/**
+	 * Iterate over detached copies of the terms.
+	 */
+	@Override
+	public Iterator<ADMMObjectiveTerm> iterator() {
+		return new Iterator<ADMMObjectiveTerm>() {
+			private int nextIndex = 0;
+
+			@Override
+			public boolean hasNext() {
+				return nextIndex < numTerms;
+			}
+
+			@Override
+			public ADMMObjectiveTerm next() {
+				if (!hasNext()) {
+					throw new NoSuchElementException();
+				}
+
+				return get(nextIndex++);
+			}
+
+			@Override
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+
+	@Override
+	public void setWeight(int termIndex, float weight) {
+		weights[termIndex] = weight;
+	}
+
+	@Override
+	public List<Integer> getTermIndices(WeightedGroundRule rule) {
+		if (!ruleMapping.containsKey(rule)) {
+			return addMergedTermIndices(rule, Collections.<Integer>emptyList());
+		}
+
+		return addMergedTermIndices(rule, new UnmodifiableList<Integer>(ruleMapping.get(rule)));
+	}
+
+	private LocalVariable copyLocalVariable(int slot) {
+		LocalVariable variable = new LocalVariable(globalIds[slot], values[slot]);
+		variable.setLagrange(lagranges[slot]);
+		return variable;
+	}
+
+	/**
+	 * Build the mapping of global variables to slots (a counting sort on global id).
+	 */
+	private synchronized void ensureGlobalIndex() {
+		if (!globalIndexDirty) {
+			return;
+		}
+
+		int numGlobalVariables = getNumGlobalVariables();
+
+		globalOffsets = new int[numGlobalVariables + 1];
+		globalSlots = new int[getNumLocalVariables()];
+
+		// Folded terms are not part of the index.
+		for (int termIndex = 0; termIndex < numTerms; termIndex++) {
+			if (isFolded(termIndex)) {
+				continue;
+			}
+
+			for (int slot = termOffsets[termIndex]; slot < termOffsets[termIndex + 1]; slot++) {
+				globalOffsets[globalIds[slot] + 1]++;
+			}
+		}
+
+		for (int i = 0; i < numGlobalVariables; i++) {
+			globalOffsets[i + 1] += globalOffsets[i];
+		}
+
+		int[] nextPosition = Arrays.copyOf(globalOffsets, numGlobalVariables);
+		for (int termIndex = 0; termIndex < numTerms; termIndex++) {
+			if (isFolded(termIndex)) {
+				continue;
+			}
+
+			for (int slot = termOffsets[termIndex]; slot < termOffsets[termIndex + 1]; slot++) {
+				globalSlots[nextPosition[globalIds[slot]]++] = slot;
+			}
+		}
+
+		globalIndexDirty = false;
+	}
+
+	private void ensureTermCapacity(int capacity) {
+		if (capacity <= types.length) {
+			return;
+		}
+
+		int newCapacity = Math.max(capacity, types.length * 2);
+
+		types = Arrays.copyOf(types, newCapacity);
+		constants = Arrays.copyOf(constants, newCapacity);
+		weights = Arrays.copyOf(weights, newCapacity);
+		termOffsets = Arrays.copyOf(termOffsets, newCapacity + 1);
+	}
+
+	private void ensureSlotCapacity(int capacity) {
+		if (capacity <= globalIds.length) {
+			return;
+		}
+
+		int newCapacity = Math.max(capacity, globalIds.length * 2);
+
+		globalIds = Arrays.copyOf(globalIds, newCapacity);
+		coefficients = Arrays.copyOf(coefficients, newCapacity);
+		unitNormals = Arrays.copyOf(unitNormals, newCapacity);
+		values = Arrays.copyOf(values, newCapacity);
+		lagranges = Arrays.copyOf(lagranges, newCapacity);
+	}
+}
@@ -0,0 +1,145 @@
+/*
+ * This file is part of the PSL software.
+ * Copyright 2011-2015 University of Maryland
+ * Copyright 2013-2018 The Regents of the University of California
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.linqs.psl.reasoner.admm.term;
+
+import org.linqs.psl.reasoner.function.FunctionComparator;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * ADMMReasoner objective term of the form <br />
+ * 0 if sum(x) == constant and 0 <= x <= 1 <br />
+ * infinity otherwise <br />
+ * (e.g. a functional or partial functional constraint over categorical atoms).
+ *
+ * Unlike a general LinearConstraintTerm (which projects onto the hyperplane and leaves the
+ * box constraints to the consensus step), this projects exactly onto the bounded simplex.
+ * All coefficients must be 1 (see ADMMTermGenerator.SIMPLEX_CONSTRAINTS_KEY).
+ */
+public class SimplexConstraintTerm extends LinearConstraintTerm {
+	// Only allocate once.
+	private final float[] values;
+	private final float[] breakpoints;
+
+	/**
+	 * Caller releases control of |variables| and |coeffs|.
+	 */
+	SimplexConstraintTerm(List<LocalVariable> variables, List<Float> coeffs, float constant) {
+		super(variables, coeffs, constant, FunctionComparator.Equality);
+
+		values = new float[variables.size()];
+		breakpoints = new float[2 * variables.size()];
+	}
+
+	/**
+	 * Finds the projection onto the bounded simplex <br />
+	 * argmin stepSize/2 * \|x - z + y / stepSize \|_2^2 <br />
+	 * such that sum(x) = constant and 0 <= x <= 1.
+	 * <p>
+	 * Stores the result in x.
+	 */
+	@Override
+	public void minimize(float stepSize, float[] consensusValues) {
+		for (int i = 0; i < variables.size(); i++) {
+			LocalVariable variable = variables.get(i);
+			values[i] = consensusValues[variable.getGlobalId()] - variable.getLagrange() / stepSize;
+		}
+
+		project(values, 0, values.length, constant, breakpoints);
+
+		for (int i = 0; i < variables.size(); i++) {
+			variables.get(i).setValue(values[i]);
+		}
+	}
+
+	/**
+	 * Project the point in values[start] - values[end - 1] onto {x : sum(x) = total, 0 <= x <= 1} (in place).
+	 * If the total is not reachable, then the closest reachable total is used.
+	 *
+	 * The projection is x_i = clamp(v_i - tau, 0, 1) for the tau that gives the right total.
+	 * The total is a non-increasing, piecewise linear function of tau with breakpoints at v_i - 1 and v_i,
+	 * so the breakpoints are sorted, the piece that contains the total is found with a binary search,
+	 * and then tau is solved for directly on that piece: O(n log n).
+	 *
+	 * |breakpoints| is scratch space and must have room for at least 2 * (end - start) values.
+	 */
+	public static void project(float[] values, int start, int end, float total, float[] breakpoints) {
+		int size = end - start;
+
+		if (total <= 0.0f || total >= size) {
+			float value = (total <= 0.0f) ? 0.0f : 1.0f;
+			for (int i = start; i < end; i++) {
+				values[i] = value;
+			}
+			return;
+		}
+
+		for (int i = 0; i < size; i++) {
+			breakpoints[2 * i] = values[start + i] - 1.0f;
+			breakpoints[2 * i + 1] = values[start + i];
+		}
+		Arrays.sort(breakpoints, 0, 2 * size);
+
+		// sum(values, breakpoints[0]) = size >= total, and sum(values, breakpoints[last]) = 0 <= total.
+		// Find the last breakpoint where the sum is still at least the total.
+		int low = 0;
+		int high = 2 * size - 1;
+		while (high - low > 1) {
+			int middle = (low + high) >>> 1;
+			if (sum(values, start, end, breakpoints[middle]) >= total) {
+				low = middle;
+			} else {
+				high = middle;
+			}
+		}
+
+		// On (breakpoints[low], breakpoints[high]) the sum is: lowSum - numFree * (tau - breakpoints[low]).
+		float lowSum = sum(values, start, end, breakpoints[low]);
+		float middleTau = (breakpoints[low] + breakpoints[high]) / 2.0f;
+
+		int numFree = 0;
+		for (int i = start; i < end; i++) {
+			float shifted = values[i] - middleTau;
+			if (shifted > 0.0f && shifted < 1.0f) {
+				numFree++;
+			}
+		}
+
+		float tau = breakpoints[low];
+		if (numFree > 0) {
+			tau += (lowSum - total) / numFree;
+		}
+
+		for (int i = start; i < end; i++) {
+			values[i] = Math.max(0.0f, Math.min(1.0f, values[i] - tau));
+		}
+	}
+
+	/**
+	 * sum(clamp(v_i - tau, 0, 1))
+	 */
+	private static float sum(float[] values, int start, int end, float tau) {
+		float total = 0.0f;
+		for (int i = start; i < end; i++) {
+			total += Math.max(0.0f, Math.min(1.0f, values[i] - tau));
+		}
+
+		return total;
+	}
+}
@@ -18,16 +18,8 @@
 package org.linqs.psl.reasoner.admm.term;
 
 import org.linqs.psl.reasoner.term.WeightedTerm;
-import org.linqs.psl.util.HashCode;
 
-import cern.colt.matrix.tfloat.FloatMatrix2D;
-import cern.colt.matrix.tfloat.algo.decomposition.DenseFloatCholeskyDecomposition;
-import cern.colt.matrix.tfloat.impl.DenseFloatMatrix2D;
-
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
-import java.util.concurrent.Semaphore;
 
 /**
  * Objective term for an ADMMReasoner that is based on a squared
@@ -41,14 +33,8 @@ public abstract class SquaredHyperplaneTerm extends ADMMObjectiveTerm implements
 	protected final float constant;
 	protected float weight;
 
-	private FloatMatrix2D L;
-
-	private static Map<DenseFloatMatrix2DWithHashcode, FloatMatrix2D> lCache = new HashMap<DenseFloatMatrix2DWithHashcode, FloatMatrix2D>();
-
-	private static final Semaphore matrixSemaphore = new Semaphore(1);
-
-	// TODO(eriq): All the matrix work is suspect.
-	// The old code was using some cache that didn't seem too useful. Could it have been?
+	// coeffs^T * coeffs
+	private final float coeffsNormSquared;
 
 	SquaredHyperplaneTerm(List<LocalVariable> variables, List<Float> coeffs, float constant, float weight) {
 		super(variables);
@@ -58,54 +44,18 @@ public abstract class SquaredHyperplaneTerm extends ADMMObjectiveTerm implements
 		this.coeffs = coeffs;
 		this.constant = constant;
 
-		L = null;
-
-		setWeight(weight);
-	}
-
-	private void computeL(float stepSize) {
-		// Since the method is synchronized, check to see if we have already computed L.
-		if (L != null) {
-			return;
-		}
-
-		float coeff;
-		DenseFloatMatrix2DWithHashcode matrix = new DenseFloatMatrix2DWithHashcode(variables.size(), variables.size());
-		for (int i = 0; i < variables.size(); i++) {
-			// Note that the matrix is symmetric.
-			for (int j = i; j < variables.size(); j++) {
-				if (i == j) {
-					coeff = 2 * weight * coeffs.get(i).floatValue() * coeffs.get(i).floatValue() + stepSize;
-					matrix.setQuick(i, i, coeff);
-				} else {
-					coeff = 2 * weight * coeffs.get(i).floatValue() * coeffs.get(j).floatValue();
-					matrix.setQuick(i, j, coeff);
-					matrix.setQuick(j, i, coeff);
-				}
-			}
+		float normSquared = 0.0f;
+		for (int i = 0; i < coeffs.size(); i++) {
+			normSquared += coeffs.get(i).floatValue() * coeffs.get(i).floatValue();
 		}
+		coeffsNormSquared = normSquared;
 
-		L = lCache.get(matrix);
-		if (L == null) {
-			// The matrix library itself cannot be called concurrently.
-			try {
-				matrixSemaphore.acquire();
-			} catch (InterruptedException ex) {
-				throw new RuntimeException("Interrupted constructing matrix", ex);
-			}
-
-			L = new DenseFloatCholeskyDecomposition(matrix).getL();
-			lCache.put(matrix, L);
-
-			matrixSemaphore.release();
-		}
+		setWeight(weight);
 	}
 
 	@Override
 	public void setWeight(float weight) {
 		this.weight = weight;
-		// Recompute L.
-		L = null;
 	}
 
 	@Override
@@ -129,99 +79,30 @@ public abstract class SquaredHyperplaneTerm extends ADMMObjectiveTerm implements
 	 * Minimizes the weighted, squared hyperplane <br />
 	 * argmin weight * (coeffs^T * x - constant)^2 + stepSize/2 * \|x - z + y / stepSize \|_2^2
 	 * <p>
+	 * The system to solve is (stepSize * I + 2 * weight * coeffs * coeffs^T) x = stepSize * v + 2 * weight * constant * coeffs
+	 * (where v = z - y / stepSize).
+	 * Since this is a scaled identity plus a rank-one update, the solution is just v moved along coeffs: <br />
+	 * x = v + coeffs * 2 * weight * (constant - coeffs^T * v) / (stepSize + 2 * weight * coeffs^T * coeffs)
+	 * <p>
 	 * Stores the result in x.
 	 */
 	protected void minWeightedSquaredHyperplane(float stepSize, float[] consensusValues) {
-		// Constructs constant term in the gradient (moved to right-hand side).
+		float coeffsDotV = 0.0f;
+
 		for (int i = 0; i < variables.size(); i++) {
 			LocalVariable variable = variables.get(i);
 
-			float value = stepSize * (consensusValues[variable.getGlobalId()] - variable.getLagrange() / stepSize);
-			value += 2 * weight * coeffs.get(i).floatValue() * constant;
-
+			float value = consensusValues[variable.getGlobalId()] - variable.getLagrange() / stepSize;
 			variable.setValue(value);
-		}
-
-		// Solve for x
-
-		// Handle small hyperplanes specially.
-		if (variables.size() == 1) {
-			LocalVariable variable = variables.get(0);
-			float coeff = coeffs.get(0).floatValue();
 
-			variable.setValue(variable.getValue() / (2 * weight * coeff * coeff + stepSize));
-			return;
+			coeffsDotV += coeffs.get(i).floatValue() * value;
 		}
 
-		// Handle small hyperplanes specially.
-		if (variables.size() == 2) {
-			LocalVariable variable0 = variables.get(0);
-			LocalVariable variable1 = variables.get(1);
-			float coeff0 = coeffs.get(0).floatValue();
-			float coeff1 = coeffs.get(1).floatValue();
-
-			float a0 = 2 * weight * coeff0 * coeff0 + stepSize;
-			float b1 = 2 * weight * coeff1 * coeff1 + stepSize;
-			float a1b0 = 2 * weight * coeff0 * coeff1;
-
-			variable1.setValue(variable1.getValue() - a1b0 * variable0.getValue() / a0);
-			variable1.setValue(variable1.getValue() / (b1 - a1b0 * a1b0 / a0));
-
-			variable0.setValue((variable0.getValue() - a1b0 * variable1.getValue()) / a0);
-
-			return;
-		}
-
-		// Fast system solve.
-		if (L == null) {
-			computeL(stepSize);
-		}
+		float alpha = 2.0f * weight * (constant - coeffsDotV) / (stepSize + 2.0f * weight * coeffsNormSquared);
 
 		for (int i = 0; i < variables.size(); i++) {
-			for (int j = 0; j < i; j++) {
-				variables.get(i).setValue(variables.get(i).getValue() - L.getQuick(i, j) * variables.get(j).getValue());
-			}
-			variables.get(i).setValue(variables.get(i).getValue() / L.getQuick(i, i));
-		}
-
-		for (int i = variables.size() - 1; i >= 0; i--) {
-			for (int j = variables.size() - 1; j > i; j--) {
-				variables.get(i).setValue(variables.get(i).getValue() - L.getQuick(j, i) * variables.get(j).getValue());
-			}
-			variables.get(i).setValue(variables.get(i).getValue() / L.getQuick(i, i));
-		}
-	}
-
-	private class DenseFloatMatrix2DWithHashcode extends DenseFloatMatrix2D {
-		private static final long serialVersionUID = -8102931034927566306L;
-		private boolean needsNewHashcode;
-		private int hashcode = 0;
-
-		public DenseFloatMatrix2DWithHashcode(int rows, int columns) {
-			super(rows, columns);
-			needsNewHashcode = true;
-		}
-
-		@Override
-		public void setQuick(int row, int column, float value) {
-			needsNewHashcode = true;
-			super.setQuick(row, column, value);
-		}
-
-		@Override
-		public int hashCode() {
-			if (needsNewHashcode) {
-				hashcode = HashCode.DEFAULT_INITIAL_NUMBER;
-				for (int i = 0; i < rows(); i++) {
-					for (int j = 0; j < columns(); j++) {
-						hashcode = HashCode.build(hashcode, getQuick(i, j));
-					}
-				}
-
-				needsNewHashcode = false;
-			}
-
-			return hashcode;
+			LocalVariable variable = variables.get(i);
+			variable.setValue(variable.getValue() + alpha * coeffs.get(i).floatValue());
 		}
 	}
 }
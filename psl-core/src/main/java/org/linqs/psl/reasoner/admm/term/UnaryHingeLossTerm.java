@@ -0,0 +1,89 @@
+/*
+ * This file is part of the PSL software.
+ * Copyright 2011-2015 University of Maryland
+ * Copyright 2013-2018 The Regents of the University of California
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.linqs.psl.reasoner.admm.term;
+
+import java.util.List;
+
+/**
+ * A HingeLossTerm over exactly one variable.
+ * The variables and coefficients are kept in fields (instead of lists)
+ * and the minimization is done in closed form without any loops.
+ * See ADMMTermGenerator for when this is used instead of a general HingeLossTerm.
+ */
+final class UnaryHingeLossTerm extends HingeLossTerm {
+	private final LocalVariable variable0;
+	private final float coeff0;
+
+	// coeffs^T * coeffs
+	private final float coeffsNormSquared;
+
+	UnaryHingeLossTerm(List<LocalVariable> variables, List<Float> coeffs, float constant, float weight) {
+		super(variables, coeffs, constant, weight);
+
+		assert(variables.size() == 1);
+
+		variable0 = variables.get(0);
+		coeff0 = coeffs.get(0).floatValue();
+
+		coeffsNormSquared = coeff0 * coeff0;
+	}
+
+	@Override
+	public void updateLagrange(float stepSize, float[] consensusValues) {
+		variable0.setLagrange(variable0.getLagrange() + stepSize * (variable0.getValue() - consensusValues[variable0.getGlobalId()]));
+	}
+
+	/**
+	 * Let p = z - y / stepSize (the minimizer without the loss).
+	 * If the hinge is not active at p, then p is the solution.
+	 * Otherwise, if the hinge is still active after taking the full linear loss into account
+	 * (p - weight * coeffs / stepSize), then that is the solution.
+	 * Otherwise, the solution is the projection of p onto the hyperplane.
+	 * All three are of the form p - step * coeffs.
+	 */
+	@Override
+	public void minimize(float stepSize, float[] consensusValues) {
+		float point0 = consensusValues[variable0.getGlobalId()] - variable0.getLagrange() / stepSize;
+
+		float total = coeff0 * point0;
+
+		float step;
+		if (total <= constant) {
+			step = 0.0f;
+		} else if (total - getWeight() * coeffsNormSquared / stepSize >= constant) {
+			step = getWeight() / stepSize;
+		} else {
+			step = (total - constant) / coeffsNormSquared;
+		}
+
+		variable0.setValue(point0 - step * coeff0);
+	}
+
+	@Override
+	public void relax(float alpha, float[] consensusValues) {
+		variable0.setValue(alpha * variable0.getValue() + (1.0f - alpha) * consensusValues[variable0.getGlobalId()]);
+	}
+
+	/**
+	 * weight * max(coeffs^T * x - constant, 0)
+	 */
+	@Override
+	public float evaluate() {
+		return getWeight() * Math.max(coeff0 * variable0.getValue() - constant, 0.0f);
+	}
+}
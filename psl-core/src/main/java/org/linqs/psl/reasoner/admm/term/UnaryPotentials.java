@@ -0,0 +1,289 @@
+/*
+ * This file is part of the PSL software.
+ * Copyright 2011-2015 University of Maryland
+ * Copyright 2013-2018 The Regents of the University of California
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.linqs.psl.reasoner.admm.term;
+
+/**
+ * The weighted terms over a single variable that have been folded into the consensus update
+ * (see ADMMTermStore.foldUnaryTerms()), grouped by global variable.
+ *
+ * Instead of keeping a local copy (and lagrange multiplier) for each of these terms,
+ * the consensus update for a variable solves (see prox()): <br />
+ * argmin_z sum_j f_j(z) + scale / 2 * (z - average)^2, for z in [0, 1] <br />
+ * where f_j are the folded terms and scale / 2 * (z - average)^2 is what
+ * the usual consensus update (averaging the local copies) minimizes.
+ *
+ * The potentials are linear, hinge, squared linear, or squared hinge functions of c * z - k.
+ */
+public class UnaryPotentials {
+	private static final int LINEAR = 0;
+	private static final int HINGE = 1;
+	private static final int SQUARED_LINEAR = 2;
+	private static final int SQUARED_HINGE = 3;
+
+	private final ADMMTermStore termStore;
+
+	// The potentials for global variable i are at offsets[i] - (offsets[i + 1] - 1).
+	private final int[] offsets;
+
+	private final int[] types;
+	private final float[] weights;
+	private final float[] coefficients;
+	private final float[] constants;
+	private final int[] termIndices;
+
+	// For the hinges, the value of z where the hinge becomes active (k / c).
+	private final float[] breakpoints;
+
+	/**
+	 * Collect all the folded terms in a term store.
+	 */
+	UnaryPotentials(ADMMTermStore termStore) {
+		this.termStore = termStore;
+
+		int numVariables = termStore.getNumGlobalVariables();
+		int numPotentials = termStore.getNumFoldedTerms();
+
+		offsets = new int[numVariables + 1];
+		types = new int[numPotentials];
+		weights = new float[numPotentials];
+		coefficients = new float[numPotentials];
+		constants = new float[numPotentials];
+		termIndices = new int[numPotentials];
+		breakpoints = new float[numPotentials];
+
+		for (int termIndex = 0; termIndex < termStore.size(); termIndex++) {
+			if (termStore.isFolded(termIndex)) {
+				offsets[termStore.getGlobalId(termIndex, 0) + 1]++;
+			}
+		}
+
+		for (int i = 0; i < numVariables; i++) {
+			offsets[i + 1] += offsets[i];
+		}
+
+		int[] nextPosition = new int[numVariables];
+		System.arraycopy(offsets, 0, nextPosition, 0, numVariables);
+
+		for (int termIndex = 0; termIndex < termStore.size(); termIndex++) {
+			if (!termStore.isFolded(termIndex)) {
+				continue;
+			}
+
+			int position = nextPosition[termStore.getGlobalId(termIndex, 0)]++;
+			ADMMObjectiveTerm term = termStore.get(termIndex);
+
+			termIndices[position] = termIndex;
+
+			if (term instanceof LinearLossTerm) {
+				types[position] = LINEAR;
+				weights[position] = ((LinearLossTerm)term).getWeight();
+				coefficients[position] = ((LinearLossTerm)term).coeffs.get(0).floatValue();
+			} else if (term instanceof HingeLossTerm) {
+				types[position] = HINGE;
+				weights[position] = ((HingeLossTerm)term).getWeight();
+				coefficients[position] = ((HingeLossTerm)term).coeffs.get(0).floatValue();
+				constants[position] = ((HingeLossTerm)term).constant;
+			} else if (term instanceof SquaredLinearLossTerm) {
+				types[position] = SQUARED_LINEAR;
+				weights[position] = ((SquaredLinearLossTerm)term).getWeight();
+				coefficients[position] = ((SquaredLinearLossTerm)term).coeffs.get(0).floatValue();
+				constants[position] = ((SquaredLinearLossTerm)term).constant;
+			} else if (term instanceof SquaredHingeLossTerm) {
+				types[position] = SQUARED_HINGE;
+				weights[position] = ((SquaredHingeLossTerm)term).getWeight();
+				coefficients[position] = ((SquaredHingeLossTerm)term).coeffs.get(0).floatValue();
+				constants[position] = ((SquaredHingeLossTerm)term).constant;
+			} else {
+				throw new IllegalStateException("Unsupported folded term: " + term.getClass().getName());
+			}
+
+			breakpoints[position] = constants[position] / coefficients[position];
+		}
+	}
+
+	/**
+	 * Can the term at |termIndex| be folded.
+	 */
+	static boolean isFoldable(ADMMTermStore termStore, int termIndex) {
+		if (termStore.getTermSize(termIndex) != 1 || termStore.isConstraint(termIndex)) {
+			return false;
+		}
+
+		ADMMObjectiveTerm term = termStore.get(termIndex);
+		return term instanceof LinearLossTerm || term instanceof HingeLossTerm
+				|| term instanceof SquaredLinearLossTerm || term instanceof SquaredHingeLossTerm;
+	}
+
+	public int size() {
+		return types.length;
+	}
+
+	/**
+	 * Does the global variable have any potentials.
+	 */
+	public boolean hasPotentials(int globalId) {
+		return offsets[globalId] != offsets[globalId + 1];
+	}
+
+	/**
+	 * Solve argmin_z sum_j f_j(z) + scale / 2 * (z - average)^2, for z in [0, 1]
+	 * for the potentials (f_j) of a global variable.
+	 * The scale should be the step size times the number of (non-folded) local copies, and so may be zero.
+	 *
+	 * The objective is convex and piecewise quadratic with a kink at each hinge,
+	 * so its (sub)derivative is non-decreasing.
+	 * The hinges are used to narrow the interval that contains the zero of the derivative,
+	 * and then the derivative is linear on that interval and can be solved directly.
+	 */
+	public float prox(int globalId, float average, float scale) {
+		int start = offsets[globalId];
+		int end = offsets[globalId + 1];
+
+		float low = 0.0f;
+		float high = 1.0f;
+
+		if (derivative(start, end, low, 1, average, scale) >= 0.0f) {
+			return low;
+		}
+
+		if (derivative(start, end, high, -1, average, scale) <= 0.0f) {
+			return high;
+		}
+
+		for (int i = start; i < end; i++) {
+			if (types[i] != HINGE && types[i] != SQUARED_HINGE) {
+				continue;
+			}
+
+			float breakpoint = breakpoints[i];
+			if (breakpoint <= low || breakpoint >= high) {
+				continue;
+			}
+
+			if (derivative(start, end, breakpoint, 1, average, scale) < 0.0f) {
+				low = breakpoint;
+			} else if (derivative(start, end, breakpoint, -1, average, scale) > 0.0f) {
+				high = breakpoint;
+			} else {
+				// The zero is in the kink.
+				return breakpoint;
+			}
+		}
+
+		// No kinks are left inside (low, high), so the derivative is slope * z + intercept on it.
+		float middle = (low + high) / 2.0f;
+		float slope = scale;
+		float intercept = -1.0f * scale * average;
+
+		for (int i = start; i < end; i++) {
+			float weightedCoefficient = weights[i] * coefficients[i];
+
+			switch (types[i]) {
+				case LINEAR:
+					intercept += weightedCoefficient;
+					break;
+				case HINGE:
+					if (isActive(i, middle, 0)) {
+						intercept += weightedCoefficient;
+					}
+					break;
+				case SQUARED_LINEAR:
+					slope += 2.0f * weightedCoefficient * coefficients[i];
+					intercept -= 2.0f * weightedCoefficient * constants[i];
+					break;
+				case SQUARED_HINGE:
+					if (isActive(i, middle, 0)) {
+						slope += 2.0f * weightedCoefficient * coefficients[i];
+						intercept -= 2.0f * weightedCoefficient * constants[i];
+					}
+					break;
+				default:
+					throw new IllegalStateException("Unknown potential type: " + types[i]);
+			}
+		}
+
+		if (slope <= 0.0f) {
+			return middle;
+		}
+
+		return Math.max(low, Math.min(high, -1.0f * intercept / slope));
+	}
+
+	/**
+	 * Keep the local variables of the folded terms for a global variable at its consensus value,
+	 * so that the terms evaluate correctly.
+	 */
+	public void setValues(int globalId, float value) {
+		for (int i = offsets[globalId]; i < offsets[globalId + 1]; i++) {
+			termStore.setFoldedValue(termIndices[i], value);
+		}
+	}
+
+	/**
+	 * The derivative of the objective at z.
+	 * At a kink, |direction| picks the side (1 for the right and -1 for the left).
+	 */
+	private float derivative(int start, int end, float z, int direction, float average, float scale) {
+		float value = scale * (z - average);
+
+		for (int i = start; i < end; i++) {
+			float weightedCoefficient = weights[i] * coefficients[i];
+
+			switch (types[i]) {
+				case LINEAR:
+					value += weightedCoefficient;
+					break;
+				case HINGE:
+					if (isActive(i, z, direction)) {
+						value += weightedCoefficient;
+					}
+					break;
+				case SQUARED_LINEAR:
+					value += 2.0f * weightedCoefficient * (coefficients[i] * z - constants[i]);
+					break;
+				case SQUARED_HINGE:
+					if (isActive(i, z, direction)) {
+						value += 2.0f * weightedCoefficient * (coefficients[i] * z - constants[i]);
+					}
+					break;
+				default:
+					throw new IllegalStateException("Unknown potential type: " + types[i]);
+			}
+		}
+
+		return value;
+	}
+
+	/**
+	 * Is the hinge for a potential active (c * z > k) at z.
+	 * Exactly at the breakpoint, the side is given by |direction|.
+	 */
+	private boolean isActive(int index, float z, int direction) {
+		float breakpoint = breakpoints[index];
+
+		if (z == breakpoint) {
+			return direction * coefficients[index] > 0.0f;
+		}
+
+		if (coefficients[index] > 0.0f) {
+			return z > breakpoint;
+		}
+
+		return z < breakpoint;
+	}
+}
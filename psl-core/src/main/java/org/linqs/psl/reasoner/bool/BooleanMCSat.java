@@ -27,6 +27,7 @@ import org.linqs.psl.reasoner.term.TermStore;
 import org.linqs.psl.reasoner.term.blocker.ConstraintBlockerTerm;
 import org.linqs.psl.reasoner.term.blocker.ConstraintBlockerTermStore;
 import org.linqs.psl.util.RandUtils;
+import org.linqs.psl.util.RandomStream;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -75,6 +76,9 @@ public class BooleanMCSat implements Reasoner {
 	private final int numSamples;
 	private final int numBurnIn;
 
+	// Only set during optimization.
+	private RandomStream rand;
+
 	public BooleanMCSat() {
 		numSamples = Config.getInt(NUM_SAMPLES_KEY, NUM_SAMPLES_DEFAULT);
 		if (numSamples <= 0) {
@@ -99,6 +103,9 @@ public class BooleanMCSat implements Reasoner {
 		// Randomly initialize the RVs to a feasible state.
 		blocker.randomlyInitialize();
 
+		// The chain is sequential, so it gets its own stream instead of going through the shared (locked) generator.
+		rand = RandUtils.getStream(RandUtils.nextStreamSeed(), 0);
+
 		// Initialize arrays for totaling samples
 		double[][] totals = new double[blocker.size()][];
 		for (int i = 0; i < blocker.size(); i++) {
@@ -182,7 +189,7 @@ public class BooleanMCSat implements Reasoner {
 
 		// Draws sample.
 		double[] sample = new double[distribution.length];
-		double cutoff = RandUtils.nextDouble();
+		double cutoff = rand.nextDouble();
 
 		total = 0.0;
 		for (int i = 0; i < distribution.length; i++) {
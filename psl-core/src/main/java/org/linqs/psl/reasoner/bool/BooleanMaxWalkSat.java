@@ -30,6 +30,7 @@ import org.linqs.psl.reasoner.term.blocker.ConstraintBlockerTerm;
 import org.linqs.psl.reasoner.term.blocker.ConstraintBlockerTermStore;
 import org.linqs.psl.util.MathUtils;
 import org.linqs.psl.util.RandUtils;
+import org.linqs.psl.util.RandomStream;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -94,6 +95,9 @@ public class BooleanMaxWalkSat implements Reasoner {
 	private final int maxFlips;
 	private final double noise;
 
+	// Only set during optimization.
+	private RandomStream rand;
+
 	public BooleanMaxWalkSat() {
 		maxFlips = Config.getInt(MAX_FLIPS_KEY, MAX_FLIPS_DEFAULT);
 		if (maxFlips <= 0 ) {
@@ -116,6 +120,9 @@ public class BooleanMaxWalkSat implements Reasoner {
 		// Randomly initializes the RVs to a feasible state.
 		blocker.randomlyInitialize();
 
+		// The chain is sequential, so it gets its own stream instead of going through the shared (locked) generator.
+		rand = RandUtils.getStream(RandUtils.nextStreamSeed(), 0);
+
 		Set<GroundRule> unsatGKs = new HashSet<GroundRule>();
 		Set<RandomVariableAtom> rvasToInclude = new HashSet<RandomVariableAtom>();
 		Set<ConstraintBlockerTerm> blocksToInclude = new HashSet<ConstraintBlockerTerm>();
@@ -185,15 +192,15 @@ public class BooleanMaxWalkSat implements Reasoner {
 			}
 
 			// With probability noise, change an RV block in groundRule at random.
-			if (RandUtils.nextDouble() <= noise) {
-				blockToChange = RandUtils.nextInt(candidateRVBlocks.length);
+			if (rand.nextDouble() <= noise) {
+				blockToChange = rand.nextInt(candidateRVBlocks.length);
 				int blockSize = candidateRVBlocks[blockToChange].length;
 
 				// Choose a random RVA in this block to flip on.
 				// If one value in this block must be one, then keep going until we pick an atom that is
 				// currently not active.
 				do {
-					positiveRVAIndex = RandUtils.nextInt(blockSize);
+					positiveRVAIndex = rand.nextInt(blockSize);
 				} while (candidateExactlyOne[blockToChange] && candidateRVBlocks[blockToChange][positiveRVAIndex].getValue() == 1.0);
 
 				// If we want to flip an active RVA (value == 1.0), then set the target index to -1.
@@ -299,7 +306,7 @@ public class BooleanMaxWalkSat implements Reasoner {
 
 	private Object selectAtRandom(Collection<? extends Object> collection) {
 		int i = 0;
-		int selection = RandUtils.nextInt(collection.size());
+		int selection = rand.nextInt(collection.size());
 
 		for (Object o : collection) {
 			if (i++ == selection) {
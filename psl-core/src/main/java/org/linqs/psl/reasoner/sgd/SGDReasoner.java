@@ -0,0 +1,284 @@
+/*
+ * This file is part of the PSL software.
+ * Copyright 2011-2015 University of Maryland
+ * Copyright 2013-2018 The Regents of the University of California
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.linqs.psl.reasoner.sgd;
+
+import org.linqs.psl.config.Config;
+import org.linqs.psl.reasoner.Reasoner;
+import org.linqs.psl.reasoner.sgd.term.SGDTermStore;
+import org.linqs.psl.reasoner.term.TermStore;
+import org.linqs.psl.util.Parallel;
+import org.linqs.psl.util.RandUtils;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
+
+/**
+ * Uses projected stochastic gradient descent to minimize the weighted terms of an SGDTermStore.
+ *
+ * Each iteration (epoch) takes one gradient step for every term.
+ * The terms are split into blocks and the blocks are stepped through (in a random order) by all the threads at once,
+ * without any locking (Hogwild!).
+ * Since most terms only touch a few of the variables, threads rarely step on the same variable at the same time.
+ * Variables are clipped to [0, 1] after every step.
+ *
+ * Constraints are not supported (see SGDTermGenerator).
+ */
+public class SGDReasoner implements Reasoner {
+	private static final Logger log = LoggerFactory.getLogger(SGDReasoner.class);
+
+	public static final String CONFIG_PREFIX = "sgdreasoner";
+
+	/**
+	 * The maximum number of iterations (passes over all the terms).
+	 */
+	public static final String MAX_ITER_KEY = CONFIG_PREFIX + ".maxiterations";
+	public static final int MAX_ITER_DEFAULT = 500;
+
+	/**
+	 * The base learning rate (see StepRule).
+	 */
+	public static final String LEARNING_RATE_KEY = CONFIG_PREFIX + ".learningrate";
+	public static final float LEARNING_RATE_DEFAULT = 1.0f;
+
+	/**
+	 * How the learning rate changes.
+	 * STANDARD: The learning rate for iteration t is the base rate divided by sqrt(t).
+	 * ADAGRAD: Each variable's learning rate is the base rate divided by the root of
+	 *  the sum of all the squared gradients it has seen.
+	 */
+	public static enum StepRule { STANDARD, ADAGRAD }
+
+	public static final String STEP_RULE_KEY = CONFIG_PREFIX + ".steprule";
+	public static final String STEP_RULE_DEFAULT = StepRule.ADAGRAD.toString();
+
+	/**
+	 * Stop when the objective changes by no more than this (relative to the objective) between iterations.
+	 * The objective of an iteration is the sum of the losses seen while stepping through it.
+	 */
+	public static final String TOLERANCE_KEY = CONFIG_PREFIX + ".tolerance";
+	public static final float TOLERANCE_DEFAULT = 1e-5f;
+
+	/**
+	 * The number of terms each thread steps through at a time.
+	 */
+	public static final String BLOCK_SIZE_KEY = CONFIG_PREFIX + ".blocksize";
+	public static final int BLOCK_SIZE_DEFAULT = 1000;
+
+	/**
+	 * Loss sums for different workers are spaced out so they do not share a cache line.
+	 */
+	private static final int ACCUMULATOR_STRIDE = 16;
+
+	private int maxIter;
+	private float learningRate;
+	private StepRule stepRule;
+	private float tolerance;
+	private int blockSize;
+
+	/**
+	 * The loss sum for each worker (see ACCUMULATOR_STRIDE).
+	 */
+	private float[] accumulators;
+
+	public SGDReasoner() {
+		maxIter = Config.getInt(MAX_ITER_KEY, MAX_ITER_DEFAULT);
+		if (maxIter <= 0) {
+			throw new IllegalArgumentException("Property " + MAX_ITER_KEY + " must be positive.");
+		}
+
+		learningRate = Config.getFloat(LEARNING_RATE_KEY, LEARNING_RATE_DEFAULT);
+		if (learningRate <= 0.0f) {
+			throw new IllegalArgumentException("Property " + LEARNING_RATE_KEY + " must be positive.");
+		}
+
+		stepRule = StepRule.valueOf(Config.getString(STEP_RULE_KEY, STEP_RULE_DEFAULT).toUpperCase());
+
+		tolerance = Config.getFloat(TOLERANCE_KEY, TOLERANCE_DEFAULT);
+		if (tolerance < 0.0f) {
+			throw new IllegalArgumentException("Property " + TOLERANCE_KEY + " must be non-negative.");
+		}
+
+		blockSize = Config.getInt(BLOCK_SIZE_KEY, BLOCK_SIZE_DEFAULT);
+		if (blockSize <= 0) {
+			throw new IllegalArgumentException("Property " + BLOCK_SIZE_KEY + " must be positive.");
+		}
+	}
+
+	public int getMaxIter() {
+		return maxIter;
+	}
+
+	public void setMaxIter(int maxIter) {
+		this.maxIter = maxIter;
+	}
+
+	@Override
+	public void optimize(TermStore baseTermStore) {
+		if (!(baseTermStore instanceof SGDTermStore)) {
+			throw new IllegalArgumentException("SGDReasoner requires an SGDTermStore (found " + baseTermStore.getClass().getName() + ").");
+		}
+
+		SGDTermStore termStore = (SGDTermStore)baseTermStore;
+
+		// All the terms have to be readable before the workers start.
+		termStore.flush();
+
+		int numTerms = termStore.size();
+		int numVariables = termStore.getNumVariables();
+		log.debug("Performing optimization with {} variables and {} terms.", numVariables, numTerms);
+
+		// Start from the current values of the atoms.
+		float[] values = new float[numVariables];
+		termStore.getAtomValues(values);
+
+		float[] squaredGradients = null;
+		if (stepRule == StepRule.ADAGRAD) {
+			squaredGradients = new float[numVariables];
+		}
+
+		int numBlocks = (int)Math.ceil(numTerms / (float)blockSize);
+		int[] blockOrder = new int[numBlocks];
+		for (int i = 0; i < numBlocks; i++) {
+			blockOrder[i] = i;
+		}
+
+		accumulators = new float[Parallel.getNumThreads() * ACCUMULATOR_STRIDE];
+		StepWorker worker = new StepWorker(termStore, values, squaredGradients, blockOrder, numTerms, blockSize);
+
+		float objective = Float.POSITIVE_INFINITY;
+		float oldObjective = Float.POSITIVE_INFINITY;
+
+		int iteration = 1;
+		boolean converged = false;
+		while (!converged && iteration <= maxIter) {
+			shuffle(blockOrder);
+
+			if (stepRule == StepRule.STANDARD) {
+				worker.setLearningRate((float)(learningRate / Math.sqrt(iteration)));
+			} else {
+				worker.setLearningRate(learningRate);
+			}
+
+			Arrays.fill(accumulators, 0.0f);
+			Parallel.count(numBlocks, worker);
+
+			oldObjective = objective;
+			objective = 0.0f;
+			for (int offset = 0; offset < accumulators.length; offset += ACCUMULATOR_STRIDE) {
+				objective += accumulators[offset];
+			}
+
+			log.trace("Iteration {} -- Objective: {}.", iteration, objective);
+
+			converged = Math.abs(oldObjective - objective) <= tolerance * Math.max(Math.abs(objective), Float.MIN_NORMAL);
+			iteration++;
+		}
+
+		log.info("Optimization completed in {} iterations. Objective: {}", iteration - 1, computeObjective(termStore, values));
+
+		termStore.updateVariables(values);
+	}
+
+	@Override
+	public void close() {
+		accumulators = null;
+	}
+
+	private float computeObjective(SGDTermStore termStore, float[] values) {
+		float objective = 0.0f;
+		for (int termIndex = 0; termIndex < termStore.size(); termIndex++) {
+			objective += termStore.evaluate(termIndex, values);
+		}
+
+		return objective;
+	}
+
+	private void shuffle(int[] order) {
+		for (int i = order.length - 1; i > 0; i--) {
+			int j = RandUtils.nextInt(i + 1);
+
+			int temp = order[i];
+			order[i] = order[j];
+			order[j] = temp;
+		}
+	}
+
+	/**
+	 * Steps through blocks of terms.
+	 * Each copy of this worker adds up the losses of all the terms it steps on,
+	 * and only writes them out (to its own section of the accumulators) when it is closed.
+	 */
+	private class StepWorker extends Parallel.Worker<Integer> {
+		private SGDTermStore termStore;
+		private float[] values;
+		// Null when not using AdaGrad.
+		private float[] squaredGradients;
+		private int[] blockOrder;
+		private int numTerms;
+		private int blockSize;
+
+		private float rate;
+		private float lossSum;
+
+		public StepWorker(SGDTermStore termStore, float[] values, float[] squaredGradients, int[] blockOrder, int numTerms, int blockSize) {
+			super();
+			this.termStore = termStore;
+			this.values = values;
+			this.squaredGradients = squaredGradients;
+			this.blockOrder = blockOrder;
+			this.numTerms = numTerms;
+			this.blockSize = blockSize;
+
+			rate = 0.0f;
+			lossSum = 0.0f;
+		}
+
+		public Object clone() {
+			StepWorker worker = new StepWorker(termStore, values, squaredGradients, blockOrder, numTerms, blockSize);
+			worker.setLearningRate(rate);
+			return worker;
+		}
+
+		public void setLearningRate(float rate) {
+			this.rate = rate;
+		}
+
+		@Override
+		public void init(int id) {
+			super.init(id);
+			lossSum = 0.0f;
+		}
+
+		@Override
+		public void close() {
+			accumulators[id * ACCUMULATOR_STRIDE] = lossSum;
+		}
+
+		@Override
+		public void work(int blockIndex, Integer ignore) {
+			int start = blockOrder[blockIndex] * blockSize;
+			int end = Math.min(start + blockSize, numTerms);
+
+			for (int termIndex = start; termIndex < end; termIndex++) {
+				lossSum += termStore.step(termIndex, values, squaredGradients, rate);
+			}
+		}
+	}
+}
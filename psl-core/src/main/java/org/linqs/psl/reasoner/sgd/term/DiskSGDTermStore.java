@@ -0,0 +1,551 @@
+/*
+ * This file is part of the PSL software.
+ * Copyright 2011-2015 University of Maryland
+ * Copyright 2013-2018 The Regents of the University of California
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.linqs.psl.reasoner.sgd.term;
+
+import org.linqs.psl.config.Config;
+import org.linqs.psl.model.rule.GroundRule;
+import org.linqs.psl.model.rule.WeightedGroundRule;
+import org.linqs.psl.reasoner.sgd.term.SGDObjectiveTerm.TermType;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * An SGDTermStore that keeps its terms on disk instead of on the heap,
+ * so the number of terms is not limited by the size of the heap.
+ * Only the variables (and a few numbers for each page) are kept in memory.
+ *
+ * Terms are written into pages (of about PAGE_SIZE_KEY bytes) in a temporary file as they are added.
+ * Once terms are read, all the pages are memory mapped,
+ * so the OS pages them in and out as the terms are stepped through.
+ * Each term is stored as: type, size, weight, constant, variable indices, and coefficients
+ * (4 bytes each, so 16 + 8 * size bytes per term).
+ *
+ * Terms are best accessed in order (like SGDReasoner and iterator() do),
+ * since each thread remembers where the term after the last one it read is.
+ * Any other term is found through a sparse index (see INDEX_STRIDE_KEY) and then scanning forward.
+ * Many threads can read at once, and many threads can add at once, but terms cannot be read while others are being added.
+ * Added terms are buffered, so flush() must be called before they are read.
+ *
+ * This only covers SGD terms, and only for inference.
+ * ADMM terms are not paged: the ADMM reasoner updates the local variables of its terms in place,
+ * so they cannot be read back as detached copies.
+ * The terms for a rule are not remembered, so weights cannot be updated
+ * and weight learning refuses this store up front (see WeightLearningApplication).
+ */
+public class DiskSGDTermStore extends SGDTermStore {
+	public static final String CONFIG_PREFIX = "disksgdtermstore";
+
+	/**
+	 * The size (in bytes) of each page of terms.
+	 * A term that is larger than a page gets a page of its own.
+	 */
+	public static final String PAGE_SIZE_KEY = CONFIG_PREFIX + ".pagesize";
+	public static final int PAGE_SIZE_DEFAULT = 4 * 1024 * 1024;
+
+	/**
+	 * The directory to put the term file in.
+	 * Defaults to the system's temporary directory.
+	 */
+	public static final String DIRECTORY_KEY = CONFIG_PREFIX + ".directory";
+	public static final String DIRECTORY_DEFAULT = System.getProperty("java.io.tmpdir");
+
+	/**
+	 * Where every this many terms are is remembered,
+	 * so finding a term never takes more than this many terms of scanning.
+	 */
+	public static final String INDEX_STRIDE_KEY = CONFIG_PREFIX + ".indexstride";
+	public static final int INDEX_STRIDE_DEFAULT = 64;
+
+	private static final int TERM_HEADER_BYTES = 16;
+	private static final int SLOT_BYTES = 8;
+
+	private final int pageSize;
+	private final int indexStride;
+
+	private File file;
+	private RandomAccessFile randomAccessFile;
+	private FileChannel channel;
+
+	private int numTerms;
+	private long fileSize;
+
+	// Terms that have been added, but not yet written to disk.
+	private ByteBuffer writeBuffer;
+	private int numBufferedTerms;
+
+	// Indexed by page.
+	private int numPages;
+	private long[] pageOffsets;
+	private int[] pageLengths;
+	// The index of the first term in each page.
+	private int[] pageFirstTerms;
+
+	// Null entries for pages that have not been mapped yet.
+	private MappedByteBuffer[] mappedPages;
+
+	// The page and position in that page of every indexStride'th term.
+	private int[] indexPages;
+	private int[] indexPositions;
+
+	/**
+	 * Where the term after the last one read by a thread is.
+	 */
+	private ThreadLocal<Cursor> cursors;
+
+	public DiskSGDTermStore() {
+		super(0);
+
+		pageSize = Config.getInt(PAGE_SIZE_KEY, PAGE_SIZE_DEFAULT);
+		if (pageSize < TERM_HEADER_BYTES + SLOT_BYTES) {
+			throw new IllegalArgumentException("Property " + PAGE_SIZE_KEY + " must be at least " + (TERM_HEADER_BYTES + SLOT_BYTES) + ".");
+		}
+
+		indexStride = Config.getInt(INDEX_STRIDE_KEY, INDEX_STRIDE_DEFAULT);
+		if (indexStride <= 0) {
+			throw new IllegalArgumentException("Property " + INDEX_STRIDE_KEY + " must be positive.");
+		}
+
+		File directory = new File(Config.getString(DIRECTORY_KEY, DIRECTORY_DEFAULT));
+		try {
+			file = File.createTempFile("psl-terms-", ".bin", directory);
+			file.deleteOnExit();
+
+			randomAccessFile = new RandomAccessFile(file, "rw");
+			channel = randomAccessFile.getChannel();
+		} catch (IOException ex) {
+			throw new RuntimeException("Unable to create term file in: " + directory, ex);
+		}
+
+		numTerms = 0;
+		fileSize = 0;
+
+		writeBuffer = ByteBuffer.allocate(pageSize);
+		numBufferedTerms = 0;
+
+		numPages = 0;
+		pageOffsets = new long[16];
+		pageLengths = new int[16];
+		pageFirstTerms = new int[16];
+		mappedPages = new MappedByteBuffer[16];
+
+		indexPages = new int[16];
+		indexPositions = new int[16];
+
+		cursors = new ThreadLocal<Cursor>();
+	}
+
+	@Override
+	public synchronized void add(GroundRule rule, SGDObjectiveTerm term) {
+		int termBytes = TERM_HEADER_BYTES + SLOT_BYTES * term.size();
+
+		if (termBytes > writeBuffer.remaining()) {
+			flush();
+
+			if (termBytes > writeBuffer.capacity()) {
+				writeBuffer = ByteBuffer.allocate(termBytes);
+			}
+		}
+
+		// The write buffer will become the next page.
+		if (numTerms % indexStride == 0) {
+			int entry = numTerms / indexStride;
+			ensureIndexCapacity(entry + 1);
+
+			indexPages[entry] = numPages;
+			indexPositions[entry] = writeBuffer.position();
+		}
+
+		writeBuffer.putInt(term.getType().ordinal());
+		writeBuffer.putInt(term.size());
+		writeBuffer.putFloat(term.getWeight());
+		writeBuffer.putFloat(term.getConstant());
+
+		for (int i = 0; i < term.size(); i++) {
+			writeBuffer.putInt(term.getVariableIndex(i));
+		}
+
+		for (int i = 0; i < term.size(); i++) {
+			writeBuffer.putFloat(term.getCoefficient(i));
+		}
+
+		numBufferedTerms++;
+		numTerms++;
+	}
+
+	@Override
+	public float evaluate(int termIndex, float[] values) {
+		Cursor cursor = seek(termIndex);
+		ByteBuffer page = cursor.page;
+		int position = cursor.position;
+
+		TermType type = TermType.values()[page.getInt(position)];
+		int size = page.getInt(position + 4);
+		float weight = page.getFloat(position + 8);
+		float constant = page.getFloat(position + 12);
+
+		float dot = dot(page, position, size, values);
+		cursor.advance(size);
+
+		return SGDObjectiveTerm.loss(type, weight, dot, constant);
+	}
+
+	@Override
+	public float step(int termIndex, float[] values, float[] squaredGradients, float learningRate) {
+		Cursor cursor = seek(termIndex);
+		ByteBuffer page = cursor.page;
+		int position = cursor.position;
+
+		TermType type = TermType.values()[page.getInt(position)];
+		int size = page.getInt(position + 4);
+		float weight = page.getFloat(position + 8);
+		float constant = page.getFloat(position + 12);
+
+		float dot = dot(page, position, size, values);
+		float derivative = SGDObjectiveTerm.lossDerivative(type, weight, dot, constant);
+
+		if (derivative != 0.0f) {
+			int indexPosition = position + TERM_HEADER_BYTES;
+			int coefficientPosition = indexPosition + 4 * size;
+
+			for (int i = 0; i < size; i++) {
+				int variableIndex = page.getInt(indexPosition + 4 * i);
+				float gradient = derivative * page.getFloat(coefficientPosition + 4 * i);
+
+				float rate = learningRate;
+				if (squaredGradients != null) {
+					squaredGradients[variableIndex] += gradient * gradient;
+					rate /= (float)Math.sqrt(squaredGradients[variableIndex]);
+				}
+
+				float value = values[variableIndex] - rate * gradient;
+				values[variableIndex] = Math.max(0.0f, Math.min(1.0f, value));
+			}
+		}
+
+		cursor.advance(size);
+
+		return SGDObjectiveTerm.loss(type, weight, dot, constant);
+	}
+
+	private float dot(ByteBuffer page, int position, int size, float[] values) {
+		int indexPosition = position + TERM_HEADER_BYTES;
+		int coefficientPosition = indexPosition + 4 * size;
+
+		float dot = 0.0f;
+		for (int i = 0; i < size; i++) {
+			dot += page.getFloat(coefficientPosition + 4 * i) * values[page.getInt(indexPosition + 4 * i)];
+		}
+
+		return dot;
+	}
+
+	/**
+	 * Get a detached copy of a term.
+	 */
+	@Override
+	public SGDObjectiveTerm get(int termIndex) {
+		Cursor cursor = seek(termIndex);
+		ByteBuffer page = cursor.page;
+		int position = cursor.position;
+
+		TermType type = TermType.values()[page.getInt(position)];
+		int size = page.getInt(position + 4);
+		float weight = page.getFloat(position + 8);
+		float constant = page.getFloat(position + 12);
+
+		int[] variableIndices = new int[size];
+		float[] coefficients = new float[size];
+		for (int i = 0; i < size; i++) {
+			variableIndices[i] = page.getInt(position + TERM_HEADER_BYTES + 4 * i);
+			coefficients[i] = page.getFloat(position + TERM_HEADER_BYTES + 4 * (size + i));
+		}
+
+		cursor.advance(size);
+
+		return new SGDObjectiveTerm(type, variableIndices, coefficients, constant, weight);
+	}
+
+	@Override
+	public int size() {
+		return numTerms;
+	}
+
+	/**
+	 * Terms are written out as they come, so there is nothing to reserve.
+	 */
+	@Override
+	public void ensureCapacity(int capacity) {
+	}
+
+	/**
+	 * Iterate over detached copies of the terms, one page at a time.
+	 * Any buffered terms are written out first.
+	 */
+	@Override
+	public Iterator<SGDObjectiveTerm> iterator() {
+		flush();
+
+		return new Iterator<SGDObjectiveTerm>() {
+			private int nextIndex = 0;
+
+			@Override
+			public boolean hasNext() {
+				return nextIndex < numTerms;
+			}
+
+			@Override
+			public SGDObjectiveTerm next() {
+				if (!hasNext()) {
+					throw new NoSuchElementException();
+				}
+
+				return get(nextIndex++);
+			}
+
+			@Override
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+
+	@Override
+	public void updateWeight(WeightedGroundRule rule) {
+		throw new UnsupportedOperationException("DiskSGDTermStore does not support updating weights.");
+	}
+
+	@Override
+	public List<Integer> getTermIndices(WeightedGroundRule rule) {
+		throw new UnsupportedOperationException("DiskSGDTermStore does not keep the terms for each rule.");
+	}
+
+	@Override
+	public synchronized void clear() {
+		super.clear();
+
+		numTerms = 0;
+		fileSize = 0;
+
+		if (writeBuffer != null) {
+			writeBuffer.clear();
+		}
+		numBufferedTerms = 0;
+
+		numPages = 0;
+		if (mappedPages != null) {
+			Arrays.fill(mappedPages, null);
+		}
+
+		cursors = new ThreadLocal<Cursor>();
+
+		if (channel != null) {
+			try {
+				channel.truncate(0);
+			} catch (IOException ex) {
+				throw new RuntimeException("Unable to truncate term file: " + file, ex);
+			}
+		}
+	}
+
+	@Override
+	public synchronized void close() {
+		super.close();
+
+		writeBuffer = null;
+		pageOffsets = null;
+		pageLengths = null;
+		pageFirstTerms = null;
+		mappedPages = null;
+		indexPages = null;
+		indexPositions = null;
+		cursors = null;
+
+		if (randomAccessFile != null) {
+			try {
+				randomAccessFile.close();
+			} catch (IOException ex) {
+				throw new RuntimeException("Unable to close term file: " + file, ex);
+			}
+
+			randomAccessFile = null;
+			channel = null;
+		}
+
+		if (file != null) {
+			file.delete();
+			file = null;
+		}
+	}
+
+	/**
+	 * Get this thread's cursor pointing at a term.
+	 */
+	private Cursor seek(int termIndex) {
+		if (termIndex < 0 || termIndex >= numTerms) {
+			throw new IndexOutOfBoundsException("Term index " + termIndex + " out of range for " + numTerms + " terms.");
+		}
+
+		Cursor cursor = cursors.get();
+		if (cursor == null) {
+			cursor = new Cursor();
+			cursors.set(cursor);
+		}
+
+		if (cursor.termIndex == termIndex && cursor.page != null) {
+			return cursor;
+		}
+
+		if (numBufferedTerms > 0) {
+			throw new IllegalStateException("Terms have been added since the last flush().");
+		}
+
+		int entry = termIndex / indexStride;
+		cursor.setPage(indexPages[entry], indexPositions[entry], entry * indexStride);
+		while (cursor.termIndex < termIndex) {
+			cursor.advance(cursor.page.getInt(cursor.position + 4));
+		}
+
+		return cursor;
+	}
+
+	/**
+	 * Write out any buffered terms as a new page.
+	 */
+	@Override
+	public synchronized void flush() {
+		if (numBufferedTerms == 0) {
+			return;
+		}
+
+		ensurePageCapacity(numPages + 1);
+
+		int length = writeBuffer.position();
+		pageOffsets[numPages] = fileSize;
+		pageLengths[numPages] = length;
+		pageFirstTerms[numPages] = numTerms - numBufferedTerms;
+
+		writeBuffer.flip();
+		try {
+			while (writeBuffer.hasRemaining()) {
+				channel.write(writeBuffer, fileSize + writeBuffer.position());
+			}
+		} catch (IOException ex) {
+			throw new RuntimeException("Unable to write to term file: " + file, ex);
+		}
+		writeBuffer.clear();
+
+		fileSize += length;
+		numPages++;
+		numBufferedTerms = 0;
+	}
+
+	private synchronized MappedByteBuffer getPage(int pageIndex) {
+		if (mappedPages[pageIndex] == null) {
+			try {
+				mappedPages[pageIndex] = channel.map(FileChannel.MapMode.READ_ONLY, pageOffsets[pageIndex], pageLengths[pageIndex]);
+			} catch (IOException ex) {
+				throw new RuntimeException("Unable to map term file: " + file, ex);
+			}
+		}
+
+		return mappedPages[pageIndex];
+	}
+
+	private void ensurePageCapacity(int capacity) {
+		if (capacity <= pageOffsets.length) {
+			return;
+		}
+
+		int newCapacity = Math.max(capacity, pageOffsets.length * 2);
+
+		pageOffsets = Arrays.copyOf(pageOffsets, newCapacity);
+		pageLengths = Arrays.copyOf(pageLengths, newCapacity);
+		pageFirstTerms = Arrays.copyOf(pageFirstTerms, newCapacity);
+		mappedPages = Arrays.copyOf(mappedPages, newCapacity);
+	}
+
+	private void ensureIndexCapacity(int capacity) {
+		if (capacity <= indexPages.length) {
+			return;
+		}
+
+		int newCapacity = Math.max(capacity, indexPages.length * 2);
+
+		indexPages = Arrays.copyOf(indexPages, newCapacity);
+		indexPositions = Arrays.copyOf(indexPositions, newCapacity);
+	}
+
+	/**
+	 * A position in the term file.
+	 * Each cursor is only used by one thread.
+	 */
+	private class Cursor {
+		public int termIndex;
+		public int pageIndex;
+		public MappedByteBuffer page;
+		// The position of the term in the page.
+		public int position;
+
+		public Cursor() {
+			termIndex = -1;
+			pageIndex = -1;
+			page = null;
+			position = 0;
+		}
+
+		public void setPage(int pageIndex) {
+			setPage(pageIndex, 0, pageFirstTerms[pageIndex]);
+		}
+
+		/**
+		 * Point at the term (|termIndex|) that is at |position| in a page.
+		 */
+		public void setPage(int pageIndex, int position, int termIndex) {
+			this.pageIndex = pageIndex;
+			page = getPage(pageIndex);
+			this.position = position;
+			this.termIndex = termIndex;
+		}
+
+		/**
+		 * Move past the current term (which has |size| variables).
+		 */
+		public void advance(int size) {
+			position += TERM_HEADER_BYTES + SLOT_BYTES * size;
+			termIndex++;
+
+			if (position >= pageLengths[pageIndex]) {
+				if (pageIndex + 1 < numPages) {
+					setPage(pageIndex + 1);
+				} else {
+					// Past the last written term, the next seek() will have to look for its page.
+					page = null;
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,138 @@
+/*
+ * This file is part of the PSL software.
+ * Copyright 2011-2015 University of Maryland
+ * Copyright 2013-2018 The Regents of the University of California
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.linqs.psl.reasoner.sgd.term;
+
+import org.linqs.psl.reasoner.term.WeightedTerm;
+
+/**
+ * A weighted term for an SGDReasoner: <br />
+ * weight * f(coeffs^T * x - constant) <br />
+ * where f is the identity (linear, the constant is ignored), a hinge, a square, or a squared hinge.
+ *
+ * The term only refers to its variables by their index in an SGDTermStore,
+ * and the variable values are kept by the reasoner.
+ * The term store does not keep these objects around (see SGDTermStore.get()).
+ */
+public class SGDObjectiveTerm implements WeightedTerm {
+	public static enum TermType {
+		LINEAR_LOSS,
+		HINGE_LOSS,
+		SQUARED_LINEAR_LOSS,
+		SQUARED_HINGE_LOSS
+	}
+
+	private final TermType type;
+	private final int[] variableIndices;
+	private final float[] coefficients;
+	private final float constant;
+	private float weight;
+
+	/**
+	 * Caller releases control of |variableIndices| and |coefficients|.
+	 */
+	public SGDObjectiveTerm(TermType type, int[] variableIndices, float[] coefficients, float constant, float weight) {
+		assert(variableIndices.length == coefficients.length);
+
+		this.type = type;
+		this.variableIndices = variableIndices;
+		this.coefficients = coefficients;
+		this.constant = constant;
+		this.weight = weight;
+	}
+
+	public TermType getType() {
+		return type;
+	}
+
+	public int size() {
+		return variableIndices.length;
+	}
+
+	public int getVariableIndex(int index) {
+		return variableIndices[index];
+	}
+
+	public float getCoefficient(int index) {
+		return coefficients[index];
+	}
+
+	public float getConstant() {
+		return constant;
+	}
+
+	@Override
+	public void setWeight(float weight) {
+		this.weight = weight;
+	}
+
+	@Override
+	public float getWeight() {
+		return weight;
+	}
+
+	/**
+	 * The weighted loss of this term with the variables set to |values| (indexed by variable index).
+	 */
+	public float evaluate(float[] values) {
+		float dot = 0.0f;
+		for (int i = 0; i < variableIndices.length; i++) {
+			dot += coefficients[i] * values[variableIndices[i]];
+		}
+
+		return loss(type, weight, dot, constant);
+	}
+
+	/**
+	 * The weighted loss for a term with the given dot product (coeffs^T * x).
+	 */
+	public static float loss(TermType type, float weight, float dot, float constant) {
+		switch (type) {
+			case LINEAR_LOSS:
+				return weight * dot;
+			case HINGE_LOSS:
+				return weight * Math.max(0.0f, dot - constant);
+			case SQUARED_LINEAR_LOSS:
+				return weight * (dot - constant) * (dot - constant);
+			case SQUARED_HINGE_LOSS:
+				float hinge = Math.max(0.0f, dot - constant);
+				return weight * hinge * hinge;
+			default:
+				throw new IllegalStateException("Unknown term type: " + type);
+		}
+	}
+
+	/**
+	 * The derivative of the weighted loss with respect to the dot product (coeffs^T * x).
+	 * The gradient for a variable is this times the variable's coefficient.
+	 * At the kink of a hinge, zero is used.
+	 */
+	public static float lossDerivative(TermType type, float weight, float dot, float constant) {
+		switch (type) {
+			case LINEAR_LOSS:
+				return weight;
+			case HINGE_LOSS:
+				return (dot > constant) ? weight : 0.0f;
+			case SQUARED_LINEAR_LOSS:
+				return 2.0f * weight * (dot - constant);
+			case SQUARED_HINGE_LOSS:
+				return 2.0f * weight * Math.max(0.0f, dot - constant);
+			default:
+				throw new IllegalStateException("Unknown term type: " + type);
+		}
+	}
+}
@@ -0,0 +1,206 @@
+/*
+ * This file is part of the PSL software.
+ * Copyright 2011-2015 University of Maryland
+ * Copyright 2013-2018 The Regents of the University of California
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.linqs.psl.reasoner.sgd.term;
+
+import org.linqs.psl.application.groundrulestore.GroundRuleStore;
+import org.linqs.psl.model.rule.GroundRule;
+import org.linqs.psl.model.rule.WeightedGroundRule;
+import org.linqs.psl.reasoner.function.AtomFunctionVariable;
+import org.linqs.psl.reasoner.function.FunctionTerm;
+import org.linqs.psl.reasoner.function.GeneralFunction;
+import org.linqs.psl.reasoner.sgd.term.SGDObjectiveTerm.TermType;
+import org.linqs.psl.reasoner.term.StreamingTermGenerator;
+import org.linqs.psl.reasoner.term.TermStore;
+import org.linqs.psl.util.MathUtils;
+import org.linqs.psl.util.Parallel;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A TermGenerator for SGD objective terms.
+ *
+ * SGD only minimizes the weighted terms, so constraints (unweighted ground rules) are not supported
+ * and get skipped (with a warning).
+ * Negative weights are also not supported, those terms get a zero weight (see SGDTermStore.updateWeight()).
+ */
+public class SGDTermGenerator implements StreamingTermGenerator<SGDObjectiveTerm> {
+	private static final Logger log = LoggerFactory.getLogger(SGDTermGenerator.class);
+
+	private volatile boolean warnedConstraints;
+	private volatile boolean warnedNegativeWeights;
+
+	public SGDTermGenerator() {
+		warnedConstraints = false;
+		warnedNegativeWeights = false;
+	}
+
+	@Override
+	public int generateTerms(GroundRuleStore ruleStore, final TermStore<SGDObjectiveTerm> termStore) {
+		if (!(termStore instanceof SGDTermStore)) {
+			throw new IllegalArgumentException("SGDTermGenerator requires an SGDTermStore");
+		}
+
+		int initialSize = termStore.size();
+		termStore.ensureCapacity(initialSize + ruleStore.size());
+
+		Parallel.foreach(ruleStore.getGroundRules(), new Parallel.Worker<GroundRule>() {
+			@Override
+			public void work(int index, GroundRule rule) {
+				addTerm(rule, (SGDTermStore)termStore);
+			}
+		});
+
+		return termStore.size() - initialSize;
+	}
+
+	/**
+	 * Adding to an SGDTermStore is thread-safe, so the sinks add their terms right away.
+	 */
+	@Override
+	public Sink newSink(TermStore<SGDObjectiveTerm> termStore) {
+		if (!(termStore instanceof SGDTermStore)) {
+			throw new IllegalArgumentException("SGDTermGenerator requires an SGDTermStore");
+		}
+
+		final SGDTermStore sgdTermStore = (SGDTermStore)termStore;
+		return new Sink() {
+			@Override
+			public void add(GroundRule rule) {
+				addTerm(rule, sgdTermStore);
+			}
+
+			@Override
+			public int flush() {
+				return 0;
+			}
+		};
+	}
+
+	@Override
+	public void finishTerms(TermStore<SGDObjectiveTerm> termStore) {
+	}
+
+	@Override
+	public void updateWeights(GroundRuleStore ruleStore, TermStore<SGDObjectiveTerm> termStore) {
+		for (GroundRule groundRule : ruleStore.getGroundRules()) {
+			if (groundRule instanceof WeightedGroundRule) {
+				termStore.updateWeight((WeightedGroundRule)groundRule);
+			}
+		}
+	}
+
+	/**
+	 * Add the term for a single ground rule to the store.
+	 * @return the number of terms added.
+	 */
+	private int addTerm(GroundRule groundRule, SGDTermStore termStore) {
+		if (!(groundRule instanceof WeightedGroundRule)) {
+			if (!warnedConstraints) {
+				warnedConstraints = true;
+				log.warn("SGDTermGenerator does not support constraints, they will be ignored. First one seen: " + groundRule);
+			}
+
+			return 0;
+		}
+
+		WeightedGroundRule rule = (WeightedGroundRule)groundRule;
+
+		float weight = (float)rule.getWeight();
+		if (weight < 0.0f) {
+			if (!warnedNegativeWeights) {
+				warnedNegativeWeights = true;
+				log.warn("SGDTermGenerator does not support negative weights, the terms will be given a zero weight. First one seen: " + rule);
+			}
+
+			weight = 0.0f;
+		}
+
+		GeneralFunction function = rule.getFunctionDefinition();
+
+		List<AtomFunctionVariable> variables = new ArrayList<AtomFunctionVariable>();
+		List<Float> coeffs = new ArrayList<Float>();
+		float constant = processHyperplane(function, variables, coeffs);
+		if (Float.isNaN(constant) || variables.size() == 0) {
+			return 0;
+		}
+
+		TermType type;
+		if (function.isNonNegative() && function.isSquared()) {
+			type = TermType.SQUARED_HINGE_LOSS;
+		} else if (function.isNonNegative() && !function.isSquared()) {
+			type = TermType.HINGE_LOSS;
+		} else if (!function.isNonNegative() && function.isSquared()) {
+			type = TermType.SQUARED_LINEAR_LOSS;
+		} else {
+			type = TermType.LINEAR_LOSS;
+		}
+
+		int[] variableIndices = termStore.registerVariables(variables);
+		float[] coefficients = new float[coeffs.size()];
+		for (int i = 0; i < coefficients.length; i++) {
+			coefficients[i] = coeffs.get(i).floatValue();
+		}
+
+		termStore.add(rule, new SGDObjectiveTerm(type, variableIndices, coefficients, constant, weight));
+		return 1;
+	}
+
+	/**
+	 * Fill in the variables and coefficients of the hyperplane (coeffs^T * x = constant) for a general function.
+	 * Like ADMMTermGenerator.processHyperplane(), an atom that appears more than once just gets its coefficients added.
+	 * @return the constant, or NaN if the term is trivial and should be abandoned.
+	 */
+	private float processHyperplane(GeneralFunction sum, List<AtomFunctionVariable> variables, List<Float> coeffs) {
+		float constant = -1.0f * (float)sum.getConstant();
+
+		for (int i = 0; i < sum.size(); i++) {
+			float coefficient = (float)sum.getCoefficient(i);
+			FunctionTerm term = sum.getTerm(i);
+
+			if (term instanceof AtomFunctionVariable && !term.isConstant()) {
+				AtomFunctionVariable variable = (AtomFunctionVariable)term;
+
+				int localIndex = variables.indexOf(variable);
+				if (localIndex != -1) {
+					float currentCoefficient = coeffs.get(localIndex).floatValue();
+
+					// Foo('a') || !Foo('a') is trivial, see ADMMTermGenerator.processHyperplane().
+					if (sum.isNonNegative() && !MathUtils.signsMatch(currentCoefficient, coefficient)) {
+						return Float.NaN;
+					}
+
+					coeffs.set(localIndex, new Float(currentCoefficient + coefficient));
+				} else {
+					variables.add(variable);
+					coeffs.add(new Float(coefficient));
+				}
+			} else if (term.isConstant()) {
+				// Subtracts because hyperplane is stored as coeffs^T * x = constant.
+				constant -= (coefficient * term.getValue());
+			} else {
+				throw new IllegalArgumentException("Unexpected summand: " + sum + "[" + i + "] (" + term + ").");
+			}
+		}
+
+		return constant;
+	}
+}
@@ -0,0 +1,421 @@
+/*
+ * This file is part of the PSL software.
+ * Copyright 2011-2015 University of Maryland
+ * Copyright 2013-2018 The Regents of the University of California
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.linqs.psl.reasoner.sgd.term;
+
+import org.linqs.psl.config.Config;
+import org.linqs.psl.database.Database;
+import org.linqs.psl.model.atom.GroundAtom;
+import org.linqs.psl.model.rule.GroundRule;
+import org.linqs.psl.model.rule.WeightedGroundRule;
+import org.linqs.psl.reasoner.function.AtomFunctionVariable;
+import org.linqs.psl.reasoner.sgd.term.SGDObjectiveTerm.TermType;
+import org.linqs.psl.reasoner.term.TermStore;
+
+import org.apache.commons.collections4.list.UnmodifiableList;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * A compact TermStore for SGDReasoner.
+ *
+ * Terms are packed into flat arrays (like PackedADMMTermStore):
+ * a type, weight, and constant for each term, and a variable index and coefficient for each variable in a term.
+ * There are no local copies of variables or lagrange multipliers,
+ * the reasoner keeps one value per variable (indexed by variable index, see registerVariables()).
+ */
+public class SGDTermStore implements TermStore<SGDObjectiveTerm> {
+	public static final String CONFIG_PREFIX = "sgdtermstore";
+
+	/**
+	 * Initial number of terms to allocate space for.
+	 */
+	public static final String INITIAL_SIZE_KEY = CONFIG_PREFIX + ".initialsize";
+	public static final int INITIAL_SIZE_DEFAULT = 5000;
+
+	/**
+	 * The expected average number of variables per term.
+	 * Only used to size buffers.
+	 */
+	public static final String AVERAGE_TERM_SIZE_KEY = CONFIG_PREFIX + ".averagetermsize";
+	public static final int AVERAGE_TERM_SIZE_DEFAULT = 3;
+
+	private final int averageTermSize;
+
+	private int numTerms;
+	private int numSlots;
+
+	// Indexed by term.
+	private TermType[] types;
+	private float[] constants;
+	private float[] weights;
+	// Always has one more entry than the number of terms so that the last term has an end.
+	private int[] termOffsets;
+
+	// Indexed by slot.
+	private int[] variableIndices;
+	private float[] coefficients;
+
+	/**
+	 * The variable index for each atom (indexed by the atom's id, see GroundAtom.getId()).
+	 * -1 for atoms that have not been registered.
+	 * Since atom ids are only unique within a database, all the atoms in this store must come from the same database.
+	 */
+	private int[] atomIndices;
+	private Database database;
+
+	// Indexed by variable index.
+	private List<AtomFunctionVariable> variables;
+
+	/**
+	 * See MemoryTermStore.ruleMapping.
+	 */
+	private Map<WeightedGroundRule, List<Integer>> ruleMapping;
+
+	public SGDTermStore() {
+		this(Config.getInt(INITIAL_SIZE_KEY, INITIAL_SIZE_DEFAULT));
+	}
+
+	public SGDTermStore(int initialSize) {
+		averageTermSize = Config.getInt(AVERAGE_TERM_SIZE_KEY, AVERAGE_TERM_SIZE_DEFAULT);
+
+		numTerms = 0;
+		numSlots = 0;
+
+		types = new TermType[initialSize];
+		constants = new float[initialSize];
+		weights = new float[initialSize];
+		termOffsets = new int[initialSize + 1];
+
+		variableIndices = new int[initialSize * averageTermSize];
+		coefficients = new float[initialSize * averageTermSize];
+
+		atomIndices = new int[0];
+		database = null;
+		variables = new ArrayList<AtomFunctionVariable>();
+
+		ruleMapping = new HashMap<WeightedGroundRule, List<Integer>>(initialSize);
+	}
+
+	/**
+	 * Get the variable index for each atom variable, registering any variables that have not been seen before.
+	 */
+	public synchronized int[] registerVariables(List<AtomFunctionVariable> atomVariables) {
+		int[] indices = new int[atomVariables.size()];
+		for (int i = 0; i < atomVariables.size(); i++) {
+			indices[i] = registerVariable(atomVariables.get(i));
+		}
+
+		return indices;
+	}
+
+	private int registerVariable(AtomFunctionVariable atomVariable) {
+		GroundAtom atom = atomVariable.getAtom();
+
+		if (database == null) {
+			database = atom.getDatabase();
+		} else if (database != atom.getDatabase()) {
+			throw new IllegalArgumentException("All atoms in an SGDTermStore must come from the same database. Offending atom: " + atom);
+		}
+
+		int atomId = atom.getId();
+		if (atomId >= atomIndices.length) {
+			int oldLength = atomIndices.length;
+
+			int newLength = Math.max(atomId + 1, oldLength * 2);
+			if (database != null) {
+				// Most of the atoms that will be registered have probably already been created.
+				newLength = Math.max(newLength, database.getCache().getMaxId());
+			}
+
+			atomIndices = Arrays.copyOf(atomIndices, newLength);
+			Arrays.fill(atomIndices, oldLength, atomIndices.length, -1);
+		}
+
+		if (atomIndices[atomId] != -1) {
+			return atomIndices[atomId];
+		}
+
+		int newIndex = variables.size();
+		atomIndices[atomId] = newIndex;
+		variables.add(atomVariable);
+		return newIndex;
+	}
+
+	public int getNumVariables() {
+		return variables.size();
+	}
+
+	/**
+	 * Get the values of the atoms for all the variables (indexed by variable index).
+	 */
+	public void getAtomValues(float[] values) {
+		for (int i = 0; i < variables.size(); i++) {
+			values[i] = (float)variables.get(i).getValue();
+		}
+	}
+
+	/**
+	 * Set the values of the atoms for all the variables (indexed by variable index).
+	 */
+	public void updateVariables(float[] values) {
+		for (int i = 0; i < variables.size(); i++) {
+			variables.get(i).setValue(values[i]);
+		}
+	}
+
+	/**
+	 * Add a term whose variable indices came from registerVariables().
+	 */
+	@Override
+	public synchronized void add(GroundRule rule, SGDObjectiveTerm term) {
+		int size = term.size();
+
+		ensureTermCapacity(numTerms + 1);
+		ensureSlotCapacity(numSlots + size);
+
+		types[numTerms] = term.getType();
+		constants[numTerms] = term.getConstant();
+		weights[numTerms] = term.getWeight();
+
+		for (int i = 0; i < size; i++) {
+			variableIndices[numSlots + i] = term.getVariableIndex(i);
+			coefficients[numSlots + i] = term.getCoefficient(i);
+		}
+
+		if (rule instanceof WeightedGroundRule) {
+			if (!ruleMapping.containsKey((WeightedGroundRule)rule)) {
+				ruleMapping.put((WeightedGroundRule)rule, new ArrayList<Integer>(1));
+			}
+
+			ruleMapping.get((WeightedGroundRule)rule).add(new Integer(numTerms));
+		}
+
+		numTerms++;
+		numSlots += size;
+		termOffsets[numTerms] = numSlots;
+	}
+
+	/**
+	 * The weighted loss of the term at |termIndex| with the variables set to |values|.
+	 */
+	public float evaluate(int termIndex, float[] values) {
+		return SGDObjectiveTerm.loss(types[termIndex], weights[termIndex], dot(termIndex, values), constants[termIndex]);
+	}
+
+	/**
+	 * Take a projected (onto [0, 1]) gradient step on the variables of the term at |termIndex|.
+	 * If |squaredGradients| is not null, then it holds the sum of the squared gradients seen so far
+	 * for each variable, it gets updated, and each variable's step is scaled by the inverse of
+	 * the root of its sum (AdaGrad).
+	 *
+	 * Since nothing is locked, many threads can step on terms that share variables at once (Hogwild!).
+	 * @return the weighted loss of the term before the step.
+	 */
+	public float step(int termIndex, float[] values, float[] squaredGradients, float learningRate) {
+		int start = termOffsets[termIndex];
+		int end = termOffsets[termIndex + 1];
+
+		TermType type = types[termIndex];
+		float weight = weights[termIndex];
+		float constant = constants[termIndex];
+
+		float dot = dot(termIndex, values);
+		float derivative = SGDObjectiveTerm.lossDerivative(type, weight, dot, constant);
+
+		if (derivative != 0.0f) {
+			for (int slot = start; slot < end; slot++) {
+				int variableIndex = variableIndices[slot];
+				float gradient = derivative * coefficients[slot];
+
+				float rate = learningRate;
+				if (squaredGradients != null) {
+					squaredGradients[variableIndex] += gradient * gradient;
+					rate /= (float)Math.sqrt(squaredGradients[variableIndex]);
+				}
+
+				float value = values[variableIndex] - rate * gradient;
+				values[variableIndex] = Math.max(0.0f, Math.min(1.0f, value));
+			}
+		}
+
+		return SGDObjectiveTerm.loss(type, weight, dot, constant);
+	}
+
+	private float dot(int termIndex, float[] values) {
+		float dot = 0.0f;
+		for (int slot = termOffsets[termIndex]; slot < termOffsets[termIndex + 1]; slot++) {
+			dot += coefficients[slot] * values[variableIndices[slot]];
+		}
+
+		return dot;
+	}
+
+	/**
+	 * Make sure that all the added terms can be read (from many threads at once).
+	 * Called before optimizing (see SGDReasoner), so terms that are buffered by a child store get written out
+	 * before any of the reasoner's threads reads them.
+	 * Terms in this store can be read as soon as they are added, so there is nothing to do.
+	 */
+	public void flush() {
+	}
+
+	@Override
+	public void clear() {
+		numTerms = 0;
+		numSlots = 0;
+
+		atomIndices = new int[0];
+		database = null;
+
+		if (variables != null) {
+			variables.clear();
+		}
+
+		if (ruleMapping != null) {
+			ruleMapping.clear();
+		}
+	}
+
+	@Override
+	public void close() {
+		clear();
+
+		types = null;
+		constants = null;
+		weights = null;
+		termOffsets = null;
+
+		variableIndices = null;
+		coefficients = null;
+
+		atomIndices = null;
+		variables = null;
+		ruleMapping = null;
+	}
+
+	/**
+	 * Get a detached copy of a term.
+	 * Changes to the copy (e.g. its weight) do not affect this store.
+	 */
+	@Override
+	public SGDObjectiveTerm get(int termIndex) {
+		int start = termOffsets[termIndex];
+		int end = termOffsets[termIndex + 1];
+
+		return new SGDObjectiveTerm(types[termIndex],
+				Arrays.copyOfRange(variableIndices, start, end), Arrays.copyOfRange(coefficients, start, end),
+				constants[termIndex], weights[termIndex]);
+	}
+
+	@Override
+	public int size() {
+		return numTerms;
+	}
+
+	@Override
+	public synchronized void ensureCapacity(int capacity) {
+		assert(capacity >= 0);
+
+		if (capacity == 0) {
+			return;
+		}
+
+		ensureTermCapacity(capacity);
+		ensureSlotCapacity(capacity * averageTermSize);
+	}
+
+	/**
+	 * Iterate over detached copies of the terms.
+	 */
+	@Override
+	public Iterator<SGDObjectiveTerm> iterator() {
+		return new Iterator<SGDObjectiveTerm>() {
+			private int nextIndex = 0;
+
+			@Override
+			public boolean hasNext() {
+				return nextIndex < numTerms;
+			}
+
+			@Override
+			public SGDObjectiveTerm next() {
+				if (!hasNext()) {
+					throw new NoSuchElementException();
+				}
+
+				return get(nextIndex++);
+			}
+
+			@Override
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+
+	/**
+	 * Negative weights are not supported (see SGDTermGenerator), so those terms get a zero weight.
+	 */
+	@Override
+	public void updateWeight(WeightedGroundRule rule) {
+		float weight = Math.max(0.0f, (float)rule.getWeight());
+		for (Integer termIndex : getTermIndices(rule)) {
+			weights[termIndex.intValue()] = weight;
+		}
+	}
+
+	@Override
+	public List<Integer> getTermIndices(WeightedGroundRule rule) {
+		if (!ruleMapping.containsKey(rule)) {
+			return Collections.<Integer>emptyList();
+		}
+
+		return new UnmodifiableList<Integer>(ruleMapping.get(rule));
+	}
+
+	private void ensureTermCapacity(int capacity) {
+		if (capacity <= types.length) {
+			return;
+		}
+
+		int newCapacity = Math.max(capacity, types.length * 2);
+
+		types = Arrays.copyOf(types, newCapacity);
+		constants = Arrays.copyOf(constants, newCapacity);
+		weights = Arrays.copyOf(weights, newCapacity);
+		termOffsets = Arrays.copyOf(termOffsets, newCapacity + 1);
+	}
+
+	private void ensureSlotCapacity(int capacity) {
+		if (capacity <= variableIndices.length) {
+			return;
+		}
+
+		int newCapacity = Math.max(capacity, variableIndices.length * 2);
+
+		variableIndices = Arrays.copyOf(variableIndices, newCapacity);
+		coefficients = Arrays.copyOf(coefficients, newCapacity);
+	}
+}
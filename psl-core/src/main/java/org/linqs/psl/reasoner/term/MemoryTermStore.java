@@ -22,12 +22,12 @@ import org.linqs.psl.model.rule.GroundRule;
 import org.linqs.psl.model.rule.WeightedGroundRule;
 
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Collections;
 import java.util.Iterator;
-import java.util.LinkedList;
 import java.util.List;
-import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.apache.commons.collections4.list.UnmodifiableList;
 
@@ -48,9 +48,10 @@ public class MemoryTermStore<E extends Term> implements TermStore<E> {
 	 * This is used for updating weights, so we only track weighted
 	 * ground rules and terms.
 	 * Note that it could be possible to generate multiple terms
-	 * for a single ground rule.
+	 * for a single ground rule (but most rules only get one).
+	 * Terms for different rules may be set (see set()) from different threads at the same time.
 	 */
-	private Map<WeightedGroundRule, List<Integer>> ruleMapping;
+	private ConcurrentMap<WeightedGroundRule, List<Integer>> ruleMapping;
 
 	public MemoryTermStore() {
 		this(Config.getInt(INITIAL_SIZE_KEY, INITIAL_SIZE_DEFAULT));
@@ -58,20 +59,51 @@ public class MemoryTermStore<E extends Term> implements TermStore<E> {
 
 	public MemoryTermStore(int initialSize) {
 		store = new ArrayList<E>(initialSize);
-		ruleMapping = new HashMap<WeightedGroundRule, List<Integer>>(initialSize);
+		ruleMapping = new ConcurrentHashMap<WeightedGroundRule, List<Integer>>(initialSize);
 	}
 
 	@Override
 	public synchronized void add(GroundRule rule, E term) {
-		if (rule instanceof WeightedGroundRule && term instanceof WeightedTerm) {
-			if (!ruleMapping.containsKey((WeightedGroundRule)rule)) {
-				ruleMapping.put((WeightedGroundRule)rule, new LinkedList<Integer>());
-			}
+		mapTerm(rule, store.size(), term);
+		store.add(term);
+	}
+
+	/**
+	 * Add |count| empty places to the end of this store, to be filled with set().
+	 * @return the index of the first new place.
+	 */
+	public synchronized int reserve(int count) {
+		int start = store.size();
+		store.addAll(Collections.<E>nCopies(count, null));
+		return start;
+	}
 
-			ruleMapping.get((WeightedGroundRule)rule).add(new Integer(store.size()));
+	/**
+	 * Put a term into a place made by reserve().
+	 * Different threads can set different places at the same time,
+	 * as long as all the terms for a single rule are set by the same thread.
+	 */
+	public void set(GroundRule rule, int index, E term) {
+		mapTerm(rule, index, term);
+		store.set(index, term);
+	}
+
+	private void mapTerm(GroundRule rule, int index, E term) {
+		if (!(rule instanceof WeightedGroundRule && term instanceof WeightedTerm)) {
+			return;
 		}
 
-		store.add(term);
+		List<Integer> indexes = ruleMapping.get((WeightedGroundRule)rule);
+		if (indexes == null) {
+			indexes = new ArrayList<Integer>(1);
+
+			List<Integer> existing = ruleMapping.putIfAbsent((WeightedGroundRule)rule, indexes);
+			if (existing != null) {
+				indexes = existing;
+			}
+		}
+
+		indexes.add(new Integer(index));
 	}
 
 	@Override
@@ -117,7 +149,30 @@ public class MemoryTermStore<E extends Term> implements TermStore<E> {
 		// (since we can't add capacity).
 		if (ruleMapping.size() == 0) {
 			// The default load factor for Java HashMaps is 0.75.
-			ruleMapping = new HashMap<WeightedGroundRule, List<Integer>>((int)(capacity / 0.75));
+			ruleMapping = new ConcurrentHashMap<WeightedGroundRule, List<Integer>>((int)(capacity / 0.75));
+		}
+	}
+
+	/**
+	 * Reorder the terms: the term at index order[i] moves to index i.
+	 */
+	public synchronized void permute(int[] order) {
+		if (order.length != store.size()) {
+			throw new IllegalArgumentException("Expected an order for " + store.size() + " terms, got " + order.length + ".");
+		}
+
+		ArrayList<E> newStore = new ArrayList<E>(store.size());
+		int[] newIndexes = new int[order.length];
+		for (int i = 0; i < order.length; i++) {
+			newStore.add(store.get(order[i]));
+			newIndexes[order[i]] = i;
+		}
+		store = newStore;
+
+		for (List<Integer> indexes : ruleMapping.values()) {
+			for (int i = 0; i < indexes.size(); i++) {
+				indexes.set(i, new Integer(newIndexes[indexes.get(i).intValue()]));
+			}
 		}
 	}
 
@@ -138,6 +193,10 @@ public class MemoryTermStore<E extends Term> implements TermStore<E> {
 
 	@Override
 	public List<Integer> getTermIndices(WeightedGroundRule rule) {
+		if (!ruleMapping.containsKey(rule)) {
+			return Collections.<Integer>emptyList();
+		}
+
 		return new UnmodifiableList<Integer>(ruleMapping.get(rule));
 	}
 }
@@ -0,0 +1,53 @@
+/*
+ * This file is part of the PSL software.
+ * Copyright 2011-2015 University of Maryland
+ * Copyright 2013-2018 The Regents of the University of California
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.linqs.psl.reasoner.term;
+
+import org.linqs.psl.model.rule.GroundRule;
+
+/**
+ * A TermGenerator that can also generate terms while the model is being grounded
+ * (see TermGeneratingGroundRuleStore).
+ * Each grounding thread generates its terms into its own sink,
+ * and the terms are added to the term store when the sink is flushed.
+ */
+public interface StreamingTermGenerator<E extends Term> extends TermGenerator<E> {
+	/**
+	 * Get a new sink that generates terms for |termStore|.
+	 * A sink is only used by one thread at a time.
+	 */
+	public Sink newSink(TermStore<E> termStore);
+
+	/**
+	 * Called once every sink for |termStore| has been flushed.
+	 */
+	public void finishTerms(TermStore<E> termStore);
+
+	public static interface Sink {
+		/**
+		 * Generate the terms for a single ground rule.
+		 */
+		public void add(GroundRule rule);
+
+		/**
+		 * Add all the terms generated so far to the term store.
+		 * This is safe to call while other sinks are being filled.
+		 * @return the number of terms added to the term store.
+		 */
+		public int flush();
+	}
+}
@@ -24,21 +24,26 @@ import org.slf4j.LoggerFactory;
 
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.ThreadFactory;
+import java.util.RandomAccess;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * Utilities to run operations in parallel.
  * The threads will be started up on the first call, and not shut down until the JVM shuts down.
- * Since the thread pool (and CPU) is shared, only one task may be run in parallel at a time.
+ *
+ * Work is run on a shared fork-join pool.
+ * Each call gets its own copies of the worker (at most one per thread),
+ * and each copy claims contiguous chunks of the work until there is none left.
+ * Calls do not block each other, so different components may run parallel tasks at the same time
+ * and a worker may itself make a parallel call (the calling thread will help with the nested work).
  */
 public final class Parallel {
 	private static final Logger log = LoggerFactory.getLogger(Parallel.class);
@@ -48,23 +53,23 @@ public final class Parallel {
 	public static final String NUM_THREADS_KEY = CONFIG_PREFIX + ".numthreads";
 	public static final int NUM_THREADS_DEFAULT = Runtime.getRuntime().availableProcessors();
 
+	/**
+	 * The number of chunks the work is split into (per worker).
+	 * More chunks balance the load better, but cost more to hand out.
+	 */
+	private static final int CHUNKS_PER_WORKER = 4;
+
+	/**
+	 * The chunk size when the number of items is not known ahead of time.
+	 */
+	private static final int ITERATOR_CHUNK_SIZE = 16;
+
 	private static boolean initialized = false;
 
 	// Defer assignment until a request is actually made to let the config get initialized.
 	private static int numThreads = -1;
 
-	// Block putting work intot he pool until there are workers ready.
-	private static BlockingQueue<Worker<?>> workerQueue;
-
-	// Keep all the workers somewhere we can reference them.
-	private static List<Worker<?>> allWorkers;
-
-	private static ExecutorService pool;
-
-	/**
-	 * Objects that are specific to each thread.
-	 */
-	private static Map<Thread, Map<String, Object>> threadObjects = new ConcurrentHashMap<Thread, Map<String, Object>>();
+	private static ForkJoinPool pool;
 
 	// Static only.
 	private Parallel() {}
@@ -77,41 +82,19 @@ public final class Parallel {
 		return numThreads;
 	}
 
-	public static boolean hasThreadObject(String key) {
-		if (!threadObjects.containsKey(Thread.currentThread())) {
-			threadObjects.put(Thread.currentThread(), new HashMap<String, Object>());
-		}
-
-		return threadObjects.get(Thread.currentThread()).containsKey(key);
-	}
-
-	public static Object getThreadObject(String key) {
-		if (!threadObjects.containsKey(Thread.currentThread())) {
-			threadObjects.put(Thread.currentThread(), new HashMap<String, Object>());
-		}
-
-		return threadObjects.get(Thread.currentThread()).get(key);
-	}
-
-	public static void putThreadObject(String key, Object value) {
-		if (!threadObjects.containsKey(Thread.currentThread())) {
-			threadObjects.put(Thread.currentThread(), new HashMap<String, Object>());
-		}
-
-		threadObjects.get(Thread.currentThread()).put(key, value);
-	}
-
 	/**
 	 * Count and call a worker with each number in [start, end).
 	 * Inclusive with start, exclusive with end.
 	 * The caller is trusted to provide appropriate numbers.
+	 * Workers only get the number as the index, the item will always be null.
 	 */
-	public synchronized static RunTimings count(int start, int end, int increment, Worker<Integer> baseWorker) {
-		initWorkers(baseWorker);
-		RunTimings timings = countInternal(start, end, increment);
-		cleanupWorkers();
+	public static RunTimings count(int start, int end, int increment, Worker<Integer> baseWorker) {
+		if (end <= start) {
+			return new RunTimings(0, 0, 0);
+		}
 
-		return timings;
+		int numItems = (end - start + increment - 1) / increment;
+		return run(new CountTask(start, increment, numItems), baseWorker);
 	}
 
 	/**
@@ -128,129 +111,101 @@ public final class Parallel {
 		return count(0, end, 1, baseWorker);
 	}
 
-	private static RunTimings countInternal(int start, int end, int increment) {
-		long parentWaitTimeMS = 0;
-		long workerWaitTimeMS = 0;
-		long workerWorkTimeMS = 0;
-
-		for (int i = start; i < end; i += increment) {
-			Worker<?> worker = null;
-			try {
-				// Will block if no workers are ready.
-				long time = System.currentTimeMillis();
-				worker = workerQueue.take();
-				parentWaitTimeMS += (System.currentTimeMillis() - time);
-			} catch (InterruptedException ex) {
-				throw new RuntimeException("Interrupted waiting for worker (" + i + ").");
-			}
-
-			if (worker.getException() != null) {
-				throw new RuntimeException("Exception on worker.", worker.getException());
+	/**
+	 * Invoke a worker once for each item.
+	 * Random access lists are handed out in chunks of indexes,
+	 * anything else is handed out in chunks pulled from a single (shared) iterator.
+	 */
+	public static <T> RunTimings foreach(Iterable<T> work, Worker<T> baseWorker) {
+		if (work instanceof List && work instanceof RandomAccess) {
+			List<T> items = (List<T>)work;
+			if (items.size() == 0) {
+				return new RunTimings(0, 0, 0);
 			}
 
-			@SuppressWarnings("unchecked")
-			Worker<Integer> intWorker = (Worker<Integer>)worker;
-			intWorker.setWork(i, new Integer(i));
-			pool.execute(intWorker);
+			return run(new ListTask<T>(items), baseWorker);
 		}
 
-		for (int i = 0; i < numThreads; i++) {
-			try {
-				long time = System.currentTimeMillis();
-				Worker<?> worker = workerQueue.take();
-				parentWaitTimeMS += (System.currentTimeMillis() - time);
-
-				workerWaitTimeMS += worker.getWaitTime();
-				workerWorkTimeMS += worker.getWorkTime();
+		Iterator<T> items = work.iterator();
+		if (!items.hasNext()) {
+			return new RunTimings(0, 0, 0);
+		}
 
-				if (worker.getException() != null) {
-					throw new RuntimeException("Exception on worker.", worker.getException());
-				}
-			} catch (InterruptedException ex) {
-				throw new RuntimeException("Interrupted waiting for worker (" + i + ").");
-			}
+		int numItems = -1;
+		if (work instanceof Collection) {
+			numItems = ((Collection<T>)work).size();
 		}
 
-		return new RunTimings(parentWaitTimeMS, workerWaitTimeMS, workerWorkTimeMS);
+		return run(new IteratorTask<T>(items, numItems), baseWorker);
 	}
 
 	/**
-	 * Invoke a worker once for each item.
+	 * Split the task between copies of the base worker and wait for all of them to finish.
 	 */
-	public synchronized static <T> RunTimings foreach(Iterable<T> work, Worker<T> baseWorker) {
-		initWorkers(baseWorker);
-		RunTimings timings = foreachInternal(work);
-		cleanupWorkers();
+	private static <T> RunTimings run(Task<T> task, Worker<T> baseWorker) {
+		initPool();
 
-		return timings;
-	}
+		int numWorkers = numThreads;
+		task.chunkSize = ITERATOR_CHUNK_SIZE;
 
-	private static <T> RunTimings foreachInternal(Iterable<T> work) {
-		long parentWaitTimeMS = 0;
-		long workerWaitTimeMS = 0;
-		long workerWorkTimeMS = 0;
+		if (task.numItems >= 0) {
+			numWorkers = Math.min(numThreads, task.numItems);
+			task.chunkSize = Math.max(1, task.numItems / (numWorkers * CHUNKS_PER_WORKER));
+		}
 
-		int count = 0;
-		for (T job : work) {
-			Worker<?> worker = null;
-			try {
-				// Will block if no workers are ready.
-				long time = System.currentTimeMillis();
-				worker = workerQueue.take();
-				parentWaitTimeMS += (System.currentTimeMillis() - time);
-			} catch (InterruptedException ex) {
-				throw new RuntimeException("Interrupted waiting for worker (" + count + ").");
-			}
+		List<WorkerTask<T>> workerTasks = new ArrayList<WorkerTask<T>>(numWorkers);
+		for (int i = 0; i < numWorkers; i++) {
+			Worker<T> worker = null;
 
-			if (worker.getException() != null) {
-				throw new RuntimeException("Exception on worker.", worker.getException());
+			// The base worker goes in last so we won't call copy() after init().
+			if (i == numWorkers - 1) {
+				worker = baseWorker;
+			} else {
+				worker = baseWorker.copy();
 			}
 
-			@SuppressWarnings("unchecked")
-			Worker<T> typedWorker = (Worker<T>)worker;
-			typedWorker.setWork(count, job);
-			pool.execute(typedWorker);
-
-			count++;
+			worker.init(i);
+			workerTasks.add(new WorkerTask<T>(task, worker));
 		}
 
-		// As workers finish, they will be added to the queue.
-		// We can wait for all the workers by emptying out the queue.
-		for (int i = 0; i < numThreads; i++) {
-			try {
-				long time = System.currentTimeMillis();
-				Worker<?> worker = workerQueue.take();
-				parentWaitTimeMS += (System.currentTimeMillis() - time);
+		long startTime = System.nanoTime();
+		task.submitTime = startTime;
 
-				workerWaitTimeMS += worker.getWaitTime();
-				workerWorkTimeMS += worker.getWorkTime();
-
-				if (worker.getException() != null) {
-					throw new RuntimeException("Exception on worker.", worker.getException());
-				}
-			} catch (InterruptedException ex) {
-				throw new RuntimeException("Interrupted waiting for worker (" + i + ").");
+		try {
+			if (ForkJoinTask.inForkJoinPool()) {
+				// A nested call, this thread will help out while it waits.
+				ForkJoinTask.invokeAll(workerTasks);
+			} else {
+				pool.invoke(new RootTask<T>(workerTasks));
+			}
+		} finally {
+			for (WorkerTask<T> workerTask : workerTasks) {
+				workerTask.worker.close();
 			}
 		}
 
-		return new RunTimings(parentWaitTimeMS, workerWaitTimeMS, workerWorkTimeMS);
+		long parentWaitTime = System.nanoTime() - startTime;
+
+		if (task.exception.get() != null) {
+			throw new RuntimeException("Exception on worker.", task.exception.get());
+		}
+
+		return new RunTimings(
+				TimeUnit.NANOSECONDS.toMillis(parentWaitTime),
+				TimeUnit.NANOSECONDS.toMillis(task.waitTime.get()),
+				TimeUnit.NANOSECONDS.toMillis(task.workTime.get()));
 	}
 
 	/**
-	 * Init the thread pool and supporting structures.
+	 * Init the thread pool.
 	 */
 	private static synchronized void initPool() {
 		if (initialized) {
 			return;
 		}
 
-		// We can use an unbounded queue (no initial size given) since the parent
-		// thread is disciplined when giving out work.
-		workerQueue = new LinkedBlockingQueue<Worker<?>>();
-		allWorkers = new ArrayList<Worker<?>>(numThreads);
-
-		// We will make all the threads daemons, so the JVM shutdown will not be held up.
-		pool = Executors.newFixedThreadPool(numThreads, new DaemonThreadFactory());
+		// Fork-join pool threads are daemons, so the JVM shutdown will not be held up.
+		pool = new ForkJoinPool(getNumThreads());
 
 		// Close the pool only at JVM shutdown.
 		Runtime.getRuntime().addShutdownHook(new Thread() {
@@ -263,83 +218,210 @@ public final class Parallel {
 		initialized = true;
 	}
 
+	private static void shutdown() {
+		try {
+			pool.shutdownNow();
+			pool.awaitTermination(10, TimeUnit.SECONDS);
+		} catch (InterruptedException ex) {
+			// Do nothing, we are shutting down anyways.
+		}
+
+		pool = null;
+	}
+
 	/**
-	 * Always the first thing called when setting up to run a task in parallel.
+	 * The state of a single call to count() or foreach() that all of the call's workers share.
 	 */
-	private static <T> void initWorkers(Worker<T> baseWorker) {
-		initPool();
+	private static abstract class Task<T> {
+		// -1 if not known ahead of time.
+		public final int numItems;
+		public int chunkSize;
+		public long submitTime;
+
+		public final AtomicLong waitTime;
+		public final AtomicLong workTime;
+		public final AtomicReference<Exception> exception;
+
+		public Task(int numItems) {
+			this.numItems = numItems;
+			this.chunkSize = 1;
+			this.submitTime = 0;
+
+			waitTime = new AtomicLong(0);
+			workTime = new AtomicLong(0);
+			exception = new AtomicReference<Exception>(null);
+		}
 
-		workerQueue.clear();
-		allWorkers.clear();
+		/**
+		 * Claim the next chunk and call the worker on each item in it.
+		 * @return false if there was nothing left to claim.
+		 */
+		public abstract boolean workNextChunk(Worker<T> worker);
+	}
 
-		for (int i = 0; i < numThreads; i++) {
-			Worker<T> worker = null;
+	/**
+	 * A task where the items can be claimed by their index.
+	 */
+	private static abstract class IndexedTask<T> extends Task<T> {
+		// The index of the next item that has not been claimed by a worker.
+		private final AtomicInteger nextItem;
 
-			// The base worker goes in last so we won't call copy() after init().
-			if (i == numThreads - 1) {
-				worker = baseWorker;
-			} else {
-				worker = baseWorker.copy();
-			}
+		public IndexedTask(int numItems) {
+			super(numItems);
+			nextItem = new AtomicInteger(0);
+		}
 
-			worker.init(i);
+		@Override
+		public boolean workNextChunk(Worker<T> worker) {
+			int chunkStart = nextItem.getAndAdd(chunkSize);
+			if (chunkStart >= numItems) {
+				return false;
+			}
 
-			allWorkers.add(worker);
-			workerQueue.add(worker);
+			work(worker, chunkStart, Math.min(numItems, chunkStart + chunkSize));
+			return true;
 		}
+
+		/**
+		 * Call the worker on each item in [start, end).
+		 */
+		public abstract void work(Worker<T> worker, int start, int end);
 	}
 
-	private static void cleanupWorkers() {
-		for (Worker<?> worker : allWorkers) {
-			worker.close();
+	private static class CountTask extends IndexedTask<Integer> {
+		private final int start;
+		private final int increment;
+
+		public CountTask(int start, int increment, int numItems) {
+			super(numItems);
+			this.start = start;
+			this.increment = increment;
 		}
 
-		allWorkers.clear();
-		workerQueue.clear();
+		@Override
+		public void work(Worker<Integer> worker, int chunkStart, int chunkEnd) {
+			for (int i = chunkStart; i < chunkEnd; i++) {
+				worker.work(start + i * increment, null);
+			}
+		}
 	}
 
-	 private static void shutdown() {
-		cleanupWorkers();
+	private static class ListTask<T> extends IndexedTask<T> {
+		private final List<T> items;
 
-		try {
-			pool.shutdownNow();
-			pool.awaitTermination(10, TimeUnit.SECONDS);
-		} catch (InterruptedException ex) {
-			// Do nothing, we are shutting down anyways.
+		public ListTask(List<T> items) {
+			super(items.size());
+			this.items = items;
 		}
 
-		workerQueue = null;
-		allWorkers = null;
-		pool = null;
-	 }
+		@Override
+		public void work(Worker<T> worker, int chunkStart, int chunkEnd) {
+			for (int i = chunkStart; i < chunkEnd; i++) {
+				worker.work(i, items.get(i));
+			}
+		}
+	}
+
+	/**
+	 * Pulls chunks from an iterator that all the workers share.
+	 * Only the pulling is synchronized, the work is done outside of the lock.
+	 */
+	private static class IteratorTask<T> extends Task<T> {
+		private final Iterator<T> items;
+		// The index of the next item to pull, guarded by items.
+		private int nextIndex;
+
+		public IteratorTask(Iterator<T> items, int numItems) {
+			super(numItems);
+			this.items = items;
+			this.nextIndex = 0;
+		}
+
+		@Override
+		@SuppressWarnings("unchecked")
+		public boolean workNextChunk(Worker<T> worker) {
+			Object[] chunk = new Object[chunkSize];
+			int chunkStart = 0;
+			int count = 0;
+
+			synchronized (items) {
+				chunkStart = nextIndex;
+				while (count < chunkSize && items.hasNext()) {
+					chunk[count] = items.next();
+					count++;
+				}
+				nextIndex += count;
+			}
+
+			for (int i = 0; i < count; i++) {
+				worker.work(chunkStart + i, (T)chunk[i]);
+			}
+
+			return count > 0;
+		}
+	}
 
 	/**
-	 * Signal that a worker is done and ready for more work.
+	 * Runs a single worker until all the chunks of its task have been claimed.
 	 */
-	private static void freeWorker(Worker<?> worker) {
-		workerQueue.add(worker);
+	private static class WorkerTask<T> extends RecursiveAction {
+		private static final long serialVersionUID = -4078119088163060410L;
+
+		private final Task<T> task;
+		public final Worker<T> worker;
+
+		public WorkerTask(Task<T> task, Worker<T> worker) {
+			this.task = task;
+			this.worker = worker;
+		}
+
+		@Override
+		protected void compute() {
+			long startTime = System.nanoTime();
+			task.waitTime.addAndGet(startTime - task.submitTime);
+
+			try {
+				while (task.exception.get() == null) {
+					if (!task.workNextChunk(worker)) {
+						break;
+					}
+				}
+			} catch (Exception ex) {
+				log.warn("Caught exception on worker: {}", worker.id);
+				task.exception.compareAndSet(null, ex);
+			} finally {
+				task.workTime.addAndGet(System.nanoTime() - startTime);
+			}
+		}
+	}
+
+	private static class RootTask<T> extends RecursiveAction {
+		private static final long serialVersionUID = 7529177547662399395L;
+
+		private final List<WorkerTask<T>> workerTasks;
+
+		public RootTask(List<WorkerTask<T>> workerTasks) {
+			this.workerTasks = workerTasks;
+		}
+
+		@Override
+		protected void compute() {
+			ForkJoinTask.invokeAll(workerTasks);
+		}
 	}
 
 	/**
 	 * Extend this class for any work.
 	 * Default implmentation are provided for all non-abstract, non-final methods.
+	 *
+	 * A worker (or copy) is only ever used by one thread at a time,
+	 * so anything set up in init() does not need to be thread-safe.
 	 */
-	public static abstract class Worker<T> implements Runnable, Cloneable {
+	public static abstract class Worker<T> implements Cloneable {
 		protected int id;
 
-		private int index;
-		private long waitTimeMS;
-		private long workTimeMS;
-		private T item;
-		private Exception exception;
-
 		public Worker() {
 			this.id = -1;
-			this.index = -1;
-			this.waitTimeMS = 0;
-			this.workTimeMS = 0;
-			this.item = null;
-			this.exception = null;
 		}
 
 		/**
@@ -363,57 +445,13 @@ public final class Parallel {
 
 		/**
 		 * Called before any work is given.
-		 * The id will be unique to this worker for this batch of work.
+		 * The id will be unique to this worker for this batch of work
+		 * and in [0, getNumThreads()).
 		 */
 		public void init(int id) {
 			this.id = id;
 		}
 
-		public void clearException() {
-			exception = null;
-		}
-
-		public Exception getException() {
-			return exception;
-		}
-
-		public long getWaitTime() {
-			return waitTimeMS;
-		}
-
-		public long getWorkTime() {
-			return workTimeMS;
-		}
-
-		@Override
-		public final void run() {
-			try {
-				if (index == -1) {
-					log.warn("Called run() without first calling setWork().");
-					return;
-				}
-
-				long time = System.currentTimeMillis();
-				work(index, item);
-				workTimeMS += (System.currentTimeMillis() - time);
-			} catch (Exception ex) {
-				log.warn("Caught exception on worker: {}", id);
-				exception = ex;
-			} finally {
-				index = -1;
-				item = null;
-
-				long time = System.currentTimeMillis();
-				freeWorker(this);
-				waitTimeMS += (System.currentTimeMillis() - time);
-			}
-		}
-
-		public final void setWork(int index, T item) {
-			this.index = index;
-			this.item = item;
-		}
-
 		/**
 		 * Do the actual work.
 		 * The index is the item's index in the collection.
@@ -421,21 +459,12 @@ public final class Parallel {
 		public abstract void work(int index, T item);
 	}
 
-	private static class DaemonThreadFactory implements ThreadFactory {
-		private ThreadFactory defaultThreadFactory;
-
-		public DaemonThreadFactory() {
-			this.defaultThreadFactory = Executors.defaultThreadFactory();
-		}
-
-		@Override
-		public Thread newThread(Runnable r) {
-			Thread thread = defaultThreadFactory.newThread(r);
-			thread.setDaemon(true);
-			return thread;
-		}
-	}
-
+	/**
+	 * Timings for a single call to count() or foreach().
+	 * Parent wait time is how long the call took,
+	 * worker wait time is the total time workers spent waiting for a thread to start on,
+	 * and worker work time is the total time workers spent working.
+	 */
 	public static class RunTimings {
 		public final long parentWaitTimeMS;
 		public final long workerWaitTimeMS;
@@ -24,6 +24,10 @@ import java.util.Random;
 /**
  * The canonical source of randomness for all PSL core code.
  * Any code using randomness should use this class.
+ *
+ * All the methods here share one generator and lock.
+ * Parallel code should instead get a seed here (see nextStreamSeed())
+ * and use a RandomStream for each unit of work.
  */
 public final class RandUtils {
 	public static final String CONFIG_PREFIX = "random";
@@ -31,6 +35,12 @@ public final class RandUtils {
 	public static final String SEED_KEY = CONFIG_PREFIX + ".seed";
 	public static final int SEED_DEFAULT = 4;
 
+	/**
+	 * The suggested number of items that parallel code should draw from a single RandomStream.
+	 * This is fixed (instead of depending on the number of threads) so that results are reproducible.
+	 */
+	public static final int STREAM_BLOCK_SIZE = 1024;
+
 	private static Random rng = null;
 
 	// Static only.
@@ -83,4 +93,19 @@ public final class RandUtils {
 		ensureRNG();
 		return rng.nextLong();
 	}
+
+	/**
+	 * Get a seed for a new family of RandomStreams.
+	 * Each parallel section should get its own seed.
+	 */
+	public static long nextStreamSeed() {
+		return nextLong();
+	}
+
+	/**
+	 * Get the stream for a unit of work within a family of streams (see nextStreamSeed()).
+	 */
+	public static RandomStream getStream(long streamSeed, long streamId) {
+		return new RandomStream(streamSeed, streamId);
+	}
 }
@@ -0,0 +1,93 @@
+/*
+ * This file is part of the PSL software.
+ * Copyright 2011-2015 University of Maryland
+ * Copyright 2013-2018 The Regents of the University of California
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.linqs.psl.util;
+
+/**
+ * A small, unsynchronized source of randomness for a single unit of parallel work.
+ *
+ * A stream is fully determined by a seed and a stream id.
+ * The usual pattern is to get one seed from RandUtils for a whole parallel section
+ * and then give each unit of work (e.g. a block or an item) the stream with its index as the id.
+ * This way the values do not depend on what thread does the work or how many threads there are,
+ * and the results are reproducible from the seed in RandUtils.
+ *
+ * The generator is SplitMix64, which is fast and gives well mixed streams even for adjacent ids.
+ * A stream must not be shared between threads.
+ */
+public final class RandomStream {
+	private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+
+	private long state;
+
+	public RandomStream(long seed, long streamId) {
+		// Mix the id in so that streams with adjacent ids start far apart.
+		state = mix(seed ^ mix(streamId * GOLDEN_GAMMA + GOLDEN_GAMMA));
+	}
+
+	public long nextLong() {
+		state += GOLDEN_GAMMA;
+		return mix(state);
+	}
+
+	public int nextInt() {
+		return (int)(nextLong() >>> 32);
+	}
+
+	/**
+	 * A uniform int in [0, max).
+	 */
+	public int nextInt(int max) {
+		if (max <= 0) {
+			throw new IllegalArgumentException("Max must be positive.");
+		}
+
+		// Reject values from the incomplete top range so that there is no bias.
+		int bits;
+		int value;
+		do {
+			bits = (int)(nextLong() >>> 33);
+			value = bits % max;
+		} while (bits - value + (max - 1) < 0);
+
+		return value;
+	}
+
+	public boolean nextBoolean() {
+		return nextLong() < 0;
+	}
+
+	/**
+	 * A uniform float in [0, 1).
+	 */
+	public float nextFloat() {
+		return (nextLong() >>> 40) * 0x1.0p-24f;
+	}
+
+	/**
+	 * A uniform double in [0, 1).
+	 */
+	public double nextDouble() {
+		return (nextLong() >>> 11) * 0x1.0p-53;
+	}
+
+	private static long mix(long value) {
+		value = (value ^ (value >>> 30)) * 0xbf58476d1ce4e5b9L;
+		value = (value ^ (value >>> 27)) * 0x94d049bb133111ebL;
+		return value ^ (value >>> 31);
+	}
+}
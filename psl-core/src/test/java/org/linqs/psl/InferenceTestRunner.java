@@ -0,0 +1,115 @@
+/*
+ * This file is part of the PSL software.
+ * Copyright 2011-2015 University of Maryland
+ * Copyright 2013-2018 The Regents of the University of California
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.linqs.psl;
+
+import org.linqs.psl.application.inference.MPEInference;
+import org.linqs.psl.database.Database;
+import org.linqs.psl.model.atom.RandomVariableAtom;
+import org.linqs.psl.model.predicate.StandardPredicate;
+import org.linqs.psl.model.rule.GroundRule;
+import org.linqs.psl.model.rule.WeightedGroundRule;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+
+/**
+ * Runs MPE inference over a model from TestModelFactory (with the current config) and closes everything afterwards.
+ * Children pick what result to take out of the run, and can hook into it before inference.
+ */
+public abstract class InferenceTestRunner<T> {
+	public T run() {
+		TestModelFactory.ModelInformation info = TestModelFactory.getModel();
+		prepareModel(info);
+
+		Database inferDB = info.dataStore.getDatabase(info.targetPartition, new HashSet<StandardPredicate>(), info.observationPartition);
+		MPEInference mpe = new MPEInference(info.model, inferDB);
+
+		beforeInference(info, mpe);
+		mpe.inference();
+
+		T result = getResult(info, inferDB, mpe);
+
+		mpe.close();
+		inferDB.close();
+		info.dataStore.close();
+
+		return result;
+	}
+
+	/**
+	 * Called before the model is grounded (e.g. to add rules or data).
+	 */
+	protected void prepareModel(TestModelFactory.ModelInformation info) {}
+
+	/**
+	 * Called after the model is grounded, but before inference.
+	 */
+	protected void beforeInference(TestModelFactory.ModelInformation info, MPEInference mpe) {}
+
+	/**
+	 * Called after inference, before anything is closed.
+	 */
+	protected abstract T getResult(TestModelFactory.ModelInformation info, Database inferDB, MPEInference mpe);
+
+	/**
+	 * Get the value of each Friends atom (keyed by the atom's string).
+	 */
+	public static Map<String, Double> getFriendsValues(TestModelFactory.ModelInformation info, Database inferDB) {
+		Map<String, Double> values = new HashMap<String, Double>();
+		for (RandomVariableAtom atom : inferDB.getAllGroundRandomVariableAtoms(info.predicates.get("Friends"))) {
+			values.put(atom.toString(), atom.getValue());
+		}
+
+		return values;
+	}
+
+	/**
+	 * Get the weighted incompatibility of all the weighted ground rules.
+	 */
+	public static double getObjective(MPEInference mpe) {
+		double objective = 0.0;
+		for (GroundRule groundRule : mpe.getGroundRuleStore().getGroundRules()) {
+			if (groundRule instanceof WeightedGroundRule) {
+				objective += ((WeightedGroundRule)groundRule).getWeight() * ((WeightedGroundRule)groundRule).getIncompatibility();
+			}
+		}
+
+		return objective;
+	}
+
+	/**
+	 * The result is the value of each Friends atom (see getFriendsValues()).
+	 */
+	public static class FriendsValues extends InferenceTestRunner<Map<String, Double>> {
+		@Override
+		protected Map<String, Double> getResult(TestModelFactory.ModelInformation info, Database inferDB, MPEInference mpe) {
+			return getFriendsValues(info, inferDB);
+		}
+	}
+
+	/**
+	 * The result is the objective of the weighted ground rules (see getObjective()).
+	 */
+	public static class Objective extends InferenceTestRunner<Double> {
+		@Override
+		protected Double getResult(TestModelFactory.ModelInformation info, Database inferDB, MPEInference mpe) {
+			return new Double(getObjective(mpe));
+		}
+	}
+}
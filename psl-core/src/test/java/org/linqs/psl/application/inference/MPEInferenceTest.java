@@ -23,8 +23,11 @@ import static org.junit.Assert.fail;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
+import org.linqs.psl.InferenceTestRunner;
 import org.linqs.psl.TestModelFactory;
+import org.linqs.psl.application.groundrulestore.TermGeneratingGroundRuleStore;
 import org.linqs.psl.application.inference.MPEInference;
+import org.linqs.psl.config.Config;
 import org.linqs.psl.database.Database;
 import org.linqs.psl.model.Model;
 import org.linqs.psl.model.atom.QueryAtom;
@@ -171,4 +174,64 @@ public class MPEInferenceTest {
 		mpe.close();
 		inferDB.close();
 	}
+
+	/**
+	 * Make sure that generating terms while grounding gives the same terms as grounding first.
+	 */
+	@Test
+	public void testStreamTerms() {
+		try {
+			Config.setProperty(MPEInference.STREAM_TERMS_KEY, "false");
+			runTautologyInference(false);
+
+			Config.setProperty(MPEInference.STREAM_TERMS_KEY, "true");
+			runTautologyInference(true);
+		} finally {
+			Config.init();
+		}
+	}
+
+	/**
+	 * The ground rules are kept when generating terms while grounding, and the result should not change.
+	 */
+	@Test
+	public void testStreamTermsObjective() {
+		try {
+			double expected = new InferenceTestRunner.Objective().run().doubleValue();
+
+			Config.setProperty(MPEInference.STREAM_TERMS_KEY, "true");
+			double actual = new InferenceTestRunner.Objective().run().doubleValue();
+
+			assertEquals(expected, actual, 1e-4 * Math.max(1.0, Math.abs(expected)));
+		} finally {
+			Config.init();
+		}
+	}
+
+	private void runTautologyInference(boolean streaming) {
+		TestModelFactory.ModelInformation info = TestModelFactory.getModel();
+
+		// Friends(A, B) -> Friends(A, B)
+		info.model.addRule(new WeightedLogicalRule(
+			new Implication(
+				new QueryAtom(info.predicates.get("Friends"), new Variable("A"), new Variable("B")),
+				new QueryAtom(info.predicates.get("Friends"), new Variable("A"), new Variable("B"))
+			),
+			1.0,
+			true
+		));
+
+		Set<StandardPredicate> toClose = new HashSet<StandardPredicate>();
+		Database inferDB = info.dataStore.getDatabase(info.targetPartition, toClose, info.observationPartition);
+		MPEInference mpe = new MPEInference(info.model, inferDB);
+
+		// Same counts as testLogicalTautologyTrivial().
+		assertEquals(streaming, mpe.getGroundRuleStore() instanceof TermGeneratingGroundRuleStore);
+		assertEquals(72, mpe.getGroundRuleStore().size());
+		assertEquals(52, mpe.getTermStore().size());
+
+		mpe.inference();
+		mpe.close();
+		inferDB.close();
+	}
 }
@@ -17,12 +17,40 @@
  */
 package org.linqs.psl.application.learning.weight.maxlikelihood;
 
+import static org.junit.Assert.fail;
+
 import org.linqs.psl.application.learning.weight.WeightLearningApplication;
 import org.linqs.psl.application.learning.weight.WeightLearningTest;
+import org.linqs.psl.config.Config;
+import org.linqs.psl.reasoner.sgd.SGDReasoner;
+import org.linqs.psl.reasoner.sgd.term.DiskSGDTermStore;
+import org.linqs.psl.reasoner.sgd.term.SGDTermGenerator;
+
+import org.junit.Test;
 
 public class MaxLikelihoodMPETest extends WeightLearningTest {
 	@Override
 	protected WeightLearningApplication getWLA() {
 		return new MaxLikelihoodMPE(info.model.getRules(), weightLearningTrainDB, weightLearningTruthDB);
 	}
+
+	/**
+	 * The disk term store cannot update weights, so learning should refuse it before doing any work.
+	 */
+	@Test
+	public void testDiskTermStore() {
+		Config.setProperty(WeightLearningApplication.REASONER_KEY, SGDReasoner.class.getName());
+		Config.setProperty(WeightLearningApplication.TERM_STORE_KEY, DiskSGDTermStore.class.getName());
+		Config.setProperty(WeightLearningApplication.TERM_GENERATOR_KEY, SGDTermGenerator.class.getName());
+
+		WeightLearningApplication weightLearner = getWLA();
+		try {
+			weightLearner.learn();
+			fail("IllegalArgumentException not thrown as expected.");
+		} catch (IllegalArgumentException ex) {
+			// Expected
+		} finally {
+			weightLearner.close();
+		}
+	}
 }
@@ -0,0 +1,100 @@
+/*
+ * This file is part of the PSL software.
+ * Copyright 2011-2015 University of Maryland
+ * Copyright 2013-2018 The Regents of the University of California
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.linqs.psl.application.util;
+
+import static org.junit.Assert.assertEquals;
+
+import org.linqs.psl.TestModelFactory;
+import org.linqs.psl.application.groundrulestore.GroundRuleStore;
+import org.linqs.psl.application.groundrulestore.MemoryGroundRuleStore;
+import org.linqs.psl.config.Config;
+import org.linqs.psl.database.Database;
+import org.linqs.psl.database.atom.PersistedAtomManager;
+import org.linqs.psl.database.rdbms.RDBMSDatabase;
+import org.linqs.psl.model.predicate.StandardPredicate;
+import org.linqs.psl.model.rule.GroundRule;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Set;
+
+public class GroundingTest {
+	@Before
+	public void setup() {
+		Config.init();
+	}
+
+	@After
+	public void cleanup() {
+		Config.init();
+	}
+
+	/**
+	 * Make sure that grounding with concurrent queries gets the same ground rules as grounding one rule at a time.
+	 */
+	@Test
+	public void testConcurrentQueries() {
+		Config.setProperty(Grounding.QUERY_THREADS_KEY, "1");
+		Set<String> expected = groundModel();
+
+		for (int queryThreads : new int[]{2, 4, 8, 1000}) {
+			Config.setProperty(Grounding.QUERY_THREADS_KEY, "" + queryThreads);
+			assertEquals("Query threads: " + queryThreads, expected, groundModel());
+		}
+	}
+
+	/**
+	 * Make sure that streaming the grounding results in many small chunks gets the same ground rules.
+	 */
+	@Test
+	public void testSmallStreamChunks() {
+		Set<String> expected = groundModel();
+
+		for (int chunkSize : new int[]{1, 3, 7}) {
+			Config.setProperty(RDBMSDatabase.STREAM_CHUNK_SIZE_KEY, "" + chunkSize);
+			Config.setProperty(RDBMSDatabase.FETCH_SIZE_KEY, "" + chunkSize);
+			assertEquals("Chunk size: " + chunkSize, expected, groundModel());
+		}
+	}
+
+	private Set<String> groundModel() {
+		TestModelFactory.ModelInformation info = TestModelFactory.getModel();
+
+		Database database = info.dataStore.getDatabase(info.targetPartition, new HashSet<StandardPredicate>(), info.observationPartition);
+		GroundRuleStore groundRuleStore = new MemoryGroundRuleStore();
+
+		int groundCount = Grounding.groundAll(info.model, new PersistedAtomManager(database), groundRuleStore);
+
+		Set<String> groundRules = new HashSet<String>();
+		for (GroundRule groundRule : groundRuleStore.getGroundRules()) {
+			groundRules.add(groundRule.toString());
+		}
+
+		assertEquals(groundCount, groundRuleStore.size());
+		assertEquals(groundCount, groundRules.size());
+
+		groundRuleStore.close();
+		database.close();
+		info.dataStore.close();
+
+		return groundRules;
+	}
+}
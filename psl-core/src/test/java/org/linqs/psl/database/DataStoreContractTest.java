@@ -18,9 +18,13 @@
 package org.linqs.psl.database;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
+import org.linqs.psl.config.Config;
 import org.linqs.psl.database.DataStore;
 import org.linqs.psl.database.Database;
 import org.linqs.psl.database.DatabaseQuery;
@@ -28,6 +32,7 @@ import org.linqs.psl.database.ReadableDatabase;
 import org.linqs.psl.database.ResultList;
 import org.linqs.psl.database.loading.Inserter;
 import org.linqs.psl.database.rdbms.PredicateInfo;
+import org.linqs.psl.database.rdbms.RDBMSDatabase;
 import org.linqs.psl.model.atom.GroundAtom;
 import org.linqs.psl.model.atom.ObservedAtom;
 import org.linqs.psl.model.atom.QueryAtom;
@@ -51,6 +56,7 @@ import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashSet;
 import java.util.LinkedList;
@@ -235,6 +241,144 @@ public abstract class DataStoreContractTest {
 		db.close();
 	}
 
+	@Test
+	public void testGetAtoms() {
+		if (datastore == null) {
+			return;
+		}
+
+		datastore.registerPredicate(p1);
+		Inserter inserter = datastore.getInserter(p1, datastore.getPartition("0"));
+
+		UniqueIntID a = new UniqueIntID(0);
+		UniqueIntID b = new UniqueIntID(1);
+		UniqueIntID c = new UniqueIntID(2);
+		UniqueIntID d = new UniqueIntID(3);
+
+		inserter.insert(a, b);
+		inserter.insertValue(0.5, b, c);
+		inserter.insertValue(0.25, c, d);
+
+		// Use a small batch size so that there are several (padded) batches.
+		Config.setProperty(RDBMSDatabase.ATOM_BATCH_SIZE_KEY, "2");
+
+		try {
+			Database db = datastore.getDatabase(datastore.getPartition("0"));
+			dbs.add(db);
+
+			// Cache one of the atoms up-front.
+			GroundAtom cachedAtom = db.getAtom(p1, c, d);
+
+			List<Constant[]> arguments = new ArrayList<Constant[]>();
+			arguments.add(new Constant[]{a, b});
+			arguments.add(new Constant[]{b, c});
+			arguments.add(new Constant[]{d, a});
+			arguments.add(new Constant[]{a, b});
+			arguments.add(new Constant[]{c, d});
+
+			double[] expectedValues = new double[]{1.0, 0.5, 0.0, 1.0, 0.25};
+
+			List<GroundAtom> atoms = db.getAtoms(p1, arguments);
+			assertEquals(arguments.size(), atoms.size());
+
+			for (int i = 0; i < atoms.size(); i++) {
+				assertEquals(expectedValues[i], atoms.get(i).getValue(), 0.0);
+				assertTrue(atoms.get(i) instanceof RandomVariableAtom);
+				assertSame(db.getAtom(p1, arguments.get(i)), atoms.get(i));
+			}
+
+			assertSame(atoms.get(0), atoms.get(3));
+			assertSame(cachedAtom, atoms.get(4));
+
+			// Without creation, atoms that are not in the database are left out.
+			arguments.clear();
+			arguments.add(new Constant[]{b, a});
+			arguments.add(new Constant[]{a, b});
+
+			List<GroundAtom> existingAtoms = db.getAtoms(p1, false, arguments);
+			assertEquals(arguments.size(), existingAtoms.size());
+			assertNull(existingAtoms.get(0));
+			assertSame(atoms.get(0), existingAtoms.get(1));
+			assertFalse(db.hasAtom(p1, b, a));
+		} finally {
+			Config.init();
+		}
+	}
+
+	@Test
+	public void testGetAtomsSingleArgument() {
+		if (datastore == null) {
+			return;
+		}
+
+		StandardPredicate predicate = StandardPredicate.get("SingleArgument", ConstantType.UniqueIntID);
+		datastore.registerPredicate(predicate);
+
+		UniqueIntID a = new UniqueIntID(0);
+		UniqueIntID b = new UniqueIntID(1);
+		UniqueIntID c = new UniqueIntID(2);
+
+		Inserter inserter = datastore.getInserter(predicate, datastore.getPartition("0"));
+		inserter.insertValue(0.5, a);
+		inserter.insertValue(0.25, c);
+
+		Config.setProperty(RDBMSDatabase.ATOM_BATCH_SIZE_KEY, "2");
+
+		try {
+			Database db = datastore.getDatabase(datastore.getPartition("0"));
+			dbs.add(db);
+
+			List<Constant[]> arguments = new ArrayList<Constant[]>();
+			arguments.add(new Constant[]{a});
+			arguments.add(new Constant[]{b});
+			arguments.add(new Constant[]{c});
+
+			double[] expectedValues = new double[]{0.5, 0.0, 0.25};
+
+			List<GroundAtom> atoms = db.getAtoms(predicate, arguments);
+			assertEquals(arguments.size(), atoms.size());
+
+			for (int i = 0; i < atoms.size(); i++) {
+				assertEquals(expectedValues[i], atoms.get(i).getValue(), 0.0);
+			}
+		} finally {
+			Config.init();
+		}
+	}
+
+	@Test
+	public void testGetAtomsInTwoReadPartitions() {
+		if (datastore == null) {
+			return;
+		}
+
+		datastore.registerPredicate(p1);
+
+		UniqueIntID a = new UniqueIntID(0);
+		UniqueIntID b = new UniqueIntID(1);
+
+		Inserter inserter = datastore.getInserter(p1, datastore.getPartition("0"));
+		inserter.insert(a, b);
+		inserter.insert(b, a);
+
+		inserter = datastore.getInserter(p1, datastore.getPartition("1"));
+		inserter.insert(a, b);
+
+		Database db = datastore.getDatabase(datastore.getPartition("2"), datastore.getPartition("0"), datastore.getPartition("1"));
+		dbs.add(db);
+
+		List<Constant[]> arguments = new ArrayList<Constant[]>();
+		arguments.add(new Constant[]{b, a});
+		arguments.add(new Constant[]{a, b});
+
+		try {
+			db.getAtoms(p1, arguments);
+			fail("IllegalStateException not thrown as expected.");
+		} catch (IllegalStateException ex) {
+			// Expected
+		}
+	}
+
 	@Test
 	public void testCommit() {
 		if (datastore == null) {
@@ -0,0 +1,159 @@
+/*
+ * This file is part of the PSL software.
+ * Copyright 2011-2015 University of Maryland
+ * Copyright 2013-2018 The Regents of the University of California
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.linqs.psl.model.atom;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.linqs.psl.model.predicate.StandardPredicate;
+import org.linqs.psl.model.term.Constant;
+import org.linqs.psl.model.term.ConstantType;
+import org.linqs.psl.model.term.UniqueIntID;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+public class AtomCacheTest {
+	private static final int NUM_ATOMS = 500;
+	private static final int NUM_ROUNDS = 20;
+	private static final int NUM_THREADS = 8;
+
+	@Test
+	public void testBase() {
+		StandardPredicate predicate = StandardPredicate.get("AtomCacheTest_Base", new ConstantType[]{ConstantType.UniqueIntID});
+		AtomCache cache = new AtomCache(null);
+
+		assertNull(cache.getCachedAtom(predicate, new UniqueIntID(1)));
+
+		RandomVariableAtom atom = cache.instantiateRandomVariableAtom(predicate, new Constant[]{new UniqueIntID(1)}, 0.5);
+		assertSame(atom, cache.getCachedAtom(predicate, new UniqueIntID(1)));
+		assertSame(atom, cache.getCachedAtom(new QueryAtom(predicate, new UniqueIntID(1))));
+		assertSame(atom, cache.instantiateRandomVariableAtom(predicate, new Constant[]{new UniqueIntID(1)}, 0.1));
+
+		// Checking does not count as a hit or miss.
+		assertTrue(cache.isCached(predicate, new UniqueIntID(1)));
+		assertFalse(cache.isCached(predicate, new UniqueIntID(2)));
+
+		try {
+			cache.instantiateObservedAtom(predicate, new Constant[]{new UniqueIntID(1)}, 0.5);
+			fail("Instantiated an observed atom over an existing random variable atom.");
+		} catch (IllegalArgumentException ex) {
+			// Expected.
+		}
+
+		assertEquals(1, cache.size());
+		assertEquals(1, cache.getCreations());
+		assertEquals(2, cache.getHits());
+		assertEquals(1, cache.getMisses());
+
+		assertEquals(0, atom.getId());
+		assertEquals(1, cache.getMaxId());
+
+		assertTrue(cache.removeCachedAtom(new QueryAtom(predicate, new UniqueIntID(1))));
+		assertNull(cache.getCachedAtom(predicate, new UniqueIntID(1)));
+		assertEquals(0, cache.size());
+
+		// Ids are not reused.
+		ObservedAtom other = cache.instantiateObservedAtom(predicate, new Constant[]{new UniqueIntID(1)}, 0.5);
+		assertEquals(1, other.getId());
+		assertEquals(2, cache.getMaxId());
+	}
+
+	/**
+	 * Have many threads get-or-create the same atoms and make sure each atom is only created once.
+	 */
+	@Test
+	public void testConcurrentInstantiation() {
+		final StandardPredicate predicate = StandardPredicate.get("AtomCacheTest_Concurrent", new ConstantType[]{ConstantType.UniqueIntID});
+		final AtomCache cache = new AtomCache(null);
+		final GroundAtom[] seen = new GroundAtom[NUM_ATOMS];
+
+		final List<Throwable> errors = Collections.synchronizedList(new ArrayList<Throwable>());
+
+		Thread[] threads = new Thread[NUM_THREADS];
+		for (int thread = 0; thread < NUM_THREADS; thread++) {
+			threads[thread] = new Thread() {
+				@Override
+				public void run() {
+					try {
+						for (int i = 0; i < NUM_ATOMS * NUM_ROUNDS; i++) {
+							getOrCreate(cache, predicate, seen, i % NUM_ATOMS);
+						}
+					} catch (Throwable ex) {
+						errors.add(ex);
+					}
+				}
+			};
+		}
+
+		for (Thread thread : threads) {
+			thread.start();
+		}
+
+		for (Thread thread : threads) {
+			try {
+				thread.join();
+			} catch (InterruptedException ex) {
+				fail("Interrupted.");
+			}
+		}
+
+		assertEquals(new ArrayList<Throwable>(), errors);
+
+		assertEquals(NUM_ATOMS, cache.size());
+		assertEquals(NUM_ATOMS, cache.getCreations());
+		assertEquals(NUM_THREADS * NUM_ATOMS * NUM_ROUNDS, cache.getHits() + cache.getMisses());
+
+		// Every atom should have gotten its own id, with no gaps.
+		assertEquals(NUM_ATOMS, cache.getMaxId());
+		boolean[] usedIds = new boolean[NUM_ATOMS];
+
+		for (int i = 0; i < NUM_ATOMS; i++) {
+			assertSame(seen[i], cache.getCachedAtom(predicate, new UniqueIntID(i)));
+
+			int id = seen[i].getId();
+			assertTrue(id >= 0 && id < NUM_ATOMS);
+			assertFalse(usedIds[id]);
+			usedIds[id] = true;
+		}
+	}
+
+	private void getOrCreate(AtomCache cache, StandardPredicate predicate, GroundAtom[] seen, int id) {
+		Constant[] args = new Constant[]{new UniqueIntID(id)};
+
+		GroundAtom atom = cache.getCachedAtom(predicate, args);
+		if (atom == null) {
+			atom = cache.instantiateRandomVariableAtom(predicate, args, 0.0);
+		}
+
+		synchronized (seen) {
+			if (seen[id] == null) {
+				seen[id] = atom;
+			} else if (seen[id] != atom) {
+				throw new IllegalStateException("Got two different atoms for: " + atom);
+			}
+		}
+	}
+}
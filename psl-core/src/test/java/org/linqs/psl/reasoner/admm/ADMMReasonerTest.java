@@ -0,0 +1,440 @@
+/*
+ * This file is part of the PSL software.
+ * Copyright 2011-2015 University of Maryland
+ * Copyright 2013-2018 The Regents of the University of California
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.linqs.psl.reasoner.admm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.linqs.psl.InferenceTestRunner;
+import org.linqs.psl.TestModelFactory;
+import org.linqs.psl.application.inference.InferenceApplication;
+import org.linqs.psl.application.inference.MPEInference;
+import org.linqs.psl.config.Config;
+import org.linqs.psl.database.Database;
+import org.linqs.psl.reasoner.admm.term.ADMMTermStore;
+import org.linqs.psl.reasoner.admm.term.PackedADMMTermStore;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class ADMMReasonerTest {
+	// The step size that the last call to runInference() finished with.
+	private float finalStepSize;
+
+	// The convergence history of the last call to runInference().
+	private List<ADMMConvergenceMonitor.IterationRecord> history;
+
+	// The number of acceleration restarts in the last call to runInference().
+	private int numRestarts;
+
+	// If set, runInference() will also check the decomposition of the term store.
+	private boolean checkComponents;
+
+	// The number of terms that were folded in the last inference.
+	private int numFoldedTerms;
+
+	@Before
+	public void setup() {
+		Config.init();
+	}
+
+	@After
+	public void cleanup() {
+		Config.init();
+	}
+
+	/**
+	 * Start with a poor step size and make sure that adapting it still gets to the same objective.
+	 */
+	@Test
+	public void testAdaptiveStepSize() {
+		double expected = runInference();
+
+		Config.setProperty(ADMMReasoner.STEP_SIZE_KEY, "0.01");
+		Config.setProperty(ADMMReasoner.ADAPTIVE_STEP_SIZE_KEY, "true");
+		Config.setProperty(ADMMReasoner.ADAPTIVE_PERIOD_KEY, "5");
+
+		double actual = runInference();
+		assertTrue(finalStepSize > 0.01f);
+		assertEquals(expected, actual, 0.01 * Math.max(1.0, Math.abs(expected)));
+
+		// A step size that is too large should be brought down.
+		Config.setProperty(ADMMReasoner.STEP_SIZE_KEY, "100.0");
+
+		actual = runInference();
+		assertTrue(finalStepSize < 100.0f);
+		assertEquals(expected, actual, 0.01 * Math.max(1.0, Math.abs(expected)));
+	}
+
+	/**
+	 * Without adaptation, the step size should never move.
+	 */
+	@Test
+	public void testFixedStepSize() {
+		Config.setProperty(ADMMReasoner.STEP_SIZE_KEY, "0.01");
+
+		runInference();
+		assertEquals(0.01f, finalStepSize, 0.0f);
+	}
+
+	@Test
+	public void testRelaxation() {
+		double expected = runInference();
+
+		Config.setProperty(ADMMReasoner.RELAXATION_KEY, "1.6");
+		assertEquals(expected, runInference(), 0.01 * Math.max(1.0, Math.abs(expected)));
+	}
+
+	@Test
+	public void testAcceleration() {
+		double expected = runInference();
+
+		Config.setProperty(ADMMReasoner.ACCELERATION_KEY, "true");
+		assertEquals(expected, runInference(), 0.01 * Math.max(1.0, Math.abs(expected)));
+
+		// Also with the packed store (which keeps the lagrange multipliers in arrays).
+		Config.setProperty(InferenceApplication.TERM_STORE_KEY, PackedADMMTermStore.class.getName());
+		assertEquals(expected, runInference(), 0.01 * Math.max(1.0, Math.abs(expected)));
+
+		Config.setProperty(ADMMReasoner.RELAXATION_KEY, "1.6");
+		assertEquals(expected, runInference(), 0.01 * Math.max(1.0, Math.abs(expected)));
+	}
+
+	/**
+	 * Over-relaxation and acceleration should both get to the same tolerance in fewer iterations.
+	 */
+	@Test
+	public void testFewerIterations() {
+		// Only stop on the residuals, and always start from the same place.
+		Config.setProperty(ADMMReasoner.OBJECTIVE_BREAK_KEY, "false");
+		Config.setProperty(ADMMReasoner.INITIAL_CONSENSUS_VALUE_KEY, ADMMReasoner.InitialValue.ZERO.toString());
+		Config.setProperty(ADMMReasoner.INITIAL_LOCAL_VALUE_KEY, ADMMReasoner.InitialValue.ZERO.toString());
+
+		double expected = runInference();
+		int baseIterations = history.get(history.size() - 1).iteration;
+		assertTrue(baseIterations < ADMMReasoner.MAX_ITER_DEFAULT);
+
+		Config.setProperty(ADMMReasoner.RELAXATION_KEY, "1.6");
+		assertEquals(expected, runInference(), 0.01 * Math.max(1.0, Math.abs(expected)));
+		assertTrue(history.get(history.size() - 1).iteration < baseIterations);
+
+		Config.setProperty(ADMMReasoner.RELAXATION_KEY, "1.0");
+		Config.setProperty(ADMMReasoner.ACCELERATION_KEY, "true");
+		assertEquals(expected, runInference(), 0.01 * Math.max(1.0, Math.abs(expected)));
+		assertTrue(history.get(history.size() - 1).iteration < baseIterations);
+	}
+
+	/**
+	 * The momentum should be dropped whenever the combined residual does not shrink enough.
+	 */
+	@Test
+	public void testAccelerationRestarts() {
+		Config.setProperty(ADMMReasoner.INITIAL_CONSENSUS_VALUE_KEY, ADMMReasoner.InitialValue.ZERO.toString());
+		Config.setProperty(ADMMReasoner.INITIAL_LOCAL_VALUE_KEY, ADMMReasoner.InitialValue.ZERO.toString());
+
+		runInference();
+		assertEquals(0, numRestarts);
+
+		Config.setProperty(ADMMReasoner.ACCELERATION_KEY, "true");
+		runInference();
+		assertTrue(numRestarts > 0);
+		int restarts = numRestarts;
+
+		// Demanding more progress each iteration can only cause more restarts.
+		Config.setProperty(ADMMReasoner.ACCELERATION_RESTART_KEY, "0.5");
+		runInference();
+		assertTrue(numRestarts > restarts);
+	}
+
+	@Test
+	public void testConvergenceHistory() throws IOException {
+		File historyFile = File.createTempFile("admm-history", ".csv");
+		historyFile.deleteOnExit();
+
+		Config.setProperty(ADMMConvergenceMonitor.PERIOD_KEY, "5");
+		Config.setProperty(ADMMConvergenceMonitor.HISTORY_PATH_KEY, historyFile.getAbsolutePath());
+
+		double objective = runInference();
+		assertFalse(history.isEmpty());
+
+		int lastIteration = 0;
+		for (ADMMConvergenceMonitor.IterationRecord record : history) {
+			assertTrue(record.iteration > lastIteration);
+			assertTrue(record.objective >= 0.0);
+			lastIteration = record.iteration;
+		}
+
+		// The monitor's objective is over the local variables, so it is only close to the final objective.
+		ADMMConvergenceMonitor.IterationRecord last = history.get(history.size() - 1);
+		assertEquals(objective, last.objective, 0.05 * Math.max(1.0, Math.abs(objective)));
+
+		List<String> lines = Files.readAllLines(historyFile.toPath(), StandardCharsets.UTF_8);
+		assertEquals(history.size() + 1, lines.size());
+		assertEquals(ADMMConvergenceMonitor.IterationRecord.HEADER, lines.get(0));
+		assertEquals(last.toString(), lines.get(lines.size() - 1));
+	}
+
+	/**
+	 * Without the objective break, optimization should stop on the first iteration that is within both tolerances.
+	 */
+	@Test
+	public void testConvergenceHistoryTolerance() {
+		Config.setProperty(ADMMConvergenceMonitor.PERIOD_KEY, "1");
+		Config.setProperty(ADMMReasoner.OBJECTIVE_BREAK_KEY, "false");
+
+		runInference();
+		ADMMConvergenceMonitor.IterationRecord last = history.get(history.size() - 1);
+		assertTrue(last.iteration < ADMMReasoner.MAX_ITER_DEFAULT);
+		assertEquals(last.iteration, history.size());
+
+		assertTrue(last.primalRes <= last.epsilonPrimal);
+		assertTrue(last.dualRes <= last.epsilonDual);
+
+		for (ADMMConvergenceMonitor.IterationRecord record : history.subList(0, history.size() - 1)) {
+			assertFalse(record.primalRes <= record.epsilonPrimal && record.dualRes <= record.epsilonDual);
+		}
+	}
+
+	/**
+	 * The last iteration should always make it into the history, even if it is not on a period.
+	 */
+	@Test
+	public void testConvergenceHistoryLastIteration() {
+		Config.setProperty(ADMMConvergenceMonitor.PERIOD_KEY, "5");
+		Config.setProperty(ADMMReasoner.MAX_ITER_KEY, "13");
+		Config.setProperty(ADMMReasoner.OBJECTIVE_BREAK_KEY, "false");
+		Config.setProperty(ADMMReasoner.EPSILON_ABS_KEY, "1e-30");
+		Config.setProperty(ADMMReasoner.EPSILON_REL_KEY, "1e-30");
+
+		runInference();
+		assertEquals(13, history.get(history.size() - 1).iteration);
+
+		Config.setProperty(ADMMReasoner.ASYNCHRONOUS_KEY, "true");
+		runInference();
+		assertEquals(13, history.get(history.size() - 1).iteration);
+	}
+
+	/**
+	 * Not breaking on the objective used to stop optimization before it started.
+	 */
+	@Test
+	public void testNoObjectiveBreak() {
+		double expected = runInference();
+
+		Config.setProperty(ADMMReasoner.OBJECTIVE_BREAK_KEY, "false");
+		assertEquals(expected, runInference(), 0.01 * Math.max(1.0, Math.abs(expected)));
+		assertFalse(history.isEmpty());
+	}
+
+	@Test
+	public void testDecomposition() {
+		double expected = runInference();
+
+		checkComponents = true;
+		Config.setProperty(ADMMReasoner.DECOMPOSE_KEY, "true");
+		assertEquals(expected, runInference(), 0.01 * Math.max(1.0, Math.abs(expected)));
+
+		// Every component in its own task.
+		Config.setProperty(ADMMReasoner.COMPONENT_BATCH_SIZE_KEY, "1");
+		assertEquals(expected, runInference(), 0.01 * Math.max(1.0, Math.abs(expected)));
+
+		// Every component optimized with all threads.
+		Config.setProperty(ADMMReasoner.PARALLEL_COMPONENT_SIZE_KEY, "1");
+		assertEquals(expected, runInference(), 0.01 * Math.max(1.0, Math.abs(expected)));
+
+		Config.setProperty(InferenceApplication.TERM_STORE_KEY, PackedADMMTermStore.class.getName());
+		assertEquals(expected, runInference(), 0.01 * Math.max(1.0, Math.abs(expected)));
+	}
+
+	@Test
+	public void testReorder() {
+		double expected = runInference();
+
+		Config.setProperty(ADMMReasoner.REORDER_KEY, "true");
+		assertEquals(expected, runInference(), 0.01 * Math.max(1.0, Math.abs(expected)));
+
+		Config.setProperty(InferenceApplication.TERM_STORE_KEY, PackedADMMTermStore.class.getName());
+		assertEquals(expected, runInference(), 0.01 * Math.max(1.0, Math.abs(expected)));
+
+		// The components should still be intact after reordering.
+		checkComponents = true;
+		Config.setProperty(ADMMReasoner.DECOMPOSE_KEY, "true");
+		assertEquals(expected, runInference(), 0.01 * Math.max(1.0, Math.abs(expected)));
+	}
+
+	@Test
+	public void testFoldUnaryTerms() {
+		double expected = runInference();
+		assertEquals(0, numFoldedTerms);
+
+		Config.setProperty(ADMMReasoner.FOLD_UNARY_TERMS_KEY, "true");
+		assertEquals(expected, runInference(), 0.01 * Math.max(1.0, Math.abs(expected)));
+		assertTrue(numFoldedTerms > 0);
+
+		Config.setProperty(InferenceApplication.TERM_STORE_KEY, PackedADMMTermStore.class.getName());
+		assertEquals(expected, runInference(), 0.01 * Math.max(1.0, Math.abs(expected)));
+		assertTrue(numFoldedTerms > 0);
+
+		checkComponents = true;
+		Config.setProperty(ADMMReasoner.DECOMPOSE_KEY, "true");
+		assertEquals(expected, runInference(), 0.01 * Math.max(1.0, Math.abs(expected)));
+
+		Config.setProperty(ADMMReasoner.REORDER_KEY, "true");
+		assertEquals(expected, runInference(), 0.01 * Math.max(1.0, Math.abs(expected)));
+	}
+
+	/**
+	 * Without barriers the result is not deterministic, but it should still get to the same objective.
+	 */
+	@Test
+	public void testAsynchronous() {
+		double expected = runInference();
+
+		Config.setProperty(ADMMReasoner.ASYNCHRONOUS_KEY, "true");
+		assertEquals(expected, runInference(), 0.01 * Math.max(1.0, Math.abs(expected)));
+		assertFalse(history.isEmpty());
+
+		Config.setProperty(InferenceApplication.TERM_STORE_KEY, PackedADMMTermStore.class.getName());
+		assertEquals(expected, runInference(), 0.01 * Math.max(1.0, Math.abs(expected)));
+
+		Config.setProperty(ADMMReasoner.FOLD_UNARY_TERMS_KEY, "true");
+		assertEquals(expected, runInference(), 0.01 * Math.max(1.0, Math.abs(expected)));
+	}
+
+	@Test
+	public void testBadOptions() {
+		Config.setProperty(ADMMReasoner.ACCELERATION_KEY, "true");
+		Config.setProperty(ADMMReasoner.ADAPTIVE_STEP_SIZE_KEY, "true");
+
+		try {
+			new ADMMReasoner();
+			fail("Acceleration and adaptive step size were allowed together.");
+		} catch (IllegalArgumentException ex) {
+			// Expected.
+		}
+
+		Config.init();
+		Config.setProperty(ADMMReasoner.RELAXATION_KEY, "2.0");
+
+		try {
+			new ADMMReasoner();
+			fail("Relaxation of 2 was allowed.");
+		} catch (IllegalArgumentException ex) {
+			// Expected.
+		}
+
+		Config.init();
+		Config.setProperty(ADMMReasoner.DECOMPOSE_KEY, "true");
+		Config.setProperty(ADMMReasoner.ACCELERATION_KEY, "true");
+
+		try {
+			new ADMMReasoner();
+			fail("Decomposition and acceleration were allowed together.");
+		} catch (IllegalArgumentException ex) {
+			// Expected.
+		}
+
+		Config.init();
+		Config.setProperty(ADMMReasoner.ASYNCHRONOUS_KEY, "true");
+		Config.setProperty(ADMMReasoner.DECOMPOSE_KEY, "true");
+
+		try {
+			new ADMMReasoner();
+			fail("Asynchronous mode and decomposition were allowed together.");
+		} catch (IllegalArgumentException ex) {
+			// Expected.
+		}
+	}
+
+	/**
+	 * Run inference on the test model and return the objective (the total weighted incompatibility).
+	 */
+	private double runInference() {
+		return new InferenceTestRunner.Objective() {
+			@Override
+			protected Double getResult(TestModelFactory.ModelInformation info, Database inferDB, MPEInference mpe) {
+				if (checkComponents) {
+					checkComponents((ADMMTermStore)mpe.getTermStore());
+				}
+
+				numFoldedTerms = ((ADMMTermStore)mpe.getTermStore()).getNumFoldedTerms();
+				finalStepSize = ((ADMMReasoner)mpe.getReasoner()).getStepSize();
+				numRestarts = ((ADMMReasoner)mpe.getReasoner()).getNumRestarts();
+				history = new ArrayList<ADMMConvergenceMonitor.IterationRecord>(
+						((ADMMReasoner)mpe.getReasoner()).getConvergenceMonitor().getHistory());
+
+				return super.getResult(info, inferDB, mpe);
+			}
+		}.run().doubleValue();
+	}
+
+	/**
+	 * Make sure that every (non-folded) term and variable is in exactly one component and that no term crosses components.
+	 */
+	private void checkComponents(ADMMTermStore termStore) {
+		ComponentDecomposition components = ComponentDecomposition.decompose(termStore);
+		assertTrue(components.getNumComponents() > 0);
+
+		int[] variableComponents = new int[termStore.getNumGlobalVariables()];
+		Arrays.fill(variableComponents, -1);
+
+		for (int component = 0; component < components.getNumComponents(); component++) {
+			if (component > 0) {
+				assertTrue(components.getNumTerms(component - 1) >= components.getNumTerms(component));
+			}
+
+			for (int i = components.getVariableOffsets()[component]; i < components.getVariableOffsets()[component + 1]; i++) {
+				int variableIndex = components.getVariableIndices()[i];
+				assertEquals(-1, variableComponents[variableIndex]);
+				variableComponents[variableIndex] = component;
+			}
+		}
+
+		boolean[] seenTerms = new boolean[termStore.size()];
+		for (int component = 0; component < components.getNumComponents(); component++) {
+			for (int i = components.getTermOffsets()[component]; i < components.getTermOffsets()[component + 1]; i++) {
+				int termIndex = components.getTermIndices()[i];
+				assertFalse(seenTerms[termIndex]);
+				seenTerms[termIndex] = true;
+
+				for (int j = 0; j < termStore.getTermSize(termIndex); j++) {
+					assertEquals(component, variableComponents[termStore.getGlobalId(termIndex, j)]);
+				}
+			}
+		}
+
+		for (int i = 0; i < seenTerms.length; i++) {
+			assertTrue(seenTerms[i] != termStore.isFolded(i));
+		}
+
+		for (int i = 0; i < variableComponents.length; i++) {
+			assertTrue(variableComponents[i] != -1);
+		}
+	}
+}
@@ -0,0 +1,329 @@
+/*
+ * This file is part of the PSL software.
+ * Copyright 2011-2015 University of Maryland
+ * Copyright 2013-2018 The Regents of the University of California
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.linqs.psl.reasoner.admm.term;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.linqs.psl.InferenceTestRunner;
+import org.linqs.psl.TestModelFactory;
+import org.linqs.psl.application.groundrulestore.GroundRuleStore;
+import org.linqs.psl.application.inference.MPEInference;
+import org.linqs.psl.config.Config;
+import org.linqs.psl.database.Database;
+import org.linqs.psl.model.atom.QueryAtom;
+import org.linqs.psl.model.atom.RandomVariableAtom;
+import org.linqs.psl.model.formula.Negation;
+import org.linqs.psl.model.predicate.StandardPredicate;
+import org.linqs.psl.model.rule.GroundRule;
+import org.linqs.psl.model.rule.WeightedGroundRule;
+import org.linqs.psl.model.rule.WeightedRule;
+import org.linqs.psl.model.rule.logical.WeightedLogicalRule;
+import org.linqs.psl.model.term.Variable;
+import org.linqs.psl.reasoner.admm.ADMMReasoner;
+import org.linqs.psl.reasoner.term.WeightedTerm;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+public class ADMMTermGeneratorTest {
+	@Before
+	public void setup() {
+		Config.init();
+
+		// Avoid randomness so that separate runs are comparable.
+		Config.setProperty(ADMMReasoner.INITIAL_CONSENSUS_VALUE_KEY, ADMMReasoner.InitialValue.ZERO.toString());
+		Config.setProperty(ADMMReasoner.INITIAL_LOCAL_VALUE_KEY, ADMMReasoner.InitialValue.ZERO.toString());
+		Config.setProperty(ADMMTermGenerator.INVERT_NEGATIVE_WEIGHTS_KEY, "true");
+	}
+
+	@After
+	public void cleanup() {
+		Config.init();
+	}
+
+	/**
+	 * Flip the sign of a rule after the terms have already been generated and make sure that
+	 * updating the weights in place gives the same result as generating the terms from scratch.
+	 */
+	@Test
+	public void testUpdateWeightsSignFlip() {
+		Map<String, Double> expected = runInference(-5.0, false);
+		Map<String, Double> actual = runInference(-5.0, true);
+
+		assertEquals(expected.size(), actual.size());
+		for (Map.Entry<String, Double> entry : expected.entrySet()) {
+			assertEquals(entry.getKey(), entry.getValue().doubleValue(), actual.get(entry.getKey()).doubleValue(), 1e-2);
+		}
+	}
+
+	/**
+	 * Flip a rule negative and back again and make sure the right form of the rule carries the weight.
+	 */
+	@Test
+	public void testUpdateWeightsTermWeights() {
+		TestModelFactory.ModelInformation info = TestModelFactory.getModel();
+		WeightedRule rule = (WeightedRule)info.model.getRules().get(0);
+
+		Database inferDB = info.dataStore.getDatabase(info.targetPartition, new HashSet<StandardPredicate>(), info.observationPartition);
+		MPEInference mpe = new MPEInference(info.model, inferDB);
+
+		GroundRuleStore groundRuleStore = mpe.getGroundRuleStore();
+		ADMMTermStore termStore = (ADMMTermStore)mpe.getTermStore();
+		ADMMTermGenerator termGenerator = new ADMMTermGenerator();
+
+		for (GroundRule groundRule : groundRuleStore.getGroundRules(rule)) {
+			assertNull(termStore.getNegatedTermIndices((WeightedGroundRule)groundRule));
+		}
+
+		rule.setWeight(-5.0);
+		termGenerator.updateWeights(groundRuleStore, termStore);
+
+		boolean sawNegatedTerms = false;
+		for (GroundRule groundRule : groundRuleStore.getGroundRules(rule)) {
+			List<Integer> negatedIndexes = termStore.getNegatedTermIndices((WeightedGroundRule)groundRule);
+			assertNotNull(negatedIndexes);
+			sawNegatedTerms |= (negatedIndexes.size() > 0);
+
+			assertTermWeights(termStore, termStore.getTermIndices((WeightedGroundRule)groundRule), 0.0f);
+			assertTermWeights(termStore, negatedIndexes, 5.0f);
+		}
+		assertTrue(sawNegatedTerms);
+
+		int numTerms = termStore.size();
+
+		rule.setWeight(2.0);
+		termGenerator.updateWeights(groundRuleStore, termStore);
+
+		// No new terms should be needed.
+		assertEquals(numTerms, termStore.size());
+
+		for (GroundRule groundRule : groundRuleStore.getGroundRules(rule)) {
+			assertTermWeights(termStore, termStore.getTermIndices((WeightedGroundRule)groundRule), 2.0f);
+			assertTermWeights(termStore, termStore.getNegatedTermIndices((WeightedGroundRule)groundRule), 0.0f);
+		}
+
+		mpe.close();
+		inferDB.close();
+		info.dataStore.close();
+	}
+
+	/**
+	 * Start with a negative rule (so only its negation gets terms) and flip it positive.
+	 * The rule's own terms need to be generated and carry the weight.
+	 */
+	@Test
+	public void testUpdateWeightsNegativeStart() {
+		Map<String, Double> expected = runInference(2.0, false);
+
+		TestModelFactory.ModelInformation info = TestModelFactory.getModel();
+		WeightedRule rule = (WeightedRule)info.model.getRules().get(0);
+		rule.setWeight(-5.0);
+
+		Database inferDB = info.dataStore.getDatabase(info.targetPartition, new HashSet<StandardPredicate>(), info.observationPartition);
+		MPEInference mpe = new MPEInference(info.model, inferDB);
+
+		GroundRuleStore groundRuleStore = mpe.getGroundRuleStore();
+		ADMMTermStore termStore = (ADMMTermStore)mpe.getTermStore();
+
+		for (GroundRule groundRule : groundRuleStore.getGroundRules(rule)) {
+			assertEquals(0, termStore.getTermIndices((WeightedGroundRule)groundRule).size());
+			assertNotNull(termStore.getNegatedTermIndices((WeightedGroundRule)groundRule));
+		}
+
+		rule.setWeight(2.0);
+		new ADMMTermGenerator().updateWeights(groundRuleStore, termStore);
+
+		boolean sawTerms = false;
+		for (GroundRule groundRule : groundRuleStore.getGroundRules(rule)) {
+			List<Integer> termIndexes = termStore.getTermIndices((WeightedGroundRule)groundRule);
+			sawTerms |= (termIndexes.size() > 0);
+
+			assertTermWeights(termStore, termIndexes, 2.0f);
+			assertTermWeights(termStore, termStore.getNegatedTermIndices((WeightedGroundRule)groundRule), 0.0f);
+		}
+		assertTrue(sawTerms);
+
+		mpe.inference();
+
+		Map<String, Double> actual = new HashMap<String, Double>();
+		for (RandomVariableAtom atom : inferDB.getAllGroundRandomVariableAtoms(info.predicates.get("Friends"))) {
+			actual.put(atom.toString(), atom.getValue());
+		}
+
+		mpe.close();
+		inferDB.close();
+		info.dataStore.close();
+
+		assertEquals(expected.size(), actual.size());
+		for (Map.Entry<String, Double> entry : expected.entrySet()) {
+			assertEquals(entry.getKey(), entry.getValue().doubleValue(), actual.get(entry.getKey()).doubleValue(), 1e-2);
+		}
+	}
+
+	/**
+	 * Terms are built in parallel and only merged into the store at the end,
+	 * make sure every local variable ended up tracked under the right global variable.
+	 */
+	@Test
+	public void testLocalVariableRegistration() {
+		TestModelFactory.ModelInformation info = TestModelFactory.getModel();
+
+		Database inferDB = info.dataStore.getDatabase(info.targetPartition, new HashSet<StandardPredicate>(), info.observationPartition);
+		MPEInference mpe = new MPEInference(info.model, inferDB);
+		ADMMTermStore termStore = (ADMMTermStore)mpe.getTermStore();
+
+		assertTrue(termStore.size() > 0);
+
+		int numLocalVariables = 0;
+		for (int globalId = 0; globalId < termStore.getNumGlobalVariables(); globalId++) {
+			for (LocalVariable variable : termStore.getLocalVariables(globalId)) {
+				assertEquals(globalId, variable.getGlobalId());
+				numLocalVariables++;
+			}
+		}
+		assertEquals(termStore.getNumLocalVariables(), numLocalVariables);
+
+		for (ADMMObjectiveTerm term : termStore) {
+			for (LocalVariable variable : term.variables) {
+				assertTrue(variable.getGlobalId() >= 0 && variable.getGlobalId() < termStore.getNumGlobalVariables());
+
+				boolean found = false;
+				for (LocalVariable other : termStore.getLocalVariables(variable.getGlobalId())) {
+					found |= (other == variable);
+				}
+				assertTrue(found);
+			}
+		}
+
+		mpe.close();
+		inferDB.close();
+		info.dataStore.close();
+	}
+
+	/**
+	 * Add a copy of the prior (with a different weight) and make sure that
+	 * merging the duplicate terms does not change the result.
+	 */
+	@Test
+	public void testMergeDuplicates() {
+		Map<String, Double> expected = runDuplicateInference(false);
+		Map<String, Double> actual = runDuplicateInference(true);
+
+		assertEquals(expected.size(), actual.size());
+		for (Map.Entry<String, Double> entry : expected.entrySet()) {
+			assertEquals(entry.getKey(), entry.getValue().doubleValue(), actual.get(entry.getKey()).doubleValue(), 1e-2);
+		}
+
+		// Reordering moves the merged terms after the store has stopped looking for duplicates.
+		Config.setProperty(ADMMReasoner.REORDER_KEY, "true");
+		actual = runDuplicateInference(true);
+
+		assertEquals(expected.size(), actual.size());
+		for (Map.Entry<String, Double> entry : expected.entrySet()) {
+			assertEquals(entry.getKey(), entry.getValue().doubleValue(), actual.get(entry.getKey()).doubleValue(), 1e-2);
+		}
+	}
+
+	private void assertTermWeights(ADMMTermStore termStore, List<Integer> termIndexes, float weight) {
+		for (Integer termIndex : termIndexes) {
+			assertEquals(weight, ((WeightedTerm)termStore.get(termIndex.intValue())).getWeight(), 1e-6);
+		}
+	}
+
+	/**
+	 * Run inference with the first rule of the test model set to |weight|.
+	 * If |updateInPlace| is true, then the terms are generated with the original weight
+	 * and updated in place before optimizing.
+	 */
+	private Map<String, Double> runInference(final double weight, final boolean updateInPlace) {
+		return new InferenceTestRunner.FriendsValues() {
+			@Override
+			protected void prepareModel(TestModelFactory.ModelInformation info) {
+				if (!updateInPlace) {
+					((WeightedRule)info.model.getRules().get(0)).setWeight(weight);
+				}
+			}
+
+			@Override
+			protected void beforeInference(TestModelFactory.ModelInformation info, MPEInference mpe) {
+				if (updateInPlace) {
+					((WeightedRule)info.model.getRules().get(0)).setWeight(weight);
+					new ADMMTermGenerator().updateWeights(mpe.getGroundRuleStore(), (ADMMTermStore)mpe.getTermStore());
+				}
+			}
+		}.run();
+	}
+
+	/**
+	 * Run inference with a copy of the test model's prior (~Friends(A, B), weight 1) that has a weight of 2,
+	 * and then has its weight updated in place to 5.
+	 * If duplicates are merged, then also check that each merged term carries the weight of both rules.
+	 */
+	private Map<String, Double> runDuplicateInference(final boolean merge) {
+		Config.setProperty(ADMMTermGenerator.MERGE_DUPLICATES_KEY, Boolean.toString(merge));
+
+		return new InferenceTestRunner.FriendsValues() {
+			private WeightedRule duplicate;
+
+			@Override
+			protected void prepareModel(TestModelFactory.ModelInformation info) {
+				duplicate = new WeightedLogicalRule(
+						new Negation(new QueryAtom(info.predicates.get("Friends"), new Variable("A"), new Variable("B"))),
+						2.0,
+						true);
+				info.model.addRule(duplicate);
+			}
+
+			@Override
+			protected void beforeInference(TestModelFactory.ModelInformation info, MPEInference mpe) {
+				ADMMTermStore termStore = (ADMMTermStore)mpe.getTermStore();
+
+				if (merge) {
+					assertTrue(termStore.getNumMergedTerms() > 0);
+					checkMergedWeights(mpe.getGroundRuleStore(), termStore, duplicate, 3.0f);
+				} else {
+					assertEquals(0, termStore.getNumMergedTerms());
+				}
+
+				duplicate.setWeight(5.0);
+				new ADMMTermGenerator().updateWeights(mpe.getGroundRuleStore(), termStore);
+
+				if (merge) {
+					checkMergedWeights(mpe.getGroundRuleStore(), termStore, duplicate, 6.0f);
+				}
+			}
+		}.run();
+	}
+
+	private void checkMergedWeights(GroundRuleStore groundRuleStore, ADMMTermStore termStore, WeightedRule rule, float weight) {
+		for (GroundRule groundRule : groundRuleStore.getGroundRules(rule)) {
+			List<Integer> termIndexes = termStore.getTermIndices((WeightedGroundRule)groundRule);
+			assertEquals(1, termIndexes.size());
+			assertTermWeights(termStore, termIndexes, weight);
+		}
+	}
+}
@@ -26,6 +26,7 @@ import org.junit.Test;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Random;
 
 public class HingeLossTermTest {
 	@Test
@@ -118,23 +119,106 @@ public class HingeLossTermTest {
 		testProblem(z, y, coeffs, constant, weight, stepSize, expected);
 	}
 
+	/**
+	 * Make sure the specialized (small) hinges match the general one on random problems.
+	 */
+	@Test
+	public void testSmallHinges() {
+		Random rand = new Random(4);
+
+		for (int size = 1; size <= 3; size++) {
+			for (int problem = 0; problem < 100; problem++) {
+				float[] z = new float[size];
+				float[] y = new float[size];
+				float[] coeffs = new float[size];
+
+				for (int i = 0; i < size; i++) {
+					z[i] = rand.nextFloat();
+					y[i] = rand.nextFloat() - 0.5f;
+					coeffs[i] = (rand.nextBoolean() ? 1.0f : -1.0f) * (0.1f + rand.nextFloat());
+				}
+
+				float constant = rand.nextFloat() - 0.5f;
+				float weight = 0.1f + 2.0f * rand.nextFloat();
+				float stepSize = 0.1f + 2.0f * rand.nextFloat();
+
+				HingeLossTerm expected = new HingeLossTerm(buildVariables(z, y), buildCoeffs(coeffs), constant, weight);
+				HingeLossTerm actual = buildSmallTerm(buildVariables(z, y), buildCoeffs(coeffs), constant, weight);
+
+				expected.minimize(stepSize, z);
+				actual.minimize(stepSize, z);
+				assertSameVariables(expected, actual);
+				assertEquals(expected.evaluate(), actual.evaluate(), 5e-5);
+
+				expected.relax(1.5f, z);
+				actual.relax(1.5f, z);
+				assertSameVariables(expected, actual);
+
+				expected.updateLagrange(stepSize, z);
+				actual.updateLagrange(stepSize, z);
+				assertSameVariables(expected, actual);
+			}
+		}
+	}
+
 	private void testProblem(float[] z, float[] y, float[] coeffs, float constant,
 			float weight, final float stepSize, float[] expected) {
-		List<LocalVariable> variables = new ArrayList<LocalVariable>(z.length);
-		List<Float> coeffsList = new ArrayList<Float>(z.length);
+		List<LocalVariable> variables = buildVariables(z, y);
+
+		HingeLossTerm term = new HingeLossTerm(variables, buildCoeffs(coeffs), constant, weight);
+		term.minimize(stepSize, z);
+
+		for (int i = 0; i < z.length; i++) {
+			assertEquals(expected[i], variables.get(i).getValue(), 5e-5);
+		}
+
+		// The specialized terms should get the same answer.
+		variables = buildVariables(z, y);
+
+		term = buildSmallTerm(variables, buildCoeffs(coeffs), constant, weight);
+		term.minimize(stepSize, z);
+
+		for (int i = 0; i < z.length; i++) {
+			assertEquals(expected[i], variables.get(i).getValue(), 5e-5);
+		}
+	}
 
+	private HingeLossTerm buildSmallTerm(List<LocalVariable> variables, List<Float> coeffs, float constant, float weight) {
+		switch (variables.size()) {
+			case 1:
+				return new UnaryHingeLossTerm(variables, coeffs, constant, weight);
+			case 2:
+				return new BinaryHingeLossTerm(variables, coeffs, constant, weight);
+			case 3:
+				return new TernaryHingeLossTerm(variables, coeffs, constant, weight);
+			default:
+				throw new IllegalArgumentException("No small hinge for size: " + variables.size());
+		}
+	}
+
+	private List<LocalVariable> buildVariables(float[] z, float[] y) {
+		List<LocalVariable> variables = new ArrayList<LocalVariable>(z.length);
 		for (int i = 0; i < z.length; i++) {
 			variables.add(new LocalVariable(i, z[i]));
 			variables.get(i).setLagrange(y[i]);
+		}
+
+		return variables;
+	}
 
+	private List<Float> buildCoeffs(float[] coeffs) {
+		List<Float> coeffsList = new ArrayList<Float>(coeffs.length);
+		for (int i = 0; i < coeffs.length; i++) {
 			coeffsList.add(new Float(coeffs[i]));
 		}
 
-		HingeLossTerm term = new HingeLossTerm(variables, coeffsList, constant, weight);
-		term.minimize(stepSize, z);
+		return coeffsList;
+	}
 
-		for (int i = 0; i < z.length; i++) {
-			assertEquals(expected[i], variables.get(i).getValue(), 5e-5);
+	private void assertSameVariables(HingeLossTerm expected, HingeLossTerm actual) {
+		for (int i = 0; i < expected.variables.size(); i++) {
+			assertEquals(expected.variables.get(i).getValue(), actual.variables.get(i).getValue(), 5e-5);
+			assertEquals(expected.variables.get(i).getLagrange(), actual.variables.get(i).getLagrange(), 5e-5);
 		}
 	}
 }
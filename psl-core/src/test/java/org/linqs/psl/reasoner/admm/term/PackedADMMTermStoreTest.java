@@ -0,0 +1,221 @@
+/*
+ * This file is part of the PSL software.
+ * Copyright 2011-2015 University of Maryland
+ * Copyright 2013-2018 The Regents of the University of California
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.linqs.psl.reasoner.admm.term;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.linqs.psl.InferenceTestRunner;
+import org.linqs.psl.TestModelFactory;
+import org.linqs.psl.application.inference.MPEInference;
+import org.linqs.psl.config.Config;
+import org.linqs.psl.database.Database;
+import org.linqs.psl.database.loading.Inserter;
+import org.linqs.psl.model.atom.QueryAtom;
+import org.linqs.psl.model.atom.RandomVariableAtom;
+import org.linqs.psl.model.formula.Implication;
+import org.linqs.psl.model.predicate.StandardPredicate;
+import org.linqs.psl.model.rule.logical.WeightedLogicalRule;
+import org.linqs.psl.model.term.ConstantType;
+import org.linqs.psl.model.term.Variable;
+import org.linqs.psl.reasoner.admm.ADMMReasoner;
+import org.linqs.psl.reasoner.function.FunctionComparator;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+public class PackedADMMTermStoreTest {
+	private static final float[][] Z = {
+		{0.2f, 0.5f},
+		{0.3f, 0.5f, 0.1f},
+		{0.1f},
+		{0.7f, 0.5f},
+		{0.9f, 0.1f, 0.4f, 0.3f},
+	};
+
+	private static final float[][] Y = {
+		{0.0f, 0.0f},
+		{0.1f, 0.0f, -0.05f},
+		{0.15f},
+		{0.05f, 1.0f},
+		{0.2f, -0.1f, 0.0f, 0.3f},
+	};
+
+	private static final float[][] COEFFS = {
+		{1.0f, -1.0f},
+		{1.0f, -0.5f, 0.4f},
+		{1.0f},
+		{1.0f, -1.0f},
+		{1.0f, 1.0f, -2.0f, 0.5f},
+	};
+
+	private static final float[] CONSTANTS = {-0.95f, -0.15f, 0.0f, 0.3f, 0.25f};
+	private static final float[] WEIGHTS = {1.0f, 1.0f, 2.0f, 2.0f, 0.5f};
+	private static final float[] STEP_SIZES = {1.0f, 0.5f, 1.0f, 2.0f, 1.5f};
+
+	@Before
+	public void setup() {
+		Config.init();
+	}
+
+	@After
+	public void cleanup() {
+		Config.init();
+	}
+
+	@Test
+	public void testKernels() {
+		for (int problem = 0; problem < Z.length; problem++) {
+			for (int type = 0; type < 8; type++) {
+				ADMMObjectiveTerm expected = buildTerm(type, problem);
+
+				PackedADMMTermStore store = new PackedADMMTermStore(1);
+				store.add(null, buildTerm(type, problem));
+
+				expected.updateLagrange(STEP_SIZES[problem], Z[problem]);
+				store.updateLagrange(0, STEP_SIZES[problem], Z[problem]);
+
+				expected.minimize(STEP_SIZES[problem], Z[problem]);
+				store.minimize(0, STEP_SIZES[problem], Z[problem]);
+
+				ADMMObjectiveTerm actual = store.get(0);
+				for (int i = 0; i < Z[problem].length; i++) {
+					String message = String.format("Problem %d, term type %d, variable %d.", problem, type, i);
+					assertEquals(message, expected.variables.get(i).getValue(), actual.variables.get(i).getValue(), 5e-5);
+					assertEquals(message, expected.variables.get(i).getLagrange(), actual.variables.get(i).getLagrange(), 5e-5);
+				}
+
+				assertEquals(expected.evaluate(), store.evaluate(0), 5e-5);
+				assertEquals(expected instanceof LinearConstraintTerm, store.isConstraint(0));
+
+				store.close();
+			}
+		}
+	}
+
+	/**
+	 * Make sure that MPE inference gets the same results with a packed store as it does with the default store.
+	 */
+	@Test
+	public void testInference() {
+		// Avoid randomness so the two runs are comparable.
+		Config.setProperty(ADMMReasoner.INITIAL_CONSENSUS_VALUE_KEY, ADMMReasoner.InitialValue.ZERO.toString());
+		Config.setProperty(ADMMReasoner.INITIAL_LOCAL_VALUE_KEY, ADMMReasoner.InitialValue.ZERO.toString());
+
+		Map<String, Double> expected = runInference();
+
+		Config.setProperty(MPEInference.TERM_STORE_KEY, PackedADMMTermStore.class.getName());
+		Map<String, Double> actual = runInference();
+
+		assertEquals(expected.size(), actual.size());
+		for (Map.Entry<String, Double> entry : expected.entrySet()) {
+			assertEquals(entry.getKey(), entry.getValue().doubleValue(), actual.get(entry.getKey()).doubleValue(), 1e-3);
+		}
+	}
+
+	/**
+	 * A trivial grounding (Foo(a) | !Foo(a)) does not make a term, but its variables still get registered.
+	 * Those variables have no local copies in a packed store and must keep a valid value.
+	 */
+	@Test
+	public void testTrivialGrounding() {
+		Config.setProperty(MPEInference.TERM_STORE_KEY, PackedADMMTermStore.class.getName());
+
+		final StandardPredicate lonely = StandardPredicate.get("PackedLonely", ConstantType.UniqueStringID);
+
+		new InferenceTestRunner<Void>() {
+			@Override
+			protected void prepareModel(TestModelFactory.ModelInformation info) {
+				info.dataStore.registerPredicate(lonely);
+
+				Inserter inserter = info.dataStore.getInserter(lonely, info.targetPartition);
+				inserter.insert("Alice");
+				inserter.insert("Bob");
+
+				// PackedLonely(A) -> PackedLonely(A)
+				info.model.addRule(new WeightedLogicalRule(
+					new Implication(
+						new QueryAtom(lonely, new Variable("A")),
+						new QueryAtom(lonely, new Variable("A"))
+					),
+					1.0,
+					true
+				));
+			}
+
+			@Override
+			protected Void getResult(TestModelFactory.ModelInformation info, Database inferDB, MPEInference mpe) {
+				List<RandomVariableAtom> atoms = new ArrayList<RandomVariableAtom>(inferDB.getAllGroundRandomVariableAtoms(lonely));
+				assertEquals(2, atoms.size());
+
+				atoms.addAll(inferDB.getAllGroundRandomVariableAtoms(info.predicates.get("Friends")));
+				for (RandomVariableAtom atom : atoms) {
+					assertTrue(atom.toString(), atom.getValue() >= 0.0 && atom.getValue() <= 1.0);
+				}
+
+				return null;
+			}
+		}.run();
+	}
+
+	private Map<String, Double> runInference() {
+		return new InferenceTestRunner.FriendsValues().run();
+	}
+
+	private ADMMObjectiveTerm buildTerm(int type, int problem) {
+		List<LocalVariable> variables = new ArrayList<LocalVariable>();
+		List<Float> coeffs = new ArrayList<Float>();
+
+		for (int i = 0; i < Z[problem].length; i++) {
+			variables.add(new LocalVariable(i, Z[problem][i]));
+			variables.get(i).setLagrange(Y[problem][i]);
+			coeffs.add(new Float(COEFFS[problem][i]));
+		}
+
+		float constant = CONSTANTS[problem];
+		float weight = WEIGHTS[problem];
+
+		switch (type) {
+			case 0:
+				return new LinearLossTerm(variables, coeffs, weight);
+			case 1:
+				return new HingeLossTerm(variables, coeffs, constant, weight);
+			case 2:
+				return new SquaredLinearLossTerm(variables, coeffs, constant, weight);
+			case 3:
+				return new SquaredHingeLossTerm(variables, coeffs, constant, weight);
+			case 4:
+				return new LinearConstraintTerm(variables, coeffs, constant, FunctionComparator.Equality);
+			case 5:
+				return new LinearConstraintTerm(variables, coeffs, constant, FunctionComparator.SmallerThan);
+			case 6:
+				return new LinearConstraintTerm(variables, coeffs, constant, FunctionComparator.LargerThan);
+			default:
+				List<Float> ones = new ArrayList<Float>();
+				for (int i = 0; i < variables.size(); i++) {
+					ones.add(new Float(1.0f));
+				}
+				return new SimplexConstraintTerm(variables, ones, variables.size() / 2.0f);
+		}
+	}
+}
@@ -0,0 +1,163 @@
+/*
+ * This file is part of the PSL software.
+ * Copyright 2011-2015 University of Maryland
+ * Copyright 2013-2018 The Regents of the University of California
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.linqs.psl.reasoner.admm.term;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.linqs.psl.InferenceTestRunner;
+import org.linqs.psl.TestModelFactory;
+import org.linqs.psl.application.inference.MPEInference;
+import org.linqs.psl.config.Config;
+import org.linqs.psl.model.rule.arithmetic.UnweightedArithmeticRule;
+import org.linqs.psl.model.rule.arithmetic.expression.ArithmeticRuleExpression;
+import org.linqs.psl.model.rule.arithmetic.expression.SummationAtom;
+import org.linqs.psl.model.rule.arithmetic.expression.SummationAtomOrAtom;
+import org.linqs.psl.model.rule.arithmetic.expression.SummationVariable;
+import org.linqs.psl.model.rule.arithmetic.expression.SummationVariableOrTerm;
+import org.linqs.psl.model.rule.arithmetic.expression.coefficient.Coefficient;
+import org.linqs.psl.model.rule.arithmetic.expression.coefficient.ConstantNumber;
+import org.linqs.psl.model.term.Variable;
+import org.linqs.psl.reasoner.admm.ADMMReasoner;
+import org.linqs.psl.reasoner.function.FunctionComparator;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+public class SimplexConstraintTermTest {
+	@Before
+	public void setup() {
+		Config.init();
+	}
+
+	@After
+	public void cleanup() {
+		Config.init();
+	}
+
+	@Test
+	public void testMinimize() {
+		// Problem 1: Nothing hits a bound.
+		float[] z = {0.9f, 0.8f, 0.1f};
+		float[] y = {0.0f, 0.0f, 0.0f};
+		float[] expected = {0.55f, 0.45f, 0.0f};
+		testProblem(z, y, 1.0f, 1.0f, expected);
+
+		// Problem 2: One variable at the upper bound.
+		z = new float[]{1.0f, 0.2f, 0.1f, 0.0f};
+		y = new float[]{-0.5f, 0.0f, 0.0f, 0.0f};
+		expected = new float[]{1.0f, 0.43333f, 0.33333f, 0.23333f};
+		testProblem(z, y, 2.0f, 1.0f, expected);
+
+		// Problem 3: Same as problem 2, but with a different step size.
+		y = new float[]{-1.0f, -0.2f, 0.0f, 0.0f};
+		expected = new float[]{1.0f, 0.5f, 0.3f, 0.2f};
+		testProblem(z, y, 2.0f, 2.0f, expected);
+
+		// Problem 4: The total can only be reached with everything at the upper bound.
+		z = new float[]{0.3f, 0.2f};
+		y = new float[]{0.0f, 0.0f};
+		expected = new float[]{1.0f, 1.0f};
+		testProblem(z, y, 2.0f, 1.0f, expected);
+	}
+
+	/**
+	 * Infer with a functional constraint (Friends(A, +B) = 1) and make sure that using a simplex term
+	 * gets the same result as using a general linear constraint.
+	 */
+	@Test
+	public void testInference() {
+		// Avoid randomness so the two runs are comparable.
+		Config.setProperty(ADMMReasoner.INITIAL_CONSENSUS_VALUE_KEY, ADMMReasoner.InitialValue.ZERO.toString());
+		Config.setProperty(ADMMReasoner.INITIAL_LOCAL_VALUE_KEY, ADMMReasoner.InitialValue.ZERO.toString());
+
+		Map<String, Double> expected = runInference(false);
+
+		Config.setProperty(ADMMTermGenerator.SIMPLEX_CONSTRAINTS_KEY, "true");
+		Map<String, Double> actual = runInference(true);
+
+		assertEquals(expected.size(), actual.size());
+		for (Map.Entry<String, Double> entry : expected.entrySet()) {
+			assertEquals(entry.getKey(), entry.getValue().doubleValue(), actual.get(entry.getKey()).doubleValue(), 1e-2);
+		}
+
+		Config.setProperty(MPEInference.TERM_STORE_KEY, PackedADMMTermStore.class.getName());
+		actual = runInference(true);
+
+		assertEquals(expected.size(), actual.size());
+		for (Map.Entry<String, Double> entry : expected.entrySet()) {
+			assertEquals(entry.getKey(), entry.getValue().doubleValue(), actual.get(entry.getKey()).doubleValue(), 1e-2);
+		}
+	}
+
+	private void testProblem(float[] z, float[] y, float constant, float stepSize, float[] expected) {
+		List<LocalVariable> variables = new ArrayList<LocalVariable>(z.length);
+		List<Float> coeffs = new ArrayList<Float>(z.length);
+
+		for (int i = 0; i < z.length; i++) {
+			variables.add(new LocalVariable(i, z[i]));
+			variables.get(i).setLagrange(y[i]);
+			coeffs.add(new Float(1.0f));
+		}
+
+		SimplexConstraintTerm term = new SimplexConstraintTerm(variables, coeffs, constant);
+		term.minimize(stepSize, z);
+
+		for (int i = 0; i < z.length; i++) {
+			assertEquals(expected[i], variables.get(i).getValue(), 5e-5);
+		}
+	}
+
+	private Map<String, Double> runInference(final boolean expectSimplex) {
+		return new InferenceTestRunner.FriendsValues() {
+			@Override
+			protected void prepareModel(TestModelFactory.ModelInformation info) {
+				// Friends(A, +B) = 1.0
+				List<Coefficient> coefficients = Arrays.asList(
+					(Coefficient)(new ConstantNumber(1.0))
+				);
+
+				List<SummationAtomOrAtom> atoms = Arrays.asList(
+					(SummationAtomOrAtom)(new SummationAtom(
+						info.predicates.get("Friends"),
+						new SummationVariableOrTerm[]{new Variable("A"), new SummationVariable("B")}
+					))
+				);
+
+				info.model.addRule(new UnweightedArithmeticRule(
+					new ArithmeticRuleExpression(coefficients, atoms, FunctionComparator.Equality, new ConstantNumber(1.0))
+				));
+			}
+
+			@Override
+			protected void beforeInference(TestModelFactory.ModelInformation info, MPEInference mpe) {
+				boolean sawSimplex = false;
+				for (ADMMObjectiveTerm term : (ADMMTermStore)mpe.getTermStore()) {
+					sawSimplex |= (term instanceof SimplexConstraintTerm);
+				}
+				assertEquals(expectSimplex, sawSimplex);
+			}
+		}.run();
+	}
+}
@@ -41,6 +41,50 @@ public class SquaredLinearLossTermTest {
 		testProblem(z, y, coeffs, constant, weight, stepSize, expected);
 	}
 
+	/**
+	 * Large terms (like arithmetic rules with many summation atoms) have no closed form expected values here,
+	 * so just check the optimality condition: 2 * weight * coeffs * (coeffs^T * x - constant) + stepSize * (x - z + y / stepSize) = 0.
+	 * The weight and step size are changed between minimizations.
+	 */
+	@Test
+	public void testLargeHyperplane() {
+		int size = 150;
+
+		float[] z = new float[size];
+		List<LocalVariable> variables = new ArrayList<LocalVariable>(size);
+		List<Float> coeffs = new ArrayList<Float>(size);
+
+		for (int i = 0; i < size; i++) {
+			z[i] = (i % 10) / 10.0f;
+			variables.add(new LocalVariable(i, z[i]));
+			variables.get(i).setLagrange(((i % 7) - 3) / 100.0f);
+			coeffs.add(new Float((i % 2 == 0) ? 1.0f : -0.5f));
+		}
+
+		SquaredLinearLossTerm term = new SquaredLinearLossTerm(variables, coeffs, 2.0f, 0.5f);
+
+		float[] weights = {0.5f, 3.0f, 0.0f};
+		float[] stepSizes = {1.0f, 0.25f, 2.0f};
+
+		for (int round = 0; round < weights.length; round++) {
+			term.setWeight(weights[round]);
+			term.minimize(stepSizes[round], z);
+
+			// coeffs^T * x - constant
+			float residual = -2.0f;
+			for (int i = 0; i < size; i++) {
+				residual += coeffs.get(i).floatValue() * variables.get(i).getValue();
+			}
+
+			for (int i = 0; i < size; i++) {
+				LocalVariable variable = variables.get(i);
+				float gradient = 2.0f * weights[round] * coeffs.get(i).floatValue() * residual
+						+ stepSizes[round] * (variable.getValue() - z[i]) + variable.getLagrange();
+				assertEquals(0.0f, gradient, 1e-4);
+			}
+		}
+	}
+
 	private void testProblem(float[] z, float[] y, float[] coeffs, float constant,
 			float weight, final float stepSize, float[] expected) {
 		List<LocalVariable> variables = new ArrayList<LocalVariable>(z.length);
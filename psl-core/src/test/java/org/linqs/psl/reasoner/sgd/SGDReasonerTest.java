@@ -0,0 +1,177 @@
+/*
+ * This file is part of the PSL software.
+ * Copyright 2011-2015 University of Maryland
+ * Copyright 2013-2018 The Regents of the University of California
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.linqs.psl.reasoner.sgd;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.linqs.psl.InferenceTestRunner;
+import org.linqs.psl.TestModelFactory;
+import org.linqs.psl.application.inference.InferenceApplication;
+import org.linqs.psl.application.inference.MPEInference;
+import org.linqs.psl.config.Config;
+import org.linqs.psl.database.Database;
+import org.linqs.psl.model.predicate.StandardPredicate;
+import org.linqs.psl.reasoner.sgd.term.DiskSGDTermStore;
+import org.linqs.psl.reasoner.sgd.term.SGDObjectiveTerm;
+import org.linqs.psl.reasoner.sgd.term.SGDTermGenerator;
+import org.linqs.psl.reasoner.sgd.term.SGDTermStore;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.HashSet;
+
+public class SGDReasonerTest {
+	@Before
+	public void setup() {
+		Config.init();
+	}
+
+	@After
+	public void cleanup() {
+		Config.init();
+	}
+
+	/**
+	 * SGD should get close to the objective that ADMM finds.
+	 */
+	@Test
+	public void testAdaGrad() {
+		double expected = runInference();
+
+		useSGD();
+		double actual = runInference();
+		assertEquals(expected, actual, 0.05 * Math.max(1.0, Math.abs(expected)));
+	}
+
+	@Test
+	public void testStandardStepRule() {
+		double expected = runInference();
+
+		useSGD();
+		Config.setProperty(SGDReasoner.STEP_RULE_KEY, SGDReasoner.StepRule.STANDARD.toString());
+		Config.setProperty(SGDReasoner.LEARNING_RATE_KEY, "0.1");
+		double actual = runInference();
+		assertEquals(expected, actual, 0.05 * Math.max(1.0, Math.abs(expected)));
+	}
+
+	/**
+	 * Generate the terms while grounding.
+	 */
+	@Test
+	public void testStreamTerms() {
+		useSGD();
+		double expected = runInference();
+
+		Config.setProperty(MPEInference.STREAM_TERMS_KEY, "true");
+		double actual = runInference();
+		assertEquals(expected, actual, 0.01 * Math.max(1.0, Math.abs(expected)));
+
+		// The terms should match the ground rules.
+		actual = runInference(false);
+		assertEquals(expected, actual, 0.01 * Math.max(1.0, Math.abs(expected)));
+	}
+
+	/**
+	 * Keep the terms on disk (in many small pages).
+	 */
+	@Test
+	public void testDiskTermStore() {
+		useSGD();
+		double expected = runInference();
+
+		Config.setProperty(InferenceApplication.TERM_STORE_KEY, DiskSGDTermStore.class.getName());
+		Config.setProperty(DiskSGDTermStore.PAGE_SIZE_KEY, "128");
+		double actual = runInference();
+		assertEquals(expected, actual, 0.01 * Math.max(1.0, Math.abs(expected)));
+
+		Config.setProperty(MPEInference.STREAM_TERMS_KEY, "true");
+		actual = runInference();
+		assertEquals(expected, actual, 0.01 * Math.max(1.0, Math.abs(expected)));
+	}
+
+	@Test
+	public void testTermStore() {
+		useSGD();
+
+		TestModelFactory.ModelInformation info = TestModelFactory.getModel();
+
+		Database inferDB = info.dataStore.getDatabase(info.targetPartition, new HashSet<StandardPredicate>(), info.observationPartition);
+		MPEInference mpe = new MPEInference(info.model, inferDB);
+
+		SGDTermStore termStore = (SGDTermStore)mpe.getTermStore();
+		assertTrue(termStore.size() > 0);
+
+		int count = 0;
+		float[] values = new float[termStore.getNumVariables()];
+		termStore.getAtomValues(values);
+
+		for (SGDObjectiveTerm term : termStore) {
+			assertTrue(term.size() > 0);
+			for (int i = 0; i < term.size(); i++) {
+				assertTrue(term.getVariableIndex(i) >= 0 && term.getVariableIndex(i) < termStore.getNumVariables());
+			}
+
+			assertEquals(termStore.evaluate(count, values), term.evaluate(values), 1e-5);
+			count++;
+		}
+		assertEquals(termStore.size(), count);
+
+		mpe.close();
+		inferDB.close();
+		info.dataStore.close();
+	}
+
+	private void useSGD() {
+		Config.setProperty(InferenceApplication.REASONER_KEY, SGDReasoner.class.getName());
+		Config.setProperty(InferenceApplication.TERM_STORE_KEY, SGDTermStore.class.getName());
+		Config.setProperty(InferenceApplication.TERM_GENERATOR_KEY, SGDTermGenerator.class.getName());
+	}
+
+	private double runInference() {
+		return runInference(true);
+	}
+
+	/**
+	 * @param groundRuleObjective get the objective from the ground rules, otherwise from the (SGD) terms.
+	 */
+	private double runInference(final boolean groundRuleObjective) {
+		return new InferenceTestRunner.Objective() {
+			@Override
+			protected Double getResult(TestModelFactory.ModelInformation info, Database inferDB, MPEInference mpe) {
+				if (groundRuleObjective) {
+					return super.getResult(info, inferDB, mpe);
+				}
+
+				SGDTermStore termStore = (SGDTermStore)mpe.getTermStore();
+
+				float[] values = new float[termStore.getNumVariables()];
+				termStore.getAtomValues(values);
+
+				double objective = 0.0;
+				for (int i = 0; i < termStore.size(); i++) {
+					objective += termStore.evaluate(i, values);
+				}
+
+				return new Double(objective);
+			}
+		}.run().doubleValue();
+	}
+}
@@ -0,0 +1,145 @@
+/*
+ * This file is part of the PSL software.
+ * Copyright 2011-2015 University of Maryland
+ * Copyright 2013-2018 The Regents of the University of California
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.linqs.psl.reasoner.sgd.term;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import org.linqs.psl.config.Config;
+import org.linqs.psl.reasoner.sgd.term.SGDObjectiveTerm.TermType;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+public class DiskSGDTermStoreTest {
+	private static final int NUM_TERMS = 200;
+	private static final int NUM_VARIABLES = 20;
+
+	@Before
+	public void setup() {
+		Config.init();
+	}
+
+	@After
+	public void cleanup() {
+		Config.init();
+	}
+
+	/**
+	 * Use small pages (some terms will be larger than a page) and a sparse index, and make sure that
+	 * the disk store gives back the same terms (in and out of order) and takes the same steps as an in-memory store.
+	 */
+	@Test
+	public void testPages() {
+		Config.setProperty(DiskSGDTermStore.PAGE_SIZE_KEY, "64");
+		Config.setProperty(DiskSGDTermStore.INDEX_STRIDE_KEY, "5");
+
+		Random random = new Random(4);
+
+		SGDTermStore memoryStore = new SGDTermStore();
+		DiskSGDTermStore diskStore = new DiskSGDTermStore();
+
+		List<SGDObjectiveTerm> terms = new ArrayList<SGDObjectiveTerm>();
+		for (int i = 0; i < NUM_TERMS; i++) {
+			int size = 1 + random.nextInt(8);
+
+			int[] variableIndices = new int[size];
+			float[] coefficients = new float[size];
+			for (int j = 0; j < size; j++) {
+				variableIndices[j] = random.nextInt(NUM_VARIABLES);
+				coefficients[j] = random.nextFloat() * 2.0f - 1.0f;
+			}
+
+			SGDObjectiveTerm term = new SGDObjectiveTerm(TermType.values()[i % TermType.values().length],
+					variableIndices, coefficients, random.nextFloat(), random.nextFloat());
+
+			terms.add(term);
+			memoryStore.add(null, term);
+			diskStore.add(null, term);
+		}
+
+		assertEquals(NUM_TERMS, diskStore.size());
+		diskStore.flush();
+
+		// In order.
+		Iterator<SGDObjectiveTerm> iterator = diskStore.iterator();
+		for (int i = 0; i < NUM_TERMS; i++) {
+			assertTermEquals(terms.get(i), iterator.next());
+		}
+		assertFalse(iterator.hasNext());
+
+		// Out of order.
+		for (int i = NUM_TERMS - 1; i >= 0; i -= 3) {
+			assertTermEquals(terms.get(i), diskStore.get(i));
+		}
+
+		// Adding after reading.
+		SGDObjectiveTerm extraTerm = new SGDObjectiveTerm(TermType.HINGE_LOSS, new int[]{0, 1}, new float[]{1.0f, -1.0f}, 0.0f, 1.0f);
+		terms.add(extraTerm);
+		memoryStore.add(null, extraTerm);
+		diskStore.add(null, extraTerm);
+		diskStore.flush();
+		assertTermEquals(extraTerm, diskStore.get(NUM_TERMS));
+
+		float[] memoryValues = new float[NUM_VARIABLES];
+		float[] diskValues = new float[NUM_VARIABLES];
+		float[] memoryGradients = new float[NUM_VARIABLES];
+		float[] diskGradients = new float[NUM_VARIABLES];
+		for (int i = 0; i < NUM_VARIABLES; i++) {
+			memoryValues[i] = random.nextFloat();
+			diskValues[i] = memoryValues[i];
+		}
+
+		for (int round = 0; round < 3; round++) {
+			for (int i = 0; i < terms.size(); i++) {
+				assertEquals(memoryStore.evaluate(i, memoryValues), diskStore.evaluate(i, diskValues), 1e-6);
+				assertEquals(memoryStore.step(i, memoryValues, memoryGradients, 0.1f),
+						diskStore.step(i, diskValues, diskGradients, 0.1f), 1e-6);
+			}
+		}
+
+		for (int i = 0; i < NUM_VARIABLES; i++) {
+			assertEquals(memoryValues[i], diskValues[i], 1e-6);
+		}
+
+		diskStore.clear();
+		assertEquals(0, diskStore.size());
+		assertFalse(diskStore.iterator().hasNext());
+
+		memoryStore.close();
+		diskStore.close();
+	}
+
+	private void assertTermEquals(SGDObjectiveTerm expected, SGDObjectiveTerm actual) {
+		assertEquals(expected.getType(), actual.getType());
+		assertEquals(expected.size(), actual.size());
+		assertEquals(expected.getWeight(), actual.getWeight(), 0.0f);
+		assertEquals(expected.getConstant(), actual.getConstant(), 0.0f);
+
+		for (int i = 0; i < expected.size(); i++) {
+			assertEquals(expected.getVariableIndex(i), actual.getVariableIndex(i));
+			assertEquals(expected.getCoefficient(i), actual.getCoefficient(i), 0.0f);
+		}
+	}
+}
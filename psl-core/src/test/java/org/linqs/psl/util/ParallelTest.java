@@ -0,0 +1,217 @@
+/*
+ * This file is part of the PSL software.
+ * Copyright 2011-2015 University of Maryland
+ * Copyright 2013-2018 The Regents of the University of California
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.linqs.psl.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+public class ParallelTest {
+	private static final int NUM_ITEMS = 1000;
+	private static final int NUM_CALLERS = 4;
+
+	@Test
+	public void testCount() {
+		AtomicIntegerArray visits = new AtomicIntegerArray(NUM_ITEMS);
+		Parallel.count(NUM_ITEMS, new VisitWorker(visits));
+		assertVisitedOnce(visits, 0, NUM_ITEMS, 1);
+
+		// Start, end, and increment.
+		visits = new AtomicIntegerArray(NUM_ITEMS);
+		Parallel.count(10, NUM_ITEMS - 5, 3, new VisitWorker(visits));
+		assertVisitedOnce(visits, 10, NUM_ITEMS - 5, 3);
+
+		// Less work than threads.
+		visits = new AtomicIntegerArray(NUM_ITEMS);
+		Parallel.count(1, new VisitWorker(visits));
+		assertVisitedOnce(visits, 0, 1, 1);
+
+		// No work.
+		visits = new AtomicIntegerArray(NUM_ITEMS);
+		Parallel.count(5, 5, new VisitWorker(visits));
+		assertVisitedOnce(visits, 0, 0, 1);
+	}
+
+	@Test
+	public void testForeach() {
+		final List<Integer> items = new ArrayList<Integer>();
+		for (int i = 0; i < NUM_ITEMS; i++) {
+			items.add(Integer.valueOf(NUM_ITEMS - i - 1));
+		}
+
+		// A random access list.
+		checkForeach(items, NUM_ITEMS);
+
+		// A collection without random access.
+		checkForeach(new LinkedList<Integer>(items), NUM_ITEMS);
+
+		// An iterable without a size.
+		checkForeach(new Iterable<Integer>() {
+			@Override
+			public Iterator<Integer> iterator() {
+				return items.iterator();
+			}
+		}, NUM_ITEMS);
+
+		// No work.
+		checkForeach(new ArrayList<Integer>(), 0);
+		checkForeach(new Iterable<Integer>() {
+			@Override
+			public Iterator<Integer> iterator() {
+				return Collections.<Integer>emptyList().iterator();
+			}
+		}, 0);
+	}
+
+	/**
+	 * Workers that make their own parallel calls.
+	 */
+	@Test
+	public void testNested() {
+		final AtomicIntegerArray visits = new AtomicIntegerArray(NUM_ITEMS * NUM_ITEMS / 10);
+		Parallel.count(NUM_ITEMS / 10, new Parallel.Worker<Integer>() {
+			@Override
+			public void work(final int outerIndex, Integer ignore) {
+				Parallel.count(NUM_ITEMS, new Parallel.Worker<Integer>() {
+					@Override
+					public void work(int innerIndex, Integer ignore) {
+						visits.incrementAndGet(outerIndex * NUM_ITEMS + innerIndex);
+					}
+				});
+			}
+		});
+
+		assertVisitedOnce(visits, 0, visits.length(), 1);
+	}
+
+	/**
+	 * Parallel calls from several threads at once.
+	 */
+	@Test
+	public void testConcurrentCallers() {
+		final AtomicIntegerArray visits = new AtomicIntegerArray(NUM_ITEMS * NUM_CALLERS);
+		final List<Throwable> errors = Collections.synchronizedList(new ArrayList<Throwable>());
+
+		Thread[] callers = new Thread[NUM_CALLERS];
+		for (int i = 0; i < NUM_CALLERS; i++) {
+			final int caller = i;
+			callers[i] = new Thread() {
+				@Override
+				public void run() {
+					try {
+						Parallel.count(caller * NUM_ITEMS, (caller + 1) * NUM_ITEMS, new VisitWorker(visits));
+					} catch (Throwable ex) {
+						errors.add(ex);
+					}
+				}
+			};
+		}
+
+		for (Thread caller : callers) {
+			caller.start();
+		}
+
+		for (Thread caller : callers) {
+			try {
+				caller.join();
+			} catch (InterruptedException ex) {
+				fail("Interrupted.");
+			}
+		}
+
+		assertEquals(new ArrayList<Throwable>(), errors);
+		assertVisitedOnce(visits, 0, visits.length(), 1);
+	}
+
+	@Test
+	public void testWorkerIds() {
+		final AtomicIntegerArray ids = new AtomicIntegerArray(NUM_ITEMS);
+		Parallel.count(NUM_ITEMS, new Parallel.Worker<Integer>() {
+			@Override
+			public void work(int index, Integer ignore) {
+				ids.set(index, id);
+			}
+		});
+
+		for (int i = 0; i < NUM_ITEMS; i++) {
+			assertTrue(ids.get(i) >= 0 && ids.get(i) < Parallel.getNumThreads());
+		}
+	}
+
+	@Test
+	public void testException() {
+		try {
+			Parallel.count(NUM_ITEMS, new Parallel.Worker<Integer>() {
+				@Override
+				public void work(int index, Integer ignore) {
+					if (index == NUM_ITEMS / 2) {
+						throw new IllegalStateException("Expected.");
+					}
+				}
+			});
+			fail("Exception on worker was not passed on.");
+		} catch (RuntimeException ex) {
+			assertTrue(ex.getCause() instanceof IllegalStateException);
+		}
+	}
+
+	/**
+	 * The items should be NUM_ITEMS - index - 1.
+	 */
+	private void checkForeach(Iterable<Integer> items, int numItems) {
+		final AtomicIntegerArray visits = new AtomicIntegerArray(NUM_ITEMS);
+		Parallel.foreach(items, new Parallel.Worker<Integer>() {
+			@Override
+			public void work(int index, Integer item) {
+				assertEquals(NUM_ITEMS - index - 1, item.intValue());
+				visits.incrementAndGet(item.intValue());
+			}
+		});
+
+		assertVisitedOnce(visits, NUM_ITEMS - numItems, NUM_ITEMS, 1);
+	}
+
+	private void assertVisitedOnce(AtomicIntegerArray visits, int start, int end, int increment) {
+		for (int i = 0; i < visits.length(); i++) {
+			boolean expected = (i >= start && i < end && (i - start) % increment == 0);
+			assertEquals("Index: " + i, expected ? 1 : 0, visits.get(i));
+		}
+	}
+
+	private static class VisitWorker extends Parallel.Worker<Integer> {
+		private final AtomicIntegerArray visits;
+
+		public VisitWorker(AtomicIntegerArray visits) {
+			this.visits = visits;
+		}
+
+		@Override
+		public void work(int index, Integer ignore) {
+			visits.incrementAndGet(index);
+		}
+	}
+}
@@ -0,0 +1,79 @@
+/*
+ * This file is part of the PSL software.
+ * Copyright 2011-2015 University of Maryland
+ * Copyright 2013-2018 The Regents of the University of California
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.linqs.psl.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class RandomStreamTest {
+	private static final int NUM_DRAWS = 10000;
+
+	@Test
+	public void testReproducible() {
+		RandomStream first = new RandomStream(4, 7);
+		RandomStream second = new RandomStream(4, 7);
+
+		for (int i = 0; i < NUM_DRAWS; i++) {
+			assertEquals(first.nextLong(), second.nextLong());
+		}
+	}
+
+	@Test
+	public void testDistinctStreams() {
+		// Adjacent ids and adjacent seeds should all start differently.
+		long[] firstValues = new long[]{
+			new RandomStream(4, 0).nextLong(),
+			new RandomStream(4, 1).nextLong(),
+			new RandomStream(5, 0).nextLong(),
+			new RandomStream(5, 1).nextLong(),
+		};
+
+		for (int i = 0; i < firstValues.length; i++) {
+			for (int j = i + 1; j < firstValues.length; j++) {
+				assertNotEquals(firstValues[i], firstValues[j]);
+			}
+		}
+	}
+
+	@Test
+	public void testRanges() {
+		RandomStream rand = new RandomStream(4, 0);
+
+		double floatTotal = 0.0;
+		int[] intCounts = new int[3];
+
+		for (int i = 0; i < NUM_DRAWS; i++) {
+			float floatValue = rand.nextFloat();
+			assertTrue(floatValue >= 0.0f && floatValue < 1.0f);
+			floatTotal += floatValue;
+
+			double doubleValue = rand.nextDouble();
+			assertTrue(doubleValue >= 0.0 && doubleValue < 1.0);
+
+			intCounts[rand.nextInt(intCounts.length)]++;
+		}
+
+		assertEquals(0.5, floatTotal / NUM_DRAWS, 0.05);
+		for (int count : intCounts) {
+			assertEquals(NUM_DRAWS / (double)intCounts.length, count, NUM_DRAWS * 0.05);
+		}
+	}
+}